@@ -0,0 +1,53 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.client;
+
+import java.util.Map;
+
+/**
+ * Listener for monitoring a batch of boards being shuffled together. Each board is shuffled as an operation of its
+ * own, so progress is reported board by board: status() and failed() objects carry the board name, completed() is
+ * called once every board has finished, and failed() is also called at the end if any board did not complete.
+ */
+public interface BatchShuffleOperationListener
+    extends ShuffleOperationListener
+{
+    /**
+     * Called to pass in the seed commitments for one board in the batch. The operation number is the one the
+     * board's shuffle transcripts are filed under.
+     *
+     * @param boardName the name of the board the commitments are for.
+     * @param operationNumber the operation number of the board's shuffle.
+     * @param seedCommitments a map of node name, byte[] pairs as for ShuffleOperationListener.commit().
+     */
+    void commit(String boardName, long operationNumber, Map<String, byte[]> seedCommitments);
+
+    /**
+     * Called when the shuffle of a single board in the batch has completed.
+     *
+     * @param boardName the name of the board.
+     * @param operationNumber the operation number of the board's shuffle.
+     */
+    void boardCompleted(String boardName, long operationNumber);
+
+    /**
+     * Called when the shuffle of a single board in the batch has failed.
+     *
+     * @param boardName the name of the board.
+     * @param errorObject details of the failure.
+     */
+    void boardFailed(String boardName, ShuffleStatus errorObject);
+}
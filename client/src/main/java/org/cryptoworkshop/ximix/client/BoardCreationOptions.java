@@ -28,6 +28,7 @@ public class BoardCreationOptions
         private final String boardHost;
 
         private String backUpHost;
+        private boolean pointCompression;
 
         /**
          * Basic constructor - specify which host is to carry the board.
@@ -52,6 +53,21 @@ public class BoardCreationOptions
             return this;
         }
 
+        /**
+         * Specify whether EC points produced for the board, such as the re-encrypted messages from a shuffle,
+         * should be encoded in compressed form. Compressed points are about half the size, but cost a square
+         * root to decode.
+         *
+         * @param pointCompression true if points should be compressed, false otherwise.
+         * @return the current builder.
+         */
+        public Builder withPointCompression(boolean pointCompression)
+        {
+            this.pointCompression = pointCompression;
+
+            return this;
+        }
+
         public BoardCreationOptions build()
         {
             return new BoardCreationOptions(this);
@@ -60,11 +76,13 @@ public class BoardCreationOptions
 
     private final String boardHost;
     private final String backUpHost;
+    private final boolean pointCompression;
 
     private BoardCreationOptions(Builder builder)
     {
         this.boardHost = builder.boardHost;
         this.backUpHost = builder.backUpHost;
+        this.pointCompression = builder.pointCompression;
     }
 
     /**
@@ -86,4 +104,14 @@ public class BoardCreationOptions
     {
         return backUpHost;
     }
+
+    /**
+     * Return whether EC points produced for the board are compressed.
+     *
+     * @return true if points are compressed, false otherwise.
+     */
+    public boolean isPointCompression()
+    {
+        return pointCompression;
+    }
 }
@@ -28,6 +28,8 @@ public class DownloadOptions
         private String keyID;
         private int threshold;
         private String[] nodesToUse = new String[0];
+        private boolean snapshot;
+        private int blockSize;
 
         /**
          * Base constructor
@@ -76,6 +78,34 @@ public class DownloadOptions
             return this;
         }
 
+        /**
+         * Flag that the board should be read from a snapshot rather than emptied as it is downloaded. A snapshot
+         * download leaves the board as it is, can be run by several clients at once, and picks up where it left
+         * off if the connection to the board's host is lost part way through.
+         *
+         * @param snapshot true if the board should be left intact.
+         * @return the current builder instance.
+         */
+        public Builder withSnapshot(boolean snapshot)
+        {
+            this.snapshot = snapshot;
+
+            return this;
+        }
+
+        /**
+         * Set the number of messages to ask for in each request. The board's host may send back fewer.
+         *
+         * @param blockSize the number of messages per request.
+         * @return the current builder instance.
+         */
+        public Builder withBlockSize(int blockSize)
+        {
+            this.blockSize = blockSize;
+
+            return this;
+        }
+
         /**
          * Build an actual download options object suitable for use with services supporting the download operation.
          *
@@ -90,12 +120,16 @@ public class DownloadOptions
     private final String keyID;
     private final int threshold;
     private final String[] nodesToUse;
+    private final boolean snapshot;
+    private final int blockSize;
 
     private DownloadOptions(Builder builder)
     {
         this.keyID = builder.keyID;
         this.threshold = builder.threshold;
         this.nodesToUse = builder.nodesToUse.clone();
+        this.snapshot = builder.snapshot;
+        this.blockSize = builder.blockSize;
     }
 
     /**
@@ -127,4 +161,24 @@ public class DownloadOptions
     {
         return nodesToUse.clone();
     }
+
+    /**
+     * Return true if the board is to be downloaded from a snapshot, leaving its contents in place.
+     *
+     * @return true for a snapshot download, false if messages are removed as they are downloaded.
+     */
+    public boolean isSnapshot()
+    {
+        return snapshot;
+    }
+
+    /**
+     * Return the number of messages to ask for in each request.
+     *
+     * @return the block size, 0 if the default for the download mode should be used.
+     */
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
 }
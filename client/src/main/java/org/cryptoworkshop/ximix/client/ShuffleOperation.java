@@ -38,4 +38,22 @@ public interface ShuffleOperation
             ShuffleOperationListener defaultListener,
             String... nodes)
         throws ServiceConnectionException;
+
+    /**
+     * Shuffle a batch of boards along the same node path. The boards are pipelined, so while one node is shuffling
+     * one board the node before it can be shuffling the next, with no node shuffling more than
+     * options.getMaxBoardsPerNode() boards at once. Each board gets its own operation number.
+     *
+     * @param boardNames the boards to shuffle.
+     * @param options applicable shuffle options to use.
+     * @param defaultListener initial listener to monitor the batch.
+     * @param nodes the node path to use.
+     * @throws org.cryptoworkshop.ximix.client.connection.ServiceConnectionException
+     */
+    Operation<BatchShuffleOperationListener> doShuffleAndMove(
+            String[] boardNames,
+            ShuffleOptions options,
+            BatchShuffleOperationListener defaultListener,
+            String... nodes)
+        throws ServiceConnectionException;
 }
@@ -20,6 +20,8 @@ package org.cryptoworkshop.ximix.client;
  */
 public class ShuffleOptions
 {
+    private static final long DEFAULT_STATUS_TIMEOUT = 30 * 60 * 1000;
+
     /**
      * Public builder for creating shuffle option objects.
      */
@@ -28,6 +30,9 @@ public class ShuffleOptions
         private final String transformName;
 
         private String keyID;
+        private boolean isStreaming;
+        private int maxBoardsPerNode = 1;
+        private long statusTimeout = DEFAULT_STATUS_TIMEOUT;
 
         /**
          * Base constructor
@@ -52,6 +57,59 @@ public class ShuffleOptions
             return this;
         }
 
+        /**
+         * Set whether or not the shuffle should stream, with each node re-encrypting messages as they arrive from the
+         * previous one and passing the board on as soon as the last of them has arrived, rather than waiting on the
+         * client between steps.
+         *
+         * @param isStreaming true if the shuffle should stream, false otherwise.
+         * @return the current builder instance.
+         */
+        public Builder withStreaming(boolean isStreaming)
+        {
+            this.isStreaming = isStreaming;
+
+            return this;
+        }
+
+        /**
+         * Set the maximum number of boards a single node will be asked to shuffle at the same time when a batch of
+         * boards is being shuffled. The default is 1.
+         *
+         * @param maxBoardsPerNode the maximum number of boards any one node is shuffling at once.
+         * @return the current builder instance.
+         */
+        public Builder withMaxBoardsPerNode(int maxBoardsPerNode)
+        {
+            if (maxBoardsPerNode < 1)
+            {
+                throw new IllegalArgumentException("maxBoardsPerNode must be at least 1");
+            }
+
+            this.maxBoardsPerNode = maxBoardsPerNode;
+
+            return this;
+        }
+
+        /**
+         * Set the longest the client will wait for a node to report a board has arrived, or has been returned, before
+         * giving up on the shuffle. The default is 30 minutes.
+         *
+         * @param statusTimeout the maximum wait for a board status in milliseconds.
+         * @return the current builder instance.
+         */
+        public Builder withStatusTimeout(long statusTimeout)
+        {
+            if (statusTimeout <= 0)
+            {
+                throw new IllegalArgumentException("statusTimeout must be greater than 0");
+            }
+
+            this.statusTimeout = statusTimeout;
+
+            return this;
+        }
+
         /**
          * Build an actual shuffle options object suitable for use with services supporting the shuffle operation.
          *
@@ -65,11 +123,17 @@ public class ShuffleOptions
 
     private final String transformName;
     private final String keyID;
+    private final boolean isStreaming;
+    private final int maxBoardsPerNode;
+    private final long statusTimeout;
 
     private ShuffleOptions(Builder builder)
     {
         this.transformName = builder.transformName;
         this.keyID = builder.keyID;
+        this.isStreaming = builder.isStreaming;
+        this.maxBoardsPerNode = builder.maxBoardsPerNode;
+        this.statusTimeout = builder.statusTimeout;
     }
 
     /**
@@ -91,4 +155,34 @@ public class ShuffleOptions
     {
         return  keyID;
     }
+
+    /**
+     * Return whether or not the shuffle should stream between nodes.
+     *
+     * @return true if the shuffle streams, false otherwise.
+     */
+    public boolean isStreaming()
+    {
+        return isStreaming;
+    }
+
+    /**
+     * Return the maximum number of boards a node will shuffle at once in a batch shuffle.
+     *
+     * @return the per node board limit.
+     */
+    public int getMaxBoardsPerNode()
+    {
+        return maxBoardsPerNode;
+    }
+
+    /**
+     * Return the longest the client will wait for a node to report a board's status.
+     *
+     * @return the status timeout in milliseconds.
+     */
+    public long getStatusTimeout()
+    {
+        return statusTimeout;
+    }
 }
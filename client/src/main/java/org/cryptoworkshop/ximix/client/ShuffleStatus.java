@@ -10,23 +10,37 @@ public class ShuffleStatus
     private final String nodeName;
     private final int stepNo;
     private final Throwable cause;
+    private final String boardName;
 
     public ShuffleStatus(String message, String nodeName, int stepNo)
     {
-        this.errorStatus = false;
-        this.message = message;
-        this.nodeName = nodeName;
-        this.stepNo = stepNo;
-        this.cause = null;
+        this(false, message, nodeName, stepNo, null, null);
     }
 
     public ShuffleStatus(String message, String nodeName, Throwable cause)
     {
-        this.errorStatus = true;
+        this(true, message, nodeName, -1, cause, null);
+    }
+
+    private ShuffleStatus(boolean errorStatus, String message, String nodeName, int stepNo, Throwable cause, String boardName)
+    {
+        this.errorStatus = errorStatus;
         this.message = message;
         this.nodeName = nodeName;
-        this.stepNo = -1;
+        this.stepNo = stepNo;
         this.cause = cause;
+        this.boardName = boardName;
+    }
+
+    /**
+     * Return a copy of this status tagged with the board it is for, as used when several boards are shuffled together.
+     *
+     * @param boardName the name of the board the status is for.
+     * @return a new status object.
+     */
+    public ShuffleStatus forBoard(String boardName)
+    {
+        return new ShuffleStatus(errorStatus, message, nodeName, stepNo, cause, boardName);
     }
 
     public boolean isErrorStatus()
@@ -53,4 +67,14 @@ public class ShuffleStatus
     {
         return cause;
     }
+
+    /**
+     * Return the name of the board the status is for, if the status came from a batch shuffle.
+     *
+     * @return the board name, null if not set.
+     */
+    public String getBoardName()
+    {
+        return boardName;
+    }
 }
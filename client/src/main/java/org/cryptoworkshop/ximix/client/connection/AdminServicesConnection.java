@@ -45,4 +45,16 @@ public interface AdminServicesConnection
      */
     MessageReply sendMessage(String nodeName, MessageType type, ASN1Encodable messagePayload)
         throws ServiceConnectionException;
+
+    /**
+     * Open a bulk transfer to a specific node.
+     *
+     * @param nodeName node the stream is to be sent to.
+     * @param type type of the message introducing the stream.
+     * @param messagePayload the data making up the message payload.
+     * @return a channel for the stream data, or null if the node does not support bulk transfers.
+     * @throws ServiceConnectionException in case of network failure, or if the node rejects the message.
+     */
+    BulkTransferChannel openBulkTransfer(String nodeName, MessageType type, ASN1Encodable messagePayload)
+        throws ServiceConnectionException;
 }
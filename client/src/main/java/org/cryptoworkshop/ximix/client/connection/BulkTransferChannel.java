@@ -0,0 +1,63 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.client.connection;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+
+/**
+ * A raw data stream to a single node, opened by a normal command exchange on a connection of its own. Data written
+ * to the channel goes straight to the node without being wrapped in messages, and is checked against a checksum when
+ * the channel is closed.
+ */
+public interface BulkTransferChannel
+{
+    /**
+     * Send the remaining contents of a buffer.
+     *
+     * @param data the data to send.
+     * @throws ServiceConnectionException in case of network failure.
+     */
+    void write(ByteBuffer data)
+        throws ServiceConnectionException;
+
+    /**
+     * Send a region of a file. The file's position is not changed.
+     *
+     * @param file the file to send data from.
+     * @param position the position in the file the data starts at.
+     * @param count the number of bytes to send.
+     * @throws ServiceConnectionException in case of network failure, or if the file cannot be read.
+     */
+    void transferFrom(FileChannel file, long position, long count)
+        throws ServiceConnectionException;
+
+    /**
+     * Mark the end of the stream and wait for the node to confirm it has been received intact.
+     *
+     * @return the node's reply for the stream.
+     * @throws ServiceConnectionException in case of network failure.
+     */
+    MessageReply close()
+        throws ServiceConnectionException;
+
+    /**
+     * Abandon the stream - the node will discard whatever it has received.
+     */
+    void abort();
+}
@@ -25,8 +25,11 @@ import java.io.OutputStream;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -38,11 +41,14 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1InputStream;
@@ -59,6 +65,7 @@ import org.bouncycastle.crypto.util.SubjectPublicKeyInfoFactory;
 import org.bouncycastle.math.ec.ECPoint;
 import org.bouncycastle.operator.bc.BcDigestCalculatorProvider;
 import org.bouncycastle.util.io.TeeInputStream;
+import org.cryptoworkshop.ximix.client.BatchShuffleOperationListener;
 import org.cryptoworkshop.ximix.client.BoardCreationOptions;
 import org.cryptoworkshop.ximix.client.CommandService;
 import org.cryptoworkshop.ximix.client.DownloadOperationListener;
@@ -70,11 +77,15 @@ import org.cryptoworkshop.ximix.client.ShuffleStatus;
 import org.cryptoworkshop.ximix.client.ShuffleTranscriptOptions;
 import org.cryptoworkshop.ximix.client.ShuffleTranscriptsDownloadOperationListener;
 import org.cryptoworkshop.ximix.common.asn1.PartialPublicKeyInfo;
+import org.cryptoworkshop.ximix.common.asn1.board.BatchEncoder;
 import org.cryptoworkshop.ximix.common.asn1.board.PairSequence;
 import org.cryptoworkshop.ximix.common.asn1.board.PairSequenceWithProofs;
 import org.cryptoworkshop.ximix.common.asn1.board.PointSequence;
+import org.cryptoworkshop.ximix.common.asn1.message.AwaitBoardStatusMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardDownloadMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardSnapshotDownloadMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardSnapshotMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardStatusMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardUploadMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.ChallengeLogMessage;
@@ -114,6 +125,8 @@ import org.cryptoworkshop.ximix.common.util.Operation;
 class ClientCommandService
     implements CommandService
 {
+    private static final int STREAM_CHUNK_SIZE = 64 * 1024;
+
     private final EventNotifier eventNotifier;
 
     private ExecutorService decouple = Executors.newSingleThreadExecutor();
@@ -162,6 +175,19 @@ class ClientCommandService
         return op;
     }
 
+    @Override
+    public Operation<BatchShuffleOperationListener> doShuffleAndMove(String[] boardNames, ShuffleOptions options, BatchShuffleOperationListener defaultListener, String... nodes)
+        throws ServiceConnectionException
+    {
+        Operation<BatchShuffleOperationListener> op = new BatchShuffleOp(boardNames, options, nodes);
+
+        op.addListener(defaultListener);
+
+        executor.execute((Runnable)op);
+
+        return op;
+    }
+
     @Override
     public Operation<DownloadOperationListener> downloadBoardContents(String boardName, DownloadOptions options, DownloadOperationListener defaultListener)
         throws ServiceConnectionException
@@ -276,11 +302,11 @@ class ClientCommandService
 
                 try
                 {
-                    reply = connection.sendMessage(hostName, CommandMessage.Type.BOARD_CREATE, new CreateBoardMessage(boardName, creationOptions.getBackUpHost()));
+                    reply = connection.sendMessage(hostName, CommandMessage.Type.BOARD_CREATE, new CreateBoardMessage(boardName, creationOptions.getBackUpHost(), creationOptions.isPointCompression()));
 
                     if (reply.getType() == MessageReply.Type.OKAY && creationOptions.getBackUpHost() != null)
                     {
-                        reply = connection.sendMessage(creationOptions.getBackUpHost(), CommandMessage.Type.BACKUP_BOARD_CREATE, new BoardMessage(boardName));
+                        reply = connection.sendMessage(creationOptions.getBackUpHost(), CommandMessage.Type.BACKUP_BOARD_CREATE, new CreateBoardMessage(boardName, null, creationOptions.isPointCompression()));
                         if (reply.getType() != MessageReply.Type.OKAY)
                         {
                             eventNotifier.notify(EventNotifier.Level.ERROR, "Error on backup board creation: " + reply.interpretPayloadAsError());
@@ -468,13 +494,23 @@ class ClientCommandService
         private final String boardName;
         private final ShuffleOptions options;
         private final String[] nodes;
+        private final NodeSlots nodeSlots;
+        private final List<String> heldSlots = new ArrayList<>();
+
+        private static final long STATUS_WAIT = 20000;
 
         public ShuffleOp(String boardName, ShuffleOptions options, String... nodes)
+        {
+            this(boardName, options, null, nodes);
+        }
+
+        public ShuffleOp(String boardName, ShuffleOptions options, NodeSlots nodeSlots, String... nodes)
         {
             super(decouple, eventNotifier, ShuffleOperationListener.class);
 
             this.boardName = boardName;
             this.options = options;
+            this.nodeSlots = nodeSlots;
             this.nodes = nodes;
         }
 
@@ -482,41 +518,98 @@ class ClientCommandService
         {
             try
             {
-                MessageReply reply = connection.sendMessage(CommandMessage.Type.BOARD_SHUFFLE_LOCK, new BoardMessage(boardName));
-                if (reply.getType() != MessageReply.Type.OKAY)
+                doShuffle();
+            }
+            catch (Exception e)
+            {
+                notifier.failed(new ShuffleStatus(e.toString(), "", e));
+            }
+            finally
+            {
+                releaseSlots();
+            }
+        }
+
+        private void doShuffle()
+            throws Exception
+        {
+            MessageReply reply = connection.sendMessage(CommandMessage.Type.BOARD_SHUFFLE_LOCK, new BoardMessage(boardName));
+            if (reply.getType() != MessageReply.Type.OKAY)
+            {
+                notifier.failed(new ShuffleStatus(reply.interpretPayloadAsError(), "", null));
+                return;
+            }
+
+            String boardHost = DERUTF8String.getInstance(reply.getPayload()).getString();
+
+            Map<String, byte[]> commitmentMap = new HashMap<>();
+
+            for (String node : nodes)
+            {
+                if (commitmentMap.containsKey(node))
+                {
+                    continue;
+                }
+
+                MessageReply seedReply = connection.sendMessage(node, CommandMessage.Type.GENERATE_SEED, new SeedMessage(boardName, this.getOperationNumber()));
+
+                if (seedReply.getType() == MessageReply.Type.OKAY)
+                {
+                    ASN1Encodable msg = seedReply.getPayload();
+
+                    commitmentMap.put(node, msg.toASN1Primitive().getEncoded());
+                }
+                else
                 {
-                    notifier.failed(new ShuffleStatus(reply.interpretPayloadAsError(), "", null));
+                    notifier.failed(new ShuffleStatus(seedReply.interpretPayloadAsError(), node, null));
                     return;
                 }
+            }
 
-                String boardHost = DERUTF8String.getInstance(reply.getPayload()).getString();
+            notifier.commit(commitmentMap);
 
-                Map<String, byte[]> commitmentMap = new HashMap<>();
+            if (options.isStreaming())
+            {
+                // a streaming board is being worked on by every node in the path at once.
+                takeSlots(new TreeSet<>(Arrays.asList(nodes)));
 
-                for (String node : nodes)
+                // every step is set up before the board leaves its host, each node then re-encrypts the messages as
+                // they arrive and passes the board on to the next step as soon as it has all of them.
+                for (int i = 0; i <= nodes.length; i++)
                 {
-                    if (commitmentMap.containsKey(node))
+                    String node = (i < nodes.length) ? nodes[i] : boardHost;
+
+                    reply = connection.sendMessage(node, CommandMessage.Type.INITIATE_INTRANSIT_BOARD, new TransitBoardMessage(this.getOperationNumber(), boardName, i));
+                    if (reply.getType() != MessageReply.Type.OKAY)
                     {
-                        continue;
+                        notifier.failed(new ShuffleStatus(reply.interpretPayloadAsError(), node, null));
+                        return;
                     }
+                }
 
-                    MessageReply seedReply = connection.sendMessage(node, CommandMessage.Type.GENERATE_SEED, new SeedMessage(boardName, this.getOperationNumber()));
-
-                    if (seedReply.getType() == MessageReply.Type.OKAY)
-                    {
-                        ASN1Encodable msg = seedReply.getPayload();
+                for (int i = 0; i < nodes.length; i++)
+                {
+                    String destination = (i < nodes.length - 1) ? nodes[i + 1] : boardHost;
 
-                        commitmentMap.put(node, msg.toASN1Primitive().getEncoded());
-                    }
-                    else
+                    reply = connection.sendMessage(nodes[i], CommandMessage.Type.PREPARE_STREAMING_SHUFFLE, new PermuteAndMoveMessage(this.getOperationNumber(), boardName, i, options.getTransformName(), options.getKeyID(), destination));
+                    if (reply.getType() != MessageReply.Type.OKAY)
                     {
-                        notifier.failed(new ShuffleStatus(seedReply.interpretPayloadAsError(), node, null));
+                        notifier.failed(new ShuffleStatus(reply.interpretPayloadAsError(), nodes[i], null));
                         return;
                     }
                 }
 
-                notifier.commit(commitmentMap);
+                reply = connection.sendMessage(boardHost, CommandMessage.Type.START_SHUFFLE_AND_MOVE_BOARD_TO_NODE, new CopyAndMoveMessage(this.getOperationNumber(), boardName, 0, nodes[0]));
+                if (reply.getType() != MessageReply.Type.OKAY)
+                {
+                    notifier.failed(new ShuffleStatus(reply.interpretPayloadAsError(), boardHost, null));
+                    return;
+                }
 
+                notifier.status(new ShuffleStatus("Streaming (" + nodes[0] + "/0)", nodes[0], 0));
+            }
+            else
+            {
                 // initial board state is copied to step 0 at start
                 reply = connection.sendMessage(nodes[0], CommandMessage.Type.INITIATE_INTRANSIT_BOARD, new TransitBoardMessage(this.getOperationNumber(), boardName, 0));
                 if (reply.getType() != MessageReply.Type.OKAY)
@@ -532,11 +625,16 @@ class ClientCommandService
                     return;
                 }
 
-
                 notifier.status(new ShuffleStatus("Starting  (" + nodes[0] + "/0)", nodes[0], 0));
                 for (int i = 0; i < nodes.length - 1; i++)
                 {
-                    waitForCompleteStatus(this.getOperationNumber(), nodes[i], i);
+                    if (!waitForCompleteStatus(this.getOperationNumber(), nodes[i], i))
+                    {
+                        return;
+                    }
+
+                    // the previous node has finished with the board once it has all arrived here.
+                    releaseSlots();
 
                     reply = connection.sendMessage(nodes[i + 1], CommandMessage.Type.INITIATE_INTRANSIT_BOARD, new TransitBoardMessage(this.getOperationNumber(), boardName, i + 1));
                     if (reply.getType() != MessageReply.Type.OKAY)
@@ -545,6 +643,8 @@ class ClientCommandService
                         return;
                     }
 
+                    takeSlots(Collections.singleton(nodes[i]));
+
                     reply = connection.sendMessage(nodes[i], CommandMessage.Type.SHUFFLE_AND_MOVE_BOARD_TO_NODE, new PermuteAndMoveMessage(this.getOperationNumber(), boardName, i, options.getTransformName(), options.getKeyID(), nodes[i + 1]));
                     if (reply.getType() != MessageReply.Type.OKAY)
                     {
@@ -555,7 +655,12 @@ class ClientCommandService
                     notifier.status(new ShuffleStatus("Shuffling (" + nodes[i + 1] + "/" + (i + 1) + ")", nodes[i + 1], i + 1));
                 }
 
-                waitForCompleteStatus(this.getOperationNumber(), nodes[nodes.length - 1], nodes.length - 1);
+                if (!waitForCompleteStatus(this.getOperationNumber(), nodes[nodes.length - 1], nodes.length - 1))
+                {
+                    return;
+                }
+
+                releaseSlots();
 
                 reply = connection.sendMessage(boardHost, CommandMessage.Type.INITIATE_INTRANSIT_BOARD, new TransitBoardMessage(this.getOperationNumber(), boardName, nodes.length));
                 if (reply.getType() != MessageReply.Type.OKAY)
@@ -564,83 +669,268 @@ class ClientCommandService
                     return;
                 }
 
+                takeSlots(Collections.singleton(nodes[nodes.length - 1]));
+
                 reply = connection.sendMessage(nodes[nodes.length - 1], CommandMessage.Type.SHUFFLE_AND_MOVE_BOARD_TO_NODE, new PermuteAndMoveMessage(this.getOperationNumber(), boardName, nodes.length - 1, options.getTransformName(), options.getKeyID(), boardHost));
                 if (reply.getType() != MessageReply.Type.OKAY)
                 {
                     notifier.failed(new ShuffleStatus(reply.interpretPayloadAsError(), nodes[nodes.length - 1], null));
                     return;
                 }
+            }
 
-                waitForCompleteStatus(this.getOperationNumber(), boardHost, nodes.length);
-
-                notifier.status(new ShuffleStatus("Returning (" + boardHost + "/" + nodes.length + ")", boardHost, nodes.length));
+            if (!waitForCompleteStatus(this.getOperationNumber(), boardHost, nodes.length))
+            {
+                return;
+            }
 
-                reply = connection.sendMessage(boardHost, CommandMessage.Type.RETURN_TO_BOARD, new TransitBoardMessage(this.getOperationNumber(), boardName, nodes.length));
-                if (reply.getType() != MessageReply.Type.OKAY)
-                {
-                    notifier.failed(new ShuffleStatus(reply.interpretPayloadAsError(), boardHost, null));
-                    return;
-                }
+            releaseSlots();
 
-                waitForUnlockStatus(boardHost, boardName);
+            notifier.status(new ShuffleStatus("Returning (" + boardHost + "/" + nodes.length + ")", boardHost, nodes.length));
 
-                notifier.completed();
+            reply = connection.sendMessage(boardHost, CommandMessage.Type.RETURN_TO_BOARD, new TransitBoardMessage(this.getOperationNumber(), boardName, nodes.length));
+            if (reply.getType() != MessageReply.Type.OKAY)
+            {
+                notifier.failed(new ShuffleStatus(reply.interpretPayloadAsError(), boardHost, null));
+                return;
             }
-            catch (Exception e)
+
+            if (!waitForUnlockStatus(boardHost, boardName))
             {
-                notifier.failed(new ShuffleStatus(e.toString(), "", e));
+                return;
             }
+
+            notifier.completed();
         }
 
-        private void waitForCompleteStatus(long operationNumber, String curNode, int stepNumber)
-            throws ServiceConnectionException
+        private void takeSlots(Collection<String> slotNodes)
+            throws InterruptedException
         {
-            MessageReply tReply;
-            do
+            if (nodeSlots != null)
             {
-                try
+                for (String node : slotNodes)
                 {
-                    Thread.sleep(2000);  // TODO: configure?
+                    nodeSlots.acquire(node);
+                    heldSlots.add(node);
                 }
-                catch (InterruptedException ex)
+            }
+        }
+
+        private void releaseSlots()
+        {
+            if (nodeSlots != null)
+            {
+                for (String node : heldSlots)
                 {
-                    Thread.currentThread().interrupt();
+                    nodeSlots.release(node);
                 }
+            }
 
-                tReply = connection.sendMessage(curNode, CommandMessage.Type.FETCH_BOARD_STATUS, new TransitBoardMessage(operationNumber, boardName, stepNumber));
+            heldSlots.clear();
+        }
+
+        private boolean waitForCompleteStatus(long operationNumber, String curNode, int stepNumber)
+            throws ServiceConnectionException
+        {
+            BoardStatusMessage status = awaitStatus(curNode, stepNumber, new AwaitBoardStatusMessage(operationNumber, boardName, stepNumber, BoardStatusMessage.Status.COMPLETE, STATUS_WAIT));
+
+            if (status != null)
+            {
+                notifier.status(new ShuffleStatus("Received  (" + curNode + "/" + stepNumber + ", " + status.getMessageCount() + " messages)", curNode, stepNumber));
             }
-            while (tReply.getType() == MessageReply.Type.OKAY && BoardStatusMessage.getInstance(tReply.getPayload()).getStatus() != BoardStatusMessage.Status.COMPLETE);
+
+            return status != null;
         }
 
-        private void waitForUnlockStatus(String boardHost, String boardName)
+        private boolean waitForUnlockStatus(String boardHost, String boardName)
             throws ServiceConnectionException
         {
-            MessageReply tReply;
-            do
+            return awaitStatus(boardHost, nodes.length, new AwaitBoardStatusMessage(boardName, BoardStatusMessage.Status.COMPLETE, STATUS_WAIT)) != null;
+        }
+
+        // the node replies as soon as the board reaches the status asked for, so we only go round again if the
+        // node's wait ran out first. Returns null, having notified the failure, if the status is never reached.
+        private BoardStatusMessage awaitStatus(String node, int stepNumber, AwaitBoardStatusMessage awaitMessage)
+            throws ServiceConnectionException
+        {
+            long deadline = System.currentTimeMillis() + options.getStatusTimeout();
+
+            for (;;)
             {
-                try
+                MessageReply tReply = connection.sendMessage(node, CommandMessage.Type.AWAIT_BOARD_STATUS, awaitMessage);
+                if (tReply.getType() != MessageReply.Type.OKAY)
                 {
-                    Thread.sleep(2000);  // TODO: configure?
+                    notifier.failed(new ShuffleStatus(tReply.interpretPayloadAsError(), node, null));
+                    return null;
                 }
-                catch (InterruptedException ex)
+
+                BoardStatusMessage status = BoardStatusMessage.getInstance(tReply.getPayload());
+                if (status.getStatus() == awaitMessage.getStatus())
                 {
-                    Thread.currentThread().interrupt();
+                    return status;
                 }
 
-                tReply = connection.sendMessage(boardHost, CommandMessage.Type.FETCH_BOARD_COMPLETION_STATUS, new BoardMessage(boardName));
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0)
+                {
+                    notifier.failed(new ShuffleStatus("Timed out waiting for board " + boardName + " to reach " + awaitMessage.getStatus() + " on " + node + " (step " + stepNumber + ")", node, null));
+                    return null;
+                }
+
+                if (awaitMessage.isForHostedBoard())
+                {
+                    awaitMessage = new AwaitBoardStatusMessage(awaitMessage.getBoardName(), awaitMessage.getStatus(), Math.min(STATUS_WAIT, remaining));
+                }
+                else
+                {
+                    awaitMessage = new AwaitBoardStatusMessage(awaitMessage.getOperationNumber(), awaitMessage.getBoardName(), awaitMessage.getStepNumber(), awaitMessage.getStatus(), Math.min(STATUS_WAIT, remaining));
+                }
             }
-            while (tReply.getType() == MessageReply.Type.OKAY && BoardStatusMessage.getInstance(tReply.getPayload()).getStatus() != BoardStatusMessage.Status.COMPLETE);
+        }
+    }
+
+    /**
+     * Per node limit on the number of boards being shuffled at once.
+     */
+    private static class NodeSlots
+    {
+        private final int slotsPerNode;
+        private final Map<String, Semaphore> slots = new HashMap<>();
+
+        NodeSlots(int slotsPerNode)
+        {
+            this.slotsPerNode = slotsPerNode;
+        }
+
+        void acquire(String node)
+            throws InterruptedException
+        {
+            getSemaphore(node).acquire();
+        }
+
+        void release(String node)
+        {
+            getSemaphore(node).release();
         }
 
+        private synchronized Semaphore getSemaphore(String node)
+        {
+            Semaphore semaphore = slots.get(node);
+
+            if (semaphore == null)
+            {
+                semaphore = new Semaphore(slotsPerNode, true);
+                slots.put(node, semaphore);
+            }
+
+            return semaphore;
+        }
+    }
+
+    private class BatchShuffleOp
+        extends Operation<BatchShuffleOperationListener>
+        implements Runnable
+    {
+        private final String[] boardNames;
+        private final ShuffleOptions options;
+        private final String[] nodes;
+
+        public BatchShuffleOp(String[] boardNames, ShuffleOptions options, String... nodes)
+        {
+            super(decouple, eventNotifier, BatchShuffleOperationListener.class);
+
+            this.boardNames = boardNames;
+            this.options = options;
+            this.nodes = nodes;
+        }
+
+        public void run()
+        {
+            // enough boards in flight to keep every step, and the return to the board host, busy.
+            int pipelineDepth = options.getMaxBoardsPerNode() * (nodes.length + 1);
+            ExecutorService boardExecutor = Executors.newFixedThreadPool(Math.max(1, Math.min(boardNames.length, pipelineDepth)));
+            NodeSlots nodeSlots = new NodeSlots(options.getMaxBoardsPerNode());
+            final CountDownLatch boardsDone = new CountDownLatch(boardNames.length);
+            final AtomicInteger failures = new AtomicInteger(0);
+
+            try
+            {
+                for (final String boardName : boardNames)
+                {
+                    final ShuffleOp op = new ShuffleOp(boardName, options, nodeSlots, nodes);
+
+                    op.addListener(new ShuffleOperationListener()
+                    {
+                        @Override
+                        public void commit(Map<String, byte[]> seedCommitments)
+                        {
+                            notifier.commit(boardName, op.getOperationNumber(), seedCommitments);
+                        }
+
+                        @Override
+                        public void completed()
+                        {
+                            notifier.boardCompleted(boardName, op.getOperationNumber());
+                            boardsDone.countDown();
+                        }
+
+                        @Override
+                        public void status(ShuffleStatus statusObject)
+                        {
+                            notifier.status(statusObject.forBoard(boardName));
+                        }
+
+                        @Override
+                        public void failed(ShuffleStatus errorObject)
+                        {
+                            failures.incrementAndGet();
+                            notifier.boardFailed(boardName, errorObject.forBoard(boardName));
+                            boardsDone.countDown();
+                        }
+                    });
+
+                    boardExecutor.execute(op);
+                }
+
+                boardsDone.await();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                notifier.failed(new ShuffleStatus("Batch shuffle interrupted", "", e));
+                return;
+            }
+            finally
+            {
+                boardExecutor.shutdown();
+            }
+
+            if (failures.get() == 0)
+            {
+                notifier.completed();
+            }
+            else
+            {
+                notifier.failed(new ShuffleStatus(failures.get() + " of " + boardNames.length + " boards failed to shuffle", "", null));
+            }
+        }
     }
 
     private class DownloadOp
         extends Operation<DownloadOperationListener>
         implements Runnable
     {
+        private static final int DEFAULT_BLOCK_SIZE = 20;
+        private static final int DEFAULT_SNAPSHOT_BLOCK_SIZE = 1000;
+        private static final int SNAPSHOT_RESUME_ATTEMPTS = 3;
+
         private final ExecutorService decoupler;
         private final String boardName;
         private final DownloadOptions options;
+        private final int blockSize;
+
+        private BoardSnapshotMessage snapshot;
+        private int nextIndex;
 
         public DownloadOp(ExecutorService decoupler, String boardName, DownloadOptions options)
         {
@@ -649,21 +939,48 @@ class ClientCommandService
             this.decoupler = decoupler;
             this.boardName = boardName;
             this.options = options;
+
+            if (options.getBlockSize() > 0)
+            {
+                this.blockSize = options.getBlockSize();
+            }
+            else
+            {
+                this.blockSize = options.isSnapshot() ? DEFAULT_SNAPSHOT_BLOCK_SIZE : DEFAULT_BLOCK_SIZE;
+            }
         }
 
         public void run()
         {
             try
             {
-                MessageReply reply = connection.sendMessage(CommandMessage.Type.BOARD_DOWNLOAD_LOCK, new BoardMessage(boardName));
+                MessageReply reply;
+                String boardHost = null;
 
-                if (reply.getType() != MessageReply.Type.OKAY)
+                if (options.isSnapshot())
                 {
-                    notifier.failed(reply.interpretPayloadAsError());
-                    return;
+                    reply = connection.sendMessage(CommandMessage.Type.OPEN_BOARD_SNAPSHOT, new BoardMessage(boardName));
+
+                    if (reply.getType() != MessageReply.Type.OKAY)
+                    {
+                        notifier.failed(reply.interpretPayloadAsError());
+                        return;
+                    }
+
+                    snapshot = BoardSnapshotMessage.getInstance(reply.getPayload());
                 }
+                else
+                {
+                    reply = connection.sendMessage(CommandMessage.Type.BOARD_DOWNLOAD_LOCK, new BoardMessage(boardName));
+
+                    if (reply.getType() != MessageReply.Type.OKAY)
+                    {
+                        notifier.failed(reply.interpretPayloadAsError());
+                        return;
+                    }
 
-                String boardHost = DERUTF8String.getInstance(reply.getPayload()).getString();
+                    boardHost = DERUTF8String.getInstance(reply.getPayload()).getString();
+                }
 
                 if (options.getKeyID() != null)
                 {
@@ -676,9 +993,18 @@ class ClientCommandService
 
                     for (;;)
                     {
-                        reply = connection.sendMessage(boardHost, CommandMessage.Type.DOWNLOAD_BOARD_CONTENTS, new BoardDownloadMessage(boardName, 20)); // TODO: configure
+                        PostedMessageBlock messageBlock;
 
-                        PostedMessageBlock messageBlock = PostedMessageBlock.getInstance(reply.getPayload());
+                        if (snapshot != null)
+                        {
+                            messageBlock = fetchSnapshotBlock();
+                        }
+                        else
+                        {
+                            reply = connection.sendMessage(boardHost, CommandMessage.Type.DOWNLOAD_BOARD_CONTENTS, new BoardDownloadMessage(boardName, blockSize));
+
+                            messageBlock = PostedMessageBlock.getInstance(reply.getPayload());
+                        }
 
                         if (messageBlock.size() == 0)
                         {
@@ -772,15 +1098,25 @@ class ClientCommandService
                         List<PostedMessage> postedMessages = messageBlock.getMessages();
                         List<byte[]> baseMessageBlock = partialDecrypts[baseIndex];
 
+                        PointSequence[] fulls = new PointSequence[baseMessageBlock.size()];
+                        List<List<byte[]>> proofLists = new ArrayList<>(baseMessageBlock.size());
+
                         for (int messageIndex = 0; messageIndex != baseMessageBlock.size(); messageIndex++)
                         {
-                            List<byte[]> proofList = verifyPoints(PairSequence.getInstance(domainParams.getCurve(), messageBlock.getMessages().get(messageIndex).getMessage()).getECPairs(), domainParams, nodeNames, partialPubKeys, partialDecrypts, weights, messageIndex);
+                            PairSequence ciphertext = PairSequence.getInstance(domainParams.getCurve(), messageBlock.getMessages().get(messageIndex).getMessage());
+
+                            proofLists.add(verifyPoints(ciphertext.getECPairs(), domainParams, nodeNames, partialPubKeys, partialDecrypts, weights, messageIndex));
+
+                            fulls[messageIndex] = new PointSequence(reassemblePoints(domainParams, partialDecrypts, weights, baseIndex, baseWeight, messageIndex), ciphertext.isCompressed());
+                        }
 
-                            ECPoint[] fulls = reassemblePoints(domainParams, partialDecrypts, weights, baseIndex, baseWeight, messageIndex);
+                        byte[][] encodings = BatchEncoder.getEncoded(fulls);
 
+                        for (int messageIndex = 0; messageIndex != encodings.length; messageIndex++)
+                        {
                             int index = postedMessages.get(messageIndex).getIndex();
 
-                            notifier.messageDownloaded(index, new PointSequence(fulls).getEncoded(), proofList);
+                            notifier.messageDownloaded(index, encodings[messageIndex], proofLists.get(messageIndex));
                         }
                     }
                 }
@@ -789,31 +1125,45 @@ class ClientCommandService
                     // assume plain text
                     for (; ; )
                     {
-                        reply = connection.sendMessage(CommandMessage.Type.DOWNLOAD_BOARD_CONTENTS, new BoardDownloadMessage(boardName, 20));
+                        PostedMessageBlock messageBlock;
 
-                        if (reply.getType() == MessageReply.Type.OKAY)
+                        if (snapshot != null)
                         {
-                            PostedMessageBlock messageBlock = PostedMessageBlock.getInstance(reply.getPayload());
+                            messageBlock = fetchSnapshotBlock();
+                        }
+                        else
+                        {
+                            reply = connection.sendMessage(CommandMessage.Type.DOWNLOAD_BOARD_CONTENTS, new BoardDownloadMessage(boardName, blockSize));
 
-                            if (messageBlock.size() == 0)
+                            if (reply.getType() != MessageReply.Type.OKAY)
                             {
-                                break;
+                                notifier.failed("Failed: " + reply.getPayload().toString());
+                                return;
                             }
 
-                            for (PostedMessage posted : messageBlock.getMessages())
-                            {
-                                notifier.messageDownloaded(posted.getIndex(), posted.getMessage(), new ArrayList<byte[]>());
-                            }
+                            messageBlock = PostedMessageBlock.getInstance(reply.getPayload());
                         }
-                        else
+
+                        if (messageBlock.size() == 0)
                         {
-                            notifier.failed("Failed: " + reply.getPayload().toString());
-                            return;
+                            break;
+                        }
+
+                        for (PostedMessage posted : messageBlock.getMessages())
+                        {
+                            notifier.messageDownloaded(posted.getIndex(), posted.getMessage(), new ArrayList<byte[]>());
                         }
                     }
                 }
 
-                reply = connection.sendMessage(CommandMessage.Type.BOARD_DOWNLOAD_UNLOCK, new BoardMessage(boardName));
+                if (snapshot != null)
+                {
+                    reply = connection.sendMessage(CommandMessage.Type.CLOSE_BOARD_SNAPSHOT, snapshot);
+                }
+                else
+                {
+                    reply = connection.sendMessage(CommandMessage.Type.BOARD_DOWNLOAD_UNLOCK, new BoardMessage(boardName));
+                }
                 if (reply.getType() != MessageReply.Type.OKAY)
                 {
                     notifier.failed(reply.interpretPayloadAsError());
@@ -832,6 +1182,55 @@ class ClientCommandService
                 decoupler.shutdown();
             }
         }
+
+        /**
+         * Fetch the next block from the snapshot. Nothing is removed from the board, so if the host cannot be
+         * reached we simply ask again from the index after the last message we received.
+         */
+        private PostedMessageBlock fetchSnapshotBlock()
+            throws ServiceConnectionException, InterruptedException
+        {
+            if (nextIndex >= snapshot.getEndIndex())
+            {
+                return new PostedMessageBlock.Builder(0).build();
+            }
+
+            MessageReply reply;
+
+            for (int attempt = 1;; attempt++)
+            {
+                try
+                {
+                    reply = connection.sendMessage(CommandMessage.Type.DOWNLOAD_BOARD_SNAPSHOT, new BoardSnapshotDownloadMessage(boardName, snapshot.getSnapshotID(), nextIndex, blockSize));
+                    break;
+                }
+                catch (ServiceConnectionException e)
+                {
+                    if (attempt == SNAPSHOT_RESUME_ATTEMPTS)
+                    {
+                        throw e;
+                    }
+
+                    eventNotifier.notify(EventNotifier.Level.WARN, "Resuming download of " + boardName + " from index " + nextIndex + ": " + e.getMessage());
+
+                    Thread.sleep(1000L * attempt);
+                }
+            }
+
+            if (reply.getType() != MessageReply.Type.OKAY)
+            {
+                throw new ServiceConnectionException("Snapshot download failed: " + reply.interpretPayloadAsError());
+            }
+
+            PostedMessageBlock messageBlock = PostedMessageBlock.getInstance(reply.getPayload());
+
+            if (messageBlock.size() != 0)
+            {
+                nextIndex = messageBlock.getMessages().get(messageBlock.size() - 1).getIndex() + 1;
+            }
+
+            return messageBlock;
+        }
     }
 
     private class DownloadShuffleResultOp
@@ -1102,13 +1501,23 @@ class ClientCommandService
 
                     BigInteger baseWeight = weights[baseIndex];
 
+                    PointSequence[] fulls = new PointSequence[baseBlock.size()];
+                    List<List<byte[]>> proofLists = new ArrayList<>(baseBlock.size());
+
                     for (int messageIndex = 0; messageIndex != baseBlock.size(); messageIndex++)
                     {
-                        List<byte[]> proofs = verifyPoints(PairSequence.getInstance(domainParams.getCurve(), finalMessages[messageIndex].getMessage()).getECPairs(), domainParams, nodeNames, partialPubKeys, partialDecrypts, weights, messageIndex);
+                        PairSequence ciphertext = PairSequence.getInstance(domainParams.getCurve(), finalMessages[messageIndex].getMessage());
 
-                        ECPoint[] fulls = reassemblePoints(domainParams, partialDecrypts, weights, baseIndex, baseWeight, messageIndex);
+                        proofLists.add(verifyPoints(ciphertext.getECPairs(), domainParams, nodeNames, partialPubKeys, partialDecrypts, weights, messageIndex));
 
-                        notifier.messageDownloaded(boardIndex++, new PointSequence(fulls).getEncoded(), proofs);
+                        fulls[messageIndex] = new PointSequence(reassemblePoints(domainParams, partialDecrypts, weights, baseIndex, baseWeight, messageIndex), ciphertext.isCompressed());
+                    }
+
+                    byte[][] encodings = BatchEncoder.getEncoded(fulls);
+
+                    for (int messageIndex = 0; messageIndex != encodings.length; messageIndex++)
+                    {
+                        notifier.messageDownloaded(boardIndex++, encodings[messageIndex], proofLists.get(messageIndex));
                     }
                 }
                 catch (Exception e)
@@ -1178,6 +1587,107 @@ class ClientCommandService
 
         private boolean uploadStream(String[] nodes, String targetName, InputStream input)
             throws IOException, ServiceConnectionException
+        {
+            BulkTransferChannel[] streams = openStreams(nodes, targetName);
+
+            if (streams == null)
+            {
+                return uploadChunks(nodes, targetName, input);
+            }
+
+            try
+            {
+                if (input instanceof FileInputStream)
+                {
+                    FileChannel file = ((FileInputStream)input).getChannel();
+                    long position = file.position();
+                    long count = file.size() - position;
+
+                    for (BulkTransferChannel stream : streams)
+                    {
+                        stream.transferFrom(file, position, count);
+                    }
+
+                    file.position(position + count);
+                }
+                else
+                {
+                    byte[] chunk = new byte[STREAM_CHUNK_SIZE];
+                    int in;
+
+                    while ((in = input.read(chunk)) >= 0)
+                    {
+                        for (BulkTransferChannel stream : streams)
+                        {
+                            stream.write(ByteBuffer.wrap(chunk, 0, in));
+                        }
+                    }
+                }
+            }
+            catch (IOException | ServiceConnectionException e)
+            {
+                for (BulkTransferChannel stream : streams)
+                {
+                    stream.abort();
+                }
+
+                throw e;
+            }
+
+            boolean isOkay = true;
+            for (int i = 0; i != streams.length; i++)
+            {
+                MessageReply reply = streams[i].close();
+                if (!reply.getType().equals(MessageReply.Type.OKAY))
+                {
+                    notifier.failed(nodes[i] + " reply " + reply.interpretPayloadAsError());
+                    isOkay = false;
+                }
+            }
+
+            return isOkay;
+        }
+
+        // open a stream to every node, or return null if any of them can't take one - nothing has been read from the
+        // input at this point, so the caller can still fall back to sending it in chunks.
+        private BulkTransferChannel[] openStreams(String[] nodes, String targetName)
+            throws ServiceConnectionException
+        {
+            BulkTransferChannel[] streams = new BulkTransferChannel[nodes.length];
+            boolean isOpen = false;
+
+            try
+            {
+                for (int i = 0; i != nodes.length; i++)
+                {
+                    streams[i] = connection.openBulkTransfer(nodes[i], CommandMessage.Type.FILE_STREAM, new DERUTF8String(targetName));
+                    if (streams[i] == null)
+                    {
+                        return null;
+                    }
+                }
+
+                isOpen = true;
+
+                return streams;
+            }
+            finally
+            {
+                if (!isOpen)
+                {
+                    for (BulkTransferChannel stream : streams)
+                    {
+                        if (stream != null)
+                        {
+                            stream.abort();
+                        }
+                    }
+                }
+            }
+        }
+
+        private boolean uploadChunks(String[] nodes, String targetName, InputStream input)
+            throws IOException, ServiceConnectionException
         {
             int chunkSize = 10240; // TODO: make configurable
             InputStream fIn = new BufferedInputStream(input, chunkSize);
@@ -29,6 +29,11 @@ class NodeConfig
     private InetAddress address;
     private int portNo;
     private String name;
+    private int poolSize = 4;
+    private int poolWarmUp = 2;
+    private long poolIdleTimeout = 60000;
+    private boolean compression = false;
+    private int compressionThreshold = 1024;
     private Exception throwable;
 
     NodeConfig(Node configNode)
@@ -58,6 +63,26 @@ class NodeConfig
             {
                 name = xmlNode.getTextContent().trim();
             }
+            else if (xmlNode.getNodeName().equals("poolSize"))
+            {
+                poolSize = Math.max(1, Integer.parseInt(xmlNode.getTextContent().trim()));
+            }
+            else if (xmlNode.getNodeName().equals("poolWarmUp"))
+            {
+                poolWarmUp = Math.max(1, Integer.parseInt(xmlNode.getTextContent().trim()));
+            }
+            else if (xmlNode.getNodeName().equals("poolIdleTimeout"))
+            {
+                poolIdleTimeout = Long.parseLong(xmlNode.getTextContent().trim());
+            }
+            else if (xmlNode.getNodeName().equals("compression"))
+            {
+                compression = Boolean.parseBoolean(xmlNode.getTextContent().trim());
+            }
+            else if (xmlNode.getNodeName().equals("compressionThreshold"))
+            {
+                compressionThreshold = Math.max(0, Integer.parseInt(xmlNode.getTextContent().trim()));
+            }
         }
     }
 
@@ -80,5 +105,54 @@ class NodeConfig
     {
         return name;
     }
-}
 
+    /**
+     * Return the maximum number of connections to keep open to the node.
+     *
+     * @return the connection pool size.
+     */
+    public int getPoolSize()
+    {
+        return poolSize;
+    }
+
+    /**
+     * Return the number of connections to open to the node up front, and to keep open however idle they are.
+     *
+     * @return the number of connections to warm up.
+     */
+    public int getPoolWarmUp()
+    {
+        return Math.min(poolWarmUp, poolSize);
+    }
+
+    /**
+     * Return how long, in milliseconds, a connection beyond the warm up set can go unused before it is closed.
+     *
+     * @return the idle timeout for pooled connections.
+     */
+    public long getPoolIdleTimeout()
+    {
+        return poolIdleTimeout;
+    }
+
+    /**
+     * Return true if messages to and from the node should be compressed, where the node supports it.
+     *
+     * @return true if compression is to be used, false otherwise.
+     */
+    public boolean isCompressionEnabled()
+    {
+        return compression;
+    }
+
+    /**
+     * Return the size, in bytes, below which messages are sent uncompressed.
+     *
+     * @return the compression threshold.
+     */
+    public int getCompressionThreshold()
+    {
+        return compressionThreshold;
+    }
+}
@@ -0,0 +1,365 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.client.connection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.cryptoworkshop.ximix.common.asn1.message.CapabilityMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.ErrorMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageType;
+import org.cryptoworkshop.ximix.common.util.EventNotifier;
+
+/**
+ * Internal pool of connections to a single node. Large requests, such as board transfers, tie up a link while they are
+ * being written, so the pool spreads requests across several links, preferring the quickest open link with nothing in
+ * flight and otherwise the least loaded, quickest one, opening another link if every open one is busy and the pool is
+ * not yet full.
+ * <p>
+ * A set number of links are opened when the pool is activated and kept open; links beyond those are closed once they
+ * have been idle for the configured time. A link that cannot be opened is skipped straight away. If a link fails
+ * after a request has gone out the node may already have acted on it, so the request is only moved to another healthy
+ * link if it is safe to repeat, otherwise the failure is reported. The failed link is left alone for a while before it
+ * is tried again. If there are no healthy links left the pool falls back to the first link's own reconnect handling.
+ * </p>
+ */
+class NodeConnectionPool
+    implements SpecificServicesConnection
+{
+    private static final long RETRY_DELAY = 5000;        // how long a failed link is avoided for.
+    private static final double LATENCY_WEIGHT = 0.2;    // weight given to the latest sample in the latency average.
+
+    private final NodeConfig config;
+    private final EventNotifier eventNotifier;
+    private final List<PooledConnection> connections = new ArrayList<>();
+
+    NodeConnectionPool(NodeConfig config, NodeConnectionListener listener, EventNotifier eventNotifier)
+    {
+        this.config = config;
+        this.eventNotifier = eventNotifier;
+
+        // the first link reports the node's availability, it stays open for the life of the pool.
+        connections.add(new PooledConnection(new NodeServicesConnection(config, listener, eventNotifier)));
+    }
+
+    @Override
+    public String getName()
+    {
+        return config.getName();
+    }
+
+    @Override
+    public void activate()
+        throws ServiceConnectionException
+    {
+        connections.get(0).connection.activate();
+
+        for (int i = 1; i < config.getPoolWarmUp(); i++)
+        {
+            PooledConnection pooled = addConnection();
+
+            if (pooled != null)
+            {
+                try
+                {
+                    pooled.connection.activate();
+                }
+                catch (ServiceConnectionException e)
+                {
+                    pooled.failed();
+                }
+            }
+        }
+    }
+
+    @Override
+    public CapabilityMessage[] getCapabilities()
+        throws ServiceConnectionException
+    {
+        return connections.get(0).connection.getCapabilities();
+    }
+
+    @Override
+    public EventNotifier getEventNotifier()
+    {
+        return eventNotifier;
+    }
+
+    @Override
+    public MessageReply sendMessage(MessageType type, ASN1Encodable messagePayload)
+        throws ServiceConnectionException
+    {
+        PooledConnection pooled;
+        PooledConnection failed = null;
+
+        while ((pooled = choose()) != null)
+        {
+            pooled.inFlight.incrementAndGet();
+
+            try
+            {
+                long start = System.nanoTime();
+
+                Future<MessageReply> reply = pooled.connection.sendMessageAsync(type, messagePayload, false);
+
+                MessageReply rv = reply.get();
+
+                pooled.recordLatency(System.nanoTime() - start);
+
+                return rv;
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+
+                throw new ServiceConnectionException("Interrupted waiting for reply from node " + getName(), e);
+            }
+            catch (ServiceConnectionException e)
+            {
+                // if the link is still open the message itself is the problem, and it will be on any link.
+                if (pooled.connection.isOpen())
+                {
+                    throw e;
+                }
+
+                pooled.failed();
+                failed = pooled;
+
+                eventNotifier.notify(EventNotifier.Level.WARN, "Unable to open link to node " + getName() + ", trying another: " + e.getMessage());
+            }
+            catch (ExecutionException e)
+            {
+                pooled.failed();
+                failed = pooled;
+
+                if (!NodeServicesConnection.isIdempotent(type))
+                {
+                    eventNotifier.notify(EventNotifier.Level.WARN, "Link to node " + getName() + " failed, " + type + " not resent: " + e.getCause().getMessage());
+
+                    return new MessageReply(MessageReply.Type.ERROR, new ErrorMessage("Link to node " + getName() + " failed, " + type + " may not have completed: " + e.getCause().getMessage()));
+                }
+
+                eventNotifier.notify(EventNotifier.Level.WARN, "Link to node " + getName() + " failed, trying another: " + e.getCause().getMessage());
+            }
+            finally
+            {
+                pooled.inFlight.decrementAndGet();
+            }
+        }
+
+        // nothing healthy left - let the link that failed last rebuild itself, or report the node as unavailable.
+        return (failed != null ? failed : connections.get(0)).connection.sendMessage(type, messagePayload);
+    }
+
+    @Override
+    public void shutdown()
+        throws ServiceConnectionException
+    {
+        List<PooledConnection> links;
+
+        synchronized (connections)
+        {
+            links = new ArrayList<>(connections);
+        }
+
+        eventNotifier.notify(EventNotifier.Level.INFO, "Link latencies (ms) to " + getName() + ": " + Arrays.toString(getLatencies()));
+
+        ServiceConnectionException failure = null;
+
+        for (PooledConnection pooled : links)
+        {
+            try
+            {
+                pooled.connection.shutdown();
+            }
+            catch (ServiceConnectionException e)
+            {
+                failure = e;
+            }
+        }
+
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Return the current average round trip time, in milliseconds, for each link in the pool.
+     *
+     * @return an array of link latencies.
+     */
+    double[] getLatencies()
+    {
+        synchronized (connections)
+        {
+            double[] latencies = new double[connections.size()];
+
+            for (int i = 0; i != latencies.length; i++)
+            {
+                latencies[i] = connections.get(i).latency / 1000000.0;
+            }
+
+            return latencies;
+        }
+    }
+
+    private PooledConnection choose()
+    {
+        synchronized (connections)
+        {
+            long now = System.currentTimeMillis();
+
+            evictIdle(now);
+
+            PooledConnection best = null;
+
+            for (PooledConnection pooled : connections)
+            {
+                if (!pooled.isHealthy(now))
+                {
+                    continue;
+                }
+
+                if (best == null || pooled.isPreferredTo(best))
+                {
+                    best = pooled;
+                }
+            }
+
+            if (best == null || best.inFlight.get() != 0)
+            {
+                PooledConnection added = addConnection();
+
+                if (added != null)
+                {
+                    best = added;
+                }
+            }
+
+            if (best != null)
+            {
+                best.lastUsed = now;
+            }
+
+            return best;
+        }
+    }
+
+    private PooledConnection addConnection()
+    {
+        synchronized (connections)
+        {
+            if (connections.size() >= config.getPoolSize())
+            {
+                return null;
+            }
+
+            PooledConnection pooled = new PooledConnection(new NodeServicesConnection(config, new NodeConnectionListener()
+            {
+                @Override
+                public void status(String name, boolean isAvailable)
+                {
+                    // availability is tracked on the first link.
+                }
+            }, eventNotifier));
+
+            connections.add(pooled);
+
+            return pooled;
+        }
+    }
+
+    // called with the connections lock held.
+    private void evictIdle(long now)
+    {
+        for (int i = connections.size() - 1; i >= config.getPoolWarmUp(); i--)
+        {
+            PooledConnection pooled = connections.get(i);
+
+            if (pooled.inFlight.get() == 0 && now - pooled.lastUsed > config.getPoolIdleTimeout())
+            {
+                connections.remove(i);
+
+                try
+                {
+                    pooled.connection.shutdown();
+                }
+                catch (ServiceConnectionException e)
+                {
+                    // ignore - we're done with it anyway.
+                }
+            }
+        }
+    }
+
+    private static class PooledConnection
+    {
+        final NodeServicesConnection connection;
+        final AtomicInteger inFlight = new AtomicInteger(0);
+
+        volatile long lastUsed = System.currentTimeMillis();
+        volatile long failedAt = 0;
+        volatile long latency = 0;     // average round trip, in nanoseconds.
+
+        PooledConnection(NodeServicesConnection connection)
+        {
+            this.connection = connection;
+        }
+
+        boolean isHealthy(long now)
+        {
+            return now - failedAt > RETRY_DELAY;
+        }
+
+        boolean isReady()
+        {
+            return inFlight.get() == 0 && connection.isOpen();
+        }
+
+        // a link with no latency recorded yet is preferred, so every link gets measured.
+        boolean isPreferredTo(PooledConnection other)
+        {
+            boolean ready = isReady();
+
+            if (ready != other.isReady())
+            {
+                return ready;
+            }
+
+            int load = inFlight.get();
+            int otherLoad = other.inFlight.get();
+
+            return load < otherLoad || (load == otherLoad && latency < other.latency);
+        }
+
+        void failed()
+        {
+            failedAt = System.currentTimeMillis();
+        }
+
+        synchronized void recordLatency(long sample)
+        {
+            latency = (latency == 0) ? sample : (long)(latency + LATENCY_WEIGHT * (sample - latency));
+        }
+    }
+}
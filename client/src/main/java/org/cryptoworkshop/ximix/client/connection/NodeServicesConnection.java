@@ -15,26 +15,62 @@
  */
 package org.cryptoworkshop.ximix.client.connection;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.util.Pack;
 import org.cryptoworkshop.ximix.common.asn1.message.CapabilityMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.ClientMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.CommandMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CompressedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.ConnectionOptions;
 import org.cryptoworkshop.ximix.common.asn1.message.ErrorMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.Message;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageEnvelope;
 import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
 import org.cryptoworkshop.ximix.common.asn1.message.MessageType;
 import org.cryptoworkshop.ximix.common.asn1.message.NodeInfo;
 import org.cryptoworkshop.ximix.common.util.EventNotifier;
+import org.cryptoworkshop.ximix.common.util.MessageCompressor;
 
 /**
  * Internal implementation of a named ServicesConnection. This class ties a connection back to a specific node.
+ * <p>
+ * Where the node supports it, requests are sent in a MessageEnvelope carrying a request ID, so any number of them can
+ * share the one socket: replies are picked up by a reader thread and matched back to their requests by ID, in whatever
+ * order they arrive. Nodes that don't support this are sent one request at a time, as before.
+ * </p>
+ * <p>
+ * Bulk transfers are made on a connection of their own, so they never hold up the messages on the main one.
+ * </p>
+ * <p>
+ * If compression is enabled for the node, and the node offers it, messages and replies over the compression threshold
+ * are sent deflated.
+ * </p>
  */
 class NodeServicesConnection
     implements SpecificServicesConnection
@@ -43,15 +79,41 @@ class NodeServicesConnection
     private final InetAddress address;
     private final int portNo;
     private final NodeConnectionListener listener;
+    private final boolean isCompressionEnabled;
+    private final int compressionThreshold;
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    // requests which leave the node in the same state however many times they arrive.
+    private static final Set<MessageType> IDEMPOTENT_TYPES = new HashSet<>(Arrays.<MessageType>asList(
+        ClientMessage.Type.FETCH_PUBLIC_KEY,
+        CommandMessage.Type.FETCH_PARTIAL_PUBLIC_KEY,
+        CommandMessage.Type.GET_BOARD_HOST,
+        CommandMessage.Type.GET_BOARD_DETAILS,
+        CommandMessage.Type.FETCH_BOARD_STATUS,
+        CommandMessage.Type.FETCH_BOARD_COMPLETION_STATUS,
+        CommandMessage.Type.FETCH_SEED,
+        CommandMessage.Type.FETCH_BOARD_DIGEST,
+        CommandMessage.Type.AWAIT_BOARD_STATUS,
+        CommandMessage.Type.NODE_STATISTICS,
+        CommandMessage.Type.BACKUP_BOARD_CREATE,
+        CommandMessage.Type.CLEAR_BACKUP_BOARD,
+        CommandMessage.Type.TRANSFER_TO_BACKUP_BOARD,
+        CommandMessage.Type.TRUNCATE_BACKUP_BOARD));
+    private static final int STREAM_TIMEOUT = 300000;
+    private static final int MAX_REPLY_SIZE = 300000;      // applies to a compressed reply once inflated, and the node is told.
 
     private final AtomicBoolean isShutdown = new AtomicBoolean(false);
     private final AtomicBoolean isTryingToConnect = new AtomicBoolean(false);
     private final String name;
 
     private NodeInfo nodeInfo;
-    private Socket connection;
+    private volatile Socket connection;
     private InputStream cIn;
     private OutputStream cOut;
+    private Map<Integer, ReplyFuture> pendingReplies;
+    private volatile MessageCompressor compressor;
+    private int nextRequestID = 0;
 
     public NodeServicesConnection(NodeConfig config, NodeConnectionListener listener, EventNotifier eventNotifier)
     {
@@ -60,6 +122,8 @@ class NodeServicesConnection
         this.address = config.getAddress();
         this.portNo = config.getPortNo();
         this.listener = listener;
+        this.isCompressionEnabled = config.isCompressionEnabled();
+        this.compressionThreshold = config.getCompressionThreshold();
     }
 
     public synchronized void activate()
@@ -82,6 +146,16 @@ class NodeServicesConnection
         return name;
     }
 
+    /**
+     * Return true if this connection currently has a live link to its node.
+     *
+     * @return true if the link is open, false otherwise.
+     */
+    boolean isOpen()
+    {
+        return connection != null;
+    }
+
     public synchronized CapabilityMessage[] getCapabilities()
         throws ServiceConnectionException
     {
@@ -106,7 +180,7 @@ class NodeServicesConnection
         return eventNotifier;
     }
 
-    public synchronized MessageReply sendMessage(MessageType type, ASN1Encodable messagePayload)
+    public MessageReply sendMessage(MessageType type, ASN1Encodable messagePayload)
         throws ServiceConnectionException
     {
         // maybe we're down?
@@ -115,26 +189,133 @@ class NodeServicesConnection
             return new MessageReply(MessageReply.Type.ERROR, new ErrorMessage("Link to node " + name +  " unavailable"));
         }
 
-        // if there is an error we do one retry to rebuild the line before exiting.
-        for (int i = 0; i != 2; i++)
+        // a request the link failed under may have been acted on, so only one that is safe to repeat is sent again.
+        // The link is rebuilt by the second send, which waits for the node if it has to.
+        int attempts = isIdempotent(type) ? 2 : 1;
+        Throwable failure = null;
+
+        for (int i = 0; i != attempts; i++)
+        {
+            Future<MessageReply> reply = sendMessageAsync(type, messagePayload);
+
+            try
+            {
+                return reply.get();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+
+                throw new ServiceConnectionException("Interrupted waiting for reply from node " + name, e);
+            }
+            catch (ExecutionException e)
+            {
+                failure = e.getCause();
+
+                eventNotifier.notify(EventNotifier.Level.WARN, "Link to " + address + " failed: " + failure.getMessage());
+            }
+        }
+
+        return new MessageReply(MessageReply.Type.ERROR, new ErrorMessage("Link to node " + name +  " failed, " + type + " may not have completed: " + failure.getMessage()));
+    }
+
+    /**
+     * Return true if a message of the passed in type leaves the node in the same state however many times it arrives,
+     * so it can be sent again if a link fails before the reply comes back.
+     *
+     * @param type the message type.
+     * @return true if the message can be repeated, false otherwise.
+     */
+    static boolean isIdempotent(MessageType type)
+    {
+        return IDEMPOTENT_TYPES.contains(type);
+    }
+
+    /**
+     * Send a message to the node without waiting for the reply. If the link to the node fails before the reply
+     * arrives the returned future will throw an ExecutionException, and the link will be rebuilt on the next send.
+     *
+     * @param type message type
+     * @param messagePayload data making up the message payload.
+     * @return a future for the node's reply.
+     * @throws ServiceConnectionException if the message cannot be encoded, or a link to the node cannot be built.
+     */
+    public Future<MessageReply> sendMessageAsync(MessageType type, ASN1Encodable messagePayload)
+        throws ServiceConnectionException
+    {
+        return sendMessageAsync(type, messagePayload, true);
+    }
+
+    /**
+     * Send a message to the node without waiting for the reply, making only a single attempt to open the link if it
+     * is not already open. A failure to open leaves the node's availability alone, so the caller can try elsewhere.
+     *
+     * @param type message type
+     * @param messagePayload data making up the message payload.
+     * @param isWaitingForLink true if the link should be retried until the node is marked unavailable, false otherwise.
+     * @return a future for the node's reply.
+     * @throws ServiceConnectionException if the message cannot be encoded, or a link to the node cannot be built, in
+     * which case the message has not been sent.
+     */
+    Future<MessageReply> sendMessageAsync(MessageType type, ASN1Encodable messagePayload, boolean isWaitingForLink)
+        throws ServiceConnectionException
+    {
+        Message<?> message = createMessage(type, messagePayload);
+        ReplyFuture reply = new ReplyFuture();
+        ASN1Encodable content;
+
+        // compress outside the lock so senders don't queue up behind each other's deflates.
+        try
+        {
+            MessageCompressor compressor = this.compressor;
+
+            content = (compressor != null) ? compressor.compress(message) : message;
+        }
+        catch (IOException e)
+        {
+            throw new ServiceConnectionException("Malformed message: " + e.getMessage(), e);
+        }
+
+        synchronized (this)
         {
+            // maybe we're down?
+            if (isTryingToConnect.get())
+            {
+                reply.reply(new MessageReply(MessageReply.Type.ERROR, new ErrorMessage("Link to node " + name +  " unavailable")));
+
+                return reply;
+            }
+
             if (connection == null)
             {
-                buildConnection();
+                if (isWaitingForLink)
+                {
+                    buildConnection();
+                }
+                else
+                {
+                    openOnce();
+                }
             }
 
             byte[] encodedMessage;
+            int requestID = nextRequestID++;
+
+            // the link may have been rebuilt since we compressed, and without compression this time.
+            if (compressor == null)
+            {
+                content = message;
+            }
 
             try
             {
-                if (type instanceof ClientMessage.Type)
+                if (pendingReplies != null)
                 {
-                    encodedMessage = new ClientMessage((ClientMessage.Type)type, messagePayload).getEncoded();
-
+                    encodedMessage = new MessageEnvelope(requestID, content).getEncoded();
                 }
                 else
                 {
-                    encodedMessage = new CommandMessage((CommandMessage.Type)type, messagePayload).getEncoded();
+                    encodedMessage = content.toASN1Primitive().getEncoded();
                 }
             }
             catch (IOException e)
@@ -144,34 +325,122 @@ class NodeServicesConnection
 
             try
             {
-                cOut.write(encodedMessage);
-
-                return MessageReply.getInstance(new ASN1InputStream(cIn, 300000).readObject());      // TODO
-            }
-            catch (Exception e)
-            {
-                try
+                if (pendingReplies != null)
                 {
-                    this.shutdown();
-                }
-                catch (Exception ex)
-                {
-                    eventNotifier.notify(EventNotifier.Level.WARN, "Exception resetting link to " + address + ": " + e.getMessage(), e);
-                }
+                    pendingReplies.put(requestID, reply);
 
-                eventNotifier.notify(EventNotifier.Level.WARN, "Unable to open link to " + address + " - retrying.");
-                try
-                {
-                    Thread.sleep(5000);   // TODO: configure?
+                    cOut.write(encodedMessage);
                 }
-                catch (InterruptedException ex)
+                else
                 {
-                    Thread.currentThread().interrupt();
+                    cOut.write(encodedMessage);
+
+                    reply.reply(readReply(new ASN1InputStream(cIn, MAX_REPLY_SIZE).readObject(), compressor));
                 }
             }
+            catch (Exception e)
+            {
+                reply.fail(e);
+
+                resetLink(connection);
+            }
+        }
+
+        return reply;
+    }
+
+    /**
+     * Open a bulk transfer to the node. The passed in message is sent on a new connection and, once the node accepts
+     * it, the connection is handed back as a raw data stream.
+     *
+     * @param type type of the message introducing the stream.
+     * @param messagePayload the data making up the message payload.
+     * @return a channel for the stream data, or null if the node does not support bulk transfers.
+     * @throws ServiceConnectionException in case of network failure, or if the node rejects the message.
+     */
+    public BulkTransferChannel openBulkTransfer(MessageType type, ASN1Encodable messagePayload)
+        throws ServiceConnectionException
+    {
+        SocketChannel channel = null;
+
+        try
+        {
+            channel = SocketChannel.open(new InetSocketAddress(address, portNo));
+            channel.socket().setSoTimeout(STREAM_TIMEOUT);
+
+            ASN1InputStream aIn = new ASN1InputStream(channel.socket().getInputStream(), MAX_REPLY_SIZE);
+
+            NodeInfo streamInfo = NodeInfo.getInstance(aIn.readObject());
+            if (!name.equals(streamInfo.getName()))
+            {
+                throw new ServiceConnectionException("Node " + name + " identified itself as " + streamInfo.getName() + " - closing connection");
+            }
+
+            if (!streamInfo.hasFeature(NodeInfo.BULK_TRANSFER))
+            {
+                close(channel);
+
+                return null;
+            }
+
+            writeFully(channel, ByteBuffer.wrap(createMessage(type, messagePayload).getEncoded()));
+
+            MessageReply reply = MessageReply.getInstance(aIn.readObject());
+            if (reply == null || reply.getType() != MessageReply.Type.OKAY)
+            {
+                throw new ServiceConnectionException("Node " + name + " refused stream: " + ((reply != null) ? reply.interpretPayloadAsError() : "connection closed"));
+            }
+
+            return new StreamChannel(channel);
+        }
+        catch (ServiceConnectionException e)
+        {
+            close(channel);
+
+            throw e;
+        }
+        catch (Exception e)
+        {
+            close(channel);
+
+            throw new ServiceConnectionException("Unable to open stream to node " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    private static Message<?> createMessage(MessageType type, ASN1Encodable messagePayload)
+    {
+        if (type instanceof ClientMessage.Type)
+        {
+            return new ClientMessage((ClientMessage.Type)type, messagePayload);
+        }
+        else
+        {
+            return new CommandMessage((CommandMessage.Type)type, messagePayload);
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buf)
+        throws IOException
+    {
+        while (buf.hasRemaining())
+        {
+            channel.write(buf);
         }
+    }
 
-        return new MessageReply(MessageReply.Type.ERROR, new ErrorMessage("Link to node " + name +  " unavailable"));
+    private void close(SocketChannel channel)
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                eventNotifier.notify(EventNotifier.Level.WARN, "Exception closing stream to " + name + ": " + e.getMessage(), e);
+            }
+        }
     }
 
     private void open()
@@ -182,7 +451,7 @@ class NodeServicesConnection
         cOut = connection.getOutputStream();
         cIn = connection.getInputStream();
 
-        ASN1InputStream aIn = new ASN1InputStream(cIn, 300000); // TODO:
+        ASN1InputStream aIn = new ASN1InputStream(cIn, MAX_REPLY_SIZE);
 
         nodeInfo = NodeInfo.getInstance(aIn.readObject());
         if (!name.equals(nodeInfo.getName()))
@@ -198,6 +467,41 @@ class NodeServicesConnection
             eventNotifier.notify(EventNotifier.Level.ERROR, "Node " + name + " identified itself as " + nodeInfo.getName() + " - closing connection");
             throw new ServiceConnectionException("Node " + name + " identified itself as " + nodeInfo.getName() + " - closing connection");
         }
+
+        // a node that offers compression understands options, so it can be told our reply limit either way.
+        if (nodeInfo.hasFeature(NodeInfo.COMPRESSION))
+        {
+            if (isCompressionEnabled)
+            {
+                cOut.write(new ConnectionOptions(NodeInfo.COMPRESSION, compressionThreshold, MAX_REPLY_SIZE).getEncoded());
+
+                compressor = new MessageCompressor(compressionThreshold, MAX_REPLY_SIZE);
+            }
+            else
+            {
+                cOut.write(new ConnectionOptions(0, compressionThreshold, MAX_REPLY_SIZE).getEncoded());
+
+                compressor = null;
+            }
+        }
+        else
+        {
+            compressor = null;
+        }
+
+        if (nodeInfo.hasFeature(NodeInfo.MULTIPLEXING))
+        {
+            pendingReplies = new ConcurrentHashMap<>();
+
+            Thread reader = new Thread(new ReplyReader(connection, cIn, pendingReplies, compressor), "ximix-replies-" + name);
+
+            reader.setDaemon(true);
+            reader.start();
+        }
+        else
+        {
+            pendingReplies = null;
+        }
     }
 
     private void close()
@@ -205,7 +509,10 @@ class NodeServicesConnection
     {
         try
         {
-            connection.close();
+            if (connection != null)
+            {
+                connection.close();
+            }
         }
         catch (Exception ex)
         {
@@ -213,11 +520,103 @@ class NodeServicesConnection
         }
         finally
         {
+            if (compressor != null)
+            {
+                eventNotifier.notify(EventNotifier.Level.INFO, "Compression on link to " + name + ": " + compressor);
+            }
+
             connection = null;
+            pendingReplies = null;
+            compressor = null;
             listener.status(name, false);
         }
     }
 
+    // the whole reply has been read, so one that can't be inflated is reported to its sender and the link carries on.
+    private MessageReply readReply(Object o, MessageCompressor compressor)
+    {
+        try
+        {
+            return getReply(o, compressor);
+        }
+        catch (IOException e)
+        {
+            eventNotifier.notify(EventNotifier.Level.WARN, "Unreadable reply from node " + name + ": " + e.getMessage());
+
+            return new MessageReply(MessageReply.Type.ERROR, new ErrorMessage("Unreadable reply from node " + name + ": " + e.getMessage()));
+        }
+    }
+
+    private static MessageReply getReply(Object o, MessageCompressor compressor)
+        throws IOException
+    {
+        if (o instanceof ASN1Encodable && CompressedMessage.isCompressed((ASN1Encodable)o))
+        {
+            if (compressor == null)
+            {
+                throw new IOException("compressed reply on link without compression");
+            }
+
+            return MessageReply.getInstance(compressor.decompress(CompressedMessage.getInstance(o)));
+        }
+
+        return MessageReply.getInstance(o);
+    }
+
+    // reset the link after a failure, provided no one has already replaced it.
+    private synchronized void resetLink(Socket link)
+    {
+        if (connection == link)
+        {
+            try
+            {
+                close();
+            }
+            catch (Exception e)
+            {
+                eventNotifier.notify(EventNotifier.Level.WARN, "Exception resetting link to " + address + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private void openOnce()
+        throws ServiceConnectionException
+    {
+        try
+        {
+            this.open();
+
+            listener.status(name, true);
+        }
+        catch (Exception e)
+        {
+            Socket link = connection;
+
+            connection = null;
+            pendingReplies = null;
+            compressor = null;
+
+            if (link != null)
+            {
+                try
+                {
+                    link.close();
+                }
+                catch (IOException ex)
+                {
+                    // ignore - it never opened properly anyway.
+                }
+            }
+
+            if (e instanceof ServiceConnectionException)
+            {
+                throw (ServiceConnectionException)e;
+            }
+
+            throw new ServiceConnectionException("Unable to open link to " + address + ":" + portNo + ": " + e.getMessage(), e);
+        }
+    }
+
     private void buildConnection()
         throws ServiceConnectionException
     {
@@ -257,6 +656,224 @@ class NodeServicesConnection
         throw new ServiceConnectionException("Node unavailable " + address + ":" + portNo);
     }
 
+    private static class ReplyFuture
+        extends FutureTask<MessageReply>
+    {
+        ReplyFuture()
+        {
+            super(new Callable<MessageReply>()
+            {
+                @Override
+                public MessageReply call()
+                    throws Exception
+                {
+                    throw new IllegalStateException("reply future cannot be run");
+                }
+            });
+        }
+
+        void reply(MessageReply reply)
+        {
+            set(reply);
+        }
+
+        void fail(Throwable cause)
+        {
+            setException(cause);
+        }
+    }
+
+    private class ReplyReader
+        implements Runnable
+    {
+        private final Socket link;
+        private final InputStream in;
+        private final Map<Integer, ReplyFuture> pending;
+        private final MessageCompressor compressor;
+
+        ReplyReader(Socket link, InputStream in, Map<Integer, ReplyFuture> pending, MessageCompressor compressor)
+        {
+            this.link = link;
+            this.in = in;
+            this.pending = pending;
+            this.compressor = compressor;
+        }
+
+        @Override
+        public void run()
+        {
+            Exception cause;
+
+            try
+            {
+                ASN1InputStream aIn = new ASN1InputStream(in, MAX_REPLY_SIZE);
+                Object o;
+
+                while ((o = aIn.readObject()) != null)
+                {
+                    MessageEnvelope envelope = MessageEnvelope.getInstance(o);
+                    ReplyFuture reply = pending.remove(envelope.getRequestID());
+
+                    if (reply != null)
+                    {
+                        reply.reply(readReply(envelope.getContent(), compressor));
+                    }
+                    else
+                    {
+                        eventNotifier.notify(EventNotifier.Level.WARN, "Node " + name + " replied to unknown request " + envelope.getRequestID());
+                    }
+                }
+
+                cause = new EOFException("Link to node " + name + " closed");
+            }
+            catch (Exception e)
+            {
+                cause = e;
+            }
+
+            resetLink(link);
+
+            // anything still waiting went out on this link, so it's not going to get an answer.
+            List<ReplyFuture> orphans = new ArrayList<>(pending.values());
+
+            pending.clear();
+
+            for (ReplyFuture reply : orphans)
+            {
+                reply.fail(cause);
+            }
+        }
+    }
+
+    private class StreamChannel
+        implements BulkTransferChannel
+    {
+        private final SocketChannel channel;
+        private final CRC32 checksum = new CRC32();
+        private final ByteBuffer header = ByteBuffer.allocate(8);
+
+        private ByteBuffer checksumBuffer;
+
+        StreamChannel(SocketChannel channel)
+        {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(ByteBuffer data)
+            throws ServiceConnectionException
+        {
+            if (!data.hasRemaining())
+            {
+                return;    // a zero length chunk would mark the end of the stream.
+            }
+
+            try
+            {
+                writeHeader(data.remaining());
+
+                checksum.update(data.duplicate());
+
+                writeFully(channel, data);
+            }
+            catch (IOException e)
+            {
+                throw new ServiceConnectionException("Stream to node " + name + " failed: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public void transferFrom(FileChannel file, long position, long count)
+            throws ServiceConnectionException
+        {
+            if (count == 0)
+            {
+                return;
+            }
+
+            try
+            {
+                writeHeader(count);
+
+                long sent = 0;
+                while (sent < count)
+                {
+                    sent += file.transferTo(position + sent, count - sent, channel);
+                }
+
+                // the data never passes through us on the way out, so the checksum needs a read of its own.
+                if (checksumBuffer == null)
+                {
+                    checksumBuffer = ByteBuffer.allocateDirect(STREAM_BUFFER_SIZE);
+                }
+
+                long done = 0;
+                while (done < count)
+                {
+                    checksumBuffer.clear();
+                    checksumBuffer.limit((int)Math.min(count - done, checksumBuffer.capacity()));
+
+                    int read = file.read(checksumBuffer, position + done);
+                    if (read < 0)
+                    {
+                        throw new EOFException("file ended before end of region");
+                    }
+
+                    checksumBuffer.flip();
+                    checksum.update(checksumBuffer);
+                    done += read;
+                }
+            }
+            catch (IOException e)
+            {
+                throw new ServiceConnectionException("Stream to node " + name + " failed: " + e.getMessage(), e);
+            }
+        }
+
+        @Override
+        public MessageReply close()
+            throws ServiceConnectionException
+        {
+            try
+            {
+                writeHeader(0);
+                writeFully(channel, ByteBuffer.wrap(new DEROctetString(Pack.intToBigEndian((int)checksum.getValue())).getEncoded()));
+
+                MessageReply reply = MessageReply.getInstance(new ASN1InputStream(channel.socket().getInputStream(), MAX_REPLY_SIZE).readObject());
+                if (reply == null)
+                {
+                    throw new EOFException("Node " + name + " closed stream without reply");
+                }
+
+                return reply;
+            }
+            catch (IOException e)
+            {
+                throw new ServiceConnectionException("Stream to node " + name + " failed: " + e.getMessage(), e);
+            }
+            finally
+            {
+                NodeServicesConnection.this.close(channel);
+            }
+        }
+
+        @Override
+        public void abort()
+        {
+            NodeServicesConnection.this.close(channel);
+        }
+
+        private void writeHeader(long count)
+            throws IOException
+        {
+            header.clear();
+            header.putLong(count);
+            header.flip();
+
+            writeFully(channel, header);
+        }
+    }
+
     private class OpenTask
         implements Runnable
     {
@@ -267,7 +884,10 @@ class NodeServicesConnection
             {
                 try
                 {
-                    NodeServicesConnection.this.open();
+                    synchronized (NodeServicesConnection.this)
+                    {
+                        NodeServicesConnection.this.open();
+                    }
 
                     isTryingToConnect.set(false);
 
@@ -23,7 +23,6 @@ import java.util.concurrent.Executor;
 
 import org.bouncycastle.asn1.ASN1Encodable;
 import org.cryptoworkshop.ximix.common.asn1.message.CapabilityMessage;
-import org.cryptoworkshop.ximix.common.asn1.message.CommandMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
 import org.cryptoworkshop.ximix.common.asn1.message.MessageType;
 import org.cryptoworkshop.ximix.common.util.DecoupledListenerHandlerFactory;
@@ -32,7 +31,8 @@ import org.cryptoworkshop.ximix.common.util.ListenerHandler;
 
 /**
  * Internal implementation of a general ServicesConnection. Unlike a NodeServicesConnection this class addresses the
- * Ximix network as a whole and will choose the first available suitable node for processing a message.
+ * Ximix network as a whole and will choose the first available suitable node for processing a message. Traffic to the
+ * chosen node is spread over a pool of connections, so large transfers do not hold up other messages.
  */
 class ServicesConnectionImpl
     implements ServicesConnection
@@ -40,13 +40,9 @@ class ServicesConnectionImpl
     private final EventNotifier eventNotifier;
     private final NodeConnectionListener nodeConnectionListener;
     private final CountDownLatch isActivated = new CountDownLatch(1);
-    private final List<NodeServicesConnection> connections = new ArrayList<>();
-    private final List<NodeServicesConnection> adminConnections = new ArrayList<>();
-    private final List<NodeServicesConnection> backupConnections = new ArrayList<>();
+    private final List<NodeConnectionPool> connections = new ArrayList<>();
 
-    private volatile NodeServicesConnection connection;
-    private volatile NodeServicesConnection adminConnection;
-    private volatile NodeServicesConnection backupConnection;
+    private volatile NodeConnectionPool connection;
 
     public ServicesConnectionImpl(List<NodeConfig> configList, Executor decoupler, EventNotifier eventNotifier)
     {
@@ -74,9 +70,7 @@ class ServicesConnectionImpl
 
             if (nodeConf.getThrowable() == null)
             {
-                connections.add(new NodeServicesConnection(nodeConf, nodeConnectionListener, eventNotifier));
-                adminConnections.add(new NodeServicesConnection(nodeConf, nodeConnectionListener, eventNotifier));
-                backupConnections.add(new NodeServicesConnection(nodeConf, nodeConnectionListener, eventNotifier));
+                connections.add(new NodeConnectionPool(nodeConf, nodeConnectionListener, eventNotifier));
             }
             else
             {
@@ -90,8 +84,6 @@ class ServicesConnectionImpl
         throws ServiceConnectionException
     {
         connection.shutdown();
-        adminConnection.shutdown();
-        backupConnection.shutdown();
     }
 
     @Override
@@ -113,12 +105,8 @@ class ServicesConnectionImpl
                     try
                     {
                         connection = connections.get(nodeNo);
-                        adminConnection = adminConnections.get(nodeNo);
-                        backupConnection = backupConnections.get(nodeNo);
 
                         connection.activate();
-                        adminConnection.activate();
-                        backupConnection.activate();
                         return;
                     }
                     catch (Exception e)
@@ -129,18 +117,12 @@ class ServicesConnectionImpl
 
                 // none are currently working, we'll just have to make the best of it.
                 connection = connections.get(0);
-                adminConnection = adminConnections.get(0);
-                backupConnection = backupConnections.get(0);
             }
             else
             {
                 // if we end up here, there's only one
                 connection = connections.get(0);
                 connection.activate();
-                adminConnection = adminConnections.get(0);
-                adminConnection.activate();
-                backupConnection = backupConnections.get(0);
-                backupConnection.activate();
             }
         }
         finally
@@ -188,18 +170,6 @@ class ServicesConnectionImpl
             Thread.currentThread().interrupt();
         }
 
-        // keep admin info messages on a separate channel.
-        if (type == CommandMessage.Type.NODE_INFO_UPDATE || type == CommandMessage.Type.NODE_STATISTICS)
-        {
-            return adminConnection.sendMessage(type, messagePayload);
-        }
-        else if (type == CommandMessage.Type.BACKUP_BOARD_CREATE || type == CommandMessage.Type.TRANSFER_TO_BACKUP_BOARD || type == CommandMessage.Type.CLEAR_BACKUP_BOARD)
-        {
-            return backupConnection.sendMessage(type, messagePayload);
-        }
-        else
-        {
-            return connection.sendMessage(type, messagePayload);
-        }
+        return connection.sendMessage(type, messagePayload);
     }
 }
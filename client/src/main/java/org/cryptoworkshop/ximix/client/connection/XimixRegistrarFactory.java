@@ -361,7 +361,6 @@ public class XimixRegistrarFactory
         public MessageReply sendMessage(String nodeName, MessageType type, ASN1Encodable messagePayload)
             throws ServiceConnectionException
         {
-
             NodeServicesConnection connection = connectionMap.get(nodeName);
             if (connection == null)
             {
@@ -370,6 +369,19 @@ public class XimixRegistrarFactory
 
             return connection.sendMessage(type, messagePayload);
         }
+
+        @Override
+        public BulkTransferChannel openBulkTransfer(String nodeName, MessageType type, ASN1Encodable messagePayload)
+            throws ServiceConnectionException
+        {
+            NodeServicesConnection connection = connectionMap.get(nodeName);
+            if (connection == null)
+            {
+                throw new ServiceConnectionException("Connection '" + nodeName + "' was not found.");
+            }
+
+            return connection.openBulkTransfer(type, messagePayload);
+        }
     }
 
     private static Map<String, NodeDetail> getDetailMap(List<NodeConfig> nodes, EventNotifier eventNotifier)
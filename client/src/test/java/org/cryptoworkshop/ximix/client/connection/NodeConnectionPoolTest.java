@@ -0,0 +1,156 @@
+package org.cryptoworkshop.ximix.client.connection;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.cryptoworkshop.ximix.common.asn1.message.ClientMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CommandMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+import org.cryptoworkshop.ximix.common.util.JDKLoggingEventNotifier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class NodeConnectionPoolTest
+    extends TestCase
+{
+    private TestNode node;
+    private NodeConnectionPool pool;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        node = new TestNode(0x01);      // multiplexing only.
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        if (pool != null)
+        {
+            pool.shutdown();
+        }
+
+        node.shutdown();
+    }
+
+    @Test
+    public void testIdempotentFailover()
+        throws Exception
+    {
+        pool = createPool(2, 2);
+
+        MessageReply reply = pool.sendMessage(CommandMessage.Type.FETCH_BOARD_STATUS, new DERUTF8String("drop-once:status"));
+
+        // the first link died under the request, so it went again on the other one.
+        assertEquals(MessageReply.Type.OKAY, reply.getType());
+        assertEquals(2, node.getReceived(CommandMessage.Type.FETCH_BOARD_STATUS));
+    }
+
+    @Test
+    public void testNoFailoverForUpload()
+        throws Exception
+    {
+        pool = createPool(2, 2);
+
+        MessageReply reply = pool.sendMessage(ClientMessage.Type.UPLOAD_TO_BOARD, new DERUTF8String("drop-once:upload"));
+
+        // the node may have taken the upload before the link went, so it must not be sent again.
+        assertEquals(MessageReply.Type.ERROR, reply.getType());
+        assertEquals(1, node.getReceived(ClientMessage.Type.UPLOAD_TO_BOARD));
+
+        // the pool itself is still usable.
+        assertEquals(MessageReply.Type.OKAY, pool.sendMessage(ClientMessage.Type.UPLOAD_TO_BOARD, new DERUTF8String("upload")).getType());
+    }
+
+    @Test
+    public void testUnopenableLinkSkipped()
+        throws Exception
+    {
+        pool = createPool(2, 1);
+
+        // the pool's second link will be closed as soon as it connects.
+        node.refusedLinks.add(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        try
+        {
+            Future<MessageReply> blocked = executor.submit(new Callable<MessageReply>()
+            {
+                @Override
+                public MessageReply call()
+                    throws Exception
+                {
+                    return pool.sendMessage(CommandMessage.Type.FETCH_BOARD_STATUS, new DERUTF8String("block:1"));
+                }
+            });
+
+            while (node.getReceived(CommandMessage.Type.FETCH_BOARD_STATUS) == 0)
+            {
+                Thread.sleep(10);
+            }
+
+            long start = System.currentTimeMillis();
+
+            // the first link is busy, the new one fails to open, so this has to go on the busy one.
+            MessageReply reply = pool.sendMessage(CommandMessage.Type.FETCH_BOARD_STATUS, new DERUTF8String("status"));
+
+            assertEquals(MessageReply.Type.OKAY, reply.getType());
+            assertTrue(System.currentTimeMillis() - start < 5000);
+
+            node.gate.countDown();
+
+            assertEquals(MessageReply.Type.OKAY, blocked.get(20, TimeUnit.SECONDS).getType());
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testLatencyAwareSelection()
+        throws Exception
+    {
+        pool = createPool(2, 2);
+
+        node.slowLink = 0;
+        node.slowDelay = 50;
+
+        for (int i = 0; i != 10; i++)
+        {
+            assertEquals(MessageReply.Type.OKAY, pool.sendMessage(CommandMessage.Type.FETCH_BOARD_STATUS, new DERUTF8String("status")).getType());
+        }
+
+        double[] latencies = pool.getLatencies();
+
+        // each link is measured once, after that the quick one gets everything.
+        assertTrue(latencies[0] > latencies[1]);
+        assertEquals(1, node.receivedByLink.get(0).get());
+        assertEquals(9, node.receivedByLink.get(1).get());
+    }
+
+    private NodeConnectionPool createPool(int size, int warmUp)
+        throws Exception
+    {
+        NodeConnectionPool pool = new NodeConnectionPool(node.createConfig("<poolSize>" + size + "</poolSize><poolWarmUp>" + warmUp + "</poolWarmUp>"), new NodeConnectionListener()
+        {
+            @Override
+            public void status(String name, boolean isAvailable)
+            {
+            }
+        }, new JDKLoggingEventNotifier());
+
+        pool.activate();
+
+        return pool;
+    }
+}
@@ -0,0 +1,234 @@
+package org.cryptoworkshop.ximix.client.connection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.cryptoworkshop.ximix.common.asn1.message.ClientMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CommandMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+import org.cryptoworkshop.ximix.common.asn1.message.NodeInfo;
+import org.cryptoworkshop.ximix.common.util.JDKLoggingEventNotifier;
+import org.junit.After;
+import org.junit.Test;
+
+public class NodeServicesConnectionTest
+    extends TestCase
+{
+    private TestNode node;
+    private NodeServicesConnection connection;
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        if (connection != null)
+        {
+            connection.shutdown();
+        }
+
+        node.shutdown();
+    }
+
+    @Test
+    public void testOutOfOrderReplies()
+        throws Exception
+    {
+        node = new TestNode(NodeInfo.MULTIPLEXING);
+        connection = createConnection(false);
+
+        Future<MessageReply> slow = connection.sendMessageAsync(CommandMessage.Type.NODE_STATISTICS, new DERUTF8String("delay:500:slow"));
+        Future<MessageReply> fast = connection.sendMessageAsync(CommandMessage.Type.NODE_STATISTICS, new DERUTF8String("delay:0:fast"));
+
+        // the second request is answered first, and each reply still finds its way to its own request.
+        assertEquals("delay:0:fast", getPayload(fast.get(10, TimeUnit.SECONDS)));
+        assertFalse(slow.isDone());
+        assertEquals("delay:500:slow", getPayload(slow.get(10, TimeUnit.SECONDS)));
+
+        assertEquals(1, node.receivedByLink.size());
+    }
+
+    @Test
+    public void testManyConcurrentRequests()
+        throws Exception
+    {
+        node = new TestNode(NodeInfo.MULTIPLEXING);
+        connection = createConnection(false);
+
+        List<Future<MessageReply>> replies = new ArrayList<>();
+
+        for (int i = 0; i != 200; i++)
+        {
+            replies.add(connection.sendMessageAsync(CommandMessage.Type.NODE_STATISTICS, new DERUTF8String("delay:" + (i % 7) * 10 + ":" + i)));
+        }
+
+        for (int i = 0; i != 200; i++)
+        {
+            assertEquals("delay:" + (i % 7) * 10 + ":" + i, getPayload(replies.get(i).get(20, TimeUnit.SECONDS)));
+        }
+
+        assertEquals(1, node.receivedByLink.size());
+    }
+
+    @Test
+    public void testLinkFailureFailsOutstanding()
+        throws Exception
+    {
+        node = new TestNode(NodeInfo.MULTIPLEXING);
+        connection = createConnection(false);
+
+        Future<MessageReply> blocked = connection.sendMessageAsync(CommandMessage.Type.NODE_STATISTICS, new DERUTF8String("block:1"));
+        Future<MessageReply> dropped = connection.sendMessageAsync(CommandMessage.Type.NODE_STATISTICS, new DERUTF8String("drop-once:2"));
+
+        // both went out on the link that died, so neither will get an answer.
+        for (Future<MessageReply> reply : Arrays.asList(blocked, dropped))
+        {
+            try
+            {
+                reply.get(10, TimeUnit.SECONDS);
+
+                fail("no exception");
+            }
+            catch (ExecutionException e)
+            {
+                // expected
+            }
+        }
+
+        // the next request gets a new link.
+        assertEquals("echo:3", echo("echo:3"));
+        assertEquals(2, node.receivedByLink.size());
+    }
+
+    @Test
+    public void testRetryOnlyIfIdempotent()
+        throws Exception
+    {
+        node = new TestNode(NodeInfo.MULTIPLEXING);
+        connection = createConnection(false);
+
+        long start = System.currentTimeMillis();
+
+        // a status fetch is safe to repeat, so it goes again on a new link straight away.
+        MessageReply reply = connection.sendMessage(CommandMessage.Type.FETCH_BOARD_STATUS, new DERUTF8String("drop-once:status"));
+
+        assertEquals(MessageReply.Type.OKAY, reply.getType());
+        assertEquals(2, node.getReceived(CommandMessage.Type.FETCH_BOARD_STATUS));
+        assertTrue(System.currentTimeMillis() - start < 5000);
+
+        // an upload may already be on the board, so it isn't.
+        reply = connection.sendMessage(ClientMessage.Type.UPLOAD_TO_BOARD, new DERUTF8String("drop-once:upload"));
+
+        assertEquals(MessageReply.Type.ERROR, reply.getType());
+        assertEquals(1, node.getReceived(ClientMessage.Type.UPLOAD_TO_BOARD));
+    }
+
+    @Test
+    public void testCompressingClientPlainNode()
+        throws Exception
+    {
+        node = new TestNode(NodeInfo.MULTIPLEXING);
+        connection = createConnection(true);
+
+        String command = "echo:" + repeat('x', 20000);
+
+        assertEquals(command, echo(command));
+
+        // the node never offered compression, so it isn't sent any options.
+        assertNull(node.options);
+        assertEquals(0, node.compressedRequests.get());
+    }
+
+    @Test
+    public void testCompressingClientCompressingNode()
+        throws Exception
+    {
+        node = new TestNode(NodeInfo.MULTIPLEXING | NodeInfo.COMPRESSION);
+        connection = createConnection(true);
+
+        String command = "echo:" + repeat('x', 20000);
+
+        assertEquals(command, echo(command));
+
+        assertTrue(node.options.hasFeature(NodeInfo.COMPRESSION));
+        assertEquals(300000, node.options.getMaxReplySize());
+        assertEquals(1, node.compressedRequests.get());
+    }
+
+    @Test
+    public void testPlainClientCompressingNode()
+        throws Exception
+    {
+        node = new TestNode(NodeInfo.MULTIPLEXING | NodeInfo.COMPRESSION);
+        connection = createConnection(false);
+
+        String command = "echo:" + repeat('x', 20000);
+
+        assertEquals(command, echo(command));
+
+        // no compression, but the node still hears what the client's limit is.
+        assertFalse(node.options.hasFeature(NodeInfo.COMPRESSION));
+        assertEquals(300000, node.options.getMaxReplySize());
+        assertEquals(0, node.compressedRequests.get());
+    }
+
+    @Test
+    public void testOversizedInflate()
+        throws Exception
+    {
+        node = new TestNode(NodeInfo.MULTIPLEXING | NodeInfo.COMPRESSION);
+        connection = createConnection(true);
+
+        MessageReply reply = connection.sendMessage(CommandMessage.Type.NODE_STATISTICS, new DERUTF8String("oversize:1"));
+
+        assertEquals(MessageReply.Type.ERROR, reply.getType());
+        assertTrue(reply.interpretPayloadAsError().contains("exceeds the limit"));
+
+        // only the one reply was bad, the link is still the same one.
+        assertEquals("echo:2", echo("echo:2"));
+        assertEquals(1, node.receivedByLink.size());
+    }
+
+    private String echo(String command)
+        throws ServiceConnectionException
+    {
+        return getPayload(connection.sendMessage(CommandMessage.Type.NODE_STATISTICS, new DERUTF8String(command)));
+    }
+
+    private static String getPayload(MessageReply reply)
+    {
+        assertEquals(MessageReply.Type.OKAY, reply.getType());
+
+        return DERUTF8String.getInstance(reply.getPayload()).getString();
+    }
+
+    private NodeServicesConnection createConnection(boolean compression)
+        throws Exception
+    {
+        NodeServicesConnection connection = new NodeServicesConnection(node.createConfig("<compression>" + compression + "</compression>"), new NodeConnectionListener()
+        {
+            @Override
+            public void status(String name, boolean isAvailable)
+            {
+            }
+        }, new JDKLoggingEventNotifier());
+
+        connection.activate();
+
+        return connection;
+    }
+
+    private static String repeat(char c, int count)
+    {
+        char[] chars = new char[count];
+
+        Arrays.fill(chars, c);
+
+        return new String(chars);
+    }
+}
@@ -0,0 +1,286 @@
+package org.cryptoworkshop.ximix.client.connection;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.cryptoworkshop.ximix.common.asn1.message.CapabilityMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CompressedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.ConnectionOptions;
+import org.cryptoworkshop.ximix.common.asn1.message.Message;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageEnvelope;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageType;
+import org.cryptoworkshop.ximix.common.asn1.message.NodeInfo;
+import org.cryptoworkshop.ximix.common.util.MessageCompressor;
+
+/**
+ * A stand in for a node's services port which speaks just enough of the protocol for connection tests. Each request
+ * is answered on a thread of its own, so replies go back in whatever order they are finished, and the payload of a
+ * request says what to do with it:
+ * <ul>
+ * <li>"drop-once:..." - the first time it is seen the connection is closed without an answer.</li>
+ * <li>"block:..." - the answer waits until the test opens the gate.</li>
+ * <li>"delay:n:..." - the answer waits n milliseconds.</li>
+ * <li>"oversize:..." - the answer is a compressed reply claiming to be larger than any client will take.</li>
+ * <li>anything else - the payload is sent straight back.</li>
+ * </ul>
+ * If the node offers compression and a client asks for it, replies are compressed as a node would.
+ */
+class TestNode
+{
+    static final String NAME = "A";
+
+    final CountDownLatch gate = new CountDownLatch(1);
+    final Map<MessageType, AtomicInteger> received = new ConcurrentHashMap<>();
+    final List<AtomicInteger> receivedByLink = Collections.synchronizedList(new ArrayList<AtomicInteger>());
+    final Set<Integer> refusedLinks = Collections.synchronizedSet(new HashSet<Integer>());
+    final AtomicInteger compressedRequests = new AtomicInteger();
+
+    volatile ConnectionOptions options;
+
+    volatile int slowLink = -1;
+    volatile long slowDelay;
+
+    private final ServerSocket serverSocket;
+    private final int features;
+    private final Set<String> dropped = Collections.synchronizedSet(new HashSet<String>());
+    private final List<Socket> links = Collections.synchronizedList(new ArrayList<Socket>());
+
+    TestNode(int features)
+        throws IOException
+    {
+        this.serverSocket = new ServerSocket(0);
+        this.features = features;
+
+        Thread acceptor = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                accept();
+            }
+        });
+
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int getPort()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    int getReceived(MessageType type)
+    {
+        AtomicInteger count = received.get(type);
+
+        return (count != null) ? count.get() : 0;
+    }
+
+    NodeConfig createConfig(String extra)
+        throws Exception
+    {
+        String xml = "<node><name>" + NAME + "</name><host>127.0.0.1</host><portNo>" + getPort() + "</portNo>" + extra + "</node>";
+
+        return new NodeConfig(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8"))).getDocumentElement());
+    }
+
+    void shutdown()
+        throws IOException
+    {
+        gate.countDown();
+        serverSocket.close();
+
+        synchronized (links)
+        {
+            for (Socket link : links)
+            {
+                link.close();
+            }
+        }
+    }
+
+    private void accept()
+    {
+        try
+        {
+            for (int index = 0; ; index++)
+            {
+                final Socket link = serverSocket.accept();
+                final int linkIndex = index;
+
+                receivedByLink.add(new AtomicInteger());
+
+                if (refusedLinks.contains(linkIndex))
+                {
+                    link.close();
+                    continue;
+                }
+
+                links.add(link);
+
+                Thread reader = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        serve(link, linkIndex);
+                    }
+                });
+
+                reader.setDaemon(true);
+                reader.start();
+            }
+        }
+        catch (IOException e)
+        {
+            // closed.
+        }
+    }
+
+    private void serve(final Socket link, final int linkIndex)
+    {
+        try
+        {
+            final OutputStream out = link.getOutputStream();
+            InputStream in = link.getInputStream();
+
+            out.write(new NodeInfo(NAME, new CapabilityMessage[0], features).getEncoded());
+
+            ASN1InputStream aIn = new ASN1InputStream(in, 1024 * 1024);
+            ASN1Primitive frame;
+            MessageCompressor linkCompressor = null;
+
+            while ((frame = aIn.readObject()) != null)
+            {
+                if (ConnectionOptions.isConnectionOptions(frame.getEncoded()))
+                {
+                    options = ConnectionOptions.getInstance(frame);
+
+                    if (options.hasFeature(NodeInfo.COMPRESSION))
+                    {
+                        linkCompressor = new MessageCompressor(options.getCompressionThreshold(), 1024 * 1024);
+                    }
+                    continue;
+                }
+
+                final MessageEnvelope envelope = MessageEnvelope.getInstance(frame);
+                final MessageCompressor compressor = linkCompressor;
+                ASN1Encodable content = envelope.getContent();
+
+                if (CompressedMessage.isCompressed(content))
+                {
+                    compressedRequests.incrementAndGet();
+                    content = compressor.decompress(CompressedMessage.getInstance(content));
+                }
+
+                final Message<?> message = Message.getInstance(content);
+
+                count((MessageType)message.getType(), linkIndex);
+
+                Thread handler = new Thread(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        answer(link, out, linkIndex, envelope.getRequestID(), message, compressor);
+                    }
+                });
+
+                handler.setDaemon(true);
+                handler.start();
+            }
+        }
+        catch (IOException e)
+        {
+            // link gone.
+        }
+    }
+
+    private void count(MessageType type, int linkIndex)
+    {
+        synchronized (received)
+        {
+            if (!received.containsKey(type))
+            {
+                received.put(type, new AtomicInteger());
+            }
+        }
+
+        received.get(type).incrementAndGet();
+        receivedByLink.get(linkIndex).incrementAndGet();
+    }
+
+    private void answer(Socket link, OutputStream out, int linkIndex, int requestID, Message<?> message, MessageCompressor compressor)
+    {
+        ASN1Encodable payload = message.getPayload();
+        String command = (payload instanceof DERUTF8String) ? ((DERUTF8String)payload).getString() : "";
+
+        try
+        {
+            if (command.startsWith("drop-once:") && dropped.add(command))
+            {
+                link.close();
+                return;
+            }
+
+            if (command.startsWith("block:"))
+            {
+                gate.await(20, TimeUnit.SECONDS);
+            }
+
+            if (command.startsWith("delay:"))
+            {
+                Thread.sleep(Long.parseLong(command.split(":")[1]));
+            }
+
+            if (linkIndex == slowLink)
+            {
+                Thread.sleep(slowDelay);
+            }
+
+            ASN1Encodable content = new MessageReply(MessageReply.Type.OKAY, payload);
+
+            if (command.startsWith("oversize:"))
+            {
+                content = new CompressedMessage(400000, new byte[] { 1, 2, 3 });
+            }
+            else if (compressor != null)
+            {
+                content = compressor.compress(content);
+            }
+
+            byte[] reply = new MessageEnvelope(requestID, content).getEncoded();
+
+            synchronized (out)
+            {
+                out.write(reply);
+                out.flush();
+            }
+        }
+        catch (Exception e)
+        {
+            // link gone, or test over.
+        }
+    }
+}
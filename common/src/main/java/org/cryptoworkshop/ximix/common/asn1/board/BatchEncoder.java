@@ -0,0 +1,240 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.common.asn1.board;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bouncycastle.crypto.ec.ECPair;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.cryptoworkshop.ximix.common.crypto.ECDecryptionProof;
+
+/**
+ * Encoder for blocks of point sequences.
+ * <p>
+ * Encoding a point requires it to be in affine form, which costs a field inversion for every point that has come
+ * out of an addition or a multiplication. The methods here collect the points for a whole block of sequences and
+ * normalise them together, so the block shares a single inversion (Montgomery's trick) before anything is encoded.
+ * </p>
+ */
+public class BatchEncoder
+{
+    private BatchEncoder()
+    {
+    }
+
+    /**
+     * Return the encodings of a block of pair sequences.
+     *
+     * @param sequences the sequences to encode.
+     * @return an array of DER encodings, one for each sequence.
+     * @throws IOException if a sequence cannot be encoded.
+     */
+    public static byte[][] getEncoded(PairSequence[] sequences)
+        throws IOException
+    {
+        List<ECPoint> points = new ArrayList<>();
+
+        for (PairSequence sequence : sequences)
+        {
+            addPairs(points, sequence.getECPairs());
+        }
+
+        ECPoint[] normalized = normalize(points.toArray(new ECPoint[points.size()]));
+        byte[][] encodings = new byte[sequences.length][];
+        int pos = 0;
+
+        for (int i = 0; i != sequences.length; i++)
+        {
+            ECPair[] pairs = new ECPair[sequences[i].size()];
+
+            pos = copyPairs(normalized, pos, pairs);
+
+            encodings[i] = new PairSequence(pairs, sequences[i].isCompressed()).getEncoded();
+        }
+
+        return encodings;
+    }
+
+    /**
+     * Return the encodings of a block of point sequences.
+     *
+     * @param sequences the sequences to encode.
+     * @return an array of DER encodings, one for each sequence.
+     * @throws IOException if a sequence cannot be encoded.
+     */
+    public static byte[][] getEncoded(PointSequence[] sequences)
+        throws IOException
+    {
+        List<ECPoint> points = new ArrayList<>();
+
+        for (PointSequence sequence : sequences)
+        {
+            for (ECPoint point : sequence.getECPoints())
+            {
+                points.add(point);
+            }
+        }
+
+        ECPoint[] normalized = normalize(points.toArray(new ECPoint[points.size()]));
+        byte[][] encodings = new byte[sequences.length][];
+        int pos = 0;
+
+        for (int i = 0; i != sequences.length; i++)
+        {
+            ECPoint[] seqPoints = new ECPoint[sequences[i].size()];
+
+            System.arraycopy(normalized, pos, seqPoints, 0, seqPoints.length);
+            pos += seqPoints.length;
+
+            encodings[i] = new PointSequence(seqPoints, sequences[i].isCompressed()).getEncoded();
+        }
+
+        return encodings;
+    }
+
+    /**
+     * Return the encodings of a block of pair sequences carrying decryption proofs.
+     *
+     * @param sequences the sequences to encode.
+     * @return an array of DER encodings, one for each sequence.
+     * @throws IOException if a sequence cannot be encoded.
+     */
+    public static byte[][] getEncoded(PairSequenceWithProofs[] sequences)
+        throws IOException
+    {
+        List<ECPoint> points = new ArrayList<>();
+
+        for (PairSequenceWithProofs sequence : sequences)
+        {
+            addPairs(points, sequence.getECPairs());
+            addProofs(points, sequence.getECProofs());
+        }
+
+        ECPoint[] normalized = normalize(points.toArray(new ECPoint[points.size()]));
+        byte[][] encodings = new byte[sequences.length][];
+        int pos = 0;
+
+        for (int i = 0; i != sequences.length; i++)
+        {
+            ECPair[] pairs = new ECPair[sequences[i].size()];
+            ECDecryptionProof[] proofs = new ECDecryptionProof[sequences[i].getECProofs().length];
+
+            pos = copyPairs(normalized, pos, pairs);
+            pos = copyProofs(normalized, pos, sequences[i].getECProofs(), proofs);
+
+            encodings[i] = new PairSequenceWithProofs(pairs, proofs, sequences[i].isCompressed()).getEncoded();
+        }
+
+        return encodings;
+    }
+
+    static void addPairs(List<ECPoint> points, ECPair[] pairs)
+    {
+        for (ECPair pair : pairs)
+        {
+            points.add(pair.getX());
+            points.add(pair.getY());
+        }
+    }
+
+    static void addProofs(List<ECPoint> points, ECDecryptionProof[] proofs)
+    {
+        for (ECDecryptionProof proof : proofs)
+        {
+            points.add(proof.getA());
+            points.add(proof.getB());
+        }
+    }
+
+    static int copyPairs(ECPoint[] normalized, int pos, ECPair[] pairs)
+    {
+        for (int i = 0; i != pairs.length; i++)
+        {
+            pairs[i] = new ECPair(normalized[pos], normalized[pos + 1]);
+            pos += 2;
+        }
+
+        return pos;
+    }
+
+    static int copyProofs(ECPoint[] normalized, int pos, ECDecryptionProof[] original, ECDecryptionProof[] proofs)
+    {
+        for (int i = 0; i != proofs.length; i++)
+        {
+            proofs[i] = new ECDecryptionProof(normalized[pos], normalized[pos + 1], original[i].getR());
+            pos += 2;
+        }
+
+        return pos;
+    }
+
+    /**
+     * Return a copy of the passed in points in normalised form, using one shared inversion for each curve
+     * present. Points which are already normalised are passed through as is.
+     *
+     * @param points the points to normalise.
+     * @return an array of normalised points, in the same order as the original.
+     */
+    static ECPoint[] normalize(ECPoint[] points)
+    {
+        ECPoint[] normalized = points.clone();
+        Map<ECCurve, List<Integer>> curves = new IdentityHashMap<>();
+
+        for (int i = 0; i != normalized.length; i++)
+        {
+            ECCurve curve = normalized[i].getCurve();
+
+            if (curve == null || normalized[i].isNormalized())
+            {
+                continue;
+            }
+
+            List<Integer> indexes = curves.get(curve);
+            if (indexes == null)
+            {
+                indexes = new ArrayList<>();
+                curves.put(curve, indexes);
+            }
+
+            indexes.add(i);
+        }
+
+        for (Map.Entry<ECCurve, List<Integer>> entry : curves.entrySet())
+        {
+            List<Integer> indexes = entry.getValue();
+            ECPoint[] curvePoints = new ECPoint[indexes.size()];
+
+            for (int i = 0; i != curvePoints.length; i++)
+            {
+                curvePoints[i] = normalized[indexes.get(i)];
+            }
+
+            entry.getKey().normalizeAll(curvePoints);
+
+            for (int i = 0; i != curvePoints.length; i++)
+            {
+                normalized[indexes.get(i)] = curvePoints[i];
+            }
+        }
+
+        return normalized;
+    }
+}
@@ -32,10 +32,17 @@ class Pair
     extends ASN1Object
 {
     private final ECPair ecPair;
+    private final boolean compressed;
 
     Pair(ECPair ecPair)
+    {
+        this(ecPair, false);
+    }
+
+    Pair(ECPair ecPair, boolean compressed)
     {
         this.ecPair = ecPair;
+        this.compressed = compressed;
     }
 
     /**
@@ -52,8 +59,8 @@ class Pair
     {
         ASN1EncodableVector v = new ASN1EncodableVector();
 
-        v.add(new DEROctetString(ecPair.getX().getEncoded()));
-        v.add(new DEROctetString(ecPair.getY().getEncoded()));
+        v.add(new DEROctetString(ecPair.getX().getEncoded(compressed)));
+        v.add(new DEROctetString(ecPair.getY().getEncoded(compressed)));
 
         return new DERSequence(v);
     }
@@ -71,7 +78,7 @@ class Pair
             byte[] encX = ASN1OctetString.getInstance(s.getObjectAt(0)).getOctets();
             byte[] encY = ASN1OctetString.getInstance(s.getObjectAt(1)).getOctets();
 
-            return new Pair(new ECPair(curve.decodePoint(encX), curve.decodePoint(encY)));
+            return new Pair(new ECPair(curve.decodePoint(encX), curve.decodePoint(encY)), isCompressed(encX) || isCompressed(encY));
         }
 
         return null;
@@ -81,4 +88,20 @@ class Pair
     {
         return ecPair;
     }
+
+    public boolean isCompressed()
+    {
+        return compressed;
+    }
+
+    /**
+     * Return true if the passed in point encoding is in compressed form.
+     *
+     * @param encoding an encoded EC point.
+     * @return true if the encoding is compressed, false otherwise.
+     */
+    static boolean isCompressed(byte[] encoding)
+    {
+        return encoding.length > 0 && (encoding[0] == 0x02 || encoding[0] == 0x03);
+    }
 }
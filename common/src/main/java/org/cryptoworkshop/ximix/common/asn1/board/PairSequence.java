@@ -15,6 +15,9 @@
  */
 package org.cryptoworkshop.ximix.common.asn1.board;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Object;
 import org.bouncycastle.asn1.ASN1Primitive;
@@ -22,6 +25,7 @@ import org.bouncycastle.asn1.ASN1Sequence;
 import org.bouncycastle.asn1.DERSequence;
 import org.bouncycastle.crypto.ec.ECPair;
 import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
 
 /**
  * Helper class for carrying an array of EC pairs.
@@ -30,6 +34,7 @@ public class PairSequence
     extends ASN1Object
 {
     private final ECPair[] ecPairs;
+    private final boolean compressed;
 
     /**
      * Create a sequence from a single pair.
@@ -39,6 +44,7 @@ public class PairSequence
     public PairSequence(ECPair ecPair)
     {
         this.ecPairs = new ECPair[] { ecPair };
+        this.compressed = false;
     }
 
     /**
@@ -47,18 +53,37 @@ public class PairSequence
      * @param ecPairs the pairs to include.
      */
     public PairSequence(ECPair... ecPairs)
+    {
+        this(ecPairs, false);
+    }
+
+    /**
+     * Create a sequence from a collection of pairs, specifying the form the points are encoded in.
+     *
+     * @param ecPairs the pairs to include.
+     * @param compressed true if the points should be encoded in compressed form, false otherwise.
+     */
+    public PairSequence(ECPair[] ecPairs, boolean compressed)
     {
         this.ecPairs = ecPairs.clone();
+        this.compressed = compressed;
     }
 
     private PairSequence(ECCurve curve, ASN1Sequence s)
     {
+        boolean isCompressed = false;
+
         ecPairs = new ECPair[s.size()];
 
         for (int i = 0; i != ecPairs.length; i++)
         {
-            ecPairs[i] = Pair.getInstance(curve, s.getObjectAt(i)).getECPair();
+            Pair pair = Pair.getInstance(curve, s.getObjectAt(i));
+
+            ecPairs[i] = pair.getECPair();
+            isCompressed |= pair.isCompressed();
         }
+
+        compressed = isCompressed;
     }
 
     /**
@@ -72,14 +97,27 @@ public class PairSequence
     {
         ASN1EncodableVector v = new ASN1EncodableVector();
 
-        for (ECPair pair : ecPairs)
+        for (ECPair pair : normalizedPairs(ecPairs))
         {
-            v.add(new Pair(pair));
+            v.add(new Pair(pair, compressed));
         }
 
         return new DERSequence(v);
     }
 
+    private static ECPair[] normalizedPairs(ECPair[] ecPairs)
+    {
+        List<ECPoint> points = new ArrayList<>(2 * ecPairs.length);
+
+        BatchEncoder.addPairs(points, ecPairs);
+
+        ECPair[] pairs = new ECPair[ecPairs.length];
+
+        BatchEncoder.copyPairs(BatchEncoder.normalize(points.toArray(new ECPoint[points.size()])), 0, pairs);
+
+        return pairs;
+    }
+
     /**
      * Reconstruct a PairSequence from it's ASN.1 representation.
      *
@@ -111,6 +149,17 @@ public class PairSequence
         return ecPairs.clone();
     }
 
+    /**
+     * Return whether the points in this sequence are encoded in compressed form. For a sequence that has been
+     * reconstructed this reflects the form of the original encoding.
+     *
+     * @return true if the points are compressed, false otherwise.
+     */
+    public boolean isCompressed()
+    {
+        return compressed;
+    }
+
     /**
      * Return the number of pairs contained in the sequence.
      *
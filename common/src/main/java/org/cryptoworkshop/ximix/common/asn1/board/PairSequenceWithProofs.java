@@ -15,6 +15,9 @@
  */
 package org.cryptoworkshop.ximix.common.asn1.board;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.ASN1Object;
@@ -25,6 +28,7 @@ import org.bouncycastle.asn1.DEROctetString;
 import org.bouncycastle.asn1.DERSequence;
 import org.bouncycastle.crypto.ec.ECPair;
 import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
 import org.cryptoworkshop.ximix.common.crypto.ECDecryptionProof;
 
 /**
@@ -35,6 +39,7 @@ public class PairSequenceWithProofs
 {
     private final ECPair[] ecPairs;
     private final ECDecryptionProof[] ecProofs;
+    private final boolean compressed;
 
     /**
      * Create a sequence from a collection of pairs representing partial decrypts.
@@ -43,22 +48,42 @@ public class PairSequenceWithProofs
      * @param ecProofs proofs of decryption associated with each pair
      */
     public PairSequenceWithProofs(ECPair[] ecPairs, ECDecryptionProof[] ecProofs)
+    {
+        this(ecPairs, ecProofs, false);
+    }
+
+    /**
+     * Create a sequence from a collection of pairs representing partial decrypts, specifying the form the pairs
+     * are encoded in. The points in the proofs are always compressed.
+     *
+     * @param ecPairs the pairs to include.
+     * @param ecProofs proofs of decryption associated with each pair
+     * @param compressed true if the pairs should be encoded in compressed form, false otherwise.
+     */
+    public PairSequenceWithProofs(ECPair[] ecPairs, ECDecryptionProof[] ecProofs, boolean compressed)
     {
         this.ecPairs = ecPairs.clone();
         this.ecProofs = ecProofs.clone();
+        this.compressed = compressed;
     }
 
     private PairSequenceWithProofs(ECCurve curve, ASN1Sequence sequence)
     {
         ASN1Sequence s = ASN1Sequence.getInstance(sequence.getObjectAt(0));
+        boolean isCompressed = false;
 
         ecPairs = new ECPair[s.size()];
 
         for (int i = 0; i != ecPairs.length; i++)
         {
-            ecPairs[i] = Pair.getInstance(curve, s.getObjectAt(i)).getECPair();
+            Pair pair = Pair.getInstance(curve, s.getObjectAt(i));
+
+            ecPairs[i] = pair.getECPair();
+            isCompressed |= pair.isCompressed();
         }
 
+        compressed = isCompressed;
+
         s = ASN1Sequence.getInstance(sequence.getObjectAt(1));
         ecProofs = new ECDecryptionProof[s.size()];
 
@@ -82,15 +107,26 @@ public class PairSequenceWithProofs
         ASN1EncodableVector tot = new ASN1EncodableVector();
         ASN1EncodableVector v = new ASN1EncodableVector();
 
-        for (ECPair pair : ecPairs)
+        List<ECPoint> points = new ArrayList<>(2 * (ecPairs.length + ecProofs.length));
+
+        BatchEncoder.addPairs(points, ecPairs);
+        BatchEncoder.addProofs(points, ecProofs);
+
+        ECPoint[] normalized = BatchEncoder.normalize(points.toArray(new ECPoint[points.size()]));
+        ECPair[] pairs = new ECPair[ecPairs.length];
+        ECDecryptionProof[] proofs = new ECDecryptionProof[ecProofs.length];
+
+        BatchEncoder.copyProofs(normalized, BatchEncoder.copyPairs(normalized, 0, pairs), ecProofs, proofs);
+
+        for (ECPair pair : pairs)
         {
-            v.add(new Pair(pair));
+            v.add(new Pair(pair, compressed));
         }
 
         tot.add(new DERSequence(v));
 
         v = new ASN1EncodableVector();
-        for (ECDecryptionProof proof : ecProofs)
+        for (ECDecryptionProof proof : proofs)
         {
             ASN1EncodableVector proofV = new ASN1EncodableVector();
 
@@ -147,6 +183,17 @@ public class PairSequenceWithProofs
         return ecProofs;
     }
 
+    /**
+     * Return whether the pairs in this object are encoded in compressed form. For an object that has been
+     * reconstructed this reflects the form of the original encoding.
+     *
+     * @return true if the pairs are compressed, false otherwise.
+     */
+    public boolean isCompressed()
+    {
+        return compressed;
+    }
+
     /**
      * Return the number of pairs contained in the object.
      *
@@ -32,6 +32,7 @@ public class PointSequence
     extends ASN1Object
 {
     private final ECPoint[] ecPoints;
+    private final boolean compressed;
 
     /**
      * Create a sequence from a single point.
@@ -41,6 +42,7 @@ public class PointSequence
     public PointSequence(ECPoint ecPoint)
     {
         this.ecPoints = new ECPoint[] { ecPoint };
+        this.compressed = false;
     }
 
     /**
@@ -49,18 +51,37 @@ public class PointSequence
      * @param ecPoints the points to include.
      */
     public PointSequence(ECPoint... ecPoints)
+    {
+        this(ecPoints, false);
+    }
+
+    /**
+     * Create a sequence from a collection of points, specifying the form the points are encoded in.
+     *
+     * @param ecPoints the points to include.
+     * @param compressed true if the points should be encoded in compressed form, false otherwise.
+     */
+    public PointSequence(ECPoint[] ecPoints, boolean compressed)
     {
         this.ecPoints = ecPoints.clone();
+        this.compressed = compressed;
     }
 
     private PointSequence(ECCurve curve, ASN1Sequence s)
     {
+        boolean isCompressed = false;
+
         ecPoints = new ECPoint[s.size()];
 
         for (int i = 0; i != ecPoints.length; i++)
         {
-            ecPoints[i] = curve.decodePoint(ASN1OctetString.getInstance(s.getObjectAt(i)).getOctets());
+            byte[] encoding = ASN1OctetString.getInstance(s.getObjectAt(i)).getOctets();
+
+            ecPoints[i] = curve.decodePoint(encoding);
+            isCompressed |= Pair.isCompressed(encoding);
         }
+
+        compressed = isCompressed;
     }
 
     /**
@@ -74,9 +95,9 @@ public class PointSequence
     {
         ASN1EncodableVector v = new ASN1EncodableVector();
 
-        for (ECPoint point : ecPoints)
+        for (ECPoint point : BatchEncoder.normalize(ecPoints))
         {
-            v.add(new DEROctetString(point.getEncoded()));
+            v.add(new DEROctetString(point.getEncoded(compressed)));
         }
 
         return new DERSequence(v);
@@ -113,6 +134,17 @@ public class PointSequence
         return ecPoints;
     }
 
+    /**
+     * Return whether the points in this sequence are encoded in compressed form. For a sequence that has been
+     * reconstructed this reflects the form of the original encoding.
+     *
+     * @return true if the points are compressed, false otherwise.
+     */
+    public boolean isCompressed()
+    {
+        return compressed;
+    }
+
     /**
      * Return the number of points contained in the sequence.
      *
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.common.asn1.message;
+
+import java.math.BigInteger;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERUTF8String;
+
+/**
+ * Request message asking a node to reply once a board reaches a given status. The node answers as soon as
+ * the status is reached, or with the board's current status if maxWait milliseconds pass first.
+ */
+public class AwaitBoardStatusMessage
+    extends ASN1Object
+{
+    /**
+     * Step number used to indicate the request is for the hosted board rather than a transit board.
+     */
+    public static final int HOSTED_BOARD = -1;
+
+    private final long operationNumber;
+    private final String boardName;
+    private final int stepNumber;
+    private final BoardStatusMessage.Status status;
+    private final long maxWait;
+
+    /**
+     * Constructor for a request on a hosted board, where IN_TRANSIT means locked and COMPLETE means unlocked.
+     *
+     * @param boardName the name of the hosted board.
+     * @param status the status to wait for.
+     * @param maxWait the maximum time, in milliseconds, the node should wait before replying.
+     */
+    public AwaitBoardStatusMessage(String boardName, BoardStatusMessage.Status status, long maxWait)
+    {
+        this(0, boardName, HOSTED_BOARD, status, maxWait);
+    }
+
+    /**
+     * Base constructor.
+     *
+     * @param operationNumber the ID of the operation the transit board belongs to.
+     * @param boardName the name of the board the transit board is associated with.
+     * @param stepNumber the number of the step in the operation the transit board is for.
+     * @param status the status to wait for.
+     * @param maxWait the maximum time, in milliseconds, the node should wait before replying.
+     */
+    public AwaitBoardStatusMessage(long operationNumber, String boardName, int stepNumber, BoardStatusMessage.Status status, long maxWait)
+    {
+        this.operationNumber = operationNumber;
+        this.boardName = boardName;
+        this.stepNumber = stepNumber;
+        this.status = status;
+        this.maxWait = maxWait;
+    }
+
+    private AwaitBoardStatusMessage(ASN1Sequence seq)
+    {
+        this.operationNumber = ASN1Integer.getInstance(seq.getObjectAt(0)).getValue().longValue();
+        this.boardName = DERUTF8String.getInstance(seq.getObjectAt(1)).getString();
+        this.stepNumber = ASN1Integer.getInstance(seq.getObjectAt(2)).getValue().intValue();
+        this.status = BoardStatusMessage.Status.values()[ASN1Enumerated.getInstance(seq.getObjectAt(3)).getValue().intValue()];
+        this.maxWait = ASN1Integer.getInstance(seq.getObjectAt(4)).getValue().longValue();
+    }
+
+    public static final AwaitBoardStatusMessage getInstance(Object o)
+    {
+        if (o instanceof AwaitBoardStatusMessage)
+        {
+            return (AwaitBoardStatusMessage)o;
+        }
+        else if (o != null)
+        {
+            return new AwaitBoardStatusMessage(ASN1Sequence.getInstance(o));
+        }
+
+        return null;
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive()
+    {
+        ASN1EncodableVector v = new ASN1EncodableVector();
+
+        v.add(new ASN1Integer(BigInteger.valueOf(operationNumber)));
+        v.add(new DERUTF8String(boardName));
+        v.add(new ASN1Integer(BigInteger.valueOf(stepNumber)));
+        v.add(new ASN1Enumerated(status.ordinal()));
+        v.add(new ASN1Integer(BigInteger.valueOf(maxWait)));
+
+        return new DERSequence(v);
+    }
+
+    public long getOperationNumber()
+    {
+        return operationNumber;
+    }
+
+    public String getBoardName()
+    {
+        return boardName;
+    }
+
+    public int getStepNumber()
+    {
+        return stepNumber;
+    }
+
+    public boolean isForHostedBoard()
+    {
+        return stepNumber == HOSTED_BOARD;
+    }
+
+    public BoardStatusMessage.Status getStatus()
+    {
+        return status;
+    }
+
+    public long getMaxWait()
+    {
+        return maxWait;
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.common.asn1.message;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERUTF8String;
+
+/**
+ * Response message carrying a range of node hashes from the Merkle tree of a board.
+ */
+public class BoardDigestMessage
+    extends ASN1Object
+{
+    private final String boardName;
+    private final int height;
+    private final int limit;
+    private final int level;
+    private final int position;
+    private final byte[][] hashes;
+
+    /**
+     * Base constructor.
+     *
+     * @param boardName the name of the board.
+     * @param height the level of the root of the board's tree.
+     * @param limit the number of leaf positions the tree covers.
+     * @param level the level the hashes are from, 0 being the leaves.
+     * @param position the position of the first hash in the level.
+     * @param hashes the node hashes.
+     */
+    public BoardDigestMessage(String boardName, int height, int limit, int level, int position, byte[][] hashes)
+    {
+        this.boardName = boardName;
+        this.height = height;
+        this.limit = limit;
+        this.level = level;
+        this.position = position;
+        this.hashes = hashes.clone();
+    }
+
+    private BoardDigestMessage(ASN1Sequence seq)
+    {
+        this.boardName = DERUTF8String.getInstance(seq.getObjectAt(0)).getString();
+        this.height = ASN1Integer.getInstance(seq.getObjectAt(1)).getValue().intValue();
+        this.limit = ASN1Integer.getInstance(seq.getObjectAt(2)).getValue().intValue();
+        this.level = ASN1Integer.getInstance(seq.getObjectAt(3)).getValue().intValue();
+        this.position = ASN1Integer.getInstance(seq.getObjectAt(4)).getValue().intValue();
+
+        ASN1Sequence hashSeq = ASN1Sequence.getInstance(seq.getObjectAt(5));
+
+        this.hashes = new byte[hashSeq.size()][];
+
+        for (int i = 0; i != hashSeq.size(); i++)
+        {
+            hashes[i] = ASN1OctetString.getInstance(hashSeq.getObjectAt(i)).getOctets();
+        }
+    }
+
+    public static final BoardDigestMessage getInstance(Object o)
+    {
+        if (o instanceof BoardDigestMessage)
+        {
+            return (BoardDigestMessage)o;
+        }
+        else if (o != null)
+        {
+            return new BoardDigestMessage(ASN1Sequence.getInstance(o));
+        }
+
+        return null;
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive()
+    {
+        ASN1EncodableVector v = new ASN1EncodableVector();
+
+        v.add(new DERUTF8String(boardName));
+        v.add(new ASN1Integer(height));
+        v.add(new ASN1Integer(limit));
+        v.add(new ASN1Integer(level));
+        v.add(new ASN1Integer(position));
+
+        ASN1EncodableVector hashV = new ASN1EncodableVector();
+
+        for (int i = 0; i != hashes.length; i++)
+        {
+            hashV.add(new DEROctetString(hashes[i]));
+        }
+
+        v.add(new DERSequence(hashV));
+
+        return new DERSequence(v);
+    }
+
+    public String getBoardName()
+    {
+        return boardName;
+    }
+
+    /**
+     * Return the level of the root of the board's tree.
+     *
+     * @return the tree height.
+     */
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /**
+     * Return the number of leaf positions the board's tree covers.
+     *
+     * @return one more than the highest index ever posted to the board.
+     */
+    public int getLimit()
+    {
+        return limit;
+    }
+
+    public int getLevel()
+    {
+        return level;
+    }
+
+    public int getPosition()
+    {
+        return position;
+    }
+
+    public byte[][] getHashes()
+    {
+        return hashes;
+    }
+}
@@ -0,0 +1,134 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.common.asn1.message;
+
+import org.bouncycastle.asn1.ASN1Boolean;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERUTF8String;
+
+/**
+ * Request message for a range of node hashes from the Merkle tree of a board, or its backup.
+ */
+public class BoardDigestRequestMessage
+    extends ASN1Object
+{
+    /**
+     * Level value used to request the root node, whatever the tree's current height.
+     */
+    public static final int ROOT_LEVEL = -1;
+
+    private final String boardName;
+    private final boolean isBackup;
+    private final int level;
+    private final int position;
+    private final int count;
+
+    /**
+     * Create a request for the root hash of a board.
+     *
+     * @param boardName the name of the board.
+     * @param isBackup true if the tree for the backup of the board is wanted.
+     */
+    public BoardDigestRequestMessage(String boardName, boolean isBackup)
+    {
+        this(boardName, isBackup, ROOT_LEVEL, 0, 1);
+    }
+
+    /**
+     * Base constructor.
+     *
+     * @param boardName the name of the board.
+     * @param isBackup true if the tree for the backup of the board is wanted.
+     * @param level the level in the tree the nodes are at, 0 being the leaves.
+     * @param position the position of the first node wanted in the level.
+     * @param count the number of consecutive nodes wanted.
+     */
+    public BoardDigestRequestMessage(String boardName, boolean isBackup, int level, int position, int count)
+    {
+        this.boardName = boardName;
+        this.isBackup = isBackup;
+        this.level = level;
+        this.position = position;
+        this.count = count;
+    }
+
+    private BoardDigestRequestMessage(ASN1Sequence seq)
+    {
+        this.boardName = DERUTF8String.getInstance(seq.getObjectAt(0)).getString();
+        this.isBackup = ASN1Boolean.getInstance(seq.getObjectAt(1)).isTrue();
+        this.level = ASN1Integer.getInstance(seq.getObjectAt(2)).getValue().intValue();
+        this.position = ASN1Integer.getInstance(seq.getObjectAt(3)).getValue().intValue();
+        this.count = ASN1Integer.getInstance(seq.getObjectAt(4)).getValue().intValue();
+    }
+
+    public static final BoardDigestRequestMessage getInstance(Object o)
+    {
+        if (o instanceof BoardDigestRequestMessage)
+        {
+            return (BoardDigestRequestMessage)o;
+        }
+        else if (o != null)
+        {
+            return new BoardDigestRequestMessage(ASN1Sequence.getInstance(o));
+        }
+
+        return null;
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive()
+    {
+        ASN1EncodableVector v = new ASN1EncodableVector();
+
+        v.add(new DERUTF8String(boardName));
+        v.add(ASN1Boolean.getInstance(isBackup));
+        v.add(new ASN1Integer(level));
+        v.add(new ASN1Integer(position));
+        v.add(new ASN1Integer(count));
+
+        return new DERSequence(v);
+    }
+
+    public String getBoardName()
+    {
+        return boardName;
+    }
+
+    public boolean isBackup()
+    {
+        return isBackup;
+    }
+
+    public int getLevel()
+    {
+        return level;
+    }
+
+    public int getPosition()
+    {
+        return position;
+    }
+
+    public int getCount()
+    {
+        return count;
+    }
+}
@@ -35,7 +35,7 @@ public class BoardErrorStatusMessage
 
     public enum Status
     {
-        NOT_DOWNLOAD_LOCKED, NOT_SHUFFLE_LOCKED, SUSPENDED, ALREADY_EXISTS
+        NOT_DOWNLOAD_LOCKED, NOT_SHUFFLE_LOCKED, SUSPENDED, ALREADY_EXISTS, UNKNOWN_SNAPSHOT
     }
 
     /**
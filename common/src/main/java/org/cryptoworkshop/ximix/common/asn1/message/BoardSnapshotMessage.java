@@ -0,0 +1,121 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.common.asn1.message;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * Message describing a snapshot of a board - the snapshot's ID, the range of indexes it covers, and the root hash
+ * of the board's Merkle tree at the time the snapshot was taken.
+ */
+public class BoardSnapshotMessage
+    extends ASN1Object
+{
+    private final String boardName;
+    private final long snapshotID;
+    private final int endIndex;
+    private final int size;
+    private final byte[] rootHash;
+
+    /**
+     * Base constructor.
+     *
+     * @param boardName the name of the board the snapshot is of.
+     * @param snapshotID the ID the snapshot is known by on the board's host.
+     * @param endIndex one more than the highest index a message in the snapshot can have.
+     * @param size the number of messages in the snapshot.
+     * @param rootHash the root hash of the board's Merkle tree for the snapshot.
+     */
+    public BoardSnapshotMessage(String boardName, long snapshotID, int endIndex, int size, byte[] rootHash)
+    {
+        this.boardName = boardName;
+        this.snapshotID = snapshotID;
+        this.endIndex = endIndex;
+        this.size = size;
+        this.rootHash = Arrays.clone(rootHash);
+    }
+
+    private BoardSnapshotMessage(ASN1Sequence seq)
+    {
+        this.boardName = DERUTF8String.getInstance(seq.getObjectAt(0)).getString();
+        this.snapshotID = ASN1Integer.getInstance(seq.getObjectAt(1)).getValue().longValue();
+        this.endIndex = ASN1Integer.getInstance(seq.getObjectAt(2)).getValue().intValue();
+        this.size = ASN1Integer.getInstance(seq.getObjectAt(3)).getValue().intValue();
+        this.rootHash = ASN1OctetString.getInstance(seq.getObjectAt(4)).getOctets();
+    }
+
+    public static final BoardSnapshotMessage getInstance(Object o)
+    {
+        if (o instanceof BoardSnapshotMessage)
+        {
+            return (BoardSnapshotMessage)o;
+        }
+        else if (o != null)
+        {
+            return new BoardSnapshotMessage(ASN1Sequence.getInstance(o));
+        }
+
+        return null;
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive()
+    {
+        ASN1EncodableVector v = new ASN1EncodableVector();
+
+        v.add(new DERUTF8String(boardName));
+        v.add(new ASN1Integer(snapshotID));
+        v.add(new ASN1Integer(endIndex));
+        v.add(new ASN1Integer(size));
+        v.add(new DEROctetString(rootHash));
+
+        return new DERSequence(v);
+    }
+
+    public String getBoardName()
+    {
+        return boardName;
+    }
+
+    public long getSnapshotID()
+    {
+        return snapshotID;
+    }
+
+    public int getEndIndex()
+    {
+        return endIndex;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    public byte[] getRootHash()
+    {
+        return Arrays.clone(rootHash);
+    }
+}
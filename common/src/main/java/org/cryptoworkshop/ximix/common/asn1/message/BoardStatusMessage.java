@@ -15,8 +15,11 @@
  */
 package org.cryptoworkshop.ximix.common.asn1.message;
 
+import java.math.BigInteger;
+
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Enumerated;
+import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.ASN1Object;
 import org.bouncycastle.asn1.ASN1Primitive;
 import org.bouncycastle.asn1.ASN1Sequence;
@@ -31,6 +34,7 @@ public class BoardStatusMessage
 {
     private final String boardName;
     private final Status status;
+    private final int messageCount;
 
     public enum Status
     {
@@ -44,15 +48,37 @@ public class BoardStatusMessage
      * @param status the board's current status.
      */
     public BoardStatusMessage(String boardName, Status status)
+    {
+        this(boardName, status, -1);
+    }
+
+    /**
+     * Constructor including the number of messages on the board.
+     *
+     * @param boardName the name of the board the status is for.
+     * @param status the board's current status.
+     * @param messageCount the number of messages on the board, -1 if not known.
+     */
+    public BoardStatusMessage(String boardName, Status status, int messageCount)
     {
         this.boardName = boardName;
         this.status = status;
+        this.messageCount = messageCount;
     }
 
     private BoardStatusMessage(ASN1Sequence seq)
     {
         this.boardName = DERUTF8String.getInstance(seq.getObjectAt(0)).getString();
         this.status = Status.values()[ASN1Enumerated.getInstance(seq.getObjectAt(1)).getValue().intValue()];
+
+        if (seq.size() > 2)
+        {
+            this.messageCount = ASN1Integer.getInstance(seq.getObjectAt(2)).getValue().intValue();
+        }
+        else
+        {
+            this.messageCount = -1;
+        }
     }
 
     public static final BoardStatusMessage getInstance(Object o)
@@ -69,11 +95,26 @@ public class BoardStatusMessage
         return null;
     }
 
+    public String getBoardName()
+    {
+        return boardName;
+    }
+
     public Status getStatus()
     {
         return status;
     }
 
+    /**
+     * Return the number of messages on the board when the status was taken.
+     *
+     * @return the message count, -1 if it was not available.
+     */
+    public int getMessageCount()
+    {
+        return messageCount;
+    }
+
     @Override
     public ASN1Primitive toASN1Primitive()
     {
@@ -82,6 +123,11 @@ public class BoardStatusMessage
         v.add(new DERUTF8String(boardName));
         v.add(new ASN1Enumerated(status.ordinal()));
 
+        if (messageCount >= 0)
+        {
+            v.add(new ASN1Integer(BigInteger.valueOf(messageCount)));
+        }
+
         return new DERSequence(v);
     }
 }
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.common.asn1.message;
+
+import java.math.BigInteger;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERUTF8String;
+
+/**
+ * Carrier message for a request to remove every message at or above an index from a board.
+ */
+public class BoardTruncateMessage
+    extends ASN1Object
+{
+    private final String boardName;
+    private final int limit;
+
+    /**
+     * Base constructor.
+     *
+     * @param boardName the name of the board to truncate.
+     * @param limit the index of the first message to be removed.
+     */
+    public BoardTruncateMessage(String boardName, int limit)
+    {
+        this.boardName = boardName;
+        this.limit = limit;
+    }
+
+    private BoardTruncateMessage(ASN1Sequence seq)
+    {
+        this.boardName = DERUTF8String.getInstance(seq.getObjectAt(0)).getString();
+        this.limit = ASN1Integer.getInstance(seq.getObjectAt(1)).getValue().intValue();
+    }
+
+    public static final BoardTruncateMessage getInstance(Object o)
+    {
+        if (o instanceof BoardTruncateMessage)
+        {
+            return (BoardTruncateMessage)o;
+        }
+        else if (o != null)
+        {
+            return new BoardTruncateMessage(ASN1Sequence.getInstance(o));
+        }
+
+        return null;
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive()
+    {
+        ASN1EncodableVector v = new ASN1EncodableVector();
+
+        v.add(new DERUTF8String(boardName));
+        v.add(new ASN1Integer(BigInteger.valueOf(limit)));
+
+        return new DERSequence(v);
+    }
+
+    public String getBoardName()
+    {
+        return boardName;
+    }
+
+    public int getLimit()
+    {
+        return limit;
+    }
+}
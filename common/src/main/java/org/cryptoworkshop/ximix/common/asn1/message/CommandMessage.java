@@ -65,7 +65,13 @@ public class CommandMessage
         RETURN_TO_BOARD,
         INITIATE_INTRANSIT_BOARD,
         NODE_INFO_UPDATE,
-        BOARD_CREATE, BACKUP_BOARD_CREATE, NODE_STATISTICS
+        BOARD_CREATE, BACKUP_BOARD_CREATE, NODE_STATISTICS,
+        FETCH_BOARD_DIGEST,
+        OPEN_BOARD_SNAPSHOT, DOWNLOAD_BOARD_SNAPSHOT, CLOSE_BOARD_SNAPSHOT,
+        PREPARE_STREAMING_SHUFFLE,
+        AWAIT_BOARD_STATUS,
+        FILE_STREAM,
+        TRUNCATE_BACKUP_BOARD
     }
 
     /**
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.common.asn1.message;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.BERTags;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * Carrier for a deflated message, or reply. Only sent on connections where both ends have agreed to use compression.
+ * <p>
+ * A compressed message is encoded as [1] EXPLICIT SEQUENCE { length INTEGER, data OCTET STRING }, where length is the
+ * length of the original encoding. It takes the place of the message it carries, so it may appear bare or inside a
+ * MessageEnvelope.
+ * </p>
+ */
+public class CompressedMessage
+    extends ASN1Object
+{
+    /**
+     * The first byte of an encoded compressed message.
+     */
+    public static final int ENCODED_TAG = BERTags.TAGGED | BERTags.CONSTRUCTED | 1;
+
+    private final int length;
+    private final byte[] data;
+
+    /**
+     * Base constructor.
+     *
+     * @param length the length of the original encoding.
+     * @param data the deflated encoding.
+     */
+    public CompressedMessage(int length, byte[] data)
+    {
+        this.length = length;
+        this.data = Arrays.clone(data);
+    }
+
+    private CompressedMessage(ASN1Sequence seq)
+    {
+        this.length = ASN1Integer.getInstance(seq.getObjectAt(0)).getValue().intValue();
+        this.data = ASN1OctetString.getInstance(seq.getObjectAt(1)).getOctets();
+    }
+
+    public static final CompressedMessage getInstance(Object o)
+    {
+        if (o instanceof CompressedMessage)
+        {
+            return (CompressedMessage)o;
+        }
+        else if (o != null)
+        {
+            ASN1TaggedObject tagged = ASN1TaggedObject.getInstance(o);
+
+            if (tagged.getTagNo() != 1)
+            {
+                throw new IllegalArgumentException("malformed compressed message");
+            }
+
+            return new CompressedMessage(ASN1Sequence.getInstance(tagged, true));
+        }
+
+        return null;
+    }
+
+    /**
+     * Return true if the passed in object is a compressed message.
+     *
+     * @param o the object of interest.
+     * @return true if o represents a CompressedMessage, false otherwise.
+     */
+    public static boolean isCompressed(ASN1Encodable o)
+    {
+        if (o instanceof CompressedMessage)
+        {
+            return true;
+        }
+
+        ASN1Primitive primitive = o.toASN1Primitive();
+
+        return primitive instanceof ASN1TaggedObject && ((ASN1TaggedObject)primitive).getTagNo() == 1;
+    }
+
+    public int getLength()
+    {
+        return length;
+    }
+
+    public byte[] getData()
+    {
+        return Arrays.clone(data);
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive()
+    {
+        ASN1EncodableVector v = new ASN1EncodableVector();
+
+        v.add(new ASN1Integer(length));
+        v.add(new DEROctetString(data));
+
+        return new DERTaggedObject(true, 1, new DERSequence(v));
+    }
+}
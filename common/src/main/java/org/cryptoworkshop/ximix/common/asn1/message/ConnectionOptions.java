@@ -0,0 +1,163 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.common.asn1.message;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.BERTags;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+
+/**
+ * The client's answer to a node's NodeInfo, selecting which of the optional features the node offered are to be used
+ * on the connection. It is sent before any messages, and the node does not reply to it.
+ * <p>
+ * The options are encoded as [2] EXPLICIT SEQUENCE { features INTEGER, compressionThreshold INTEGER,
+ * maxReplySize INTEGER OPTIONAL }. The maximum reply size applies to a reply as the client decodes it, so to a
+ * compressed reply once it has been inflated, and lets the node send an error in place of a reply the client would
+ * refuse.
+ * </p>
+ */
+public class ConnectionOptions
+    extends ASN1Object
+{
+    /**
+     * The first byte of an encoded set of connection options.
+     */
+    public static final int ENCODED_TAG = BERTags.TAGGED | BERTags.CONSTRUCTED | 2;
+
+    private final int features;
+    private final int compressionThreshold;
+    private final int maxReplySize;
+
+    /**
+     * Create options with no limit given on reply size.
+     *
+     * @param features the features to use, as a mask of NodeInfo feature flags.
+     * @param compressionThreshold the size, in bytes, below which messages are not worth compressing.
+     */
+    public ConnectionOptions(int features, int compressionThreshold)
+    {
+        this(features, compressionThreshold, 0);
+    }
+
+    /**
+     * Base constructor.
+     *
+     * @param features the features to use, as a mask of NodeInfo feature flags.
+     * @param compressionThreshold the size, in bytes, below which messages are not worth compressing.
+     * @param maxReplySize the largest reply, in bytes, the client will accept, 0 if not given.
+     */
+    public ConnectionOptions(int features, int compressionThreshold, int maxReplySize)
+    {
+        this.features = features;
+        this.compressionThreshold = compressionThreshold;
+        this.maxReplySize = maxReplySize;
+    }
+
+    private ConnectionOptions(ASN1Sequence seq)
+    {
+        this.features = ASN1Integer.getInstance(seq.getObjectAt(0)).getValue().intValue();
+        this.compressionThreshold = ASN1Integer.getInstance(seq.getObjectAt(1)).getValue().intValue();
+
+        if (seq.size() > 2)
+        {
+            this.maxReplySize = ASN1Integer.getInstance(seq.getObjectAt(2)).getValue().intValue();
+        }
+        else
+        {
+            this.maxReplySize = 0;
+        }
+    }
+
+    public static final ConnectionOptions getInstance(Object o)
+    {
+        if (o instanceof ConnectionOptions)
+        {
+            return (ConnectionOptions)o;
+        }
+        else if (o != null)
+        {
+            ASN1TaggedObject tagged = ASN1TaggedObject.getInstance(o);
+
+            if (tagged.getTagNo() != 2)
+            {
+                throw new IllegalArgumentException("malformed connection options");
+            }
+
+            return new ConnectionOptions(ASN1Sequence.getInstance(tagged, true));
+        }
+
+        return null;
+    }
+
+    /**
+     * Return true if the passed in encoding is of a set of connection options rather than a message.
+     *
+     * @param encoding the DER encoding of an object read off the wire.
+     * @return true if encoding represents a ConnectionOptions, false otherwise.
+     */
+    public static boolean isConnectionOptions(byte[] encoding)
+    {
+        return encoding.length != 0 && (encoding[0] & 0xff) == ENCODED_TAG;
+    }
+
+    /**
+     * Return true if the passed in feature has been selected.
+     *
+     * @param feature the NodeInfo feature flag of interest.
+     * @return true if the feature is to be used, false otherwise.
+     */
+    public boolean hasFeature(int feature)
+    {
+        return (features & feature) != 0;
+    }
+
+    public int getCompressionThreshold()
+    {
+        return compressionThreshold;
+    }
+
+    /**
+     * Return the largest reply the client will accept.
+     *
+     * @return the maximum reply size in bytes, 0 if the client did not give one.
+     */
+    public int getMaxReplySize()
+    {
+        return maxReplySize;
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive()
+    {
+        ASN1EncodableVector v = new ASN1EncodableVector();
+
+        v.add(new ASN1Integer(features));
+        v.add(new ASN1Integer(compressionThreshold));
+
+        if (maxReplySize > 0)
+        {
+            v.add(new ASN1Integer(maxReplySize));
+        }
+
+        return new DERTaggedObject(true, 2, new DERSequence(v));
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.cryptoworkshop.ximix.common.asn1.message;
 
+import org.bouncycastle.asn1.ASN1Boolean;
 import org.bouncycastle.asn1.ASN1EncodableVector;
 import org.bouncycastle.asn1.ASN1Object;
 import org.bouncycastle.asn1.ASN1Primitive;
@@ -30,6 +31,7 @@ public class CreateBoardMessage
 {
     private final String boardName;
     private final String backUpHost;
+    private final boolean pointCompression;
 
     /**
      * Base constructor.
@@ -38,22 +40,46 @@ public class CreateBoardMessage
      * @param backUpHost the backup host for the board, null if not required.
      */
     public CreateBoardMessage(String boardName, String backUpHost)
+    {
+        this(boardName, backUpHost, false);
+    }
+
+    /**
+     * Constructor specifying the point encoding for the board.
+     *
+     * @param boardName the name of the board to create.
+     * @param backUpHost the backup host for the board, null if not required.
+     * @param pointCompression true if EC points produced for the board should be compressed, false otherwise.
+     */
+    public CreateBoardMessage(String boardName, String backUpHost, boolean pointCompression)
     {
         this.boardName = boardName;
         this.backUpHost = backUpHost;
+        this.pointCompression = pointCompression;
     }
 
     private CreateBoardMessage(ASN1Sequence seq)
     {
+        String backUpHost = null;
+        boolean pointCompression = false;
+
         this.boardName = DERUTF8String.getInstance(seq.getObjectAt(0)).getString();
-        if (seq.size() == 2)
-        {
-            this.backUpHost = DERUTF8String.getInstance(seq.getObjectAt(1)).getString();
-        }
-        else
+
+        // both the back up host and the point compression flag are optional.
+        for (int i = 1; i < seq.size(); i++)
         {
-            this.backUpHost = null;
+            if (seq.getObjectAt(i) instanceof ASN1Boolean)
+            {
+                pointCompression = ASN1Boolean.getInstance(seq.getObjectAt(i)).isTrue();
+            }
+            else
+            {
+                backUpHost = DERUTF8String.getInstance(seq.getObjectAt(i)).getString();
+            }
         }
+
+        this.backUpHost = backUpHost;
+        this.pointCompression = pointCompression;
     }
 
     public static final CreateBoardMessage getInstance(Object o)
@@ -82,6 +108,11 @@ public class CreateBoardMessage
             v.add(new DERUTF8String(backUpHost));
         }
 
+        if (pointCompression)
+        {
+            v.add(ASN1Boolean.getInstance(pointCompression));
+        }
+
         return new DERSequence(v);
     }
 
@@ -94,4 +125,9 @@ public class CreateBoardMessage
     {
         return backUpHost;
     }
+
+    public boolean isPointCompression()
+    {
+        return pointCompression;
+    }
 }
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.common.asn1.message;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Object;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.BERTags;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.DERTaggedObject;
+
+/**
+ * Carrier for a message, or the reply to one, tagged with the ID of the request it belongs to. Wrapping messages this
+ * way allows a connection to have several requests outstanding at once, with the replies coming back in any order.
+ * <p>
+ * An envelope is encoded as [0] EXPLICIT SEQUENCE { requestID INTEGER, content ANY }, so on the wire it can be told
+ * apart from a bare message, which is always a SEQUENCE, by its first byte.
+ * </p>
+ */
+public class MessageEnvelope
+    extends ASN1Object
+{
+    /**
+     * The first byte of an encoded envelope.
+     */
+    public static final int ENCODED_TAG = BERTags.TAGGED | BERTags.CONSTRUCTED;
+
+    private final int requestID;
+    private final ASN1Encodable content;
+
+    /**
+     * Base constructor.
+     *
+     * @param requestID the ID of the request the content is associated with.
+     * @param content the message, or reply, being carried.
+     */
+    public MessageEnvelope(int requestID, ASN1Encodable content)
+    {
+        this.requestID = requestID;
+        this.content = content;
+    }
+
+    private MessageEnvelope(ASN1Sequence seq)
+    {
+        this.requestID = ASN1Integer.getInstance(seq.getObjectAt(0)).getValue().intValue();
+        this.content = seq.getObjectAt(1);
+    }
+
+    public static final MessageEnvelope getInstance(Object o)
+    {
+        if (o instanceof MessageEnvelope)
+        {
+            return (MessageEnvelope)o;
+        }
+        else if (o != null)
+        {
+            ASN1TaggedObject tagged = ASN1TaggedObject.getInstance(o);
+
+            if (tagged.getTagNo() != 0)
+            {
+                throw new IllegalArgumentException("malformed message envelope");
+            }
+
+            return new MessageEnvelope(ASN1Sequence.getInstance(tagged, true));
+        }
+
+        return null;
+    }
+
+    /**
+     * Return true if the passed in encoding is of an envelope rather than a bare message.
+     *
+     * @param encoding the DER encoding of an object read off the wire.
+     * @return true if encoding represents a MessageEnvelope, false otherwise.
+     */
+    public static boolean isEnvelope(byte[] encoding)
+    {
+        return encoding.length != 0 && (encoding[0] & 0xff) == ENCODED_TAG;
+    }
+
+    public int getRequestID()
+    {
+        return requestID;
+    }
+
+    public ASN1Encodable getContent()
+    {
+        return content;
+    }
+
+    @Override
+    public ASN1Primitive toASN1Primitive()
+    {
+        ASN1EncodableVector v = new ASN1EncodableVector();
+
+        v.add(new ASN1Integer(requestID));
+        v.add(content);
+
+        return new DERTaggedObject(true, 0, new DERSequence(v));
+    }
+}
@@ -16,6 +16,7 @@
 package org.cryptoworkshop.ximix.common.asn1.message;
 
 import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Integer;
 import org.bouncycastle.asn1.ASN1Object;
 import org.bouncycastle.asn1.ASN1Primitive;
 import org.bouncycastle.asn1.ASN1Sequence;
@@ -25,13 +26,30 @@ import org.bouncycastle.asn1.DERSet;
 import org.bouncycastle.asn1.DERUTF8String;
 
 /**
- * Carrier class for information related to a node - its name and capabilities.
+ * Carrier class for information related to a node - its name, capabilities, and the protocol features its connections
+ * support.
  */
 public class NodeInfo
     extends ASN1Object
 {
+    /**
+     * The node accepts requests in a MessageEnvelope and may answer them out of order.
+     */
+    public static final int MULTIPLEXING = 0x01;
+
+    /**
+     * The node accepts FILE_STREAM requests, with the file contents following as a raw data stream.
+     */
+    public static final int BULK_TRANSFER = 0x02;
+
+    /**
+     * The node accepts CompressedMessage requests, and will compress its replies if asked to in the ConnectionOptions.
+     */
+    public static final int COMPRESSION = 0x04;
+
     private final String name;
     private final CapabilityMessage[] capabilities;
+    private final int features;
 
     /**
      * Base constructor.
@@ -40,15 +58,37 @@ public class NodeInfo
      * @param capabilities an array of CapabilityMessage giving the capabilities of the node.
      */
     public NodeInfo(String name, CapabilityMessage[] capabilities)
+    {
+        this(name, capabilities, 0);
+    }
+
+    /**
+     * Constructor for a node supporting additional protocol features.
+     *
+     * @param name the name of the node associated with this info message.
+     * @param capabilities an array of CapabilityMessage giving the capabilities of the node.
+     * @param features the protocol features supported by the node, as a mask of feature flags.
+     */
+    public NodeInfo(String name, CapabilityMessage[] capabilities, int features)
     {
         this.name = name;
         this.capabilities = capabilities;
+        this.features = features;
     }
 
     private NodeInfo(ASN1Sequence s)
     {
         this.name = DERUTF8String.getInstance(s.getObjectAt(0)).getString();
         this.capabilities = convertSet(ASN1Set.getInstance(s.getObjectAt(1)));
+
+        if (s.size() > 2)
+        {
+            this.features = ASN1Integer.getInstance(s.getObjectAt(2)).getValue().intValue();
+        }
+        else
+        {
+            this.features = 0;
+        }
     }
 
     @Override
@@ -59,6 +99,11 @@ public class NodeInfo
         v.add(new DERUTF8String(name));
         v.add(new DERSet(capabilities));
 
+        if (features != 0)
+        {
+            v.add(new ASN1Integer(features));
+        }
+
         return new DERSequence(v);
     }
 
@@ -97,4 +142,15 @@ public class NodeInfo
     {
         return capabilities.clone();
     }
+
+    /**
+     * Return true if the node supports the passed in protocol feature.
+     *
+     * @param feature the feature flag of interest.
+     * @return true if feature is supported, false otherwise.
+     */
+    public boolean hasFeature(int feature)
+    {
+        return (features & feature) == feature;
+    }
 }
@@ -151,12 +151,7 @@ public class Config
         {
             NodeList list = xmlNode.getElementsByTagName(elementName);
 
-            if (list == null)
-            {
-                throw new ConfigException("Path element '" + elementName + "' from '" + name + "' was not found.");
-            }
-
-            if (list.item(0).getNodeName().equals(path[path.length - 1]))
+            if (list.getLength() != 0 && list.item(0).getNodeName().equals(path[path.length - 1]))
             {
                 return Integer.parseInt(list.item(0).getTextContent());
             }
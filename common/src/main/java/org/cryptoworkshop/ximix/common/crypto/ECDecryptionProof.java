@@ -72,7 +72,7 @@ public class ECDecryptionProof
         ECPoint g = pubKey.getParameters().getG();
         BigInteger challenge = computeChallenge(a, b, c, pTxt, g, pubKey.getQ());
 
-        return g.multiply(this.getR()).normalize().equals(this.getA().add(pubKey.getQ().multiply(challenge)).normalize()) // correct public key check
+        return ECFixedBaseCache.multiply(g, this.getR()).normalize().equals(this.getA().add(ECFixedBaseCache.multiply(pubKey.getQ(), challenge)).normalize()) // correct public key check
             && c.multiply(this.getR()).normalize().equals(this.getB().add(pTxt.multiply(challenge)).normalize());  // correct decryption check
     }
 
@@ -0,0 +1,131 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.common.crypto;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECMultiplier;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.math.ec.FixedPointCombMultiplier;
+import org.bouncycastle.util.Arrays;
+
+/**
+ * A shared cache of fixed-base comb tables for the points we keep multiplying by - the curve generators and the
+ * public keys in use.
+ * <p>
+ * The tables hang off the point they were built for, so the cache holds on to one instance of each base point
+ * and multiplications against an equal point are done using it. Entries are keyed by curve instance as well as
+ * the point's encoding, so a result is always on the same curve implementation as the point passed in.
+ * </p>
+ */
+public class ECFixedBaseCache
+{
+    private static final int MAX_BASES = 64;
+
+    private static final ECMultiplier multiplier = new FixedPointCombMultiplier();
+
+    private static final Map<BaseKey, ECPoint> bases = new LinkedHashMap<BaseKey, ECPoint>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<BaseKey, ECPoint> eldest)
+        {
+            return size() > MAX_BASES;
+        }
+    };
+
+    private ECFixedBaseCache()
+    {
+    }
+
+    /**
+     * Multiply a fixed base point by k, building the comb table for the base on first use.
+     *
+     * @param base the base point, usually a generator or a public key.
+     * @param k the scalar to multiply by.
+     * @return base multiplied by k.
+     */
+    public static ECPoint multiply(ECPoint base, BigInteger k)
+    {
+        ECCurve curve = base.getCurve();
+        BigInteger order = curve.getOrder();
+
+        if (order == null)
+        {
+            // without the order we cannot size the comb, so there is nothing to gain.
+            return base.multiply(k);
+        }
+
+        if (k.signum() < 0 || k.bitLength() > order.bitLength())
+        {
+            k = k.mod(order);
+        }
+
+        return multiplier.multiply(getBase(base), k);
+    }
+
+    private static ECPoint getBase(ECPoint point)
+    {
+        BaseKey key = new BaseKey(point);
+
+        synchronized (bases)
+        {
+            ECPoint base = bases.get(key);
+
+            if (base == null)
+            {
+                base = point.normalize();
+
+                bases.put(key, base);
+            }
+
+            return base;
+        }
+    }
+
+    private static class BaseKey
+    {
+        private final ECCurve curve;
+        private final byte[] encoding;
+
+        BaseKey(ECPoint point)
+        {
+            this.curve = point.getCurve();
+            this.encoding = point.getEncoded(true);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return System.identityHashCode(curve) ^ Arrays.hashCode(encoding);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof BaseKey))
+            {
+                return false;
+            }
+
+            BaseKey other = (BaseKey)o;
+
+            return curve == other.curve && Arrays.areEqual(encoding, other.encoding);
+        }
+    }
+}
@@ -19,6 +19,7 @@ import java.math.BigInteger;
 
 import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.math.ec.ECPoint;
+import org.cryptoworkshop.ximix.common.crypto.ECFixedBaseCache;
 
 /**
  * Holding class representing a committed share for a key in an Elliptic Curve algorithm.
@@ -95,6 +96,6 @@ public class ECCommittedSecretShare
      */
     public boolean isRevealed(int shareNumber, ECDomainParameters domainParams, ECPoint hValue)
     {
-        return getCommitment(shareNumber).equals(domainParams.getG().multiply(share).add(hValue.multiply(witness)));
+        return getCommitment(shareNumber).equals(ECFixedBaseCache.multiply(domainParams.getG(), share).add(hValue.multiply(witness)));
     }
 }
@@ -20,6 +20,7 @@ import java.security.SecureRandom;
 
 import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.math.ec.ECPoint;
+import org.cryptoworkshop.ximix.common.crypto.ECFixedBaseCache;
 
 /**
  * An Elliptic Curve secret splitter based on the New-DKG Algorithm in "Secure Distributed Key Generation" by R. Gennaro, S. Jarecki, H. Krawczyk, and T. Rabin
@@ -75,7 +76,7 @@ public class ECNewDKGSecretSplitter
 
         for (int j = 0; j < k; j++)
         {
-            commitments[j] = domainParams.getG().multiply(secretShares.getCoefficients()[j]).add(h.multiply(bShares.getCoefficients()[j]));
+            commitments[j] = ECFixedBaseCache.multiply(domainParams.getG(), secretShares.getCoefficients()[j]).add(h.multiply(bShares.getCoefficients()[j]));
         }
 
         return new ECCommittedSplitSecret(secretShares.getShares(), secretShares.getCoefficients(), bShares.getShares(), commitments);
@@ -0,0 +1,241 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.common.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.cryptoworkshop.ximix.common.asn1.message.CompressedMessage;
+
+/**
+ * Compressor for the messages on a single connection. Messages whose encoding is smaller than the threshold, or
+ * which don't get any smaller, are passed through untouched. The compressor keeps a running count of the bytes it has
+ * saved and the CPU time it has spent doing so, so the two can be weighed up for each link.
+ */
+public class MessageCompressor
+{
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int threshold;
+    private final int maxLength;
+
+    private long compressedMessages;
+    private long compressedBytesIn;
+    private long compressedBytesOut;
+    private long compressTime;
+    private long decompressedMessages;
+    private long decompressedBytesIn;
+    private long decompressedBytesOut;
+    private long decompressTime;
+
+    /**
+     * Base constructor.
+     *
+     * @param threshold the size, in bytes, below which messages are sent as is.
+     * @param maxLength the largest decompressed message that will be accepted, this should be the same as the limit
+     *                  on uncompressed messages so compression never changes what can be sent.
+     */
+    public MessageCompressor(int threshold, int maxLength)
+    {
+        this.threshold = threshold;
+        this.maxLength = maxLength;
+    }
+
+    public int getThreshold()
+    {
+        return threshold;
+    }
+
+    /**
+     * Compress a message, if it is large enough to be worth it.
+     *
+     * @param message the message to be sent.
+     * @return a CompressedMessage, or the original message if it is below the threshold or doesn't compress.
+     * @throws IOException if the message cannot be encoded.
+     */
+    public ASN1Encodable compress(ASN1Encodable message)
+        throws IOException
+    {
+        byte[] encoding = message.toASN1Primitive().getEncoded(ASN1Encoding.DER);
+
+        if (encoding.length < threshold)
+        {
+            return message;
+        }
+
+        long start = getCpuTime();
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        byte[] data;
+
+        try
+        {
+            ByteArrayOutputStream bOut = new ByteArrayOutputStream(encoding.length / 2);
+            byte[] buf = new byte[BUFFER_SIZE];
+
+            deflater.setInput(encoding);
+            deflater.finish();
+
+            while (!deflater.finished())
+            {
+                bOut.write(buf, 0, deflater.deflate(buf));
+            }
+
+            data = bOut.toByteArray();
+        }
+        finally
+        {
+            deflater.end();
+        }
+
+        synchronized (this)
+        {
+            compressedMessages++;
+            compressedBytesIn += encoding.length;
+            compressedBytesOut += Math.min(data.length, encoding.length);
+            compressTime += getCpuTime() - start;
+        }
+
+        if (data.length >= encoding.length)
+        {
+            return message;
+        }
+
+        return new CompressedMessage(encoding.length, data);
+    }
+
+    /**
+     * Recover the message carried in a CompressedMessage.
+     *
+     * @param message the compressed message.
+     * @return the original message.
+     * @throws IOException if the data is corrupted, or the message is too large.
+     */
+    public ASN1Primitive decompress(CompressedMessage message)
+        throws IOException
+    {
+        if (message.getLength() < 0)
+        {
+            throw new IOException("compressed message has negative length: " + message.getLength());
+        }
+
+        if (message.getLength() > maxLength)
+        {
+            throw new IOException("compressed message of " + message.getLength() + " bytes exceeds the limit of " + maxLength + " bytes");
+        }
+
+        long start = getCpuTime();
+        byte[] data = message.getData();
+        byte[] encoding = new byte[message.getLength()];
+        Inflater inflater = new Inflater();
+
+        try
+        {
+            inflater.setInput(data);
+
+            int length = 0;
+            while (length < encoding.length && !inflater.finished())
+            {
+                int count = inflater.inflate(encoding, length, encoding.length - length);
+
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                {
+                    break;
+                }
+
+                length += count;
+            }
+
+            if (length != encoding.length || !inflater.finished())
+            {
+                throw new IOException("compressed message does not match its length");
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("corrupted compressed message: " + e.getMessage(), e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+
+        synchronized (this)
+        {
+            decompressedMessages++;
+            decompressedBytesIn += data.length;
+            decompressedBytesOut += encoding.length;
+            decompressTime += getCpuTime() - start;
+        }
+
+        return ASN1Primitive.fromByteArray(encoding);
+    }
+
+    /**
+     * Return the statistics for the connection. The ratios are compressed size over original size, and the times are
+     * CPU time in milliseconds.
+     *
+     * @return a map of statistic name to value.
+     */
+    public synchronized Map<String, Object> getStatistics()
+    {
+        Map<String, Object> stats = new LinkedHashMap<>();
+
+        stats.put("threshold", threshold);
+        stats.put("compressed.messages", compressedMessages);
+        stats.put("compressed.bytes-in", compressedBytesIn);
+        stats.put("compressed.bytes-out", compressedBytesOut);
+        stats.put("compressed.ratio", ratio(compressedBytesOut, compressedBytesIn));
+        stats.put("compressed.cpu-time", compressTime / 1000000);
+        stats.put("decompressed.messages", decompressedMessages);
+        stats.put("decompressed.bytes-in", decompressedBytesIn);
+        stats.put("decompressed.bytes-out", decompressedBytesOut);
+        stats.put("decompressed.ratio", ratio(decompressedBytesIn, decompressedBytesOut));
+        stats.put("decompressed.cpu-time", decompressTime / 1000000);
+
+        return stats;
+    }
+
+    public String toString()
+    {
+        return getStatistics().toString();
+    }
+
+    private static String ratio(long compressed, long original)
+    {
+        return (original == 0) ? "-" : String.format("%.3f", (double)compressed / original);
+    }
+
+    private static long getCpuTime()
+    {
+        if (threadBean.isCurrentThreadCpuTimeSupported() && threadBean.isThreadCpuTimeEnabled())
+        {
+            return threadBean.getCurrentThreadCpuTime();
+        }
+
+        return System.nanoTime();
+    }
+}
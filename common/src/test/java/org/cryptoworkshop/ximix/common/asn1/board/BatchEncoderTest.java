@@ -0,0 +1,186 @@
+package org.cryptoworkshop.ximix.common.asn1.board;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.sec.SECNamedCurves;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.ec.ECPair;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.Arrays;
+import org.cryptoworkshop.ximix.common.crypto.ECDecryptionProof;
+import org.junit.Test;
+
+public class BatchEncoderTest
+    extends TestCase
+{
+    private final SecureRandom random = new SecureRandom();
+    private final X9ECParameters custom = CustomNamedCurves.getByName("secp256r1");
+    private final X9ECParameters generic = SECNamedCurves.getByName("secp256r1");
+
+    @Test
+    public void testNormalize()
+    {
+        ECPoint[] points = new ECPoint[] {
+            randomPoint(custom), randomPoint(generic), custom.getG(), randomPoint(custom).normalize(),
+            custom.getCurve().getInfinity(), randomPoint(generic), randomPoint(custom)
+        };
+
+        assertFalse(points[0].isNormalized());
+
+        ECPoint[] normalized = BatchEncoder.normalize(points);
+
+        // points from both curves, normalised together, each staying on its own curve.
+        assertEquals(points.length, normalized.length);
+
+        for (int i = 0; i != points.length; i++)
+        {
+            assertTrue(normalized[i].isNormalized());
+            assertSame(points[i].getCurve(), normalized[i].getCurve());
+            assertTrue(points[i].normalize().equals(normalized[i]));
+            assertTrue(Arrays.areEqual(points[i].normalize().getEncoded(false), normalized[i].getEncoded(false)));
+        }
+
+        // the ones already normalised are passed straight through.
+        assertSame(points[2], normalized[2]);
+        assertSame(points[3], normalized[3]);
+        assertSame(points[4], normalized[4]);
+
+        assertEquals(0, BatchEncoder.normalize(new ECPoint[0]).length);
+    }
+
+    @Test
+    public void testPointSequences()
+        throws Exception
+    {
+        for (boolean compressed : new boolean[] { false, true })
+        {
+            PointSequence[] sequences = new PointSequence[10];
+            byte[][] expected = new byte[sequences.length][];
+
+            for (int i = 0; i != sequences.length; i++)
+            {
+                ECPoint[] points = new ECPoint[i % 4];
+                ASN1EncodableVector v = new ASN1EncodableVector();
+
+                for (int j = 0; j != points.length; j++)
+                {
+                    points[j] = randomPoint(custom);
+                    v.add(new DEROctetString(points[j].normalize().getEncoded(compressed)));
+                }
+
+                sequences[i] = new PointSequence(points, compressed);
+                expected[i] = new DERSequence(v).getEncoded();
+            }
+
+            byte[][] encodings = BatchEncoder.getEncoded(sequences);
+
+            assertEquals(sequences.length, encodings.length);
+
+            for (int i = 0; i != sequences.length; i++)
+            {
+                assertTrue(Arrays.areEqual(expected[i], encodings[i]));
+                assertTrue(Arrays.areEqual(sequences[i].getEncoded(), encodings[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testPairSequences()
+        throws Exception
+    {
+        for (boolean compressed : new boolean[] { false, true })
+        {
+            PairSequence[] sequences = new PairSequence[10];
+            byte[][] expected = new byte[sequences.length][];
+
+            for (int i = 0; i != sequences.length; i++)
+            {
+                ECPair[] pairs = randomPairs(i % 3 + 1);
+
+                sequences[i] = new PairSequence(pairs, compressed);
+                expected[i] = new PairSequence(normalize(pairs), compressed).getEncoded();
+            }
+
+            byte[][] encodings = BatchEncoder.getEncoded(sequences);
+
+            for (int i = 0; i != sequences.length; i++)
+            {
+                assertTrue(Arrays.areEqual(expected[i], encodings[i]));
+                assertTrue(Arrays.areEqual(sequences[i].getEncoded(), encodings[i]));
+            }
+        }
+    }
+
+    @Test
+    public void testPairSequencesWithProofs()
+        throws Exception
+    {
+        for (boolean compressed : new boolean[] { false, true })
+        {
+            PairSequenceWithProofs[] sequences = new PairSequenceWithProofs[10];
+            byte[][] expected = new byte[sequences.length][];
+
+            for (int i = 0; i != sequences.length; i++)
+            {
+                ECPair[] pairs = randomPairs(i % 3 + 1);
+                ECDecryptionProof[] proofs = new ECDecryptionProof[pairs.length];
+                ECDecryptionProof[] normalizedProofs = new ECDecryptionProof[pairs.length];
+
+                for (int j = 0; j != proofs.length; j++)
+                {
+                    proofs[j] = new ECDecryptionProof(randomPoint(custom), randomPoint(custom), new BigInteger(256, random));
+                    normalizedProofs[j] = new ECDecryptionProof(proofs[j].getA().normalize(), proofs[j].getB().normalize(), proofs[j].getR());
+                }
+
+                sequences[i] = new PairSequenceWithProofs(pairs, proofs, compressed);
+                expected[i] = new PairSequenceWithProofs(normalize(pairs), normalizedProofs, compressed).getEncoded();
+            }
+
+            byte[][] encodings = BatchEncoder.getEncoded(sequences);
+
+            for (int i = 0; i != sequences.length; i++)
+            {
+                assertTrue(Arrays.areEqual(expected[i], encodings[i]));
+                assertTrue(Arrays.areEqual(sequences[i].getEncoded(), encodings[i]));
+            }
+        }
+    }
+
+    private ECPair[] randomPairs(int count)
+    {
+        ECPair[] pairs = new ECPair[count];
+
+        for (int i = 0; i != count; i++)
+        {
+            pairs[i] = new ECPair(randomPoint(custom), randomPoint(custom));
+        }
+
+        return pairs;
+    }
+
+    private static ECPair[] normalize(ECPair[] pairs)
+    {
+        ECPair[] normalized = new ECPair[pairs.length];
+
+        for (int i = 0; i != pairs.length; i++)
+        {
+            normalized[i] = new ECPair(pairs[i].getX().normalize(), pairs[i].getY().normalize());
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Return a point straight out of a multiplication, which is usually not yet in affine form.
+     */
+    private ECPoint randomPoint(X9ECParameters x9)
+    {
+        return x9.getG().multiply(new BigInteger(x9.getN().bitLength() - 1, random));
+    }
+}
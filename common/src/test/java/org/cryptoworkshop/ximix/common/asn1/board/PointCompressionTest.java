@@ -0,0 +1,203 @@
+package org.cryptoworkshop.ximix.common.asn1.board;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.ec.ECPair;
+import org.bouncycastle.math.ec.ECCurve;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.Arrays;
+import org.cryptoworkshop.ximix.common.crypto.ECDecryptionProof;
+import org.junit.Test;
+
+public class PointCompressionTest
+    extends TestCase
+{
+    private final SecureRandom random = new SecureRandom();
+    private final X9ECParameters x9 = CustomNamedCurves.getByName("secp256r1");
+    private final ECCurve curve = x9.getCurve();
+
+    @Test
+    public void testPointSequence()
+        throws Exception
+    {
+        ECPoint[] points = new ECPoint[] { randomPoint(), randomPoint(), randomPoint() };
+
+        byte[] compressed = new PointSequence(points, true).getEncoded();
+        byte[] uncompressed = new PointSequence(points, false).getEncoded();
+
+        assertTrue(compressed.length < uncompressed.length);
+
+        for (ASN1Encodable o : ASN1Sequence.getInstance(compressed).toArray())
+        {
+            assertTrue(Pair.isCompressed(ASN1OctetString.getInstance(o).getOctets()));
+        }
+
+        PointSequence decoded = PointSequence.getInstance(curve, compressed);
+
+        // the points come back the same, and are written out again in the form they were read in.
+        assertTrue(decoded.isCompressed());
+        assertEquals(points, decoded.getECPoints());
+        assertTrue(Arrays.areEqual(compressed, decoded.getEncoded()));
+
+        decoded = PointSequence.getInstance(curve, uncompressed);
+
+        assertFalse(decoded.isCompressed());
+        assertEquals(points, decoded.getECPoints());
+        assertTrue(Arrays.areEqual(uncompressed, decoded.getEncoded()));
+
+        // and a compressed re-encoding of an uncompressed sequence matches one made from the start.
+        assertTrue(Arrays.areEqual(compressed, new PointSequence(decoded.getECPoints(), true).getEncoded()));
+    }
+
+    @Test
+    public void testMixedForms()
+        throws Exception
+    {
+        ECPoint[] points = new ECPoint[] { randomPoint(), randomPoint() };
+        ASN1EncodableVector v = new ASN1EncodableVector();
+
+        v.add(new DEROctetString(points[0].normalize().getEncoded(false)));
+        v.add(new DEROctetString(points[1].normalize().getEncoded(true)));
+
+        // any compressed point makes the whole sequence compressed.
+        PointSequence decoded = PointSequence.getInstance(curve, new DERSequence(v).getEncoded());
+
+        assertTrue(decoded.isCompressed());
+        assertEquals(points, decoded.getECPoints());
+        assertTrue(Arrays.areEqual(new PointSequence(points, true).getEncoded(), decoded.getEncoded()));
+    }
+
+    @Test
+    public void testPair()
+        throws Exception
+    {
+        ECPair ecPair = new ECPair(randomPoint(), randomPoint());
+
+        for (boolean isCompressed : new boolean[] { false, true })
+        {
+            byte[] encoding = new Pair(ecPair, isCompressed).getEncoded();
+            Pair decoded = Pair.getInstance(curve, encoding);
+
+            assertEquals(isCompressed, decoded.isCompressed());
+            assertEquals(ecPair, decoded.getECPair());
+            assertTrue(Arrays.areEqual(encoding, decoded.getEncoded()));
+        }
+
+        assertFalse(Pair.isCompressed(curve.getInfinity().getEncoded(true)));
+        assertFalse(Pair.isCompressed(new byte[0]));
+    }
+
+    @Test
+    public void testPairSequence()
+        throws Exception
+    {
+        ECPair[] pairs = randomPairs(4);
+
+        byte[] compressed = new PairSequence(pairs, true).getEncoded();
+        byte[] uncompressed = new PairSequence(pairs, false).getEncoded();
+
+        assertTrue(compressed.length < uncompressed.length);
+
+        PairSequence decoded = PairSequence.getInstance(curve, compressed);
+
+        assertTrue(decoded.isCompressed());
+        assertEquals(pairs, decoded.getECPairs());
+        assertTrue(Arrays.areEqual(compressed, decoded.getEncoded()));
+
+        decoded = PairSequence.getInstance(curve, uncompressed);
+
+        assertFalse(decoded.isCompressed());
+        assertEquals(pairs, decoded.getECPairs());
+        assertTrue(Arrays.areEqual(uncompressed, decoded.getEncoded()));
+    }
+
+    @Test
+    public void testPairSequenceWithProofs()
+        throws Exception
+    {
+        ECPair[] pairs = randomPairs(3);
+        ECDecryptionProof[] proofs = new ECDecryptionProof[pairs.length];
+
+        for (int i = 0; i != proofs.length; i++)
+        {
+            proofs[i] = new ECDecryptionProof(randomPoint(), randomPoint(), new BigInteger(256, random));
+        }
+
+        byte[] compressed = new PairSequenceWithProofs(pairs, proofs, true).getEncoded();
+        byte[] uncompressed = new PairSequenceWithProofs(pairs, proofs, false).getEncoded();
+
+        assertTrue(compressed.length < uncompressed.length);
+
+        for (byte[] encoding : new byte[][] { compressed, uncompressed })
+        {
+            PairSequenceWithProofs decoded = PairSequenceWithProofs.getInstance(curve, encoding);
+
+            assertEquals(encoding == compressed, decoded.isCompressed());
+            assertEquals(pairs, decoded.getECPairs());
+            assertTrue(Arrays.areEqual(encoding, decoded.getEncoded()));
+
+            // the proofs are always compressed, whatever the form of the pairs.
+            for (int i = 0; i != proofs.length; i++)
+            {
+                ECDecryptionProof proof = decoded.getECProofs()[i];
+
+                assertTrue(proofs[i].getA().equals(proof.getA()));
+                assertTrue(proofs[i].getB().equals(proof.getB()));
+                assertEquals(proofs[i].getR(), proof.getR());
+            }
+        }
+    }
+
+    private ECPair[] randomPairs(int count)
+    {
+        ECPair[] pairs = new ECPair[count];
+
+        for (int i = 0; i != count; i++)
+        {
+            pairs[i] = new ECPair(randomPoint(), randomPoint());
+        }
+
+        return pairs;
+    }
+
+    private ECPoint randomPoint()
+    {
+        return x9.getG().multiply(new BigInteger(x9.getN().bitLength() - 1, random));
+    }
+
+    private static void assertEquals(ECPoint[] expected, ECPoint[] actual)
+    {
+        assertEquals(expected.length, actual.length);
+
+        for (int i = 0; i != expected.length; i++)
+        {
+            assertTrue(expected[i].equals(actual[i]));
+        }
+    }
+
+    private static void assertEquals(ECPair expected, ECPair actual)
+    {
+        assertTrue(expected.getX().equals(actual.getX()));
+        assertTrue(expected.getY().equals(actual.getY()));
+    }
+
+    private static void assertEquals(ECPair[] expected, ECPair[] actual)
+    {
+        assertEquals(expected.length, actual.length);
+
+        for (int i = 0; i != expected.length; i++)
+        {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+}
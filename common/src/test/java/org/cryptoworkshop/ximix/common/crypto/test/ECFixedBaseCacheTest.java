@@ -0,0 +1,117 @@
+package org.cryptoworkshop.ximix.common.crypto.test;
+
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.sec.SECNamedCurves;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.math.ec.ECPoint;
+import org.bouncycastle.util.Arrays;
+import org.cryptoworkshop.ximix.common.crypto.ECFixedBaseCache;
+import org.junit.Test;
+
+public class ECFixedBaseCacheTest
+    extends TestCase
+{
+    private final SecureRandom random = new SecureRandom();
+
+    @Test
+    public void testGenerator()
+    {
+        for (String curveName : new String[] { "secp256r1", "secp384r1", "secp256k1" })
+        {
+            // both the custom curve implementations and the generic ones.
+            checkMultiply(CustomNamedCurves.getByName(curveName));
+            checkMultiply(SECNamedCurves.getByName(curveName));
+        }
+    }
+
+    @Test
+    public void testUnnormalizedBase()
+    {
+        X9ECParameters x9 = CustomNamedCurves.getByName("secp256r1");
+        ECPoint base = x9.getG().twice().add(x9.getG());
+
+        assertFalse(base.isNormalized());
+
+        for (int i = 0; i != 10; i++)
+        {
+            BigInteger k = new BigInteger(x9.getN().bitLength(), random);
+
+            assertEquals(base.multiply(k), ECFixedBaseCache.multiply(base, k));
+        }
+    }
+
+    @Test
+    public void testSameBaseOtherCurve()
+    {
+        X9ECParameters custom = CustomNamedCurves.getByName("secp256r1");
+        X9ECParameters generic = SECNamedCurves.getByName("secp256r1");
+        BigInteger k = new BigInteger(custom.getN().bitLength(), random);
+
+        ECPoint customResult = ECFixedBaseCache.multiply(custom.getG(), k);
+        ECPoint genericResult = ECFixedBaseCache.multiply(generic.getG(), k);
+
+        // the same point, but each on the curve its base came from.
+        assertSame(custom.getCurve(), customResult.getCurve());
+        assertSame(generic.getCurve(), genericResult.getCurve());
+        assertTrue(Arrays.areEqual(customResult.getEncoded(true), genericResult.getEncoded(true)));
+    }
+
+    @Test
+    public void testManyBases()
+    {
+        X9ECParameters x9 = CustomNamedCurves.getByName("secp256r1");
+        ECPoint[] bases = new ECPoint[100];
+
+        // more keys than the cache holds, so some tables are dropped and built again.
+        for (int i = 0; i != bases.length; i++)
+        {
+            bases[i] = x9.getG().multiply(new BigInteger(x9.getN().bitLength() - 1, random)).normalize();
+        }
+
+        for (int pass = 0; pass != 2; pass++)
+        {
+            for (ECPoint base : bases)
+            {
+                BigInteger k = new BigInteger(x9.getN().bitLength(), random);
+
+                assertEquals(base.multiply(k), ECFixedBaseCache.multiply(base, k));
+            }
+        }
+    }
+
+    private void checkMultiply(X9ECParameters x9)
+    {
+        BigInteger n = x9.getN();
+        ECPoint key = x9.getG().multiply(new BigInteger(n.bitLength() - 1, random)).normalize();
+
+        for (ECPoint base : new ECPoint[] { x9.getG(), key })
+        {
+            BigInteger[] scalars = new BigInteger[] {
+                BigInteger.ZERO, BigInteger.ONE, BigInteger.valueOf(2), n.subtract(BigInteger.ONE), n, n.add(BigInteger.ONE),
+                BigInteger.valueOf(-5), n.negate().subtract(BigInteger.ONE), n.shiftLeft(3).add(BigInteger.TEN)
+            };
+
+            for (BigInteger k : scalars)
+            {
+                assertEquals(base.multiply(k), ECFixedBaseCache.multiply(base, k));
+            }
+
+            for (int i = 0; i != 20; i++)
+            {
+                BigInteger k = new BigInteger(n.bitLength(), random);
+
+                assertEquals(base.multiply(k), ECFixedBaseCache.multiply(base, k));
+            }
+        }
+    }
+
+    private static void assertEquals(ECPoint expected, ECPoint actual)
+    {
+        assertSame(expected.getCurve(), actual.getCurve());
+        assertTrue(expected.equals(actual));
+    }
+}
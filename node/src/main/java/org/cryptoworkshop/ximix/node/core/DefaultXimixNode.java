@@ -1,18 +1,10 @@
 package org.cryptoworkshop.ximix.node.core;
 
-import java.io.IOException;
-import java.io.OutputStream;
-import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.SocketTimeoutException;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.bouncycastle.asn1.DEROutputStream;
 import org.cryptoworkshop.ximix.client.connection.ServicesConnection;
-import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
 import org.cryptoworkshop.ximix.common.config.Config;
 import org.cryptoworkshop.ximix.common.config.ConfigException;
 import org.cryptoworkshop.ximix.common.util.EventNotifier;
@@ -30,7 +22,7 @@ class DefaultXimixNode
     private final AtomicBoolean stopped = new AtomicBoolean(false);
     private final EventNotifier eventNotifier;
 
-    private ServerSocket ss = null;
+    private volatile XimixServicesServer servicesServer = null;
 
     DefaultXimixNode(Config config, Map<String, ServicesConnection> servicesMap, EventNotifier eventNotifier)
         throws ConfigException
@@ -48,31 +40,15 @@ class DefaultXimixNode
             System.out.println("Starting node '" + nodeContext.getName() + "'");
             System.out.println("Listening Config: " + socketInfo);
 
-            ss = new ServerSocket(socketInfo.getPort(), socketInfo.getBacklog(), InetAddress.getByName(socketInfo.getBindAddress())); // TODO: should also be able to specify ip address to listen to.
+            servicesServer = new XimixServicesServer.Builder(nodeContext)
+                .withThrowableListener(eventNotifier)
+                .withIOThreads(nodeConfig.getIntegerProperty("ioThreads", 2))
+                .withServiceThreads(nodeConfig.getIntegerProperty("serviceThreads", 64))
+                .build();
 
-            ss.setSoTimeout(1000);                       // TODO: should be a config item
-
-            XimixServices.Builder servicesBuilder = new XimixServices.Builder(nodeContext).withThrowableListener(eventNotifier);
-
-            while (!stopped.get())
+            if (!stopped.get())
             {
-                try
-                {
-                    Socket s = ss.accept();
-
-                    if (!stopped.get())
-                    {
-                        nodeContext.addConnection(servicesBuilder.build(s));
-                    }
-                    else
-                    {
-                        respondExiting(s);  // this can only happen once, but at least we're been polite...
-                    }
-                }
-                catch (SocketTimeoutException e)
-                {
-                    continue;
-                }
+                servicesServer.run(socketInfo);
             }
         }
         catch (Exception e)
@@ -87,38 +63,11 @@ class DefaultXimixNode
     {
         stopped.set(true);
 
-        if (ss != null)
+        if (servicesServer != null)
         {
-            try
-            {
-                ss.close();
-            }
-            catch (IOException e)
-            {
-                nodeContext.getEventNotifier().notify(EventNotifier.Level.WARN, "Exception on closing socket: " + e.getMessage(), e);
-            }
+            servicesServer.stop(timeout, unit);
         }
 
         return nodeContext.shutdown(timeout, unit);
     }
-
-    /**
-     * @param s
-     * @throws Exception
-     */
-    protected void respondExiting(Socket s)
-        throws Exception
-    {
-
-        OutputStream sOut = s.getOutputStream();
-
-        DEROutputStream aOut = new DEROutputStream(sOut);
-        // TODO: NodeInfo actually is the first object in the protocol
-        aOut.writeObject(new MessageReply(MessageReply.Type.EXITING));
-        aOut.flush();
-        aOut.close();
-
-        s.close();
-
-    }
 }
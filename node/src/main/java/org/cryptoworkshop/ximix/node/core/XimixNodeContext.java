@@ -31,7 +31,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -59,6 +61,7 @@ import org.cryptoworkshop.ximix.common.config.ConfigException;
 import org.cryptoworkshop.ximix.common.config.ConfigObjectFactory;
 import org.cryptoworkshop.ximix.common.crypto.Algorithm;
 import org.cryptoworkshop.ximix.common.util.EventNotifier;
+import org.cryptoworkshop.ximix.common.util.MessageCompressor;
 import org.cryptoworkshop.ximix.node.crypto.key.BLSKeyManager;
 import org.cryptoworkshop.ximix.node.crypto.key.BLSNewDKGGenerator;
 import org.cryptoworkshop.ximix.node.crypto.key.ECKeyManager;
@@ -92,6 +95,7 @@ public class XimixNodeContext
     private final RemoteServicesCache remoteServicesCache;
     private final File homeDirectory;
     private final Map<String, ServicesConnection> peerMap;
+    private final Map<String, MessageCompressor> connectionCompressors = new ConcurrentHashMap<>();
     private final CountDownLatch setupCompleteLatch = new CountDownLatch(1);
     private final Map<String, String> description;
     private final ListeningSocketInfo listeningSocketInfo;
@@ -320,6 +324,29 @@ public class XimixNodeContext
         return new HashMap<>();
     }
 
+    @Override
+    public Map<String, Map<String, Object>> getConnectionStatistics()
+    {
+        Map<String, Map<String, Object>> stats = new TreeMap<>();
+
+        for (Map.Entry<String, MessageCompressor> entry : connectionCompressors.entrySet())
+        {
+            stats.put(entry.getKey(), entry.getValue().getStatistics());
+        }
+
+        return stats;
+    }
+
+    void addConnectionCompressor(String connectionName, MessageCompressor compressor)
+    {
+        connectionCompressors.put(connectionName, compressor);
+    }
+
+    void removeConnectionCompressor(String connectionName)
+    {
+        connectionCompressors.remove(connectionName);
+    }
+
     @Override
     public Map<String, String> getDescription()
     {
@@ -372,11 +399,6 @@ public class XimixNodeContext
         return nodeServices;
     }
 
-    public void addConnection(XimixServices task)
-    {
-        connectionExecutor.execute(task);
-    }
-
     public Map<String, ServicesConnection> getPeerMap()
     {
         return peerMap;
@@ -548,14 +570,7 @@ public class XimixNodeContext
     public boolean shutdown(final int time, final TimeUnit timeUnit)
         throws InterruptedException
     {
-        List<Runnable> tasks = connectionExecutor.shutdownNow();
-
-        for (Runnable task : tasks)
-        {
-            XimixServices connection = (XimixServices)task;
-
-            connection.stop();
-        }
+        connectionExecutor.shutdownNow();
 
         scheduledMultiTaskExecutor.shutdown();
 
@@ -0,0 +1,1096 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.core;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.bouncycastle.util.Pack;
+import org.cryptoworkshop.ximix.common.asn1.message.CompressedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.ConnectionOptions;
+import org.cryptoworkshop.ximix.common.asn1.message.Message;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageEnvelope;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+import org.cryptoworkshop.ximix.common.asn1.message.NodeInfo;
+import org.cryptoworkshop.ximix.common.util.EventNotifier;
+import org.cryptoworkshop.ximix.common.util.MessageCompressor;
+import org.cryptoworkshop.ximix.node.service.AsyncNodeService;
+import org.cryptoworkshop.ximix.node.service.ListeningSocketInfo;
+import org.cryptoworkshop.ximix.node.service.NodeService;
+import org.cryptoworkshop.ximix.node.service.PendingReply;
+import org.cryptoworkshop.ximix.node.service.StreamReceiver;
+import org.cryptoworkshop.ximix.node.service.StreamingNodeService;
+
+/**
+ * Non-blocking transport for a node's services. A single acceptor hands each new connection to one of a small, fixed
+ * set of I/O threads, each running its own selector. The I/O threads pull complete DER encoded messages out of the
+ * socket buffers and pass them to a pool of service threads, which queue the replies back to the owning I/O thread for
+ * writing. The pool keeps a core of service threads and grows past it on demand, as a handler may block on a peer
+ * which is itself waiting on this node, so a fixed pool can deadlock. Services which wait on events, rather than on
+ * work, can answer from an AsyncNodeService and hold no thread at all while waiting.
+ * <p>
+ * A connection opens with the node's NodeInfo. Bare messages on a connection are handled one at a time and answered
+ * in order, as they always have been. Messages wrapped in a MessageEnvelope are handed to the service threads as soon
+ * as they arrive, up to a limit per connection, and each reply goes back in an envelope carrying the request's ID as
+ * soon as it is ready. Once a connection reaches its limit it is not read from, so a client that sends faster than the
+ * node can serve it is held back by TCP rather than by node memory.
+ * </p>
+ * <p>
+ * A client may answer the NodeInfo with ConnectionOptions asking for compression. From then on any message, or reply,
+ * on the connection may be sent as a CompressedMessage, and the node compresses any reply at least as large as the
+ * threshold the client asked for.
+ * </p>
+ * <p>
+ * Size limits apply to a message as it is decoded, so compression never changes what can be sent. A request may be
+ * no larger than the maximum input size, before or after it is inflated, and a compressed request that would inflate
+ * past it is answered with an error. The ConnectionOptions may also carry the largest reply the client will accept,
+ * and a reply larger than that, inflated or not, is replaced by an error rather than sent for the client to refuse.
+ * </p>
+ * <p>
+ * A bare message for a StreamingNodeService which opens a stream takes the connection out of the I/O loop altogether.
+ * The node answers OKAY and then reads the stream on a thread of its own with ordinary blocking I/O: a series of chunks,
+ * each an 8 byte big-endian length followed by that many bytes of data, ended by a zero length and then a DER OCTET
+ * STRING holding the big-endian CRC-32 of the data. The node sends its final reply once the checksum has been checked
+ * and closes the connection.
+ * </p>
+ */
+class XimixServicesServer
+{
+    static class Builder
+    {
+        private final XimixNodeContext nodeContext;
+
+        private EventNotifier eventNotifier;
+        private int ioThreads = 2;
+        private int serviceThreads = 64;
+        private int maxConnectionRequests = 32;
+        private int maxInputSize = 128 * 1024;
+
+        Builder(XimixNodeContext nodeContext)
+        {
+            this.nodeContext = nodeContext;
+            this.eventNotifier = nodeContext.getEventNotifier();
+        }
+
+        /**
+         * Set a throwable handler for any uncaught exceptions.
+         *
+         * @param eventNotifier The listener, may be null.
+         * @return the current builder.
+         */
+        public Builder withThrowableListener(EventNotifier eventNotifier)
+        {
+            if (eventNotifier != null)
+            {
+                this.eventNotifier = eventNotifier;
+            }
+
+            return this;
+        }
+
+        /**
+         * Set the number of threads used for socket I/O.
+         *
+         * @param ioThreads the number of I/O threads.
+         * @return the current builder.
+         */
+        public Builder withIOThreads(int ioThreads)
+        {
+            this.ioThreads = Math.max(1, ioThreads);
+
+            return this;
+        }
+
+        /**
+         * Set the number of threads kept ready for handling messages. More are started if all of these are busy, and
+         * retired again once they have been idle for a while.
+         *
+         * @param serviceThreads the number of service threads.
+         * @return the current builder.
+         */
+        public Builder withServiceThreads(int serviceThreads)
+        {
+            this.serviceThreads = Math.max(1, serviceThreads);
+
+            return this;
+        }
+
+        /**
+         * Set the number of enveloped requests a single connection may have outstanding at once.
+         *
+         * @param maxConnectionRequests the maximum number of requests in service for one connection.
+         * @return the current builder.
+         */
+        public Builder withMaxConnectionRequests(int maxConnectionRequests)
+        {
+            this.maxConnectionRequests = Math.max(1, maxConnectionRequests);
+
+            return this;
+        }
+
+        /**
+         * Set the maximum size of a single incoming message. A compressed message is held to the same limit once it
+         * has been inflated.
+         *
+         * @param maxInputSize the largest message length, in bytes, that will be accepted.
+         * @return the current builder.
+         */
+        public Builder withMaxInputSize(int maxInputSize)
+        {
+            this.maxInputSize = maxInputSize;
+
+            return this;
+        }
+
+        public XimixServicesServer build()
+        {
+            return new XimixServicesServer(this);
+        }
+    }
+
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_HEADER_SIZE = 2 + 4 + 4;  // short tag, longest length we accept, and some slack for long tags.
+    private static final int STREAM_BUFFER_SIZE = 256 * 1024;
+    private static final int STREAM_TIMEOUT = 300000;
+    private static final long SERVICE_THREAD_IDLE_TIME = 60;
+
+    private final XimixNodeContext nodeContext;
+    private final EventNotifier throwableHandler;
+    private final int maxInputSize;
+    private final int maxConnectionRequests;
+    private final ExecutorService serviceExecutor;
+    private final ExecutorService streamExecutor;
+    private final ServicesLoop[] loops;
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+
+    private volatile Selector acceptSelector;
+    private int nextLoop = 0;
+
+    private XimixServicesServer(Builder builder)
+    {
+        this.nodeContext = builder.nodeContext;
+        this.throwableHandler = builder.eventNotifier;
+        this.maxInputSize = builder.maxInputSize;
+        this.maxConnectionRequests = builder.maxConnectionRequests;
+        this.serviceExecutor = new ThreadPoolExecutor(builder.serviceThreads, Integer.MAX_VALUE, SERVICE_THREAD_IDLE_TIME, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        this.streamExecutor = Executors.newCachedThreadPool();
+        this.loops = new ServicesLoop[builder.ioThreads];
+    }
+
+    /**
+     * Listen for and serve connections until stop() is called.
+     *
+     * @param socketInfo the details of the socket to listen on.
+     * @throws IOException if the listening socket cannot be set up.
+     */
+    public void run(ListeningSocketInfo socketInfo)
+        throws IOException
+    {
+        ServerSocketChannel serverChannel = ServerSocketChannel.open();
+
+        try
+        {
+            serverChannel.socket().setReuseAddress(true);
+            serverChannel.socket().bind(new InetSocketAddress(InetAddress.getByName(socketInfo.getBindAddress()), socketInfo.getPort()), socketInfo.getBacklog());
+            serverChannel.configureBlocking(false);
+
+            acceptSelector = Selector.open();
+            serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+            for (int i = 0; i != loops.length; i++)
+            {
+                loops[i] = new ServicesLoop();
+
+                Thread loopThread = new Thread(loops[i], "ximix-io-" + nodeContext.getName() + "-" + i);
+
+                loopThread.setDaemon(true);
+                loopThread.start();
+            }
+
+            while (!stopped.get())
+            {
+                acceptSelector.select(1000);
+                acceptSelector.selectedKeys().clear();
+
+                SocketChannel channel;
+                while ((channel = serverChannel.accept()) != null)
+                {
+                    if (!stopped.get())
+                    {
+                        channel.configureBlocking(false);
+
+                        loops[nextLoop++ % loops.length].add(channel);
+                    }
+                    else
+                    {
+                        respondExiting(channel);  // this can only happen once, but at least we're been polite...
+                    }
+                }
+            }
+        }
+        finally
+        {
+            serverChannel.close();
+
+            if (acceptSelector != null)
+            {
+                acceptSelector.close();
+            }
+        }
+    }
+
+    /**
+     * Stop accepting connections, interrupt any messages and streams currently being handled, wait for the service
+     * threads to finish, and then close all connections.
+     *
+     * @param time the maximum time to wait for messages being handled.
+     * @param timeUnit the units time is in.
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void stop(long time, TimeUnit timeUnit)
+        throws InterruptedException
+    {
+        stopped.set(true);
+
+        Selector selector = acceptSelector;
+        if (selector != null)
+        {
+            selector.wakeup();
+        }
+
+        serviceExecutor.shutdownNow();
+        streamExecutor.shutdownNow();
+
+        long deadline = System.currentTimeMillis() + timeUnit.toMillis(time);
+
+        serviceExecutor.awaitTermination(time, timeUnit);
+        streamExecutor.awaitTermination(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+
+        for (ServicesLoop loop : loops)
+        {
+            if (loop != null)
+            {
+                loop.shutdown();
+            }
+        }
+    }
+
+    private void respondExiting(SocketChannel channel)
+    {
+        try
+        {
+            channel.configureBlocking(true);
+            // TODO: NodeInfo actually is the first object in the protocol
+            channel.write(ByteBuffer.wrap(new MessageReply(MessageReply.Type.EXITING).getEncoded(ASN1Encoding.DER)));
+        }
+        catch (IOException e)
+        {
+            // ignore - we were only being polite.
+        }
+        finally
+        {
+            close(channel);
+        }
+    }
+
+    private void close(SocketChannel channel)
+    {
+        try
+        {
+            channel.close();
+        }
+        catch (IOException e)
+        {
+            throwableHandler.notify(EventNotifier.Level.WARN, "Exception closing service connection: " + e.getMessage(), e);
+        }
+    }
+
+    // pass the reply to a message back to its channel, now or once a pending reply completes. Nothing is passed back
+    // if the message has opened a stream and the connection has been handed over to it.
+    private void handle(final ServicesChannel source, byte[] frame)
+    {
+        MessageEnvelope envelope = null;
+        MessageReply reply;
+
+        try
+        {
+            Message message;
+
+            if (MessageEnvelope.isEnvelope(frame))
+            {
+                envelope = MessageEnvelope.getInstance(ASN1Primitive.fromByteArray(frame));
+                message = Message.getInstance(source.decompress(envelope.getContent()));
+            }
+            else
+            {
+                message = Message.getInstance(source.decompress(ASN1Primitive.fromByteArray(frame)));
+            }
+
+            NodeService nodeService = nodeContext.getService(message);
+
+            nodeContext.getEventNotifier().notify(EventNotifier.Level.DEBUG, "Received Message: " + message.getType());
+
+            if (envelope == null && nodeService instanceof StreamingNodeService)
+            {
+                StreamReceiver receiver = ((StreamingNodeService)nodeService).openStream(message);
+
+                if (receiver != null)
+                {
+                    source.detach(receiver);
+
+                    return;
+                }
+            }
+
+            if (nodeService instanceof AsyncNodeService)
+            {
+                PendingReply pendingReply = ((AsyncNodeService)nodeService).handleAsync(message);
+
+                if (pendingReply != null)
+                {
+                    final MessageEnvelope replyEnvelope = envelope;
+
+                    pendingReply.addListener(new PendingReply.Listener()
+                    {
+                        @Override
+                        public void replied(MessageReply reply)
+                        {
+                            nodeContext.getEventNotifier().notify(EventNotifier.Level.DEBUG, "Reply Message: " + reply);
+
+                            source.replied(encode(source, replyEnvelope, reply));
+                        }
+                    });
+
+                    return;
+                }
+            }
+
+            if (nodeService != null)
+            {
+                reply = nodeService.handle(message);
+
+                nodeContext.getEventNotifier().notify(EventNotifier.Level.DEBUG, "Reply Message: " + reply);
+            }
+            else
+            {
+                reply = new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("Node " + nodeContext.getName() + ": unable to find service for " + message.getType()));
+            }
+        }
+        catch (Exception e)
+        {
+            throwableHandler.notify(EventNotifier.Level.WARN, "Exception handling message: " + e.getMessage(), e);
+
+            reply = new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("Node " + nodeContext.getName() + ": unable to process message: " + e.getMessage()));
+        }
+
+        source.replied(encode(source, envelope, reply));
+    }
+
+    // returns null if the reply cannot be encoded.
+    private byte[] encode(ServicesChannel source, MessageEnvelope envelope, MessageReply reply)
+    {
+        try
+        {
+            ASN1Encodable content = source.compress(reply);
+            byte[] encoding = encode(envelope, content);
+            int length = CompressedMessage.isCompressed(content) ? Math.max(encoding.length, CompressedMessage.getInstance(content).getLength()) : encoding.length;
+
+            if (length > source.getMaxReplySize())
+            {
+                String detail = "Node " + nodeContext.getName() + ": reply of " + length + " bytes exceeds the client's limit of " + source.getMaxReplySize() + " bytes";
+
+                throwableHandler.notify(EventNotifier.Level.WARN, detail);
+
+                encoding = encode(envelope, source.compress(new MessageReply(MessageReply.Type.ERROR, new DERUTF8String(detail))));
+            }
+
+            return encoding;
+        }
+        catch (IOException e)
+        {
+            throwableHandler.notify(EventNotifier.Level.ERROR, "Unable to encode reply: " + e.getMessage(), e);
+
+            return null;
+        }
+    }
+
+    private static byte[] encode(MessageEnvelope envelope, ASN1Encodable content)
+        throws IOException
+    {
+        if (envelope != null)
+        {
+            return new MessageEnvelope(envelope.getRequestID(), content).getEncoded(ASN1Encoding.DER);
+        }
+
+        return content.toASN1Primitive().getEncoded(ASN1Encoding.DER);
+    }
+
+    private void receiveStream(SocketChannel channel, List<ByteBuffer> pending, StreamReceiver receiver)
+    {
+        try
+        {
+            channel.configureBlocking(true);
+            channel.socket().setSoTimeout(STREAM_TIMEOUT);
+
+            pending.add(ByteBuffer.wrap(new MessageReply(MessageReply.Type.OKAY).getEncoded(ASN1Encoding.DER)));
+
+            for (ByteBuffer buf : pending)
+            {
+                writeFully(channel, buf);
+            }
+
+            // reads on the socket's stream honour the timeout, reads on the channel would not.
+            InputStream in = channel.socket().getInputStream();
+            DataInputStream dIn = new DataInputStream(in);
+            CRC32 checksum = new CRC32();
+            ByteBuffer buf = ByteBuffer.allocate(STREAM_BUFFER_SIZE);
+            long count;
+
+            while ((count = dIn.readLong()) != 0)
+            {
+                if (count < 0)
+                {
+                    throw new IOException("corrupted stream - negative chunk length found");
+                }
+
+                while (count > 0)
+                {
+                    int length = (int)Math.min(count, buf.capacity());
+
+                    dIn.readFully(buf.array(), 0, length);
+                    checksum.update(buf.array(), 0, length);
+
+                    buf.clear();
+                    buf.limit(length);
+                    receiver.receive(buf);
+
+                    count -= length;
+                }
+            }
+
+            ASN1Primitive trailer = new ASN1InputStream(in, MAX_HEADER_SIZE).readObject();
+            if (trailer == null)
+            {
+                throw new EOFException("stream ended before checksum");
+            }
+
+            byte[] expected = Pack.intToBigEndian((int)checksum.getValue());
+
+            MessageReply reply;
+            if (Arrays.equals(expected, ASN1OctetString.getInstance(trailer).getOctets()))
+            {
+                reply = receiver.complete();
+            }
+            else
+            {
+                receiver.abort();
+
+                reply = new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("Node " + nodeContext.getName() + ": stream failed checksum"));
+            }
+
+            writeFully(channel, ByteBuffer.wrap(reply.getEncoded(ASN1Encoding.DER)));
+        }
+        catch (Exception e)
+        {
+            receiver.abort();
+
+            throwableHandler.notify(EventNotifier.Level.WARN, "Exception receiving stream: " + e.getMessage(), e);
+        }
+        finally
+        {
+            close(channel);
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buf)
+        throws IOException
+    {
+        while (buf.hasRemaining())
+        {
+            channel.write(buf);
+        }
+    }
+
+    /**
+     * Return the total length of the DER encoded object at the start of the passed in buffer, or -1 if not enough of
+     * the object's header has arrived to tell yet. The buffer's position is left unchanged.
+     *
+     * @param buf a buffer ready for reading.
+     * @param maxLength the largest content length to accept.
+     * @return the length of the object, header included, or -1.
+     * @throws IOException if the header is malformed or the object is too large.
+     */
+    static int getEncodedLength(ByteBuffer buf, int maxLength)
+        throws IOException
+    {
+        int pos = buf.position();
+        int limit = buf.limit();
+
+        if (pos >= limit)
+        {
+            return -1;
+        }
+
+        // tag
+        if ((buf.get(pos++) & 0x1f) == 0x1f)
+        {
+            int b;
+            do
+            {
+                if (pos >= limit)
+                {
+                    return -1;
+                }
+                b = buf.get(pos++);
+            }
+            while ((b & 0x80) != 0);
+        }
+
+        // length
+        if (pos >= limit)
+        {
+            return -1;
+        }
+
+        int length = buf.get(pos++) & 0xff;
+
+        if (length == 0x80)
+        {
+            throw new IOException("indefinite length encoding not supported");
+        }
+
+        if (length > 0x80)
+        {
+            int size = length & 0x7f;
+
+            if (size > 4)
+            {
+                throw new IOException("DER length more than 4 bytes: " + size);
+            }
+
+            if (pos + size > limit)
+            {
+                return -1;
+            }
+
+            length = 0;
+            for (int i = 0; i != size; i++)
+            {
+                length = (length << 8) | (buf.get(pos++) & 0xff);
+            }
+
+            if (length < 0)
+            {
+                throw new IOException("corrupted stream - negative length found");
+            }
+        }
+
+        if (length > maxLength)
+        {
+            throw new IOException("corrupted stream - out of bounds length found");
+        }
+
+        return (pos - buf.position()) + length;
+    }
+
+    private class ServicesLoop
+        implements Runnable
+    {
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+        private volatile boolean running = true;
+
+        ServicesLoop()
+            throws IOException
+        {
+            this.selector = Selector.open();
+        }
+
+        void add(final SocketChannel channel)
+        {
+            execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                        ServicesChannel servicesChannel = new ServicesChannel(ServicesLoop.this, channel, key);
+
+                        key.attach(servicesChannel);
+
+                        servicesChannel.send(new NodeInfo(nodeContext.getName(), nodeContext.getCapabilities(), NodeInfo.MULTIPLEXING | NodeInfo.BULK_TRANSFER | NodeInfo.COMPRESSION).getEncoded(ASN1Encoding.DER));
+                    }
+                    catch (IOException e)
+                    {
+                        throwableHandler.notify(EventNotifier.Level.WARN, e);
+                        close(channel);
+                    }
+                }
+            });
+        }
+
+        void execute(Runnable task)
+        {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        void shutdown()
+        {
+            execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    for (SelectionKey key : selector.keys())
+                    {
+                        ServicesChannel servicesChannel = (ServicesChannel)key.attachment();
+
+                        if (servicesChannel != null)
+                        {
+                            servicesChannel.close();
+                        }
+                    }
+
+                    running = false;
+                }
+            });
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                while (running)
+                {
+                    selector.select(1000);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null)
+                    {
+                        task.run();
+                    }
+
+                    for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();)
+                    {
+                        SelectionKey key = it.next();
+                        ServicesChannel servicesChannel = (ServicesChannel)key.attachment();
+
+                        it.remove();
+
+                        try
+                        {
+                            if (key.isValid() && key.isReadable())
+                            {
+                                servicesChannel.read();
+                            }
+                            if (key.isValid() && key.isWritable())
+                            {
+                                servicesChannel.write();
+                            }
+                        }
+                        catch (Exception e)
+                        {
+                            throwableHandler.notify(EventNotifier.Level.WARN, e);
+                            servicesChannel.close();
+                        }
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                throwableHandler.notify(EventNotifier.Level.ERROR, "Service I/O loop failed: " + e.getMessage(), e);
+            }
+            finally
+            {
+                try
+                {
+                    selector.close();
+                }
+                catch (IOException e)
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private class ServicesChannel
+    {
+        private final ServicesLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final Deque<ByteBuffer> output = new ArrayDeque<>();
+
+        private ByteBuffer input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+        private int inService = 0;
+        private boolean serialInService = false;
+        private volatile MessageCompressor compressor;
+        private volatile int maxReplySize = Integer.MAX_VALUE;
+        private String compressorName;
+
+        ServicesChannel(ServicesLoop loop, SocketChannel channel, SelectionKey key)
+        {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void read()
+            throws IOException
+        {
+            if (channel.read(input) < 0)
+            {
+                nodeContext.getEventNotifier().notify(EventNotifier.Level.INFO, "Service connection on " + nodeContext.getName() + " shutdown, stop called = " + nodeContext.isStopCalled());
+                close();
+                return;
+            }
+
+            dispatch();
+        }
+
+        // hand whatever complete messages we can to the service threads, and stop reading if we can't take any more.
+        private void dispatch()
+            throws IOException
+        {
+            if (!key.isValid())
+            {
+                return;
+            }
+
+            boolean blocked = false;
+
+            input.flip();
+
+            try
+            {
+                while (!blocked)
+                {
+                    int length = getEncodedLength(input, maxInputSize);
+
+                    if (length < 0 || input.remaining() < length)
+                    {
+                        if (length > input.capacity())
+                        {
+                            ByteBuffer larger = ByteBuffer.allocate(length);
+
+                            larger.put(input);
+                            larger.flip();
+                            input = larger;
+                        }
+                        break;
+                    }
+
+                    if ((input.get(input.position()) & 0xff) == ConnectionOptions.ENCODED_TAG)
+                    {
+                        byte[] frame = new byte[length];
+
+                        input.get(frame);
+
+                        setOptions(ConnectionOptions.getInstance(ASN1Primitive.fromByteArray(frame)));
+                        continue;
+                    }
+
+                    // a bare message has the connection to itself, an enveloped one only needs a free slot.
+                    boolean isEnvelope = (input.get(input.position()) & 0xff) == MessageEnvelope.ENCODED_TAG;
+
+                    if (serialInService || inService == maxConnectionRequests || (!isEnvelope && inService != 0))
+                    {
+                        blocked = true;
+                        break;
+                    }
+
+                    if (nodeContext.isStopCalled())
+                    {
+                        close();
+                        return;
+                    }
+
+                    byte[] frame = new byte[length];
+
+                    input.get(frame);
+
+                    inService++;
+                    serialInService = !isEnvelope;
+
+                    submit(frame);
+
+                    blocked = serialInService;
+                }
+            }
+            finally
+            {
+                if (!input.hasRemaining() && input.capacity() > INITIAL_BUFFER_SIZE)
+                {
+                    input = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+                }
+                else
+                {
+                    input.compact();
+                }
+            }
+
+            if (key.isValid())
+            {
+                if (blocked)
+                {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                }
+                else
+                {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+                }
+            }
+        }
+
+        private void submit(final byte[] frame)
+        {
+            serviceExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    handle(ServicesChannel.this, frame);
+                }
+            });
+        }
+
+        // may be called from any thread, the reply is sent from the I/O loop.
+        void replied(final byte[] reply)
+        {
+            loop.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    sendReply(reply);
+                }
+            });
+        }
+
+        private void sendReply(byte[] reply)
+        {
+            inService--;
+            serialInService = false;
+
+            if (!key.isValid())
+            {
+                return;
+            }
+
+            try
+            {
+                if (reply == null)
+                {
+                    close();
+                    return;
+                }
+
+                send(reply);
+
+                dispatch();
+            }
+            catch (IOException e)
+            {
+                throwableHandler.notify(EventNotifier.Level.WARN, e);
+                close();
+            }
+        }
+
+        void send(byte[] data)
+            throws IOException
+        {
+            output.add(ByteBuffer.wrap(data));
+
+            write();
+        }
+
+        void write()
+            throws IOException
+        {
+            while (!output.isEmpty())
+            {
+                ByteBuffer buf = output.peek();
+
+                channel.write(buf);
+
+                if (buf.hasRemaining())
+                {
+                    break;
+                }
+
+                output.poll();
+            }
+
+            if (key.isValid())
+            {
+                if (output.isEmpty())
+                {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+                }
+                else
+                {
+                    key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+                }
+            }
+        }
+
+        private void setOptions(ConnectionOptions options)
+        {
+            if (options.getMaxReplySize() > 0)
+            {
+                maxReplySize = options.getMaxReplySize();
+            }
+
+            if (options.hasFeature(NodeInfo.COMPRESSION) && compressor == null)
+            {
+                InetSocketAddress remote = (InetSocketAddress)channel.socket().getRemoteSocketAddress();
+
+                compressorName = remote.getHostString() + ":" + remote.getPort();
+                compressor = new MessageCompressor(options.getCompressionThreshold(), maxInputSize);
+
+                nodeContext.addConnectionCompressor(compressorName, compressor);
+            }
+        }
+
+        int getMaxReplySize()
+        {
+            return maxReplySize;
+        }
+
+        ASN1Encodable compress(MessageReply reply)
+            throws IOException
+        {
+            MessageCompressor compressor = this.compressor;
+
+            return (compressor != null) ? compressor.compress(reply) : reply;
+        }
+
+        ASN1Encodable decompress(ASN1Encodable message)
+            throws IOException
+        {
+            if (!CompressedMessage.isCompressed(message))
+            {
+                return message;
+            }
+
+            MessageCompressor compressor = this.compressor;
+            if (compressor == null)
+            {
+                throw new IOException("compressed message on connection without compression");
+            }
+
+            return compressor.decompress(CompressedMessage.getInstance(message));
+        }
+
+        // take the connection out of the loop and pass it to a stream thread to receive a stream on. Nothing may
+        // arrive ahead of our go-ahead, so anything already in the input buffer is a protocol error.
+        void detach(final StreamReceiver receiver)
+        {
+            loop.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    if (!key.isValid() || input.position() != 0)
+                    {
+                        receiver.abort();
+                        close();
+                        return;
+                    }
+
+                    key.cancel();
+
+                    try
+                    {
+                        loop.selector.selectNow();   // complete the deregistration so the channel can go back to blocking.
+                    }
+                    catch (IOException e)
+                    {
+                        throwableHandler.notify(EventNotifier.Level.WARN, e);
+                    }
+
+                    final List<ByteBuffer> pending = new ArrayList<>(output);
+
+                    output.clear();
+
+                    try
+                    {
+                        streamExecutor.execute(new Runnable()
+                        {
+                            @Override
+                            public void run()
+                            {
+                                receiveStream(channel, pending, receiver);
+                            }
+                        });
+                    }
+                    catch (RejectedExecutionException e)
+                    {
+                        receiver.abort();   // we're shutting down.
+                        XimixServicesServer.this.close(channel);
+                    }
+                }
+            });
+        }
+
+        void close()
+        {
+            if (compressorName != null)
+            {
+                nodeContext.removeConnectionCompressor(compressorName);
+            }
+
+            key.cancel();
+            XimixServicesServer.this.close(channel);
+        }
+    }
+}
@@ -43,6 +43,7 @@ import org.cryptoworkshop.ximix.common.asn1.message.NamedKeyGenParams;
 import org.cryptoworkshop.ximix.common.asn1.message.ShareMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.StoreMessage;
 import org.cryptoworkshop.ximix.common.crypto.Algorithm;
+import org.cryptoworkshop.ximix.common.crypto.ECFixedBaseCache;
 import org.cryptoworkshop.ximix.common.util.EventNotifier;
 import org.cryptoworkshop.ximix.node.crypto.key.message.ECCommittedSecretShareMessage;
 import org.cryptoworkshop.ximix.node.crypto.util.ECPointShare;
@@ -115,7 +116,7 @@ public class ECKeyPairGenerator
 
                 for (int i = 0; i != messages.length; i++)
                 {
-                    messages[i] = params.getG().multiply(h);
+                    messages[i] = ECFixedBaseCache.multiply(params.getG(), h);
                 }
 
                 nodeContext.execute(new SendHTask(message.getAlgorithm(), ecKeyGenParams.getKeyID(), involvedPeers, messages));
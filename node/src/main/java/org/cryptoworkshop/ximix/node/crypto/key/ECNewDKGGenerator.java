@@ -24,6 +24,7 @@ import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
 import org.bouncycastle.math.ec.ECPoint;
 import org.cryptoworkshop.ximix.common.crypto.Algorithm;
+import org.cryptoworkshop.ximix.common.crypto.ECFixedBaseCache;
 import org.cryptoworkshop.ximix.common.crypto.threshold.ECCommittedSecretShare;
 import org.cryptoworkshop.ximix.common.crypto.threshold.ECCommittedSplitSecret;
 import org.cryptoworkshop.ximix.common.crypto.threshold.ECNewDKGSecretSplitter;
@@ -73,7 +74,7 @@ public class ECNewDKGGenerator
 
         for (int i = 0; i != qCommitments.length; i++)
         {
-            qCommitments[i] = privKey.getParameters().getG().multiply(aCoefficients[i]);
+            qCommitments[i] = ECFixedBaseCache.multiply(privKey.getParameters().getG(), aCoefficients[i]);
         }
 
         for (int i = 0; i != shares.length; i++)
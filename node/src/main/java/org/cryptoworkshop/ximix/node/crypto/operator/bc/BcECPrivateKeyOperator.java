@@ -19,6 +19,7 @@ import java.math.BigInteger;
 
 import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.math.ec.ECPoint;
+import org.cryptoworkshop.ximix.common.crypto.ECFixedBaseCache;
 import org.cryptoworkshop.ximix.node.crypto.operator.ECPrivateKeyOperator;
 
 /**
@@ -62,6 +63,12 @@ public class BcECPrivateKeyOperator
     {
         if (value instanceof ECPoint)
         {
+            // the public value is the generator multiplied by the private value, and is asked for often.
+            if (value.equals(domainParameters.getG()))
+            {
+                return (T)ECFixedBaseCache.multiply((ECPoint)value, privateKeyValue);
+            }
+
             return (T)((ECPoint)value).multiply(privateKeyValue);
         }
         if (value instanceof BigInteger)
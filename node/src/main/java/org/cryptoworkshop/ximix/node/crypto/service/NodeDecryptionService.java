@@ -24,6 +24,7 @@ import org.bouncycastle.asn1.DERUTF8String;
 import org.bouncycastle.crypto.ec.ECPair;
 import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.math.ec.ECPoint;
+import org.cryptoworkshop.ximix.common.asn1.board.BatchEncoder;
 import org.cryptoworkshop.ximix.common.asn1.board.PairSequence;
 import org.cryptoworkshop.ximix.common.asn1.board.PairSequenceWithProofs;
 import org.cryptoworkshop.ximix.common.asn1.message.CapabilityMessage;
@@ -85,6 +86,8 @@ public class NodeDecryptionService
 
             ProofGenerator pGen = new ProofGenerator(ecOperator, new SecureRandom()); // TODO: randomness
 
+            PairSequenceWithProofs[] decrypts = new PairSequenceWithProofs[messages.size()];
+
             for (int i = 0; i != messages.size(); i++)
             {
                 PairSequence ps = PairSequence.getInstance(domainParameters.getCurve(), messages.get(i));
@@ -99,16 +102,21 @@ public class NodeDecryptionService
                     proofs[j] = pGen.computeProof(c, pairs[j]);
                 }
 
-                try
+                decrypts[i] = new PairSequenceWithProofs(pairs, proofs, ps.isCompressed());
+            }
+
+            try
+            {
+                for (byte[] encoding : BatchEncoder.getEncoded(decrypts))
                 {
-                    partialDecryptsBuilder.add(new PairSequenceWithProofs(pairs, proofs).getEncoded());
+                    partialDecryptsBuilder.add(encoding);
                 }
-                catch (IOException e)
-                {
-                    nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Error encoding decrypt: " + e.getMessage(), e);
+            }
+            catch (IOException e)
+            {
+                nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Error encoding decrypt: " + e.getMessage(), e);
 
-                    return new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("Error encoding decrypt: "  + e.getMessage()));
-                }
+                return new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("Error encoding decrypt: "  + e.getMessage()));
             }
 
             return new MessageReply(MessageReply.Type.OKAY, new ShareMessage(operator.getSequenceNo(), partialDecryptsBuilder.build()));
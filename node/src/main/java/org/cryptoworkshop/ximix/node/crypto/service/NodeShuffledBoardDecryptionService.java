@@ -24,9 +24,13 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
@@ -47,6 +51,7 @@ import org.cryptoworkshop.ximix.client.verify.ECShuffledTranscriptVerifier;
 import org.cryptoworkshop.ximix.client.verify.LinkIndexVerifier;
 import org.cryptoworkshop.ximix.client.verify.SignedDataVerifier;
 import org.cryptoworkshop.ximix.client.verify.TranscriptVerificationException;
+import org.cryptoworkshop.ximix.common.asn1.board.BatchEncoder;
 import org.cryptoworkshop.ximix.common.asn1.board.PairSequence;
 import org.cryptoworkshop.ximix.common.asn1.board.PairSequenceWithProofs;
 import org.cryptoworkshop.ximix.common.asn1.message.CapabilityMessage;
@@ -71,12 +76,15 @@ import org.cryptoworkshop.ximix.node.crypto.operator.ECPrivateKeyOperator;
 import org.cryptoworkshop.ximix.node.service.BasicNodeService;
 import org.cryptoworkshop.ximix.node.service.NodeContext;
 import org.cryptoworkshop.ximix.node.service.PrivateKeyOperator;
+import org.cryptoworkshop.ximix.node.service.StreamReceiver;
+import org.cryptoworkshop.ximix.node.service.StreamingNodeService;
 
 /**
  * Service class for perform decryption operations on the output of a shuffled board.
  */
 public class NodeShuffledBoardDecryptionService
     extends BasicNodeService
+    implements StreamingNodeService
 {
     private final File workDirectory;
     private final SignedDataVerifier signatureVerifier;
@@ -147,6 +155,8 @@ public class NodeShuffledBoardDecryptionService
                 return new MessageReply(MessageReply.Type.ERROR, new DERUTF8String(transMessage.getFileName() + ": " + e.getMessage()));
             }
             return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(transMessage.getFileName()));
+        case FILE_STREAM:
+            return new MessageReply(MessageReply.Type.ERROR, new ErrorMessage("File stream requests must be sent on their own connection"));
         case SETUP_PARTIAL_DECRYPT:
             final DecryptShuffledBoardMessage setupMessage = DecryptShuffledBoardMessage.getInstance(message.getPayload());
 
@@ -351,7 +361,9 @@ public class NodeShuffledBoardDecryptionService
             {
                 Object o = null;
                 ProofGenerator pGen = new ProofGenerator(ecOperator, new SecureRandom()); // TODO: randomness
-                while (partialDecryptsBuilder.hasCapacity() && (o = aIn.readObject()) != null)
+                List<PairSequenceWithProofs> decrypts = new ArrayList<>(downMessage.getBlockSize());
+
+                while (decrypts.size() < downMessage.getBlockSize() && (o = aIn.readObject()) != null)
                 {
                     PostedMessage postedMessage = PostedMessage.getInstance(o);
                     PairSequence ps = PairSequence.getInstance(domainParameters.getCurve(), postedMessage.getMessage());
@@ -365,7 +377,12 @@ public class NodeShuffledBoardDecryptionService
                         proofs[j] = pGen.computeProof(c, pairs[j]);
                     }
 
-                    partialDecryptsBuilder.add(new PairSequenceWithProofs(pairs, proofs).getEncoded());
+                    decrypts.add(new PairSequenceWithProofs(pairs, proofs, ps.isCompressed()));
+                }
+
+                for (byte[] encoding : BatchEncoder.getEncoded(decrypts.toArray(new PairSequenceWithProofs[decrypts.size()])))
+                {
+                    partialDecryptsBuilder.add(encoding);
                 }
 
                 if (o == null)
@@ -389,9 +406,21 @@ public class NodeShuffledBoardDecryptionService
         }
     }
 
+    public StreamReceiver openStream(Message message)
+        throws IOException
+    {
+        if (message.getType() != CommandMessage.Type.FILE_STREAM)
+        {
+            return null;
+        }
+
+        return new FileReceiver(DERUTF8String.getInstance(message.getPayload()).getString());
+    }
+
     public boolean isAbleToHandle(Message message)
     {
         return message.getType() == CommandMessage.Type.FILE_UPLOAD
+            || message.getType() == CommandMessage.Type.FILE_STREAM
             || message.getType() == CommandMessage.Type.SETUP_PARTIAL_DECRYPT
             || message.getType() == CommandMessage.Type.DOWNLOAD_PARTIAL_DECRYPTS;
     }
@@ -499,4 +528,65 @@ public class NodeShuffledBoardDecryptionService
 
         return transcripts;
     }
+
+    private class FileReceiver
+        implements StreamReceiver
+    {
+        private final String fileName;
+        private final File destinationFile;
+        private final FileOutputStream fileStream;
+        private final FileChannel fileChannel;
+
+        FileReceiver(String fileName)
+            throws IOException
+        {
+            this.fileName = fileName;
+            this.destinationFile = new File(workDirectory, fileName);
+            this.fileStream = new FileOutputStream(destinationFile);
+            this.fileChannel = fileStream.getChannel();
+        }
+
+        @Override
+        public void receive(ByteBuffer data)
+            throws IOException
+        {
+            while (data.hasRemaining())
+            {
+                fileChannel.write(data);
+            }
+        }
+
+        @Override
+        public MessageReply complete()
+        {
+            try
+            {
+                fileStream.close();
+            }
+            catch (IOException e)
+            {
+                return new MessageReply(MessageReply.Type.ERROR, new DERUTF8String(fileName + ": " + e.getMessage()));
+            }
+
+            return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(fileName));
+        }
+
+        @Override
+        public void abort()
+        {
+            try
+            {
+                fileStream.close();
+            }
+            catch (IOException e)
+            {
+                // ignore - we're discarding the file anyway.
+            }
+
+            if (!destinationFile.delete())
+            {
+                nodeContext.getEventNotifier().notify(EventNotifier.Level.WARN, "Unable to remove incomplete file: " + destinationFile.getPath());
+            }
+        }
+    }
 }
@@ -8,6 +8,7 @@ import org.bouncycastle.crypto.ec.ECPair;
 import org.bouncycastle.crypto.params.ECDomainParameters;
 import org.bouncycastle.math.ec.ECPoint;
 import org.cryptoworkshop.ximix.common.crypto.ECDecryptionProof;
+import org.cryptoworkshop.ximix.common.crypto.ECFixedBaseCache;
 import org.cryptoworkshop.ximix.node.crypto.operator.ECPrivateKeyOperator;
 
 // An application of:
@@ -57,7 +58,7 @@ class ProofGenerator
     ECDecryptionProof computeProof(ECPoint c, ECPair partial)
     {
         BigInteger s = generateS();
-        ECPoint    a = domainParameters.getG().multiply(s).normalize();
+        ECPoint    a = ECFixedBaseCache.multiply(domainParameters.getG(), s).normalize();
         ECPoint    b = c.multiply(s).normalize();
 
         BigInteger challenge = computeChallenge(a, b, c, partial, domainParameters.getG());
@@ -47,6 +47,7 @@ import org.cryptoworkshop.ximix.common.asn1.message.ShareMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.SignatureMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.StoreMessage;
 import org.cryptoworkshop.ximix.common.crypto.Algorithm;
+import org.cryptoworkshop.ximix.common.crypto.ECFixedBaseCache;
 import org.cryptoworkshop.ximix.common.crypto.threshold.ShamirSecretSplitter;
 import org.cryptoworkshop.ximix.common.crypto.threshold.SplitSecret;
 import org.cryptoworkshop.ximix.common.util.EventNotifier;
@@ -249,7 +250,7 @@ public class ECDSASignerEngine
             }
             while (k.equals(BigInteger.ZERO) || k.compareTo(n) >= 0);
 
-            ECPoint p = domainParams.getG().multiply(k).normalize();
+            ECPoint p = ECFixedBaseCache.multiply(domainParams.getG(), k).normalize();
 
             // 5.3.3
             BigInteger x = p.getAffineXCoord().toBigInteger();
@@ -446,7 +447,7 @@ public class ECDSASignerEngine
 
             for (final Participant node : peers)
             {
-                final ECPoint p = domainParams.getG().multiply(messages[node.getSequenceNo()]);
+                final ECPoint p = ECFixedBaseCache.multiply(domainParams.getG(), messages[node.getSequenceNo()]);
 
                 if (node.getName().equals(nodeContext.getName()))
                 {
@@ -0,0 +1,560 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageWitnessBlock;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedData;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
+import org.cryptoworkshop.ximix.common.asn1.message.TranscriptBlock;
+import org.cryptoworkshop.ximix.common.util.IndexNumberGenerator;
+import org.cryptoworkshop.ximix.common.util.ListenerHandler;
+import org.cryptoworkshop.ximix.common.util.TranscriptType;
+import org.cryptoworkshop.ximix.common.util.challenge.SerialChallenger;
+
+/**
+ * A read-only board holding the transcripts of a finished transit board, so they can still be downloaded once
+ * the transit board itself has been deleted.
+ * <p>
+ * The archive is a single file holding the encoded transcript entries, followed by an index table for each
+ * transcript type and a fixed size trailer:
+ * <pre>
+ *     records:  { int length, byte[] encoding }*
+ *     tables:   { int index, long recordOffset }* for GENERAL, then for WITNESSES, each sorted by index
+ *     trailer:  long generalTable, int generalCount, long witnessTable, int witnessCount, int MAGIC
+ * </pre>
+ * The index tables are memory mapped and the records read as needed.
+ * </p>
+ */
+class ArchivedBulletinBoard
+    implements BulletinBoard
+{
+    private static final int MAGIC = 0x58494d41;     // "XIMA"
+    private static final int TABLE_ENTRY_SIZE = 12;
+    private static final int TRAILER_SIZE = 28;
+    private static final int BLOCK_SIZE = 1000;
+
+    private final String boardName;
+    private final RandomAccessFile archiveFile;
+    private final FileChannel channel;
+    private final ByteBuffer generalTable;
+    private final int generalCount;
+    private final ByteBuffer witnessTable;
+    private final int witnessCount;
+
+    private MerkleTree merkleTree;
+
+    /**
+     * Open an existing archive.
+     *
+     * @param boardName the name of the board the archive was made from.
+     * @param file the archive file.
+     * @throws IOException if the archive cannot be read.
+     */
+    ArchivedBulletinBoard(String boardName, File file)
+        throws IOException
+    {
+        this.boardName = boardName;
+        this.archiveFile = new RandomAccessFile(file, "r");
+        this.channel = archiveFile.getChannel();
+
+        try
+        {
+            ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+
+            readFully(trailer, channel.size() - TRAILER_SIZE);
+
+            if (trailer.getInt(24) != MAGIC)
+            {
+                throw new IOException("File " + file.getPath() + " is not a board archive");
+            }
+
+            generalCount = trailer.getInt(8);
+            generalTable = channel.map(FileChannel.MapMode.READ_ONLY, trailer.getLong(0), (long)generalCount * TABLE_ENTRY_SIZE);
+            witnessCount = trailer.getInt(20);
+            witnessTable = channel.map(FileChannel.MapMode.READ_ONLY, trailer.getLong(12), (long)witnessCount * TABLE_ENTRY_SIZE);
+        }
+        catch (IOException e)
+        {
+            archiveFile.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Write an archive of the transcripts available from board. The archive is written to a temporary file which is
+     * renamed once it is complete, so an archive file is never partially written.
+     *
+     * @param board the board to archive.
+     * @param file the archive file to create.
+     * @throws IOException if the archive cannot be written.
+     */
+    static void write(BulletinBoard board, File file)
+        throws IOException
+    {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fOut = new FileOutputStream(tmpFile);
+        DataOutputStream dOut = new DataOutputStream(new BufferedOutputStream(fOut));
+
+        try
+        {
+            Table general = new Table();
+            Table witnesses = new Table();
+            long position = 0;
+
+            position = writeRecords(dOut, position, board, TranscriptType.GENERAL, general);
+            position = writeRecords(dOut, position, board, TranscriptType.WITNESSES, witnesses);
+
+            long generalTableOffset = position;
+            general.writeTo(dOut);
+            long witnessTableOffset = generalTableOffset + (long)general.count * TABLE_ENTRY_SIZE;
+            witnesses.writeTo(dOut);
+
+            dOut.writeLong(generalTableOffset);
+            dOut.writeInt(general.count);
+            dOut.writeLong(witnessTableOffset);
+            dOut.writeInt(witnesses.count);
+            dOut.writeInt(MAGIC);
+
+            dOut.flush();
+            fOut.getFD().sync();
+            dOut.close();
+        }
+        catch (IOException e)
+        {
+            dOut.close();
+            tmpFile.delete();
+            throw e;
+        }
+
+        if (!tmpFile.renameTo(file))
+        {
+            tmpFile.delete();
+            throw new IOException("Unable to create archive " + file.getPath());
+        }
+    }
+
+    private static long writeRecords(DataOutputStream dOut, long position, BulletinBoard board, TranscriptType type, Table table)
+        throws IOException
+    {
+        IndexNumberGenerator indexGenerator = new SerialChallenger(board.transcriptSize(type), 0, null);
+
+        while (indexGenerator.hasNext())
+        {
+            TranscriptBlock block = board.fetchTranscriptData(type, indexGenerator, new TranscriptBlock.Builder(0, BLOCK_SIZE));
+
+            for (ASN1Encodable detail : block.getDetails().toArray())
+            {
+                byte[] encoding = detail.toASN1Primitive().getEncoded();
+                int index = (type == TranscriptType.WITNESSES) ? PostedData.getInstance(detail).getIndex() : PostedMessage.getInstance(detail).getIndex();
+
+                table.add(index, position);
+
+                dOut.writeInt(encoding.length);
+                dOut.write(encoding);
+
+                position += 4 + encoding.length;
+            }
+        }
+
+        return position;
+    }
+
+    @Override
+    public String getName()
+    {
+        return boardName;
+    }
+
+    @Override
+    public int size()
+    {
+        return generalCount;
+    }
+
+    @Override
+    public int transcriptSize(TranscriptType transcriptType)
+    {
+        if (TranscriptType.WITNESSES == transcriptType)
+        {
+            return witnessCount;
+        }
+
+        return generalCount;
+    }
+
+    @Override
+    public TranscriptBlock fetchTranscriptData(TranscriptType dataClass, IndexNumberGenerator indexGenerator, TranscriptBlock.Builder responseBuilder)
+    {
+        ByteBuffer table = (TranscriptType.WITNESSES == dataClass) ? witnessTable : generalTable;
+        int count = (TranscriptType.WITNESSES == dataClass) ? witnessCount : generalCount;
+
+        while (indexGenerator.hasNext() && !responseBuilder.isFull())
+        {
+            int entry = find(table, count, indexGenerator.nextIndex());
+
+            if (entry >= 0)
+            {
+                responseBuilder.add(readRecord(table, entry));
+            }
+        }
+
+        return responseBuilder.build();
+    }
+
+    @Override
+    public int fetchMessages(int startIndex, int endIndex, PostedMessageBlock.Builder blockBuilder)
+    {
+        int entry = find(generalTable, generalCount, startIndex);
+
+        if (entry < 0)
+        {
+            entry = -(entry + 1);
+        }
+
+        for (; entry < generalCount; entry++)
+        {
+            int index = generalTable.getInt(entry * TABLE_ENTRY_SIZE);
+
+            if (index >= endIndex)
+            {
+                break;
+            }
+
+            if (blockBuilder.isFull())
+            {
+                return index;
+            }
+
+            blockBuilder.add(index, PostedMessage.getInstance(readRecord(generalTable, entry)).getMessage());
+        }
+
+        return endIndex;
+    }
+
+    @Override
+    public Iterator<PostedMessage> iterator()
+    {
+        return new Iterator<PostedMessage>()
+        {
+            private int entry = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return entry < generalCount;
+            }
+
+            @Override
+            public PostedMessage next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+
+                return PostedMessage.getInstance(readRecord(generalTable, entry++));
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException("cannot remove message from board this way!");
+            }
+        };
+    }
+
+    @Override
+    public Iterator<PostedMessage> cursor(int startIndex, final int endIndex, final boolean withCommitments)
+    {
+        final int startEntry = find(generalTable, generalCount, startIndex);
+
+        return new Iterator<PostedMessage>()
+        {
+            private int entry = (startEntry < 0) ? -(startEntry + 1) : startEntry;
+
+            @Override
+            public boolean hasNext()
+            {
+                return entry < generalCount && generalTable.getInt(entry * TABLE_ENTRY_SIZE) < endIndex;
+            }
+
+            @Override
+            public PostedMessage next()
+            {
+                if (!hasNext())
+                {
+                    throw new NoSuchElementException();
+                }
+
+                PostedMessage message = PostedMessage.getInstance(readRecord(generalTable, entry++));
+
+                return withCommitments ? message : new PostedMessage(message.getIndex(), message.getMessage());
+            }
+
+            @Override
+            public void remove()
+            {
+                throw new UnsupportedOperationException("cannot remove message from board this way!");
+            }
+        };
+    }
+
+    @Override
+    public synchronized MerkleTree getMerkleTree()
+    {
+        // only needed if someone asks, so built on demand and held in memory.
+        if (merkleTree == null)
+        {
+            merkleTree = new MerkleTree(new HashMap<Long, byte[]>());
+
+            for (int start = 0; start < generalCount; start += BLOCK_SIZE)
+            {
+                int[] indices = new int[Math.min(BLOCK_SIZE, generalCount - start)];
+                byte[][] messages = new byte[indices.length][];
+
+                for (int i = 0; i != indices.length; i++)
+                {
+                    PostedMessage message = PostedMessage.getInstance(readRecord(generalTable, start + i));
+
+                    indices[i] = message.getIndex();
+                    messages[i] = message.getMessage();
+                }
+
+                merkleTree.update(indices, messages);
+            }
+        }
+
+        return merkleTree;
+    }
+
+    @Override
+    public String getBackupHost()
+    {
+        return null;
+    }
+
+    @Override
+    public boolean isPointCompressed()
+    {
+        return false;
+    }
+
+    @Override
+    public void setPointCompression(boolean pointCompression)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void waitForCommit(int index)
+    {
+        // nothing to wait for.
+    }
+
+    @Override
+    public void addCommitListener(int index, BulletinBoardCommitListener listener)
+    {
+        listener.committed(this, index);
+    }
+
+    @Override
+    public void shutdown()
+    {
+        try
+        {
+            archiveFile.close();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to close archive for board " + boardName + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public int postMessage(byte[] message)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public int postMessages(byte[][] messages)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void postMessageBlock(PostedMessageBlock messageBlock)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public PostedMessageBlock removeMessages(PostedMessageBlock.Builder blockBuilder)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void postWitnessBlock(MessageWitnessBlock witnessBlock)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void clear()
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void truncate(int limit)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void addListener(BulletinBoardBackupListener bulletinBoardBackupListener)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public void addListener(BulletinBoardChangeListener listener)
+    {
+        throw readOnly();
+    }
+
+    @Override
+    public <T> ListenerHandler<T> getListenerHandler(Class<T> listenerClass)
+    {
+        throw readOnly();
+    }
+
+    private IllegalStateException readOnly()
+    {
+        return new IllegalStateException("board " + boardName + " is archived and read-only");
+    }
+
+    /**
+     * Binary search a table for index.
+     *
+     * @return the entry number for index, or (-(insertion point) - 1) if it is not present.
+     */
+    private static int find(ByteBuffer table, int count, int index)
+    {
+        int low = 0;
+        int high = count - 1;
+
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            int midIndex = table.getInt(mid * TABLE_ENTRY_SIZE);
+
+            if (midIndex < index)
+            {
+                low = mid + 1;
+            }
+            else if (midIndex > index)
+            {
+                high = mid - 1;
+            }
+            else
+            {
+                return mid;
+            }
+        }
+
+        return -(low + 1);
+    }
+
+    private ASN1Primitive readRecord(ByteBuffer table, int entry)
+    {
+        long offset = table.getLong(entry * TABLE_ENTRY_SIZE + 4);
+
+        try
+        {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            readFully(length, offset);
+
+            ByteBuffer encoding = ByteBuffer.allocate(length.getInt(0));
+            readFully(encoding, offset + 4);
+
+            return ASN1Primitive.fromByteArray(encoding.array());
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to read archive for board " + boardName + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position)
+        throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new IOException("Unexpected end of archive for board " + boardName);
+            }
+        }
+    }
+
+    private static class Table
+    {
+        private int[] indices = new int[1024];
+        private long[] offsets = new long[1024];
+        private int count;
+
+        void add(int index, long offset)
+        {
+            if (count == indices.length)
+            {
+                indices = Arrays.copyOf(indices, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+
+            indices[count] = index;
+            offsets[count] = offset;
+            count++;
+        }
+
+        void writeTo(DataOutputStream dOut)
+            throws IOException
+        {
+            for (int i = 0; i != count; i++)
+            {
+                dOut.writeInt(indices[i]);
+                dOut.writeLong(offsets[i]);
+            }
+        }
+    }
+}
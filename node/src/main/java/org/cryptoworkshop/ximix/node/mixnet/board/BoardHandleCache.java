@@ -0,0 +1,93 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the lazily opened boards that currently hold open files, closing the least recently used ones once
+ * there are more than a set number of them. A board that is busy when it comes up for eviction is skipped and
+ * tried again on the next open.
+ */
+class BoardHandleCache
+{
+    private final int maxOpen;
+    private final Map<LazyBulletinBoard, Boolean> openBoards = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Base constructor.
+     *
+     * @param maxOpen the maximum number of boards to keep open.
+     */
+    BoardHandleCache(int maxOpen)
+    {
+        this.maxOpen = maxOpen;
+    }
+
+    /**
+     * Note a board has been opened, evicting others if we are over the limit.
+     *
+     * @param board the board that was opened.
+     */
+    synchronized void opened(LazyBulletinBoard board)
+    {
+        openBoards.put(board, Boolean.TRUE);
+
+        if (openBoards.size() <= maxOpen)
+        {
+            return;
+        }
+
+        List<LazyBulletinBoard> evicted = new ArrayList<>();
+
+        for (Iterator<LazyBulletinBoard> it = openBoards.keySet().iterator(); it.hasNext() && openBoards.size() - evicted.size() > maxOpen;)
+        {
+            LazyBulletinBoard candidate = it.next();
+
+            if (candidate != board && candidate.close())
+            {
+                evicted.add(candidate);
+            }
+        }
+
+        openBoards.keySet().removeAll(evicted);
+    }
+
+    /**
+     * Note a board has been used, making it the most recently used.
+     *
+     * @param board the board that was used.
+     */
+    synchronized void touched(LazyBulletinBoard board)
+    {
+        // the map is in access order, so a get moves the board to the most recently used end.
+        openBoards.get(board);
+    }
+
+    /**
+     * Note a board has been closed other than by eviction.
+     *
+     * @param board the board that was closed.
+     */
+    synchronized void closed(LazyBulletinBoard board)
+    {
+        openBoards.remove(board);
+    }
+}
@@ -15,30 +15,97 @@
  */
 package org.cryptoworkshop.ximix.node.mixnet.board;
 
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import org.bouncycastle.asn1.DERUTF8String;
 import org.cryptoworkshop.ximix.client.connection.ServiceConnectionException;
+import org.cryptoworkshop.ximix.client.connection.ServicesConnection;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardDigestMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardDigestRequestMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardTruncateMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardUploadIndexedMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.CommandMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CreateBoardMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
 import org.cryptoworkshop.ximix.common.util.EventNotifier;
+import org.cryptoworkshop.ximix.node.service.CrossSection;
 import org.cryptoworkshop.ximix.node.service.NodeContext;
 
+/**
+ * Backup listener which replicates a board to a remote backup host. Posted messages are queued and coalesced
+ * into batches of consecutive messages, with several batches allowed in flight at once on the node's shared
+ * executor. The backup host places the messages by index, so batches can arrive in any order, but a clear is only
+ * sent once everything before it has been acknowledged.
+ * <p>
+ * If the backup host cannot be reached the listener resynchronises the backup once it is back. The Merkle trees
+ * of the board and its backup are compared from the root down, and only the index ranges under subtrees that
+ * differ are sent again, and anything the backup holds past the end of the board is truncated. The resend goes
+ * through the same queue as new posts, so uploads to the primary carry on while it runs.
+ * </p>
+ */
 public class BoardRemoteBackupListener
     implements BulletinBoardBackupListener
 {
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final long RESYNC_RETRY_DELAY = 5000;
+    private static final int MAX_DIGEST_COUNT = 1024;
+
+    private final Deque<Pending> queue = new ArrayDeque<>();
+    private final List<Runnable> lagWaiters = new ArrayList<>();
 
     private final NodeContext nodeContext;
     private final String backUpHost;
+    private final CrossSection statistics;
+    private final int batchSize;
+    private final int maxInFlight;
+    private final int lagThreshold;
+    private final Executor executor;
+
+    private int inFlight;
+    private int lag;
+    private int unconfirmed;
+    private boolean isShutdown;
+
+    private BulletinBoard board;
+    private int generation;
+    private boolean resyncScheduled;
 
+    /**
+     * Create a listener with the default replication settings and no statistics.
+     *
+     * @param nodeContext the context of the node we are associated with.
+     * @param backUpHost the name of the node hosting the backup board.
+     */
     public BoardRemoteBackupListener(NodeContext nodeContext, String backUpHost)
+    {
+        this(nodeContext, backUpHost, new BulletinBoardConfig(), null);
+    }
+
+    /**
+     * Base constructor.
+     *
+     * @param nodeContext the context of the node we are associated with.
+     * @param backUpHost the name of the node hosting the backup board.
+     * @param boardConfig the board configuration holding the replication settings.
+     * @param statistics the statistics sampling object to report replication lag to, may be null.
+     */
+    public BoardRemoteBackupListener(NodeContext nodeContext, String backUpHost, BulletinBoardConfig boardConfig, CrossSection statistics)
     {
         this.nodeContext = nodeContext;
         this.backUpHost = backUpHost;
+        this.statistics = statistics;
+        this.batchSize = boardConfig.getReplicationBatchSize();
+        this.maxInFlight = boardConfig.getReplicationInFlight();
+        this.lagThreshold = boardConfig.getReplicationLagThreshold();
+        this.executor = nodeContext.getExecutorService();
     }
 
     public String getBackupHost()
@@ -46,89 +113,633 @@ public class BoardRemoteBackupListener
         return backUpHost;
     }
 
-    @Override
-    public void cleared(final BulletinBoard bulletinBoard)
+    /**
+     * Run the passed in task once the number of messages waiting to reach the backup host is at or below the lag
+     * threshold, straight away if it already is. A waiting task is run on the thread that brings the lag down.
+     * Only messages still queued or in flight count here, messages whose send failed are left to the resync so
+     * the primary isn't held up while the backup host is away.
+     *
+     * @param task the task to run.
+     */
+    public void runWhenCaughtUp(Runnable task)
     {
-        executor.execute(new Runnable()
+        synchronized (this)
         {
-            @Override
-            public void run()
+            if (lag > lagThreshold && !isShutdown)
             {
-                try
-                {
-                    MessageReply reply = nodeContext.getPeerMap().get(backUpHost).sendMessage(CommandMessage.Type.CLEAR_BACKUP_BOARD, new BoardMessage(bulletinBoard.getName()));
-                    checkForError(reply);
-                }
-                catch (ServiceConnectionException e)
-                {
-                    nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Exception on clear backup.", e);
-                }
+                lagWaiters.add(task);
+                return;
             }
-        });
+        }
+
+        task.run();
+    }
+
+    /**
+     * Return the number of messages posted that have not yet been acknowledged by the backup host, including
+     * any whose send failed and which are waiting on a resync.
+     *
+     * @return the replication lag in messages.
+     */
+    public synchronized int getLag()
+    {
+        return lag + unconfirmed;
+    }
+
+    /**
+     * Bring the backup of bulletinBoard into line with it in the background, sending only what is different.
+     *
+     * @param bulletinBoard the board being backed up.
+     */
+    public synchronized void startResync(BulletinBoard bulletinBoard)
+    {
+        this.board = bulletinBoard;
+
+        scheduleResync(0);
+    }
+
+    @Override
+    public void cleared(final BulletinBoard bulletinBoard)
+    {
+        synchronized (this)
+        {
+            // anything a resync read before the clear is now stale, and anything that failed is gone anyway.
+            generation++;
+            unconfirmed = 0;
+        }
+
+        enqueue(new Pending(bulletinBoard, -1, null));
     }
 
     @Override
     public void messagePosted(final BulletinBoard bulletinBoard, final int index, final byte[] message)
     {
-        // TODO: there needs to be an initialisation phase to make sure the backup board is in sync
-        executor.execute(new Runnable()
+        enqueue(new Pending(bulletinBoard, index, new byte[][] { message }));
+    }
+
+    @Override
+    public void messagesPosted(final BulletinBoard bulletinBoard, final int startIndex, final byte[][] messages)
+    {
+        enqueue(new Pending(bulletinBoard, startIndex, messages));
+    }
+
+    @Override
+    public void shutdown()
+    {
+        synchronized (this)
         {
-            @Override
-            public void run()
+            isShutdown = true;
+
+            notifyAll();
+        }
+
+        runCaughtUp();
+    }
+
+    private synchronized void enqueue(Pending pending)
+    {
+        board = pending.board;
+
+        queue.add(pending);
+
+        if (pending.messages != null)
+        {
+            lag += pending.messages.length;
+            updateStatistics(pending.board, -1);
+        }
+
+        dispatch();
+    }
+
+    private void dispatch()
+    {
+        while (inFlight < maxInFlight && !queue.isEmpty())
+        {
+            Pending head = queue.peek();
+
+            if (head.messages == null)
             {
-                try
-                {
-                    MessageReply reply = nodeContext.getPeerMap().get(backUpHost).sendMessage(CommandMessage.Type.TRANSFER_TO_BACKUP_BOARD, new BoardUploadIndexedMessage(bulletinBoard.getName(), index, message));
-                    checkForError(reply);
-                }
-                catch (ServiceConnectionException e)
+                // everything before a clear, or a truncate, must be acknowledged before it is sent.
+                if (inFlight != 0)
                 {
-                    nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Exception on post to backup.", e);
+                    return;
                 }
+
+                queue.poll();
+                inFlight++;
+                executor.execute((head.startIndex < 0) ? new ClearTask(head.board) : new TruncateTask(head.board, head.startIndex));
             }
-        });
+            else
+            {
+                inFlight++;
+                executor.execute(new PostTask(nextBatch()));
+            }
+        }
     }
 
-    @Override
-    public void messagesPosted(final BulletinBoard bulletinBoard, final int startIndex, final byte[][] messages)
+    private Batch nextBatch()
     {
-                    // TODO: there needs to be an initialisation phase to make sure the backup board is in sync
-        executor.execute(new Runnable()
+        Pending head = queue.peek();
+        List<byte[]> messages = new ArrayList<>();
+        Batch batch = new Batch(head.board, head.startIndex + head.taken, head.timeStamp);
+
+        while (head != null && head.messages != null && head.board == batch.board
+            && head.startIndex + head.taken == batch.startIndex + messages.size() && messages.size() < batchSize)
         {
-            @Override
-            public void run()
+            int count = Math.min(batchSize - messages.size(), head.messages.length - head.taken);
+
+            for (int i = 0; i != count; i++)
             {
-                try
-                {
+                messages.add(head.messages[head.taken + i]);
+            }
 
-                    MessageReply reply = nodeContext.getPeerMap().get(backUpHost).sendMessage(CommandMessage.Type.TRANSFER_TO_BACKUP_BOARD, new BoardUploadIndexedMessage(bulletinBoard.getName(), startIndex, messages));
-                    checkForError(reply);
-                }
-                catch (ServiceConnectionException e)
-                {
-                    nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Exception on post to backup.", e);
-                }
+            head.taken += count;
+
+            if (head.taken == head.messages.length)
+            {
+                queue.poll();
+                head = queue.peek();
             }
-        });
+        }
+
+        batch.messages = messages.toArray(new byte[messages.size()][]);
+
+        return batch;
     }
 
-    @Override
-    public void shutdown()
+    private void complete(BulletinBoard board, int messageCount, long timeStamp, boolean isOkay)
+    {
+        synchronized (this)
+        {
+            inFlight--;
+            lag -= messageCount;
+
+            if (!isOkay)
+            {
+                // the messages are still missing from the backup until a resync sends them again.
+                unconfirmed += messageCount;
+                scheduleResync(RESYNC_RETRY_DELAY);
+            }
+
+            if (messageCount != 0)
+            {
+                updateStatistics(board, System.currentTimeMillis() - timeStamp);
+            }
+
+            dispatch();
+
+            notifyAll();
+        }
+
+        runCaughtUp();
+    }
+
+    private void runCaughtUp()
     {
-        executor.shutdown();
+        List<Runnable> caughtUp;
+
+        synchronized (this)
+        {
+            if (lagWaiters.isEmpty() || (lag > lagThreshold && !isShutdown))
+            {
+                return;
+            }
+
+            caughtUp = new ArrayList<>(lagWaiters);
+            lagWaiters.clear();
+        }
+
+        for (Runnable task : caughtUp)
+        {
+            task.run();
+        }
+    }
+
+    private void updateStatistics(BulletinBoard board, long lagTime)
+    {
+        if (statistics != null)
+        {
+            statistics.set("bhs!backup-lag-messages!" + board.getName(), lag + unconfirmed);
+            if (lagTime >= 0)
+            {
+                statistics.set("bhs!backup-lag-ms!" + board.getName(), lagTime);
+            }
+        }
     }
 
-    private void checkForError(MessageReply reply)
+    private boolean checkForError(MessageReply reply)
     {
         if (reply == null)
         {
             nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Error on post to backup: null message received");
+
+            return false;
         }
         else if (reply.getType() != MessageReply.Type.OKAY)
         {
             String message = (reply.getPayload() instanceof DERUTF8String) ? DERUTF8String.getInstance(reply.getPayload()).getString() : "no detail";
 
             nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Error on post to backup: " + message);
+
+            return false;
+        }
+
+        return true;
+    }
+
+    private ServicesConnection getBackupConnection()
+        throws ServiceConnectionException
+    {
+        ServicesConnection connection = nodeContext.getPeerMap().get(backUpHost);
+
+        if (connection == null)
+        {
+            throw new ServiceConnectionException("backup host " + backUpHost + " not available");
+        }
+
+        return connection;
+    }
+
+    private void scheduleResync(long delay)
+    {
+        if (board == null || resyncScheduled || isShutdown)
+        {
+            return;
+        }
+
+        resyncScheduled = true;
+
+        final BulletinBoard resyncBoard = board;
+
+        nodeContext.getScheduledExecutorService().schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // the resync blocks waiting on the queue, so it runs off the scheduler.
+                nodeContext.getExecutorService().execute(new ResyncTask(resyncBoard));
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized boolean enqueueResync(int resyncGeneration, Pending pending)
+        throws InterruptedException
+    {
+        // leave room for new posts so the resync doesn't hold the primary back.
+        while (lag > lagThreshold / 2 && generation == resyncGeneration && !isShutdown)
+        {
+            wait();
+        }
+
+        if (generation != resyncGeneration || isShutdown)
+        {
+            return false;
+        }
+
+        enqueue(pending);
+
+        return true;
+    }
+
+    // with no messages a pending entry is a clear, or a truncate at startIndex if startIndex isn't negative.
+    private static class Pending
+    {
+        final BulletinBoard board;
+        final int startIndex;
+        final byte[][] messages;
+        final long timeStamp = System.currentTimeMillis();
+
+        int taken;
+
+        Pending(BulletinBoard board, int startIndex, byte[][] messages)
+        {
+            this.board = board;
+            this.startIndex = startIndex;
+            this.messages = messages;
+        }
+    }
+
+    private static class Batch
+    {
+        final BulletinBoard board;
+        final int startIndex;
+        final long timeStamp;
+
+        byte[][] messages;
+
+        Batch(BulletinBoard board, int startIndex, long timeStamp)
+        {
+            this.board = board;
+            this.startIndex = startIndex;
+            this.timeStamp = timeStamp;
+        }
+    }
+
+    private class ClearTask
+        implements Runnable
+    {
+        private final BulletinBoard board;
+
+        ClearTask(BulletinBoard board)
+        {
+            this.board = board;
+        }
+
+        @Override
+        public void run()
+        {
+            boolean isOkay = false;
+
+            try
+            {
+                MessageReply reply = getBackupConnection().sendMessage(CommandMessage.Type.CLEAR_BACKUP_BOARD, new BoardMessage(board.getName()));
+                isOkay = checkForError(reply);
+            }
+            catch (ServiceConnectionException e)
+            {
+                nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Exception on clear backup.", e);
+            }
+            finally
+            {
+                complete(board, 0, 0, isOkay);
+            }
+        }
+    }
+
+    private class TruncateTask
+        implements Runnable
+    {
+        private final BulletinBoard board;
+        private final int limit;
+
+        TruncateTask(BulletinBoard board, int limit)
+        {
+            this.board = board;
+            this.limit = limit;
+        }
+
+        @Override
+        public void run()
+        {
+            boolean isOkay = false;
+
+            try
+            {
+                MessageReply reply = getBackupConnection().sendMessage(CommandMessage.Type.TRUNCATE_BACKUP_BOARD, new BoardTruncateMessage(board.getName(), limit));
+                isOkay = checkForError(reply);
+            }
+            catch (ServiceConnectionException e)
+            {
+                nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Exception on truncate backup.", e);
+            }
+            finally
+            {
+                complete(board, 0, 0, isOkay);
+            }
+        }
+    }
+
+    private class PostTask
+        implements Runnable
+    {
+        private final Batch batch;
+
+        PostTask(Batch batch)
+        {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run()
+        {
+            boolean isOkay = false;
+
+            try
+            {
+                MessageReply reply = getBackupConnection().sendMessage(CommandMessage.Type.TRANSFER_TO_BACKUP_BOARD, new BoardUploadIndexedMessage(batch.board.getName(), batch.startIndex, batch.messages));
+                isOkay = checkForError(reply);
+            }
+            catch (ServiceConnectionException e)
+            {
+                nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Exception on post to backup.", e);
+            }
+            finally
+            {
+                complete(batch.board, batch.messages.length, batch.timeStamp, isOkay);
+            }
+        }
+    }
+
+    private class ResyncTask
+        implements Runnable
+    {
+        private final BulletinBoard board;
+
+        ResyncTask(BulletinBoard board)
+        {
+            this.board = board;
+        }
+
+        @Override
+        public void run()
+        {
+            int resyncGeneration;
+            int resyncUnconfirmed;
+
+            synchronized (BoardRemoteBackupListener.this)
+            {
+                resyncScheduled = false;
+                resyncGeneration = generation;
+                resyncUnconfirmed = unconfirmed;
+            }
+
+            try
+            {
+                resync(resyncGeneration);
+
+                // failures from before the walk are now either on the backup or queued again as part of the lag,
+                // anything failing since may have been missed and is left to the resync that failure scheduled.
+                synchronized (BoardRemoteBackupListener.this)
+                {
+                    unconfirmed = Math.max(0, unconfirmed - resyncUnconfirmed);
+                    updateStatistics(board, -1);
+                }
+            }
+            catch (ServiceConnectionException e)
+            {
+                nodeContext.getEventNotifier().notify(EventNotifier.Level.WARN, "Backup resync of " + board.getName() + " failed, will retry: " + e.getMessage());
+
+                synchronized (BoardRemoteBackupListener.this)
+                {
+                    scheduleResync(RESYNC_RETRY_DELAY);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private void resync(int resyncGeneration)
+            throws ServiceConnectionException, InterruptedException
+        {
+            ServicesConnection connection = getBackupConnection();
+
+            // creating the backup board is harmless if it is already there, and brings its settings up to date.
+            if (!checkForError(connection.sendMessage(CommandMessage.Type.BACKUP_BOARD_CREATE, new CreateBoardMessage(board.getName(), null, board.isPointCompressed()))))
+            {
+                throw new ServiceConnectionException("unable to create backup board");
+            }
+
+            MerkleTree tree = board.getMerkleTree();
+            BoardDigestMessage remoteRoot = fetchDigest(connection, BoardDigestRequestMessage.ROOT_LEVEL, 0, 1);
+
+            int localLimit = tree.getLimit();
+
+            if (tree.isEmpty())
+            {
+                if (remoteRoot.getLimit() != 0)
+                {
+                    synchronized (BoardRemoteBackupListener.this)
+                    {
+                        if (generation == resyncGeneration)
+                        {
+                            enqueue(new Pending(board, -1, null));
+                        }
+                    }
+                }
+
+                return;
+            }
+
+            // compare the two trees at the height of the taller one.
+            int level = Math.max(tree.getHeight(), remoteRoot.getHeight());
+            byte[] remoteTop = (level == remoteRoot.getLevel()) ? remoteRoot.getHashes()[0] : fetchDigest(connection, level, 0, 1).getHashes()[0];
+
+            if (Arrays.equals(tree.getNodeHash(level, 0), remoteTop))
+            {
+                return;
+            }
+
+            // the walk below only covers what we have, anything the backup has past that has to be cut off.
+            if (remoteRoot.getLimit() > localLimit)
+            {
+                synchronized (BoardRemoteBackupListener.this)
+                {
+                    if (generation != resyncGeneration)
+                    {
+                        return;
+                    }
+
+                    // taken now, so nothing posted since the walk started and already queued is removed.
+                    enqueue(new Pending(board, tree.getLimit(), null));
+                }
+            }
+
+            // walk down the differing subtrees until they are no bigger than a batch.
+            List<Integer> frontier = new ArrayList<>();
+            frontier.add(0);
+
+            while (level > 0 && (1L << level) > batchSize)
+            {
+                List<Integer> next = new ArrayList<>();
+
+                int i = 0;
+                while (i < frontier.size())
+                {
+                    // ask for the children of runs of consecutive nodes in one go.
+                    int start = frontier.get(i);
+                    int count = 1;
+                    while (i + count < frontier.size() && frontier.get(i + count) == start + count && 2 * (count + 1) <= MAX_DIGEST_COUNT)
+                    {
+                        count++;
+                    }
+
+                    BoardDigestMessage children = fetchDigest(connection, level - 1, 2 * start, 2 * count);
+                    byte[][] hashes = children.getHashes();
+
+                    for (int j = 0; j != hashes.length; j++)
+                    {
+                        int position = 2 * start + j;
+
+                        if (((long)position << (level - 1)) < localLimit && !Arrays.equals(tree.getNodeHash(level - 1, position), hashes[j]))
+                        {
+                            next.add(position);
+                        }
+                    }
+
+                    i += count;
+                }
+
+                frontier = next;
+                level--;
+            }
+
+            // resend what we have under each differing subtree.
+            PostedMessageBlock.Builder blockBuilder = new PostedMessageBlock.Builder(batchSize);
+
+            for (int position : frontier)
+            {
+                int index = position << level;
+                int end = (int)Math.min((long)(position + 1) << level, localLimit);
+
+                while (index < end)
+                {
+                    index = board.fetchMessages(index, end, blockBuilder);
+
+                    if (!sendRuns(resyncGeneration, blockBuilder.build()))
+                    {
+                        return;
+                    }
+
+                    blockBuilder.clear();
+                }
+            }
+        }
+
+        private boolean sendRuns(int resyncGeneration, PostedMessageBlock block)
+            throws InterruptedException
+        {
+            List<PostedMessage> messages = block.getMessages();
+
+            int i = 0;
+            while (i < messages.size())
+            {
+                int start = messages.get(i).getIndex();
+                int count = 1;
+                while (i + count < messages.size() && messages.get(i + count).getIndex() == start + count)
+                {
+                    count++;
+                }
+
+                byte[][] run = new byte[count][];
+                for (int j = 0; j != count; j++)
+                {
+                    run[j] = messages.get(i + j).getMessage();
+                }
+
+                if (!enqueueResync(resyncGeneration, new Pending(board, start, run)))
+                {
+                    return false;
+                }
+
+                i += count;
+            }
+
+            return true;
+        }
+
+        private BoardDigestMessage fetchDigest(ServicesConnection connection, int level, int position, int count)
+            throws ServiceConnectionException
+        {
+            MessageReply reply = connection.sendMessage(CommandMessage.Type.FETCH_BOARD_DIGEST, new BoardDigestRequestMessage(board.getName(), true, level, position, count));
+
+            if (!checkForError(reply))
+            {
+                throw new ServiceConnectionException("unable to fetch backup digest");
+            }
+
+            return BoardDigestMessage.getInstance(reply.getPayload());
         }
     }
 }
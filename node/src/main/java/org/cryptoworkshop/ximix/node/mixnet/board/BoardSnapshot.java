@@ -0,0 +1,89 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import org.bouncycastle.util.Arrays;
+
+/**
+ * A pinned version of a hosted board which can be read by index without removing anything. While a board has
+ * a snapshot open it cannot be posted to, shuffled, or download locked, so every read of the snapshot sees the
+ * messages that were on the board when it was opened.
+ */
+public class BoardSnapshot
+{
+    private final long snapshotID;
+    private final String boardName;
+    private final int endIndex;
+    private final int size;
+    private final byte[] rootHash;
+
+    private volatile long lastUsed;
+
+    BoardSnapshot(long snapshotID, String boardName, int endIndex, int size, byte[] rootHash)
+    {
+        this.snapshotID = snapshotID;
+        this.boardName = boardName;
+        this.endIndex = endIndex;
+        this.size = size;
+        this.rootHash = rootHash;
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    public long getSnapshotID()
+    {
+        return snapshotID;
+    }
+
+    public String getBoardName()
+    {
+        return boardName;
+    }
+
+    /**
+     * Return the index the snapshot ends at.
+     *
+     * @return one more than the highest index a message in the snapshot can have.
+     */
+    public int getEndIndex()
+    {
+        return endIndex;
+    }
+
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Return the root hash of the board's Merkle tree when the snapshot was opened.
+     *
+     * @return the snapshot's root hash.
+     */
+    public byte[] getRootHash()
+    {
+        return Arrays.clone(rootHash);
+    }
+
+    void touch()
+    {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    boolean isIdle(long now, long idleTimeout)
+    {
+        return now - lastUsed > idleTimeout;
+    }
+}
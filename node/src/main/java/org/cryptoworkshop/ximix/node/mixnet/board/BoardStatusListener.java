@@ -0,0 +1,32 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import org.cryptoworkshop.ximix.common.asn1.message.BoardStatusMessage;
+
+/**
+ * Listener for the end of a wait on a board's status.
+ */
+public interface BoardStatusListener
+{
+    /**
+     * Signal the status of the board at the end of the wait - either the status waited for, or whatever the board's
+     * status was when the wait timed out.
+     *
+     * @param status the status of the board.
+     */
+    void statusReached(BoardStatusMessage.Status status);
+}
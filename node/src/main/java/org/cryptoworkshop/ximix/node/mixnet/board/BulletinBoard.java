@@ -15,6 +15,8 @@
  */
 package org.cryptoworkshop.ximix.node.mixnet.board;
 
+import java.util.Iterator;
+
 import org.cryptoworkshop.ximix.common.asn1.message.MessageWitnessBlock;
 import org.cryptoworkshop.ximix.common.asn1.message.PostedMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
@@ -57,18 +59,42 @@ public interface BulletinBoard
     int transcriptSize(TranscriptType transcriptType);
 
     /**
-     * Post a message to the end of the board.
+     * Post a message to the end of the board. If the board is using group commit the message
+     * may not be durable until waitForCommit() has returned, or a commit listener has been called, for its index.
      *
      * @param message message to be posted.
+     * @return the index the message was posted at.
      */
-    void postMessage(final byte[] message);
+    int postMessage(final byte[] message);
 
     /**
-     * Post messages to the end of the board.
+     * Post messages to the end of the board. If the board is using group commit the messages
+     * may not be durable until waitForCommit() has returned, or a commit listener has been called, for the last index.
      *
      * @param messages messages to be posted.
+     * @return the index the first message was posted at.
+     */
+    int postMessages(final byte[][] messages);
+
+    /**
+     * Wait until the message at the passed in index, and all those before it, have been committed.
+     *
+     * @param index the index of the message of interest.
+     * @throws InterruptedException if interrupted while waiting.
+     * @throws IllegalStateException if the board has failed and the message will never be committed.
+     */
+    void waitForCommit(int index)
+        throws InterruptedException;
+
+    /**
+     * Call the passed in listener once the message at the passed in index, and all those before it, have been
+     * committed, or once it is known the message never will be. The listener is called straight away if the
+     * outcome is already known, otherwise on the thread doing the commit.
+     *
+     * @param index the index of the message of interest.
+     * @param listener the listener to call.
      */
-    void postMessages(final byte[][] messages);
+    void addCommitListener(int index, BulletinBoardCommitListener listener);
 
     /**
      * Replace or add a block of messages by index.
@@ -98,6 +124,13 @@ public interface BulletinBoard
      */
     void clear();
 
+    /**
+     * Remove every message at or above limit from the board.
+     *
+     * @param limit the index of the first message to remove.
+     */
+    void truncate(int limit);
+
     /**
      * Add a backup listener to the board.
      *
@@ -143,4 +176,48 @@ public interface BulletinBoard
      * @return the name of the backup host, null otherwise.
      */
     String getBackupHost();
+
+    /**
+     * Return whether EC points produced for this board should be written in compressed form.
+     *
+     * @return true if points should be compressed, false otherwise.
+     */
+    boolean isPointCompressed();
+
+    /**
+     * Record whether EC points produced for this board should be written in compressed form. The setting is kept
+     * with the board, so it survives a restart.
+     *
+     * @param pointCompression true if points should be compressed, false otherwise.
+     */
+    void setPointCompression(boolean pointCompression);
+
+    /**
+     * Return the Merkle tree over the messages currently on this board.
+     *
+     * @return the board's Merkle tree.
+     */
+    MerkleTree getMerkleTree();
+
+    /**
+     * Add the messages on the board with indexes in the range [startIndex, endIndex) to blockBuilder, in index
+     * order, stopping when the builder is full.
+     *
+     * @param startIndex the first index to look at.
+     * @param endIndex the index after the last one to look at.
+     * @param blockBuilder the builder to add the messages to.
+     * @return the index to continue from, endIndex if the range is done.
+     */
+    int fetchMessages(int startIndex, int endIndex, PostedMessageBlock.Builder blockBuilder);
+
+    /**
+     * Return a cursor over the messages on the board with indexes in the range [startIndex, endIndex), in index
+     * order. The board is read in a single ordered scan, reading the commitments as well costs a second one.
+     *
+     * @param startIndex the first index to look at.
+     * @param endIndex the index after the last one to look at.
+     * @param withCommitments true if each message should carry its commitment, if it has one.
+     * @return an iterator over the messages in the range.
+     */
+    Iterator<PostedMessage> cursor(int startIndex, int endIndex, boolean withCommitments);
 }
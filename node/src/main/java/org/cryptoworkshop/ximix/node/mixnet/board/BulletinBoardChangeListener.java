@@ -34,5 +34,5 @@ public interface BulletinBoardChangeListener
      * @param bulletinBoard the board that had the messages removed.
      * @param count the number of messages removed.
      */
-    void messagesRemoved(BulletinBoardImpl bulletinBoard, int count);
+    void messagesRemoved(BulletinBoard bulletinBoard, int count);
 }
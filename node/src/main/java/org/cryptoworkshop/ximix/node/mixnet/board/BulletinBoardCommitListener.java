@@ -0,0 +1,39 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+/**
+ * Listener for the commit of a message posted to a board.
+ */
+public interface BulletinBoardCommitListener
+{
+    /**
+     * Signal that the message at index, and all those before it, have been committed.
+     *
+     * @param bulletinBoard the board the message was posted to.
+     * @param index the index of the message.
+     */
+    void committed(BulletinBoard bulletinBoard, int index);
+
+    /**
+     * Signal that the board has failed and the message at index will never be committed.
+     *
+     * @param bulletinBoard the board the message was posted to.
+     * @param index the index of the message.
+     * @param cause the reason the commit failed.
+     */
+    void commitFailed(BulletinBoard bulletinBoard, int index, RuntimeException cause);
+}
@@ -0,0 +1,666 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.cryptoworkshop.ximix.common.config.ConfigException;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Configuration details for the bulletin boards hosted by a node, read from the "boards" element
+ * of the board hosting service's configuration.
+ * <pre>
+ *     &lt;boards&gt;
+ *         &lt;groupCommit&gt;
+ *             &lt;size&gt;100&lt;/size&gt;
+ *             &lt;latency&gt;10&lt;/latency&gt;
+ *         &lt;/groupCommit&gt;
+ *         &lt;storage&gt;
+ *             &lt;engine&gt;mapdb&lt;/engine&gt;
+ *             &lt;segmentSize&gt;67108864&lt;/segmentSize&gt;
+ *             &lt;board&gt;
+ *                 &lt;name&gt;ELECTION.*&lt;/name&gt;
+ *                 &lt;engine&gt;log&lt;/engine&gt;
+ *             &lt;/board&gt;
+ *         &lt;/storage&gt;
+ *         &lt;replication&gt;
+ *             &lt;batchSize&gt;1000&lt;/batchSize&gt;
+ *             &lt;inFlight&gt;4&lt;/inFlight&gt;
+ *             &lt;lagThreshold&gt;10000&lt;/lagThreshold&gt;
+ *         &lt;/replication&gt;
+ *         &lt;handles&gt;
+ *             &lt;maxOpen&gt;256&lt;/maxOpen&gt;
+ *             &lt;openThreads&gt;4&lt;/openThreads&gt;
+ *         &lt;/handles&gt;
+ *         &lt;retention&gt;
+ *             &lt;archiveTransitBoards&gt;true&lt;/archiveTransitBoards&gt;
+ *         &lt;/retention&gt;
+ *         &lt;snapshots&gt;
+ *             &lt;maxBlockSize&gt;1000&lt;/maxBlockSize&gt;
+ *             &lt;idleTimeout&gt;300&lt;/idleTimeout&gt;
+ *         &lt;/snapshots&gt;
+ *         &lt;shuffle&gt;
+ *             &lt;transformThreads&gt;4&lt;/transformThreads&gt;
+ *             &lt;factorPoolSize&gt;16&lt;/factorPoolSize&gt;
+ *             &lt;factorPoolDelay&gt;30&lt;/factorPoolDelay&gt;
+ *             &lt;factorPoolPersistent&gt;false&lt;/factorPoolPersistent&gt;
+ *         &lt;/shuffle&gt;
+ *         &lt;transfer&gt;
+ *             &lt;blockSize&gt;0&lt;/blockSize&gt;
+ *             &lt;blockBytes&gt;65536&lt;/blockBytes&gt;
+ *             &lt;window&gt;8&lt;/window&gt;
+ *             &lt;resumeAttempts&gt;5&lt;/resumeAttempts&gt;
+ *         &lt;/transfer&gt;
+ *     &lt;/boards&gt;
+ * </pre>
+ * The engine for a board can be set by matching the board name against a regular expression, boards which
+ * do not match any of the board entries use the default engine. Replication to a backup host sends up to
+ * batchSize messages at a time, with up to inFlight batches outstanding, and posts to the primary are held back
+ * once more than lagThreshold messages are waiting to reach the backup. Transit and backup boards are only
+ * opened when first used and at most maxOpen of them are kept open, hosted boards are opened at start up using
+ * openThreads threads, which defaults to the number of available processors. Unless archiveTransitBoards is
+ * false a transit board is replaced by a read-only archive of its transcripts once they have been downloaded.
+ * A snapshot download returns at most maxBlockSize messages per request, and a snapshot which has not been read
+ * from for idleTimeout seconds is released. The messages on a board being shuffled are transformed using
+ * transformThreads threads, which also defaults to the number of available processors. Up to factorPoolSize
+ * re-encryption factors are precomputed for each key a shuffle has used, the pool being topped up once no factor
+ * has been taken for factorPoolDelay seconds, and a factorPoolSize of 0 turns the pool off. The factors are the secret
+ * part of a re-encryption, so the pool is only kept in memory unless factorPoolPersistent is true, in which case it is
+ * written, unencrypted, to the node's home directory so it survives a restart - only turn this on if the home directory
+ * is protected as well as the node's key store. Blocks moved between nodes
+ * during a shuffle hold blockSize messages, or, if blockSize is 0, as many messages as fit in blockBytes. Up to
+ * window blocks can be waiting on the next node at once, and a block which fails is sent again up to
+ * resumeAttempts times before the transfer is abandoned.
+ */
+public class BulletinBoardConfig
+{
+    /**
+     * The storage engines available for a board.
+     */
+    public static enum StorageEngine
+    {
+        /**
+         * Boards stored in a MapDB B-tree file.
+         */
+        MAPDB,
+        /**
+         * Boards stored in append only segment files.
+         */
+        LOG
+    }
+
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int DEFAULT_REPLICATION_BATCH_SIZE = 1000;
+    private static final int DEFAULT_REPLICATION_IN_FLIGHT = 4;
+    private static final int DEFAULT_REPLICATION_LAG_THRESHOLD = 10000;
+    private static final int DEFAULT_MAX_OPEN_BOARDS = 256;
+    private static final int DEFAULT_SNAPSHOT_BLOCK_SIZE = 1000;
+    private static final long DEFAULT_SNAPSHOT_IDLE_TIMEOUT = 300;
+    private static final int DEFAULT_FACTOR_POOL_SIZE = 16;
+    private static final long DEFAULT_FACTOR_POOL_DELAY = 30;
+    private static final int DEFAULT_TRANSFER_BLOCK_BYTES = 64 * 1024;
+    private static final int DEFAULT_TRANSFER_WINDOW = 8;
+    private static final int DEFAULT_TRANSFER_RESUME_ATTEMPTS = 5;
+
+    private final Map<Pattern, StorageEngine> boardEngines = new LinkedHashMap<>();
+
+    private int groupCommitSize = 0;
+    private long groupCommitLatency = 0;
+    private StorageEngine storageEngine = StorageEngine.MAPDB;
+    private int segmentSize = DEFAULT_SEGMENT_SIZE;
+    private int replicationBatchSize = DEFAULT_REPLICATION_BATCH_SIZE;
+    private int replicationInFlight = DEFAULT_REPLICATION_IN_FLIGHT;
+    private int replicationLagThreshold = DEFAULT_REPLICATION_LAG_THRESHOLD;
+    private int maxOpenBoards = DEFAULT_MAX_OPEN_BOARDS;
+    private int openThreads = Runtime.getRuntime().availableProcessors();
+    private boolean archiveTransitBoards = true;
+    private int snapshotBlockSize = DEFAULT_SNAPSHOT_BLOCK_SIZE;
+    private long snapshotIdleTimeout = DEFAULT_SNAPSHOT_IDLE_TIMEOUT;
+    private int transformThreads = Runtime.getRuntime().availableProcessors();
+    private int factorPoolSize = DEFAULT_FACTOR_POOL_SIZE;
+    private long factorPoolDelay = DEFAULT_FACTOR_POOL_DELAY;
+    private boolean factorPoolPersistent = false;
+    private int transferBlockSize = 0;
+    private int transferBlockBytes = DEFAULT_TRANSFER_BLOCK_BYTES;
+    private int transferWindow = DEFAULT_TRANSFER_WINDOW;
+    private int transferResumeAttempts = DEFAULT_TRANSFER_RESUME_ATTEMPTS;
+
+    /**
+     * Default constructor - every post is committed as it arrives.
+     */
+    public BulletinBoardConfig()
+    {
+    }
+
+    /**
+     * Construct a configuration which commits posted messages in groups.
+     *
+     * @param groupCommitSize the number of staged messages that will trigger a commit.
+     * @param groupCommitLatency the maximum time, in milliseconds, a message can be staged before it is committed.
+     */
+    public BulletinBoardConfig(int groupCommitSize, long groupCommitLatency)
+    {
+        this.groupCommitSize = groupCommitSize;
+        this.groupCommitLatency = groupCommitLatency;
+    }
+
+    /**
+     * Construct a configuration from the passed in XML node.
+     *
+     * @param configNode the "boards" element.
+     * @throws ConfigException if the configuration cannot be parsed.
+     */
+    public BulletinBoardConfig(Node configNode)
+        throws ConfigException
+    {
+        NodeList xmlNodes = configNode.getChildNodes();
+
+        for (int i = 0; i != xmlNodes.getLength(); i++)
+        {
+            Node xmlNode = xmlNodes.item(i);
+
+            if (xmlNode.getNodeName().equals("groupCommit"))
+            {
+                NodeList groupNodes = xmlNode.getChildNodes();
+
+                for (int j = 0; j != groupNodes.getLength(); j++)
+                {
+                    Node groupNode = groupNodes.item(j);
+
+                    if (groupNode.getNodeName().equals("size"))
+                    {
+                        groupCommitSize = parseInt(groupNode);
+                    }
+                    else if (groupNode.getNodeName().equals("latency"))
+                    {
+                        groupCommitLatency = parseInt(groupNode);
+                    }
+                }
+
+                if (groupCommitSize < 1 || groupCommitLatency < 1)
+                {
+                    throw new ConfigException("groupCommit requires a size and a latency greater than zero");
+                }
+            }
+            else if (xmlNode.getNodeName().equals("storage"))
+            {
+                NodeList storageNodes = xmlNode.getChildNodes();
+
+                for (int j = 0; j != storageNodes.getLength(); j++)
+                {
+                    Node storageNode = storageNodes.item(j);
+
+                    if (storageNode.getNodeName().equals("engine"))
+                    {
+                        storageEngine = parseEngine(storageNode);
+                    }
+                    else if (storageNode.getNodeName().equals("segmentSize"))
+                    {
+                        segmentSize = parseInt(storageNode);
+                        if (segmentSize < 1)
+                        {
+                            throw new ConfigException("segmentSize must be greater than zero");
+                        }
+                    }
+                    else if (storageNode.getNodeName().equals("board"))
+                    {
+                        parseBoardEngine(storageNode);
+                    }
+                }
+            }
+            else if (xmlNode.getNodeName().equals("replication"))
+            {
+                NodeList replicationNodes = xmlNode.getChildNodes();
+
+                for (int j = 0; j != replicationNodes.getLength(); j++)
+                {
+                    Node replicationNode = replicationNodes.item(j);
+
+                    if (replicationNode.getNodeName().equals("batchSize"))
+                    {
+                        replicationBatchSize = parseInt(replicationNode);
+                    }
+                    else if (replicationNode.getNodeName().equals("inFlight"))
+                    {
+                        replicationInFlight = parseInt(replicationNode);
+                    }
+                    else if (replicationNode.getNodeName().equals("lagThreshold"))
+                    {
+                        replicationLagThreshold = parseInt(replicationNode);
+                    }
+                }
+
+                if (replicationBatchSize < 1 || replicationInFlight < 1 || replicationLagThreshold < 1)
+                {
+                    throw new ConfigException("replication requires a batchSize, inFlight, and lagThreshold greater than zero");
+                }
+            }
+            else if (xmlNode.getNodeName().equals("handles"))
+            {
+                NodeList handleNodes = xmlNode.getChildNodes();
+
+                for (int j = 0; j != handleNodes.getLength(); j++)
+                {
+                    Node handleNode = handleNodes.item(j);
+
+                    if (handleNode.getNodeName().equals("maxOpen"))
+                    {
+                        maxOpenBoards = parseInt(handleNode);
+                    }
+                    else if (handleNode.getNodeName().equals("openThreads"))
+                    {
+                        openThreads = parseInt(handleNode);
+                    }
+                }
+
+                if (maxOpenBoards < 1 || openThreads < 1)
+                {
+                    throw new ConfigException("handles requires a maxOpen and openThreads greater than zero");
+                }
+            }
+            else if (xmlNode.getNodeName().equals("retention"))
+            {
+                NodeList retentionNodes = xmlNode.getChildNodes();
+
+                for (int j = 0; j != retentionNodes.getLength(); j++)
+                {
+                    Node retentionNode = retentionNodes.item(j);
+
+                    if (retentionNode.getNodeName().equals("archiveTransitBoards"))
+                    {
+                        archiveTransitBoards = Boolean.parseBoolean(retentionNode.getTextContent().trim());
+                    }
+                }
+            }
+            else if (xmlNode.getNodeName().equals("snapshots"))
+            {
+                NodeList snapshotNodes = xmlNode.getChildNodes();
+
+                for (int j = 0; j != snapshotNodes.getLength(); j++)
+                {
+                    Node snapshotNode = snapshotNodes.item(j);
+
+                    if (snapshotNode.getNodeName().equals("maxBlockSize"))
+                    {
+                        snapshotBlockSize = parseInt(snapshotNode);
+                    }
+                    else if (snapshotNode.getNodeName().equals("idleTimeout"))
+                    {
+                        snapshotIdleTimeout = parseInt(snapshotNode);
+                    }
+                }
+
+                if (snapshotBlockSize < 1 || snapshotIdleTimeout < 1)
+                {
+                    throw new ConfigException("snapshots requires a maxBlockSize and idleTimeout greater than zero");
+                }
+            }
+            else if (xmlNode.getNodeName().equals("shuffle"))
+            {
+                NodeList shuffleNodes = xmlNode.getChildNodes();
+
+                for (int j = 0; j != shuffleNodes.getLength(); j++)
+                {
+                    Node shuffleNode = shuffleNodes.item(j);
+
+                    if (shuffleNode.getNodeName().equals("transformThreads"))
+                    {
+                        transformThreads = parseInt(shuffleNode);
+                    }
+                    else if (shuffleNode.getNodeName().equals("factorPoolSize"))
+                    {
+                        factorPoolSize = parseInt(shuffleNode);
+                    }
+                    else if (shuffleNode.getNodeName().equals("factorPoolDelay"))
+                    {
+                        factorPoolDelay = parseInt(shuffleNode);
+                    }
+                    else if (shuffleNode.getNodeName().equals("factorPoolPersistent"))
+                    {
+                        factorPoolPersistent = Boolean.parseBoolean(shuffleNode.getTextContent().trim());
+                    }
+                }
+
+                if (transformThreads < 1)
+                {
+                    throw new ConfigException("shuffle requires transformThreads greater than zero");
+                }
+
+                if (factorPoolSize < 0 || factorPoolDelay < 0)
+                {
+                    throw new ConfigException("shuffle cannot have a negative factorPoolSize or factorPoolDelay");
+                }
+            }
+            else if (xmlNode.getNodeName().equals("transfer"))
+            {
+                NodeList transferNodes = xmlNode.getChildNodes();
+
+                for (int j = 0; j != transferNodes.getLength(); j++)
+                {
+                    Node transferNode = transferNodes.item(j);
+
+                    if (transferNode.getNodeName().equals("blockSize"))
+                    {
+                        transferBlockSize = parseInt(transferNode);
+                    }
+                    else if (transferNode.getNodeName().equals("blockBytes"))
+                    {
+                        transferBlockBytes = parseInt(transferNode);
+                    }
+                    else if (transferNode.getNodeName().equals("window"))
+                    {
+                        transferWindow = parseInt(transferNode);
+                    }
+                    else if (transferNode.getNodeName().equals("resumeAttempts"))
+                    {
+                        transferResumeAttempts = parseInt(transferNode);
+                    }
+                }
+
+                if (transferBlockSize < 0 || transferBlockBytes < 1 || transferWindow < 1 || transferResumeAttempts < 1)
+                {
+                    throw new ConfigException("transfer requires a blockBytes, window, and resumeAttempts greater than zero");
+                }
+            }
+        }
+    }
+
+    /**
+     * Return true if posts to hosted boards should be committed in groups.
+     *
+     * @return true if group commit is enabled, false otherwise.
+     */
+    public boolean isGroupCommitEnabled()
+    {
+        return groupCommitSize > 0;
+    }
+
+    /**
+     * Return the number of staged messages that will trigger a commit.
+     *
+     * @return the maximum size of a commit group.
+     */
+    public int getGroupCommitSize()
+    {
+        return groupCommitSize;
+    }
+
+    /**
+     * Return the maximum time, in milliseconds, a message can be staged before it is committed.
+     *
+     * @return the maximum commit latency in milliseconds.
+     */
+    public long getGroupCommitLatency()
+    {
+        return groupCommitLatency;
+    }
+
+    /**
+     * Return the storage engine to use for a new board.
+     *
+     * @param boardName the name of the board.
+     * @return the engine configured for boardName, or the default engine.
+     */
+    public StorageEngine getStorageEngine(String boardName)
+    {
+        for (Map.Entry<Pattern, StorageEngine> entry : boardEngines.entrySet())
+        {
+            if (entry.getKey().matcher(boardName).matches())
+            {
+                return entry.getValue();
+            }
+        }
+
+        return storageEngine;
+    }
+
+    /**
+     * Return the size, in bytes, of the segment files used by the log storage engine.
+     *
+     * @return the segment size in bytes.
+     */
+    public int getSegmentSize()
+    {
+        return segmentSize;
+    }
+
+    /**
+     * Return the maximum number of messages sent to a backup host in a single batch.
+     *
+     * @return the maximum replication batch size.
+     */
+    public int getReplicationBatchSize()
+    {
+        return replicationBatchSize;
+    }
+
+    /**
+     * Return the maximum number of batches that can be outstanding to a backup host.
+     *
+     * @return the maximum number of batches in flight.
+     */
+    public int getReplicationInFlight()
+    {
+        return replicationInFlight;
+    }
+
+    /**
+     * Return the number of messages waiting to reach a backup host at which posts to the primary are held back.
+     *
+     * @return the replication lag threshold in messages.
+     */
+    public int getReplicationLagThreshold()
+    {
+        return replicationLagThreshold;
+    }
+
+    /**
+     * Return the maximum number of transit and backup boards that can be open at once.
+     *
+     * @return the maximum number of open lazily opened boards.
+     */
+    public int getMaxOpenBoards()
+    {
+        return maxOpenBoards;
+    }
+
+    /**
+     * Return the number of threads to use for opening hosted boards at start up.
+     *
+     * @return the number of board opening threads.
+     */
+    public int getOpenThreads()
+    {
+        return openThreads;
+    }
+
+    /**
+     * Return true if finished transit boards should be archived once their transcripts have been downloaded.
+     *
+     * @return true if transit boards are archived, false if they are kept.
+     */
+    public boolean isArchiveTransitBoards()
+    {
+        return archiveTransitBoards;
+    }
+
+    /**
+     * Return the maximum number of messages returned in a single block of a snapshot download.
+     *
+     * @return the maximum snapshot block size.
+     */
+    public int getSnapshotBlockSize()
+    {
+        return snapshotBlockSize;
+    }
+
+    /**
+     * Return the time, in milliseconds, a snapshot can go unread before it is released.
+     *
+     * @return the snapshot idle timeout in milliseconds.
+     */
+    public long getSnapshotIdleTimeout()
+    {
+        return snapshotIdleTimeout * 1000;
+    }
+
+    /**
+     * Return the number of threads to use for transforming the messages on a board being shuffled.
+     *
+     * @return the number of transform threads.
+     */
+    public int getTransformThreads()
+    {
+        return transformThreads;
+    }
+
+    /**
+     * Return the number of re-encryption factors to keep precomputed for each key.
+     *
+     * @return the factor pool size, 0 if factors are not precomputed.
+     */
+    public int getFactorPoolSize()
+    {
+        return factorPoolSize;
+    }
+
+    /**
+     * Return the time, in milliseconds, the factor pool waits after a factor is taken before topping itself up.
+     *
+     * @return the factor pool delay in milliseconds.
+     */
+    public long getFactorPoolDelay()
+    {
+        return factorPoolDelay * 1000;
+    }
+
+    /**
+     * Return true if the factor pool should be stored in the node's home directory. The factors are stored unencrypted.
+     *
+     * @return true if the factor pool is kept on disk, false if it is only kept in memory.
+     */
+    public boolean isFactorPoolPersistent()
+    {
+        return factorPoolPersistent;
+    }
+
+    /**
+     * Return the number of messages in a block moved between nodes.
+     *
+     * @return the transfer block size, 0 if blocks are sized by getTransferBlockBytes().
+     */
+    public int getTransferBlockSize()
+    {
+        return transferBlockSize;
+    }
+
+    /**
+     * Return the number of bytes of messages a block moved between nodes is filled to when no block size is set.
+     *
+     * @return the target size of a transfer block in bytes.
+     */
+    public int getTransferBlockBytes()
+    {
+        return transferBlockBytes;
+    }
+
+    /**
+     * Return the maximum number of blocks that can be waiting on the next node at once.
+     *
+     * @return the transfer window depth.
+     */
+    public int getTransferWindow()
+    {
+        return transferWindow;
+    }
+
+    /**
+     * Return the number of times a block is sent before a transfer is abandoned.
+     *
+     * @return the number of attempts made for each block.
+     */
+    public int getTransferResumeAttempts()
+    {
+        return transferResumeAttempts;
+    }
+
+    private void parseBoardEngine(Node boardNode)
+        throws ConfigException
+    {
+        NodeList boardNodes = boardNode.getChildNodes();
+        Pattern name = null;
+        StorageEngine engine = null;
+
+        for (int i = 0; i != boardNodes.getLength(); i++)
+        {
+            Node node = boardNodes.item(i);
+
+            if (node.getNodeName().equals("name"))
+            {
+                try
+                {
+                    name = Pattern.compile(node.getTextContent().trim());
+                }
+                catch (PatternSyntaxException e)
+                {
+                    throw new ConfigException("Unable to parse board name: " + e.getMessage(), e);
+                }
+            }
+            else if (node.getNodeName().equals("engine"))
+            {
+                engine = parseEngine(node);
+            }
+        }
+
+        if (name == null || engine == null)
+        {
+            throw new ConfigException("storage board entry requires a name and an engine");
+        }
+
+        boardEngines.put(name, engine);
+    }
+
+    private static StorageEngine parseEngine(Node node)
+        throws ConfigException
+    {
+        try
+        {
+            return StorageEngine.valueOf(node.getTextContent().trim().toUpperCase());
+        }
+        catch (IllegalArgumentException e)
+        {
+            throw new ConfigException("Unknown storage engine: " + node.getTextContent().trim());
+        }
+    }
+
+    static int parseInt(Node node)
+        throws ConfigException
+    {
+        try
+        {
+            return Integer.parseInt(node.getTextContent().trim());
+        }
+        catch (NumberFormatException e)
+        {
+            throw new ConfigException("Unable to parse " + node.getNodeName() + ": " + e.getMessage(), e);
+        }
+    }
+}
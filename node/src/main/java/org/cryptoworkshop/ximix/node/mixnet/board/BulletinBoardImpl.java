@@ -17,10 +17,16 @@ package org.cryptoworkshop.ximix.node.mixnet.board;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cryptoworkshop.ximix.common.asn1.message.MessageWitness;
@@ -44,6 +50,8 @@ public class BulletinBoardImpl
     implements BulletinBoard
 {
     private static final String BACKUP_HOST = "backup.host";
+    private static final String POINT_COMPRESSION = "point.compression";
+    private static final int MAX_COMMIT_ATTEMPTS = 3;
 
     private final String boardName;
     private final File workingFile;
@@ -52,6 +60,7 @@ public class BulletinBoardImpl
     private final ConcurrentNavigableMap<String, String>  propertiesMap;
     private final ConcurrentNavigableMap<Integer, byte[]> commitmentMap;
     private final ConcurrentNavigableMap<Integer, byte[]> witnessMap;
+    private final MerkleTree merkleTree;
 
     private final ListenerHandler<BulletinBoardBackupListener> backupListenerHandler;
     private final ListenerHandler<BulletinBoardChangeListener> changeListenerHandler;
@@ -63,14 +72,77 @@ public class BulletinBoardImpl
     private final AtomicInteger minimumIndex = new AtomicInteger(0);
     private final AtomicInteger nextIndex = new AtomicInteger(0);
 
+    // group commit state - stagedMessages is also the monitor for committedIndex and the commit listeners.
+    // every write and commit on boardDB is made holding flushLock, so a rollback only ever discards its own writes.
+    private final EventNotifier eventNotifier;
+    private final ScheduledExecutorService commitScheduler;
+    private final int groupCommitSize;
+    private final long groupCommitLatency;
+    private final Object flushLock = new Object();
+    private final List<byte[]> stagedMessages = new ArrayList<>();
+    private final List<CommitWaiter> commitWaiters = new ArrayList<>();
+    private final Runnable flushTask;
+
+    private int stagedBaseIndex;
+    private int committedIndex;
+    private boolean flushScheduled;
+    private boolean flushRequested;
+    private int failedCommits;
+    private RuntimeException commitFailure;
+
     public BulletinBoardImpl(String boardName, File workingFile, Executor executor, EventNotifier eventNotifier)
     {
-        this(boardName, workingFile, new DecoupledListenerHandlerFactory(executor, eventNotifier).createHandler(BulletinBoardBackupListener.class), new DecoupledListenerHandlerFactory(executor, eventNotifier).createHandler(BulletinBoardChangeListener.class));
+        this(boardName, workingFile, executor, null, new BulletinBoardConfig(), eventNotifier);
+    }
+
+    /**
+     * Create a board which will commit posted messages in groups if the passed in config calls for it.
+     *
+     * @param boardName the name of the board.
+     * @param workingFile the file the board is stored in, null if the board is only to be held in memory.
+     * @param executor the executor for listener notifications.
+     * @param commitScheduler the scheduler to run group commits on, may be null if group commit is not enabled.
+     * @param config the board configuration.
+     * @param eventNotifier the notifier for logging errors.
+     */
+    public BulletinBoardImpl(String boardName, File workingFile, Executor executor, ScheduledExecutorService commitScheduler, BulletinBoardConfig config, EventNotifier eventNotifier)
+    {
+        this(boardName, workingFile, new DecoupledListenerHandlerFactory(executor, eventNotifier).createHandler(BulletinBoardBackupListener.class), new DecoupledListenerHandlerFactory(executor, eventNotifier).createHandler(BulletinBoardChangeListener.class), commitScheduler, config, eventNotifier);
     }
 
-    private BulletinBoardImpl(String boardName, File workingFile, ListenerHandler<BulletinBoardBackupListener> backupListenerHandler, ListenerHandler<BulletinBoardChangeListener> changeListenerHandler)
+    private BulletinBoardImpl(String boardName, File workingFile, ListenerHandler<BulletinBoardBackupListener> backupListenerHandler, ListenerHandler<BulletinBoardChangeListener> changeListenerHandler, ScheduledExecutorService commitScheduler, BulletinBoardConfig config, EventNotifier eventNotifier)
     {
         this.boardName = boardName;
+        this.eventNotifier = eventNotifier;
+
+        if (config.isGroupCommitEnabled() && commitScheduler != null)
+        {
+            this.commitScheduler = commitScheduler;
+            this.groupCommitSize = config.getGroupCommitSize();
+            this.groupCommitLatency = config.getGroupCommitLatency();
+        }
+        else
+        {
+            this.commitScheduler = null;
+            this.groupCommitSize = 0;
+            this.groupCommitLatency = 0;
+        }
+
+        this.flushTask = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    flushStaged();
+                }
+                catch (RuntimeException e)
+                {
+                    BulletinBoardImpl.this.eventNotifier.notify(EventNotifier.Level.ERROR, "Group commit failed on board " + BulletinBoardImpl.this.boardName + ": " + e.getMessage(), e);
+                }
+            }
+        };
 
         if (workingFile != null)
         {
@@ -91,8 +163,16 @@ public class BulletinBoardImpl
         propertiesMap = boardDB.getTreeMap("properties");
         commitmentMap = boardDB.getTreeMap("commitments");
         witnessMap = boardDB.getTreeMap(WITNESSES);
+        merkleTree = new MerkleTree(boardDB.<Long, byte[]>getTreeMap("merkle"));
+
+        // boards created before the tree was added need it built.
+        if (merkleTree.isEmpty() && !boardMap.isEmpty())
+        {
+            buildMerkleTree();
+        }
 
         nextIndex.set(boardMap.size());
+        committedIndex = nextIndex.get();
 
         this.backupListenerHandler = backupListenerHandler;
         this.changeListenerHandler = changeListenerHandler;
@@ -106,8 +186,11 @@ public class BulletinBoardImpl
     {
         if (bulletinBoardBackupListener instanceof BoardRemoteBackupListener)
         {
-            propertiesMap.put(BACKUP_HOST, ((BoardRemoteBackupListener)bulletinBoardBackupListener).getBackupHost());
-            boardDB.commit();
+            synchronized (flushLock)
+            {
+                propertiesMap.put(BACKUP_HOST, ((BoardRemoteBackupListener)bulletinBoardBackupListener).getBackupHost());
+                boardDB.commit();
+            }
         }
 
         backupListenerHandler.addListener(bulletinBoardBackupListener);
@@ -137,6 +220,8 @@ public class BulletinBoardImpl
     @Override
     public TranscriptBlock fetchTranscriptData(TranscriptType dataClass, IndexNumberGenerator indexGenerator, TranscriptBlock.Builder responseBuilder)
     {
+        flushStaged();
+
         if (TranscriptType.WITNESSES == dataClass)
         {
             while (indexGenerator.hasNext() && !responseBuilder.isFull())
@@ -152,11 +237,32 @@ public class BulletinBoardImpl
         }
         else
         {
+            // runs of consecutive indexes are read from a cursor, anything else is looked up directly.
+            Iterator<PostedMessage> cursor = null;
+            PostedMessage next = null;
+            int previous = -2;
+
             while (indexGenerator.hasNext() && !responseBuilder.isFull())
             {
                 int index = indexGenerator.nextIndex();
 
-                responseBuilder.add(new PostedMessage(index, boardMap.get(index), commitmentMap.get(index)));
+                if (index == previous + 1 && (cursor == null || (next != null && next.getIndex() < index)))
+                {
+                    cursor = cursor(index, Integer.MAX_VALUE, true);
+                    next = cursor.hasNext() ? cursor.next() : null;
+                }
+
+                if (next != null && next.getIndex() == index)
+                {
+                    responseBuilder.add(next);
+                    next = cursor.hasNext() ? cursor.next() : null;
+                }
+                else
+                {
+                    responseBuilder.add(new PostedMessage(index, boardMap.get(index), commitmentMap.get(index)));
+                }
+
+                previous = index;
             }
         }
 
@@ -169,10 +275,44 @@ public class BulletinBoardImpl
         return propertiesMap.get(BACKUP_HOST);
     }
 
+    @Override
+    public boolean isPointCompressed()
+    {
+        return propertiesMap.containsKey(POINT_COMPRESSION);
+    }
+
+    @Override
+    public void setPointCompression(boolean pointCompression)
+    {
+        if (pointCompression == isPointCompressed())
+        {
+            return;
+        }
+
+        synchronized (flushLock)
+        {
+            if (pointCompression)
+            {
+                propertiesMap.put(POINT_COMPRESSION, "true");
+            }
+            else
+            {
+                propertiesMap.remove(POINT_COMPRESSION);
+            }
+
+            boardDB.commit();
+        }
+    }
+
     @Override
     public void shutdown()
     {
-        boardDB.close();
+        synchronized (flushLock)
+        {
+            flushStaged();
+            boardDB.close();
+        }
+
         backupNotifier.shutdown();
     }
 
@@ -188,6 +328,8 @@ public class BulletinBoardImpl
 
     public int transcriptSize(TranscriptType transcriptType)
     {
+        flushStaged();
+
         if (TranscriptType.WITNESSES == transcriptType)
         {
             return witnessMap.size();
@@ -198,98 +340,405 @@ public class BulletinBoardImpl
         }
     }
 
-    public void postMessage(final byte[] message)
+    public int postMessage(final byte[] message)
     {
-        int index = nextIndex.getAndIncrement();
+        if (commitScheduler != null)
+        {
+            return stageMessages(new byte[][] { message });
+        }
 
-        boardMap.put(index, message);
+        int index;
 
-        boardDB.commit();
+        synchronized (flushLock)
+        {
+            index = nextIndex.getAndIncrement();
+
+            boardMap.put(index, message);
+            merkleTree.update(index, message);
+
+            boardDB.commit();
+        }
+
+        markCommitted();
 
         backupNotifier.messagePosted(this, index, message);
 
         changeNotifier.messagesAdded(this, 1);
+
+        return index;
     }
 
-    public void postMessages(final byte[][] messages)
+    public int postMessages(final byte[][] messages)
     {
+        if (commitScheduler != null)
+        {
+            return stageMessages(messages);
+        }
 
-        int baseIndex = nextIndex.getAndIncrement();
-
-        boardMap.put(baseIndex, messages[0]);
+        int baseIndex;
 
-        for (int i = 1; i != messages.length; i++)
+        synchronized (flushLock)
         {
-            int index = nextIndex.getAndIncrement();
+            baseIndex = nextIndex.getAndIncrement();
+
+            boardMap.put(baseIndex, messages[0]);
+
+            for (int i = 1; i != messages.length; i++)
+            {
+                int index = nextIndex.getAndIncrement();
 
-            boardMap.put(index, messages[i]);
+                boardMap.put(index, messages[i]);
+            }
+
+            merkleTree.update(range(baseIndex, messages.length), messages);
+
+            boardDB.commit();
         }
 
-        boardDB.commit();
+        markCommitted();
 
         backupNotifier.messagesPosted(this, baseIndex, messages);
 
         changeNotifier.messagesAdded(this, messages.length);
+
+        return baseIndex;
     }
 
     @Override
-    public void postMessageBlock(PostedMessageBlock messageBlock)
+    public void waitForCommit(int index)
+        throws InterruptedException
     {
-        List<PostedMessage> messages = messageBlock.getMessages();
+        synchronized (stagedMessages)
+        {
+            while (index >= committedIndex)
+            {
+                if (commitFailure != null)
+                {
+                    throw new IllegalStateException("Group commit failed on board " + boardName + ": " + commitFailure.getMessage(), commitFailure);
+                }
 
-        int maxIndex = nextIndex.get();
+                // a clear() will drop nextIndex below index, in which case there is nothing to wait for.
+                if (index >= nextIndex.get())
+                {
+                    return;
+                }
 
-        for (PostedMessage message : messages)
+                stagedMessages.wait();
+            }
+        }
+    }
+
+    @Override
+    public void addCommitListener(int index, BulletinBoardCommitListener listener)
+    {
+        RuntimeException failure;
+
+        synchronized (stagedMessages)
+        {
+            if (index >= committedIndex && commitFailure == null && index < nextIndex.get())
+            {
+                commitWaiters.add(new CommitWaiter(index, listener));
+                return;
+            }
+
+            failure = (index >= committedIndex) ? commitFailure : null;
+        }
+
+        if (failure != null)
+        {
+            listener.commitFailed(this, index, failure);
+        }
+        else
         {
-            boardMap.put(message.getIndex(), message.getMessage());
-            if (message.hasCommitment())
+            listener.committed(this, index);
+        }
+    }
+
+    private int stageMessages(byte[][] messages)
+    {
+        synchronized (stagedMessages)
+        {
+            if (commitFailure != null)
             {
-                commitmentMap.put(message.getIndex(), message.getCommitment());
+                throw new IllegalStateException("Board " + boardName + " has failed: " + commitFailure.getMessage(), commitFailure);
             }
-            if (message.getIndex() >= maxIndex)
+
+            int baseIndex = nextIndex.getAndAdd(messages.length);
+
+            if (stagedMessages.isEmpty())
             {
-                maxIndex = message.getIndex() + 1;    // nextIndex is the number of the next free slot
+                stagedBaseIndex = baseIndex;
             }
+
+            Collections.addAll(stagedMessages, messages);
+
+            if (stagedMessages.size() >= groupCommitSize)
+            {
+                if (!flushRequested)
+                {
+                    flushRequested = true;
+                    commitScheduler.execute(flushTask);
+                }
+            }
+            else if (!flushScheduled)
+            {
+                flushScheduled = true;
+                commitScheduler.schedule(flushTask, groupCommitLatency, TimeUnit.MILLISECONDS);
+            }
+
+            return baseIndex;
         }
+    }
 
-        nextIndex.set(maxIndex);
+    /**
+     * Write any staged messages to the board as a single commit. Flushes are serialised on flushLock so
+     * groups are always committed in index order, while new messages can still be staged during a commit. As
+     * every other write to the board is also made under flushLock, a rollback never takes anyone else's writes with it.
+     * <p>
+     * A group which fails to commit is rolled back and put back at the head of the staged messages, so it keeps
+     * its indexes, and the commit is tried again. If it still cannot be committed the board is failed: everything
+     * staged is dropped, the next index goes back to the end of what has been committed, and no more posts are
+     * taken until the board is cleared.
+     * </p>
+     */
+    private void flushStaged()
+    {
+        if (commitScheduler == null)
+        {
+            return;
+        }
 
-        boardDB.commit();
+        synchronized (flushLock)
+        {
+            byte[][] messages;
+            int baseIndex;
 
-        for (PostedMessage message : messages)
+            synchronized (stagedMessages)
+            {
+                flushScheduled = false;
+                flushRequested = false;
+
+                if (stagedMessages.isEmpty())
+                {
+                    return;
+                }
+
+                messages = stagedMessages.toArray(new byte[stagedMessages.size()][]);
+                baseIndex = stagedBaseIndex;
+
+                stagedMessages.clear();
+            }
+
+            try
+            {
+                for (int i = 0; i != messages.length; i++)
+                {
+                    boardMap.put(baseIndex + i, messages[i]);
+                }
+
+                merkleTree.update(range(baseIndex, messages.length), messages);
+
+                boardDB.commit();
+            }
+            catch (RuntimeException e)
+            {
+                rollback();
+
+                List<CommitWaiter> failed = null;
+
+                synchronized (stagedMessages)
+                {
+                    if (++failedCommits < MAX_COMMIT_ATTEMPTS)
+                    {
+                        stagedMessages.addAll(0, Arrays.asList(messages));
+                        stagedBaseIndex = baseIndex;
+
+                        if (!flushScheduled)
+                        {
+                            flushScheduled = true;
+                            commitScheduler.schedule(flushTask, groupCommitLatency, TimeUnit.MILLISECONDS);
+                        }
+                    }
+                    else
+                    {
+                        commitFailure = e;
+                        stagedMessages.clear();
+                        nextIndex.set(baseIndex);
+
+                        failed = new ArrayList<>(commitWaiters);
+                        commitWaiters.clear();
+                    }
+
+                    stagedMessages.notifyAll();
+                }
+
+                if (failed != null)
+                {
+                    for (CommitWaiter waiter : failed)
+                    {
+                        waiter.listener.commitFailed(this, waiter.index, e);
+                    }
+                }
+
+                throw e;
+            }
+
+            List<CommitWaiter> committed;
+
+            synchronized (stagedMessages)
+            {
+                failedCommits = 0;
+                committedIndex = baseIndex + messages.length;
+                committed = takeCommitted();
+                stagedMessages.notifyAll();
+            }
+
+            for (CommitWaiter waiter : committed)
+            {
+                waiter.listener.committed(this, waiter.index);
+            }
+
+            backupNotifier.messagesPosted(this, baseIndex, messages);
+
+            changeNotifier.messagesAdded(this, messages.length);
+        }
+    }
+
+    private void markCommitted()
+    {
+        List<CommitWaiter> committed;
+
+        synchronized (stagedMessages)
         {
-            backupNotifier.messagePosted(this, message.getIndex(), message.getMessage());
+            committedIndex = nextIndex.get();
+            committed = takeCommitted();
+            stagedMessages.notifyAll();
+        }
+
+        for (CommitWaiter waiter : committed)
+        {
+            waiter.listener.committed(this, waiter.index);
         }
     }
 
-    @Override
-    public PostedMessageBlock removeMessages(PostedMessageBlock.Builder blockBuilder)
+    // remove the waiters that have nothing left to wait for - those under committedIndex, and any dropped by a clear().
+    private List<CommitWaiter> takeCommitted()
     {
-        int count;
-        int boardSize = nextIndex.get() - minimumIndex.get();
+        List<CommitWaiter> committed = new ArrayList<>();
 
-        if (boardSize > blockBuilder.capacity())
+        for (Iterator<CommitWaiter> it = commitWaiters.iterator(); it.hasNext();)
         {
-            count = blockBuilder.capacity();
+            CommitWaiter waiter = it.next();
+
+            if (waiter.index < committedIndex || waiter.index >= nextIndex.get())
+            {
+                committed.add(waiter);
+                it.remove();
+            }
         }
-        else
+
+        return committed;
+    }
+
+    private void rollback()
+    {
+        try
         {
-            count = boardSize;
+            boardDB.rollback();
         }
+        catch (RuntimeException e)
+        {
+            eventNotifier.notify(EventNotifier.Level.ERROR, "Rollback failed on board " + boardName + ": " + e.getMessage(), e);
+        }
+    }
 
-        for (int i = 0; i != count; i++)
+    @Override
+    public void postMessageBlock(PostedMessageBlock messageBlock)
+    {
+        List<PostedMessage> messages = messageBlock.getMessages();
+
+        synchronized (flushLock)
         {
-            int index = minimumIndex.getAndIncrement();
+            flushStaged();
+
+            int[] indices = new int[messages.size()];
+            byte[][] data = new byte[messages.size()][];
+
+            int maxIndex = nextIndex.get();
+
+            for (int i = 0; i != indices.length; i++)
+            {
+                PostedMessage message = messages.get(i);
+
+                indices[i] = message.getIndex();
+                data[i] = message.getMessage();
 
-            blockBuilder.add(index,  boardMap.remove(index));
+                boardMap.put(message.getIndex(), message.getMessage());
+                if (message.hasCommitment())
+                {
+                    commitmentMap.put(message.getIndex(), message.getCommitment());
+                }
+                if (message.getIndex() >= maxIndex)
+                {
+                    maxIndex = message.getIndex() + 1;    // nextIndex is the number of the next free slot
+                }
+            }
+
+            nextIndex.set(maxIndex);
+
+            merkleTree.update(indices, data);
+
+            boardDB.commit();
         }
 
-        boardDB.commit();
+        markCommitted();
+
+        for (PostedMessage message : messages)
+        {
+            backupNotifier.messagePosted(this, message.getIndex(), message.getMessage());
+        }
+    }
 
-        if (nextIndex.get() - minimumIndex.get() == 0)
+    @Override
+    public PostedMessageBlock removeMessages(PostedMessageBlock.Builder blockBuilder)
+    {
+        synchronized (flushLock)
         {
-            clear();
+            flushStaged();
+
+            int count;
+            int boardSize = nextIndex.get() - minimumIndex.get();
+
+            if (boardSize > blockBuilder.capacity())
+            {
+                count = blockBuilder.capacity();
+            }
+            else
+            {
+                count = boardSize;
+            }
+
+            int[] removed = new int[count];
+
+            for (int i = 0; i != count; i++)
+            {
+                int index = minimumIndex.getAndIncrement();
+
+                blockBuilder.add(index,  boardMap.remove(index));
+
+                removed[i] = index;
+            }
+
+            merkleTree.update(removed, new byte[count][]);
+
+            boardDB.commit();
+
+            if (nextIndex.get() - minimumIndex.get() == 0)
+            {
+                clear();
+            }
         }
+
         PostedMessageBlock pmb = blockBuilder.build();
 
         changeNotifier.messagesRemoved(this, pmb.getMessages().size());
@@ -301,54 +750,158 @@ public class BulletinBoardImpl
     {
         List<MessageWitness> witnesses = witnessBlock.getWitnesses();
 
-        for (MessageWitness messageWitness : witnesses)
+        synchronized (flushLock)
         {
-            try
+            for (MessageWitness messageWitness : witnesses)
+            {
+                try
+                {
+                    witnessMap.put(messageWitness.getIndex(), messageWitness.getWitness().getEncoded());
+                }
+                catch (IOException e)
+                {
+                   throw new IllegalStateException("Unable to encode witness value!!!!", e);
+                }
+            }
+
+            boardDB.commit();
+        }
+    }
+
+    @Override
+    public void clear()
+    {
+        synchronized (flushLock)
+        {
+            flushStaged();
+
+            boardMap.clear();
+            merkleTree.clear();
+            minimumIndex.set(0);
+            nextIndex.set(0);
+            boardDB.commit();
+
+            synchronized (stagedMessages)
             {
-                witnessMap.put(messageWitness.getIndex(), messageWitness.getWitness().getEncoded());
+                failedCommits = 0;
+                commitFailure = null;
             }
-            catch (IOException e)
+
+            markCommitted();
+
+            if (workingFile != null)
             {
-               throw new IllegalStateException("Unable to encode witness value!!!!", e);
+                boardDB.compact();
             }
         }
 
-        boardDB.commit();
+        backupNotifier.cleared(this);
     }
 
     @Override
-    public void clear()
+    public void truncate(int limit)
     {
-        boardMap.clear();
-        minimumIndex.set(0);
-        nextIndex.set(0);
-        boardDB.commit();
+        int[] removed;
 
-        if (workingFile != null)
+        synchronized (flushLock)
         {
-            boardDB.compact();
+            flushStaged();
+
+            if (limit >= nextIndex.get())
+            {
+                return;
+            }
+
+            List<Integer> tail = new ArrayList<>(boardMap.tailMap(limit).keySet());
+
+            removed = new int[tail.size()];
+
+            for (int i = 0; i != removed.length; i++)
+            {
+                removed[i] = tail.get(i);
+
+                boardMap.remove(removed[i]);
+                commitmentMap.remove(removed[i]);
+            }
+
+            merkleTree.truncate(limit, removed);
+            nextIndex.set(Math.max(limit, minimumIndex.get()));
+
+            boardDB.commit();
         }
 
-        backupNotifier.cleared(this);
+        markCommitted();
+
+        changeNotifier.messagesRemoved(this, removed.length);
+    }
+
+    @Override
+    public int fetchMessages(int startIndex, int endIndex, PostedMessageBlock.Builder blockBuilder)
+    {
+        flushStaged();
+
+        for (Map.Entry<Integer, byte[]> entry : boardMap.subMap(startIndex, endIndex).entrySet())
+        {
+            if (blockBuilder.isFull())
+            {
+                return entry.getKey();
+            }
+
+            blockBuilder.add(entry.getKey(), entry.getValue());
+        }
+
+        return endIndex;
+    }
+
+    @Override
+    public MerkleTree getMerkleTree()
+    {
+        flushStaged();
+
+        return merkleTree;
     }
 
     public Iterator<PostedMessage> iterator()
     {
+        return cursor(Integer.MIN_VALUE, Integer.MAX_VALUE, false);
+    }
+
+    @Override
+    public Iterator<PostedMessage> cursor(int startIndex, int endIndex, boolean withCommitments)
+    {
+        flushStaged();
+
+        // the messages and commitments are both in index order, so we can walk them side by side.
+        final Iterator<Map.Entry<Integer, byte[]>> messages = boardMap.subMap(startIndex, endIndex).entrySet().iterator();
+        final Iterator<Map.Entry<Integer, byte[]>> commitments = withCommitments ? commitmentMap.subMap(startIndex, endIndex).entrySet().iterator() : Collections.<Map.Entry<Integer, byte[]>>emptyIterator();
+
         return new Iterator<PostedMessage>()
         {
-            Iterator<Integer> keys = boardMap.keySet().iterator();
+            private Map.Entry<Integer, byte[]> commitment = commitments.hasNext() ? commitments.next() : null;
 
             @Override
             public boolean hasNext()
             {
-                return keys.hasNext();
+                return messages.hasNext();
             }
 
             @Override
             public PostedMessage next()
             {
-                Integer next = keys.next();
-                return new PostedMessage(next, boardMap.get(next));
+                Map.Entry<Integer, byte[]> message = messages.next();
+                int index = message.getKey();
+
+                while (commitment != null && commitment.getKey() < index)
+                {
+                    commitment = commitments.hasNext() ? commitments.next() : null;
+                }
+
+                if (commitment != null && commitment.getKey() == index)
+                {
+                    return new PostedMessage(index, message.getValue(), commitment.getValue());
+                }
+
+                return new PostedMessage(index, message.getValue());
             }
 
             @Override
@@ -358,4 +911,64 @@ public class BulletinBoardImpl
             }
         };
     }
+
+    private void buildMerkleTree()
+    {
+        List<Integer> indices = new ArrayList<>();
+        List<byte[]> messages = new ArrayList<>();
+
+        for (Map.Entry<Integer, byte[]> entry : boardMap.entrySet())
+        {
+            indices.add(entry.getKey());
+            messages.add(entry.getValue());
+
+            if (indices.size() == 1000)
+            {
+                updateMerkleTree(indices, messages);
+            }
+        }
+
+        updateMerkleTree(indices, messages);
+
+        boardDB.commit();
+    }
+
+    private void updateMerkleTree(List<Integer> indices, List<byte[]> messages)
+    {
+        int[] ind = new int[indices.size()];
+
+        for (int i = 0; i != ind.length; i++)
+        {
+            ind[i] = indices.get(i);
+        }
+
+        merkleTree.update(ind, messages.toArray(new byte[messages.size()][]));
+
+        indices.clear();
+        messages.clear();
+    }
+
+    private static int[] range(int start, int count)
+    {
+        int[] indices = new int[count];
+
+        for (int i = 0; i != count; i++)
+        {
+            indices[i] = start + i;
+        }
+
+        return indices;
+    }
+
+    private static class CommitWaiter
+    {
+        final int index;
+        final BulletinBoardCommitListener listener;
+
+        CommitWaiter(int index, BulletinBoardCommitListener listener)
+        {
+            this.index = index;
+            this.listener = listener;
+        }
+    }
 }
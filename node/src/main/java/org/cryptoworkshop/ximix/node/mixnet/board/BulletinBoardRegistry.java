@@ -17,15 +17,35 @@ package org.cryptoworkshop.ximix.node.mixnet.board;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
-
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardStatusMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
 import org.cryptoworkshop.ximix.common.util.EventNotifier;
+import org.cryptoworkshop.ximix.common.util.TranscriptType;
+import org.cryptoworkshop.ximix.node.mixnet.transform.ReEncryptionFactor;
+import org.cryptoworkshop.ximix.node.mixnet.transform.ReEncryptionFactorPool;
 import org.cryptoworkshop.ximix.node.mixnet.transform.Transform;
 import org.cryptoworkshop.ximix.node.service.CrossSection;
 import org.cryptoworkshop.ximix.node.service.Decoupler;
@@ -36,35 +56,62 @@ import org.cryptoworkshop.ximix.node.service.NodeContext;
  */
 public class BulletinBoardRegistry
 {
+    // where a hosted board's files are kept while it is being replaced by a promoted transit board.
+    private static final String SUPERSEDED_DIRECTORY = ".superseded";
+
+    // the suffix for the read-only archive a finished transit board is replaced with.
+    private static final String ARCHIVE_SUFFIX = ".archive";
+
+    // a MapDB board is stored as the base file plus these, a log board is just the directory. The base
+    // file is always moved, or deleted, last so its presence tells us where an interrupted swap got to.
+    private static final String[] BOARD_FILE_SUFFIXES = { ".p", ".t", "" };
+
+    // the number of messages at a time copied into a board replacing an in-memory hosted board.
+    private static final int COPY_BLOCK_SIZE = 1000;
+
     private final NodeContext nodeContext;
     private final File workingDirectory;
     private final Map<String, Transform> transforms;
     private final Executor boardUpdateExecutor;
+    private final BulletinBoardConfig boardConfig;
     private final CrossSection statistics;
     private final BulletinBoardChangeListener changeListener;
+    private final BoardHandleCache handleCache;
+    private final ReEncryptionFactorPool factorPool;
 
     private final Map<String, BulletinBoard> boards = new HashMap<>();
     private Map<String, BulletinBoard> transitBoards = new HashMap<String, BulletinBoard>();
     private Map<String, BulletinBoard> backupBoards = new HashMap<>();
     private Set<String> suspendedBoards = new HashSet<>();
+    private Set<String> pointCompressedBoards = new HashSet<>();
     private Set<String> dowloadLockedBoards = new HashSet<>();
     private Set<String> shuffleLockedBoards = new HashSet<>();
     private Set<String> inTransitBoards = new HashSet<>();
     private Set<String> completedBoards = new HashSet<>();
+    private Set<String> archivedBoards = new HashSet<>();
+    private Map<String, Set<TranscriptType>> downloadedTranscripts = new HashMap<>();
+    private Map<Long, BoardSnapshot> snapshots = new HashMap<>();
+    private List<StatusWaiter> statusWaiters = new ArrayList<>();
+
+    // seeded from the clock so a client resuming against a restarted node cannot pick up someone else's snapshot.
+    private final AtomicLong snapshotCounter = new AtomicLong(System.currentTimeMillis());
 
     /**
      * Base constructor.
      *
      * @param nodeContext the context of the node we are associated with.
      * @param transforms a Map of transforms this node supports.
+     * @param boardConfig the configuration for the boards we host.
      * @param statistics the statistics sampling object to notify of changes.
      */
-    public BulletinBoardRegistry(NodeContext nodeContext, Map<String, Transform> transforms, final CrossSection statistics)
+    public BulletinBoardRegistry(NodeContext nodeContext, Map<String, Transform> transforms, BulletinBoardConfig boardConfig, final CrossSection statistics)
     {
         this.nodeContext = nodeContext;
         this.transforms = transforms;
+        this.boardConfig = boardConfig;
         this.boardUpdateExecutor = nodeContext.getDecoupler(Decoupler.BOARD_REGISTRY);
         this.statistics = statistics;
+        this.handleCache = new BoardHandleCache(boardConfig.getMaxOpenBoards());
 
         changeListener = new BulletinBoardChangeListener()
         {
@@ -75,7 +122,7 @@ public class BulletinBoardRegistry
             }
 
             @Override
-            public void messagesRemoved(BulletinBoardImpl bulletinBoard, int count)
+            public void messagesRemoved(BulletinBoard bulletinBoard, int count)
             {
                 statistics.decrement("bhs!messages-on-board!" + bulletinBoard.getName(), count);
             }
@@ -83,6 +130,30 @@ public class BulletinBoardRegistry
 
         File homeDirectory = nodeContext.getHomeDirectory();
 
+        File factorFile = null;
+
+        if (homeDirectory != null)
+        {
+            factorFile = new File(homeDirectory, "factors");
+
+            // the factors are secrets, so they only stay on disk if the configuration asks for it.
+            if (!boardConfig.isFactorPoolPersistent() || boardConfig.getFactorPoolSize() == 0)
+            {
+                ReEncryptionFactorPool.delete(factorFile);
+                factorFile = null;
+            }
+        }
+
+        if (boardConfig.getFactorPoolSize() > 0)
+        {
+            this.factorPool = new ReEncryptionFactorPool(factorFile, boardConfig.getFactorPoolSize(), boardConfig.getFactorPoolDelay(),
+                                                         nodeContext.getScheduledExecutorService(), nodeContext.getEventNotifier());
+        }
+        else
+        {
+            this.factorPool = null;
+        }
+
         if (homeDirectory != null)
         {
             this.workingDirectory = new File(homeDirectory, "boards");
@@ -94,6 +165,8 @@ public class BulletinBoardRegistry
                 }
             }
 
+            recoverPromotions();
+
             // initialise board state
             File[] files = workingDirectory.listFiles(new FilenameFilter()
             {
@@ -112,35 +185,57 @@ public class BulletinBoardRegistry
                         return false;
                     }
 
+                    if (name.equals(SUPERSEDED_DIRECTORY))
+                    {
+                        return false;
+                    }
+
                     return true;
                 }
             });
 
+            List<File> hostedBoardFiles = new ArrayList<>();
+
+            // transit and backup boards are only opened when they are needed.
             for (int i = 0; i != files.length; i++)
             {
                 File file = files[i];
                 String name = file.getName();
 
-                if (name.matches(".*\\.[0-9]+$"))
+                if (name.endsWith(ARCHIVE_SUFFIX + ".tmp"))
+                {
+                    // an archive that was never finished, the transit board is still there.
+                    file.delete();
+                }
+                else if (name.endsWith(ARCHIVE_SUFFIX))
+                {
+                    String transitName = name.substring(0, name.length() - ARCHIVE_SUFFIX.length());
+
+                    transitBoards.put(transitName, openArchive(transitName.substring(transitName.indexOf(".") + 1, transitName.lastIndexOf(".")), file));
+                    archivedBoards.add(transitName);
+                }
+                else if (name.matches(".*\\.[0-9]+$") && new File(workingDirectory, name + ARCHIVE_SUFFIX).exists())
                 {
-                    transitBoards.put(file.getName(), new BulletinBoardImpl(name.substring(name.indexOf(".") + 1, name.lastIndexOf(".")), file, boardUpdateExecutor, nodeContext.getEventNotifier()));
+                    // archived, but we stopped before the transit board was deleted.
+                    deleteBoardFiles(file);
+                }
+                else if (name.matches(".*\\.[0-9]+$"))
+                {
+                    transitBoards.put(file.getName(), openLazily(name.substring(name.indexOf(".") + 1, name.lastIndexOf(".")), file));
                 }
                 else if (file.getName().endsWith(".backup"))
                 {
-                    backupBoards.put(name, new BulletinBoardImpl(name.substring(0, name.indexOf(".backup")), file, boardUpdateExecutor, nodeContext.getEventNotifier()));
+                    String boardName = name.substring(0, name.indexOf(".backup"));
+
+                    backupBoards.put(boardName, openLazily(boardName, file));
                 }
                 else
                 {
-                    BulletinBoardImpl hostedBoard = new BulletinBoardImpl(name, file, boardUpdateExecutor, nodeContext.getEventNotifier());
-                    boards.put(name, hostedBoard);
-
-                    // re-instate the back up listener if needed.
-                    if (hostedBoard.getBackupHost() != null)
-                    {
-                        hostedBoard.addListener(new BoardRemoteBackupListener(nodeContext, hostedBoard.getBackupHost()));
-                    }
+                    hostedBoardFiles.add(file);
                 }
             }
+
+            openHostedBoards(hostedBoardFiles);
         }
         else
         {
@@ -161,7 +256,7 @@ public class BulletinBoardRegistry
 
                 File boardDBFile = deriveBoardFile(boardName);
 
-                board = new BulletinBoardImpl(boardName, boardDBFile, nodeContext.getDecoupler(Decoupler.BOARD_LISTENER), nodeContext.getEventNotifier());
+                board = openBoard(boardName, boardDBFile, nodeContext.getDecoupler(Decoupler.BOARD_LISTENER), true);
                 board.addListener(changeListener);
 
                 boards.put(boardName, board);
@@ -175,11 +270,443 @@ public class BulletinBoardRegistry
     {
         BulletinBoard board = createBoard(boardName);
 
-        board.addListener(new BoardRemoteBackupListener(nodeContext, backUpHost));
+        BoardRemoteBackupListener backupListener = new BoardRemoteBackupListener(nodeContext, backUpHost, boardConfig, statistics);
+
+        board.addListener(backupListener);
+
+        backupListener.startResync(board);
 
         return board;
     }
 
+    /**
+     * Promote the transit board for the final step of a shuffle to be the hosted board it was shuffled from.
+     * <p>
+     * The transit board's files are renamed into place, so the hosted board is not rebuilt message by message. The
+     * hosted board's files are moved aside first and only deleted once the transit board has taken their place,
+     * if the node stops part way through the swap it is completed, or rolled back, when the registry is next started.
+     * Before the transit board is moved its transcript is written to an archive, which answers for the final step from
+     * then on, so downloads from and uploads to the promoted board leave the transcript alone.
+     * </p>
+     *
+     * @param operationNumber the number of the shuffle operation.
+     * @param boardName the name of the hosted board.
+     * @param stepNumber the step number of the final transit board.
+     * @return the promoted board.
+     */
+    public BulletinBoard promoteTransitBoard(long operationNumber, String boardName, int stepNumber)
+    {
+        synchronized (boards)
+        {
+            String transitName = getTransitBoardName(operationNumber, boardName, stepNumber);
+            BulletinBoard transitBoard = getTransitBoard(operationNumber, boardName, stepNumber);
+            BulletinBoard homeBoard = boards.get(boardName);
+            String backupHost = homeBoard.getBackupHost();
+
+            homeBoard.shutdown();
+
+            // the setting goes into the transit board before the swap, so it is in place if we stop part way through.
+            transitBoard.setPointCompression(pointCompressedBoards.contains(boardName));
+
+            BulletinBoard board;
+
+            if (workingDirectory == null)
+            {
+                // nothing to rename or archive, the hosted board gets a copy and the transit board keeps the transcript.
+                board = openBoard(boardName, null, nodeContext.getDecoupler(Decoupler.BOARD_LISTENER), true);
+
+                copyMessages(transitBoard, board);
+            }
+            else
+            {
+                File homeFile = deriveBoardFile(boardName);
+                File transitFile = deriveBoardFile(transitName);
+                File archiveFile = deriveBoardFile(transitName + ARCHIVE_SUFFIX);
+                File supersededDir = new File(workingDirectory, SUPERSEDED_DIRECTORY);
+                File supersededFile = new File(supersededDir, transitName);
+
+                if (!supersededDir.exists() && !supersededDir.mkdir())
+                {
+                    transitBoard.shutdown();
+                    reopenAfterFailedPromotion(boardName, transitName, homeFile, transitFile);
+
+                    throw new IllegalStateException("Unable to create directory: " + supersededDir.getPath());
+                }
+
+                if (!moveBoardFiles(homeFile, supersededFile))
+                {
+                    moveBoardFiles(supersededFile, homeFile);
+                    transitBoard.shutdown();
+                    reopenAfterFailedPromotion(boardName, transitName, homeFile, transitFile);
+
+                    throw new IllegalStateException("Unable to move aside board " + boardName + " for promotion");
+                }
+
+                // the archive is written once the hosted board has been moved aside, so a restart finding both knows
+                // the transit board is on its way into place.
+                try
+                {
+                    ArchivedBulletinBoard.write(transitBoard, archiveFile);
+                }
+                catch (IOException e)
+                {
+                    moveBoardFiles(supersededFile, homeFile);
+                    transitBoard.shutdown();
+                    reopenAfterFailedPromotion(boardName, transitName, homeFile, transitFile);
+
+                    throw new IllegalStateException("Unable to archive transit board " + transitName + ": " + e.getMessage(), e);
+                }
+
+                transitBoard.shutdown();
+
+                if (!moveBoardFiles(transitFile, homeFile))
+                {
+                    moveBoardFiles(homeFile, transitFile);
+                    moveBoardFiles(supersededFile, homeFile);
+                    archiveFile.delete();
+                    reopenAfterFailedPromotion(boardName, transitName, homeFile, transitFile);
+
+                    throw new IllegalStateException("Unable to promote transit board " + transitName);
+                }
+
+                deleteBoardFiles(supersededFile);
+
+                transitBoards.put(transitName, openArchive(boardName, archiveFile));
+                archivedBoards.add(transitName);
+                downloadedTranscripts.remove(transitName);
+
+                board = openBoard(boardName, homeFile, nodeContext.getDecoupler(Decoupler.BOARD_LISTENER), true);
+            }
+
+            board.addListener(changeListener);
+
+            boards.put(boardName, board);
+
+            statistics.set("bhs!messages-on-board!" + boardName, board.size());
+
+            if (backupHost != null)
+            {
+                BoardRemoteBackupListener backupListener = new BoardRemoteBackupListener(nodeContext, backupHost, boardConfig, statistics);
+
+                board.addListener(backupListener);
+
+                // the backup still has the old contents, the resync will replace them.
+                backupListener.startResync(board);
+            }
+
+            return board;
+        }
+    }
+
+    private static void copyMessages(BulletinBoard from, BulletinBoard to)
+    {
+        PostedMessageBlock.Builder blockBuilder = new PostedMessageBlock.Builder(COPY_BLOCK_SIZE);
+
+        for (PostedMessage message : from)
+        {
+            blockBuilder.add(message.getIndex(), message.getMessage(), message.getCommitment());
+
+            if (blockBuilder.isFull())
+            {
+                to.postMessageBlock(blockBuilder.build());
+                blockBuilder.clear();
+            }
+        }
+
+        if (!blockBuilder.isEmpty())
+        {
+            to.postMessageBlock(blockBuilder.build());
+        }
+    }
+
+    private void reopenAfterFailedPromotion(String boardName, String transitName, File homeFile, File transitFile)
+    {
+        BulletinBoard homeBoard = openBoard(boardName, homeFile, nodeContext.getDecoupler(Decoupler.BOARD_LISTENER), true);
+
+        homeBoard.addListener(changeListener);
+        if (homeBoard.getBackupHost() != null)
+        {
+            homeBoard.addListener(new BoardRemoteBackupListener(nodeContext, homeBoard.getBackupHost(), boardConfig, statistics));
+        }
+
+        boards.put(boardName, homeBoard);
+        transitBoards.put(transitName, openLazily(boardName, transitFile));
+    }
+
+    /**
+     * Finish, or roll back, any promotions interrupted by the node stopping. The hosted board's files are kept
+     * under the name of the transit board replacing them, so we can tell which boards were involved.
+     */
+    private void recoverPromotions()
+    {
+        File supersededDir = new File(workingDirectory, SUPERSEDED_DIRECTORY);
+        String[] fileNames = supersededDir.list();
+
+        if (fileNames == null)
+        {
+            return;
+        }
+
+        Set<String> transitNames = new HashSet<>();
+        for (String fileName : fileNames)
+        {
+            transitNames.add(fileName.replaceAll("\\.[pt]$", ""));
+        }
+
+        for (String transitName : transitNames)
+        {
+            File supersededFile = new File(supersededDir, transitName);
+            File homeFile = deriveBoardFile(transitName.substring(transitName.indexOf('.') + 1, transitName.lastIndexOf('.')));
+            File transitFile = deriveBoardFile(transitName);
+            boolean isRecovered;
+
+            if (!supersededFile.exists())
+            {
+                // stopped while moving the hosted board aside.
+                isRecovered = moveBoardFiles(supersededFile, homeFile);
+            }
+            else if (homeFile.exists())
+            {
+                // the transit board made it into place.
+                deleteBoardFiles(supersededFile);
+                isRecovered = true;
+            }
+            else if (deriveBoardFile(transitName + ARCHIVE_SUFFIX).exists())
+            {
+                // stopped while moving the transit board into place, its transcript is already archived so carry on.
+                isRecovered = moveBoardFiles(transitFile, homeFile);
+                if (isRecovered)
+                {
+                    deleteBoardFiles(supersededFile);
+                }
+            }
+            else
+            {
+                // stopped before the transcript was archived, put the hosted board back.
+                isRecovered = moveBoardFiles(homeFile, transitFile) && moveBoardFiles(supersededFile, homeFile);
+            }
+
+            if (!isRecovered)
+            {
+                nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Unable to recover promotion of transit board " + transitName);
+            }
+        }
+    }
+
+    private static boolean moveBoardFiles(File from, File to)
+    {
+        boolean isMoved = true;
+
+        for (String suffix : BOARD_FILE_SUFFIXES)
+        {
+            File fromFile = new File(from.getPath() + suffix);
+
+            if (fromFile.exists())
+            {
+                isMoved &= fromFile.renameTo(new File(to.getPath() + suffix));
+            }
+        }
+
+        return isMoved;
+    }
+
+    private static void deleteBoardFiles(File file)
+    {
+        for (String suffix : BOARD_FILE_SUFFIXES)
+        {
+            delete(new File(file.getPath() + suffix));
+        }
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    /**
+     * Open the hosted boards found at start up in parallel, re-instating any backup listeners.
+     *
+     * @param boardFiles the files, or directories, the boards are stored in.
+     */
+    private void openHostedBoards(List<File> boardFiles)
+    {
+        if (boardFiles.isEmpty())
+        {
+            return;
+        }
+
+        ExecutorService openExecutor = Executors.newFixedThreadPool(Math.min(boardConfig.getOpenThreads(), boardFiles.size()));
+        Map<String, Future<BulletinBoard>> openTasks = new LinkedHashMap<>();
+
+        try
+        {
+            for (final File file : boardFiles)
+            {
+                openTasks.put(file.getName(), openExecutor.submit(new Callable<BulletinBoard>()
+                {
+                    @Override
+                    public BulletinBoard call()
+                        throws Exception
+                    {
+                        long start = System.currentTimeMillis();
+
+                        BulletinBoard board = openBoard(file.getName(), file, boardUpdateExecutor, true);
+
+                        reportOpenTime(file.getName(), start);
+
+                        return board;
+                    }
+                }));
+            }
+
+            for (Map.Entry<String, Future<BulletinBoard>> entry : openTasks.entrySet())
+            {
+                BulletinBoard hostedBoard;
+
+                try
+                {
+                    hostedBoard = entry.getValue().get();
+                }
+                catch (ExecutionException e)
+                {
+                    nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Unable to open board " + entry.getKey() + ": " + e.getCause().getMessage(), e.getCause());
+                    continue;
+                }
+
+                boards.put(entry.getKey(), hostedBoard);
+
+                if (hostedBoard.isPointCompressed())
+                {
+                    pointCompressedBoards.add(entry.getKey());
+                }
+
+                // re-instate the back up listener if needed.
+                if (hostedBoard.getBackupHost() != null)
+                {
+                    BoardRemoteBackupListener backupListener = new BoardRemoteBackupListener(nodeContext, hostedBoard.getBackupHost(), boardConfig, statistics);
+
+                    hostedBoard.addListener(backupListener);
+
+                    // the backup may have missed posts while we were down.
+                    backupListener.startResync(hostedBoard);
+                }
+            }
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+        finally
+        {
+            openExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Return a board that will be opened on first use, and may be closed again if it has not been used recently.
+     * Boards held in memory are opened straight away as they could not be reopened.
+     *
+     * @param boardName the name of the board.
+     * @param boardFile the file, or directory, the board is stored in, null if the board is held in memory.
+     * @return the board.
+     */
+    private BulletinBoard openLazily(final String boardName, final File boardFile)
+    {
+        if (boardFile == null)
+        {
+            return openBoard(boardName, null, nodeContext.getDecoupler(Decoupler.BOARD_LISTENER), false);
+        }
+
+        return new LazyBulletinBoard(boardName, new LazyBulletinBoard.Opener()
+        {
+            @Override
+            public BulletinBoard open()
+            {
+                long start = System.currentTimeMillis();
+
+                BulletinBoard board = openBoard(boardName, boardFile, nodeContext.getDecoupler(Decoupler.BOARD_LISTENER), false);
+
+                reportOpenTime(boardFile.getName(), start);
+
+                return board;
+            }
+        }, handleCache);
+    }
+
+    private BulletinBoard openArchive(final String boardName, final File archiveFile)
+    {
+        return new LazyBulletinBoard(boardName, new LazyBulletinBoard.Opener()
+        {
+            @Override
+            public BulletinBoard open()
+            {
+                try
+                {
+                    return new ArchivedBulletinBoard(boardName, archiveFile);
+                }
+                catch (IOException e)
+                {
+                    throw new IllegalStateException("Unable to open archive " + archiveFile.getPath() + ": " + e.getMessage(), e);
+                }
+            }
+        }, handleCache);
+    }
+
+    private void reportOpenTime(String name, long start)
+    {
+        statistics.set("bhs!board-open-ms!" + name, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Open a board using the storage engine it was created with, or the configured engine if the board is new.
+     * An existing directory is a log board, an existing file is a MapDB board.
+     *
+     * @param boardName the name of the board.
+     * @param boardFile the file, or directory, the board is stored in, null if the board is held in memory.
+     * @param executor the executor for listener notifications.
+     * @param isHosted true if this is a board we host, in which case posts may be committed in groups.
+     * @return the opened board.
+     */
+    private BulletinBoard openBoard(String boardName, File boardFile, Executor executor, boolean isHosted)
+    {
+        BulletinBoardConfig.StorageEngine engine;
+
+        if (boardFile != null && boardFile.isDirectory())
+        {
+            engine = BulletinBoardConfig.StorageEngine.LOG;
+        }
+        else if (boardFile != null && boardFile.isFile())
+        {
+            engine = BulletinBoardConfig.StorageEngine.MAPDB;
+        }
+        else
+        {
+            engine = boardConfig.getStorageEngine(boardName);
+        }
+
+        if (engine == BulletinBoardConfig.StorageEngine.LOG)
+        {
+            return new SegmentedBulletinBoard(boardName, boardFile, boardConfig.getSegmentSize(), executor, nodeContext.getEventNotifier());
+        }
+
+        if (isHosted)
+        {
+            return new BulletinBoardImpl(boardName, boardFile, executor, nodeContext.getScheduledExecutorService(), boardConfig, nodeContext.getEventNotifier());
+        }
+
+        return new BulletinBoardImpl(boardName, boardFile, executor, nodeContext.getEventNotifier());
+    }
+
     /**
      * Returns a null board file if the workingDirectory is not specified.
      * It assumes that if no workingDirectory is specified there was no intention
@@ -235,6 +762,24 @@ public class BulletinBoardRegistry
         return transforms.get(transformName).clone();
     }
 
+    /**
+     * Return a re-encryption factor for a shuffle using the passed in key, taken from the pool of precomputed
+     * factors if there is one.
+     *
+     * @param keyID the ID of the key.
+     * @param key the public key the factor is for.
+     * @return a factor which has not been used before.
+     */
+    public ReEncryptionFactor takeReEncryptionFactor(String keyID, ECPublicKeyParameters key)
+    {
+        if (factorPool != null)
+        {
+            return factorPool.take(keyID, key);
+        }
+
+        return ReEncryptionFactor.generate(key, new SecureRandom());
+    }
+
     public boolean isSuspended(String boardName)
     {
         synchronized (boards)
@@ -248,6 +793,8 @@ public class BulletinBoardRegistry
         synchronized (boards)
         {
             suspendedBoards.remove(boardName);
+
+            statusChanged();
         }
     }
 
@@ -256,6 +803,46 @@ public class BulletinBoardRegistry
         synchronized (boards)
         {
             suspendedBoards.add(boardName);
+
+            statusChanged();
+        }
+    }
+
+    /**
+     * Return whether EC points produced for the passed in board should be written in compressed form.
+     *
+     * @param boardName the name of the board.
+     * @return true if points should be compressed, false otherwise.
+     */
+    public boolean isPointCompressed(String boardName)
+    {
+        synchronized (boards)
+        {
+            return pointCompressedBoards.contains(boardName);
+        }
+    }
+
+    /**
+     * Set whether EC points produced for the passed in hosted board should be written in compressed form. The
+     * setting is stored with the board, and passed on to its backup.
+     *
+     * @param boardName the name of the board.
+     * @param pointCompression true if points should be compressed, false otherwise.
+     */
+    public void setPointCompression(String boardName, boolean pointCompression)
+    {
+        synchronized (boards)
+        {
+            boards.get(boardName).setPointCompression(pointCompression);
+
+            if (pointCompression)
+            {
+                pointCompressedBoards.add(boardName);
+            }
+            else
+            {
+                pointCompressedBoards.remove(boardName);
+            }
         }
     }
 
@@ -264,6 +851,116 @@ public class BulletinBoardRegistry
         return isDownloadLocked(boardName) || isShuffleLocked(boardName) || isSuspended(boardName);
     }
 
+    /**
+     * Return whether messages can be taken off the passed in board, by a download or a shuffle. Unlike a post, which
+     * only adds messages beyond the end of any open snapshot, this also has to wait for the board's snapshots to close.
+     *
+     * @param boardName the name of the board.
+     * @return true if the board is locked or pinned by a snapshot, false otherwise.
+     */
+    public boolean isRemovalLocked(String boardName)
+    {
+        return isLocked(boardName) || isSnapshotPinned(boardName);
+    }
+
+    /**
+     * Open a snapshot of a hosted board. The board stays pinned until every snapshot of it has been closed, or
+     * has gone unread for longer than the configured idle timeout. Posts to a pinned board are still accepted,
+     * but it cannot be download or shuffle locked.
+     *
+     * @param boardName the name of the board.
+     * @return the new snapshot.
+     */
+    public BoardSnapshot openSnapshot(String boardName)
+    {
+        BulletinBoard board = getBoard(boardName);
+        MerkleTree tree = board.getMerkleTree();
+
+        synchronized (boards)
+        {
+            BoardSnapshot snapshot = new BoardSnapshot(snapshotCounter.incrementAndGet(), boardName, tree.getLimit(), board.size(), tree.getRootHash());
+
+            snapshots.put(snapshot.getSnapshotID(), snapshot);
+
+            statistics.increment("bhs!open-snapshots!" + boardName);
+
+            return snapshot;
+        }
+    }
+
+    /**
+     * Return the snapshot with the passed in ID, marking it as in use.
+     *
+     * @param snapshotID the ID of the snapshot.
+     * @return the snapshot, null if it is unknown or has been released.
+     */
+    public BoardSnapshot getSnapshot(long snapshotID)
+    {
+        synchronized (boards)
+        {
+            releaseIdleSnapshots();
+
+            BoardSnapshot snapshot = snapshots.get(snapshotID);
+
+            if (snapshot != null)
+            {
+                snapshot.touch();
+            }
+
+            return snapshot;
+        }
+    }
+
+    public void closeSnapshot(long snapshotID)
+    {
+        synchronized (boards)
+        {
+            BoardSnapshot snapshot = snapshots.remove(snapshotID);
+
+            if (snapshot != null)
+            {
+                statistics.decrement("bhs!open-snapshots!" + snapshot.getBoardName());
+
+                statusChanged();
+            }
+        }
+    }
+
+    public boolean isSnapshotPinned(String boardName)
+    {
+        synchronized (boards)
+        {
+            releaseIdleSnapshots();
+
+            for (BoardSnapshot snapshot : snapshots.values())
+            {
+                if (snapshot.getBoardName().equals(boardName))
+                {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    // snapshots left by clients that never came back are released the next time anyone looks at them.
+    private void releaseIdleSnapshots()
+    {
+        long now = System.currentTimeMillis();
+
+        for (Iterator<BoardSnapshot> it = snapshots.values().iterator(); it.hasNext();)
+        {
+            BoardSnapshot snapshot = it.next();
+
+            if (snapshot.isIdle(now, boardConfig.getSnapshotIdleTimeout()))
+            {
+                it.remove();
+                statistics.decrement("bhs!open-snapshots!" + snapshot.getBoardName());
+            }
+        }
+    }
+
     public boolean isDownloadLocked(String boardName)
     {
         synchronized (boards)
@@ -277,6 +974,8 @@ public class BulletinBoardRegistry
         synchronized (boards)
         {
             dowloadLockedBoards.add(boardName);
+
+            statusChanged();
         }
     }
 
@@ -285,6 +984,8 @@ public class BulletinBoardRegistry
         synchronized (boards)
         {
             dowloadLockedBoards.remove(boardName);
+
+            statusChanged();
         }
     }
 
@@ -301,6 +1002,8 @@ public class BulletinBoardRegistry
         synchronized (boards)
         {
             shuffleLockedBoards.add(boardName);
+
+            statusChanged();
         }
     }
 
@@ -309,6 +1012,8 @@ public class BulletinBoardRegistry
         synchronized (boards)
         {
             shuffleLockedBoards.remove(boardName);
+
+            statusChanged();
         }
     }
 
@@ -321,6 +1026,19 @@ public class BulletinBoardRegistry
     }
 
     public BulletinBoard createBackupBoard(String boardName)
+    {
+        return createBackupBoard(boardName, false);
+    }
+
+    /**
+     * Create, or find, the backup of a board hosted elsewhere, recording the hosted board's point compression
+     * setting with it.
+     *
+     * @param boardName the name of the board.
+     * @param pointCompression true if EC points produced for the board should be compressed, false otherwise.
+     * @return the backup board.
+     */
+    public BulletinBoard createBackupBoard(String boardName, boolean pointCompression)
     {
         synchronized (boards)
         {
@@ -329,11 +1047,13 @@ public class BulletinBoardRegistry
             // TODO: need to detect twice!
             if (board == null)
             {
-                board = new BulletinBoardImpl(boardName, deriveBoardFile(boardName + ".backup"), nodeContext.getDecoupler(Decoupler.BOARD_LISTENER), nodeContext.getEventNotifier());
+                board = openLazily(boardName, deriveBoardFile(boardName + ".backup"));
 
                 backupBoards.put(boardName, board);
             }
 
+            board.setPointCompression(pointCompression);
+
             return board;
         }
     }
@@ -352,21 +1072,104 @@ public class BulletinBoardRegistry
     {
         synchronized (boards)
         {
-            List<String> transitBoardNames = getTransitBoardNames(operationNumber);
-            String suffix = "." + stepNumber;
+            return transitBoards.get(findTransitBoardName(operationNumber, stepNumber));
+        }
+    }
+
+    private String findTransitBoardName(long operationNumber, int stepNumber)
+    {
+        List<String> transitBoardNames = getTransitBoardNames(operationNumber);
+        String suffix = "." + stepNumber;
+
+        for (String name : transitBoardNames)
+        {
+            if (name.endsWith(suffix))
+            {
+                return name;
+            }
+        }
+
+        throw new IllegalStateException("unable to find board for operation " + operationNumber);
+    }
+
+    /**
+     * Note that a transcript download from a transit board has run to completion.
+     *
+     * @param operationNumber the number of the shuffle operation.
+     * @param stepNumber the step number of the transit board.
+     * @param transcriptType the type of transcript that was downloaded.
+     * @return true if every type of transcript has now been downloaded and the board is due to be archived.
+     */
+    public boolean transcriptDownloaded(long operationNumber, int stepNumber, TranscriptType transcriptType)
+    {
+        if (!boardConfig.isArchiveTransitBoards() || workingDirectory == null)
+        {
+            return false;
+        }
+
+        synchronized (boards)
+        {
+            String transitName = findTransitBoardName(operationNumber, stepNumber);
 
-            for (String name : transitBoardNames)
+            if (archivedBoards.contains(transitName))
             {
-                if (name.endsWith(suffix))
-                {
-                    return transitBoards.get(name);
-                }
+                return false;
+            }
+
+            Set<TranscriptType> downloaded = downloadedTranscripts.get(transitName);
+            if (downloaded == null)
+            {
+                downloaded = EnumSet.noneOf(TranscriptType.class);
+                downloadedTranscripts.put(transitName, downloaded);
             }
 
-            throw new IllegalStateException("unable to find board for operation " + operationNumber);
+            downloaded.add(transcriptType);
+
+            return downloaded.size() == TranscriptType.values().length;
         }
     }
 
+    /**
+     * Replace a finished transit board with a compact read-only archive of its transcripts, then close and delete
+     * the transit board. The caller needs to make sure nothing else is using the board while this is going on.
+     *
+     * @param operationNumber the number of the shuffle operation.
+     * @param stepNumber the step number of the transit board.
+     * @throws IOException if the archive cannot be written.
+     */
+    public void archiveTransitBoard(long operationNumber, int stepNumber)
+        throws IOException
+    {
+        String transitName;
+        BulletinBoard transitBoard;
+
+        synchronized (boards)
+        {
+            transitName = findTransitBoardName(operationNumber, stepNumber);
+
+            if (workingDirectory == null || archivedBoards.contains(transitName))
+            {
+                return;
+            }
+
+            transitBoard = transitBoards.get(transitName);
+        }
+
+        File archiveFile = deriveBoardFile(transitName + ARCHIVE_SUFFIX);
+
+        ArchivedBulletinBoard.write(transitBoard, archiveFile);
+
+        synchronized (boards)
+        {
+            transitBoards.put(transitName, openArchive(transitBoard.getName(), archiveFile));
+            archivedBoards.add(transitName);
+            downloadedTranscripts.remove(transitName);
+        }
+
+        transitBoard.shutdown();
+        deleteBoardFiles(deriveBoardFile(transitName));
+    }
+
     public BulletinBoard getTransitBoard(long operationNumber, String boardName, int stepNumber)
     {
         synchronized (boards)
@@ -377,7 +1180,7 @@ public class BulletinBoardRegistry
             // TODO: need to detect twice!
             if (board == null)
             {
-                board = new BulletinBoardImpl(boardName, deriveBoardFile(transitBoardName), nodeContext.getDecoupler(Decoupler.BOARD_LISTENER), nodeContext.getEventNotifier());
+                board = openLazily(boardName, deriveBoardFile(transitBoardName));
 
                 transitBoards.put(transitBoardName, board);
             }
@@ -394,6 +1197,8 @@ public class BulletinBoardRegistry
 
             inTransitBoards.add(transitName);
             completedBoards.remove(transitName);
+
+            statusChanged();
         }
     }
 
@@ -405,6 +1210,8 @@ public class BulletinBoardRegistry
 
             completedBoards.add(transitName);
             inTransitBoards.remove(transitName);
+
+            statusChanged();
         }
     }
 
@@ -428,6 +1235,144 @@ public class BulletinBoardRegistry
         }
     }
 
+    /**
+     * Return a transit board if it is already known to the registry, without creating it.
+     *
+     * @param operationNumber the operation the transit board belongs to.
+     * @param boardName the name of the board the transit board is associated with.
+     * @param stepNumber the step in the operation the transit board is for.
+     * @return the transit board, null if there isn't one.
+     */
+    public BulletinBoard findTransitBoard(long operationNumber, String boardName, int stepNumber)
+    {
+        synchronized (boards)
+        {
+            return transitBoards.get(getTransitBoardName(operationNumber, boardName, stepNumber));
+        }
+    }
+
+    /**
+     * Wait up to timeout milliseconds for a transit board to reach the passed in status, then pass the board's status
+     * to the listener. The wait does not hold up the calling thread.
+     *
+     * @param operationNumber the operation the transit board belongs to.
+     * @param boardName the name of the board the transit board is associated with.
+     * @param stepNumber the step in the operation the transit board is for.
+     * @param status the status to wait for.
+     * @param timeout the maximum time to wait in milliseconds.
+     * @param listener the listener to pass the status of the transit board to at the end of the wait.
+     */
+    public void awaitTransitStatus(long operationNumber, String boardName, int stepNumber, BoardStatusMessage.Status status, long timeout, BoardStatusListener listener)
+    {
+        final String transitName = getTransitBoardName(operationNumber, boardName, stepNumber);
+
+        addStatusWaiter(new StatusWaiter(status, listener)
+        {
+            @Override
+            BoardStatusMessage.Status currentStatus()
+            {
+                if (inTransitBoards.contains(transitName))
+                {
+                    return BoardStatusMessage.Status.IN_TRANSIT;
+                }
+                else if (completedBoards.contains(transitName))
+                {
+                    return BoardStatusMessage.Status.COMPLETE;
+                }
+
+                return BoardStatusMessage.Status.UNKNOWN;
+            }
+        }, timeout);
+    }
+
+    /**
+     * Wait up to timeout milliseconds for a hosted board to reach the passed in status, then pass the board's status
+     * to the listener. A locked board is reported as IN_TRANSIT, an unlocked one as COMPLETE. The wait does not hold
+     * up the calling thread.
+     *
+     * @param boardName the name of the hosted board.
+     * @param status the status to wait for.
+     * @param timeout the maximum time to wait in milliseconds.
+     * @param listener the listener to pass the status of the board to at the end of the wait.
+     */
+    public void awaitHostedStatus(final String boardName, BoardStatusMessage.Status status, long timeout, BoardStatusListener listener)
+    {
+        addStatusWaiter(new StatusWaiter(status, listener)
+        {
+            @Override
+            BoardStatusMessage.Status currentStatus()
+            {
+                return isLocked(boardName) ? BoardStatusMessage.Status.IN_TRANSIT : BoardStatusMessage.Status.COMPLETE;
+            }
+        }, timeout);
+    }
+
+    private void addStatusWaiter(final StatusWaiter waiter, long timeout)
+    {
+        BoardStatusMessage.Status current;
+
+        synchronized (boards)
+        {
+            current = waiter.currentStatus();
+
+            if (current != waiter.status && timeout > 0)
+            {
+                statusWaiters.add(waiter);
+
+                waiter.timeoutFuture = nodeContext.getScheduledExecutorService().schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        BoardStatusMessage.Status current;
+
+                        synchronized (boards)
+                        {
+                            if (!statusWaiters.remove(waiter))
+                            {
+                                return;      // already reached its status.
+                            }
+
+                            current = waiter.currentStatus();
+                        }
+
+                        waiter.listener.statusReached(current);
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+
+                return;
+            }
+        }
+
+        waiter.listener.statusReached(current);
+    }
+
+    // called with the boards lock held whenever a lock, transit, or completion status changes.
+    private void statusChanged()
+    {
+        for (Iterator<StatusWaiter> it = statusWaiters.iterator(); it.hasNext();)
+        {
+            final StatusWaiter waiter = it.next();
+            final BoardStatusMessage.Status current = waiter.currentStatus();
+
+            if (current == waiter.status)
+            {
+                it.remove();
+                waiter.timeoutFuture.cancel(false);
+
+                // the listener is called on another thread so it isn't run with the boards lock held.
+                nodeContext.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        waiter.listener.statusReached(current);
+                    }
+                });
+            }
+        }
+    }
+
     private String getTransitBoardName(long operationNumber, String boardName, int stepNumber)
     {
         return operationNumber + "." + boardName + "." + stepNumber;
@@ -448,4 +1393,21 @@ public class BulletinBoardRegistry
 
         return names;
     }
+
+    private abstract static class StatusWaiter
+    {
+        final BoardStatusMessage.Status status;
+        final BoardStatusListener listener;
+
+        ScheduledFuture<?> timeoutFuture;
+
+        StatusWaiter(BoardStatusMessage.Status status, BoardStatusListener listener)
+        {
+            this.status = status;
+            this.listener = listener;
+        }
+
+        // called with the boards lock held.
+        abstract BoardStatusMessage.Status currentStatus();
+    }
 }
@@ -0,0 +1,541 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.cryptoworkshop.ximix.common.asn1.message.MessageWitnessBlock;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
+import org.cryptoworkshop.ximix.common.asn1.message.TranscriptBlock;
+import org.cryptoworkshop.ximix.common.util.IndexNumberGenerator;
+import org.cryptoworkshop.ximix.common.util.ListenerHandler;
+import org.cryptoworkshop.ximix.common.util.TranscriptType;
+
+/**
+ * A board which is only opened when it is first used, and which can be closed again by a BoardHandleCache when it
+ * has not been used for a while. Boards held in memory cannot be reopened so should never be wrapped in one of these.
+ * <p>
+ * A board with an iterator in progress is never closed. Listeners are remembered and added again whenever the
+ * board is reopened.
+ * </p>
+ */
+class LazyBulletinBoard
+    implements BulletinBoard
+{
+    /**
+     * Opener for the underlying board.
+     */
+    interface Opener
+    {
+        BulletinBoard open();
+    }
+
+    private final String boardName;
+    private final Opener opener;
+    private final BoardHandleCache handleCache;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicInteger activeIterators = new AtomicInteger(0);
+    private final List<BulletinBoardBackupListener> backupListeners = new ArrayList<>();
+    private final List<BulletinBoardChangeListener> changeListeners = new ArrayList<>();
+
+    private BulletinBoard board;
+    private boolean isShutdown;
+
+    /**
+     * Base constructor.
+     *
+     * @param boardName the name of the board.
+     * @param opener the opener for the board.
+     * @param handleCache the cache tracking open boards.
+     */
+    LazyBulletinBoard(String boardName, Opener opener, BoardHandleCache handleCache)
+    {
+        this.boardName = boardName;
+        this.opener = opener;
+        this.handleCache = handleCache;
+    }
+
+    /**
+     * Close the underlying board if it is not in use, it will be reopened when next needed.
+     *
+     * @return true if the board is now closed, false if it is busy.
+     */
+    boolean close()
+    {
+        if (activeIterators.get() != 0 || !lock.writeLock().tryLock())
+        {
+            return false;
+        }
+
+        try
+        {
+            if (board != null)
+            {
+                board.shutdown();
+                board = null;
+            }
+
+            return true;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private BulletinBoard acquire()
+    {
+        lock.readLock().lock();
+
+        if (board != null)
+        {
+            handleCache.touched(this);
+
+            return board;
+        }
+
+        lock.readLock().unlock();
+        lock.writeLock().lock();
+
+        try
+        {
+            if (isShutdown)
+            {
+                throw new IllegalStateException("board " + boardName + " has been shut down");
+            }
+
+            if (board == null)
+            {
+                board = opener.open();
+
+                for (BulletinBoardBackupListener listener : backupListeners)
+                {
+                    board.addListener(listener);
+                }
+                for (BulletinBoardChangeListener listener : changeListeners)
+                {
+                    board.addListener(listener);
+                }
+
+                handleCache.opened(this);
+            }
+
+            // downgrade, so the board cannot be closed under us.
+            lock.readLock().lock();
+
+            return board;
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void release()
+    {
+        lock.readLock().unlock();
+    }
+
+    @Override
+    public String getName()
+    {
+        return boardName;
+    }
+
+    @Override
+    public int size()
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return board.size();
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public int transcriptSize(TranscriptType transcriptType)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return board.transcriptSize(transcriptType);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public int postMessage(byte[] message)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return board.postMessage(message);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public int postMessages(byte[][] messages)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return board.postMessages(messages);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public void waitForCommit(int index)
+        throws InterruptedException
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            board.waitForCommit(index);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public void addCommitListener(int index, BulletinBoardCommitListener listener)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            board.addCommitListener(index, listener);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public void postMessageBlock(PostedMessageBlock messageBlock)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            board.postMessageBlock(messageBlock);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public PostedMessageBlock removeMessages(PostedMessageBlock.Builder blockBuilder)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return board.removeMessages(blockBuilder);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public void postWitnessBlock(MessageWitnessBlock witnessBlock)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            board.postWitnessBlock(witnessBlock);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public void clear()
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            board.clear();
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public void truncate(int limit)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            board.truncate(limit);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public void addListener(BulletinBoardBackupListener bulletinBoardBackupListener)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            synchronized (backupListeners)
+            {
+                backupListeners.add(bulletinBoardBackupListener);
+            }
+            board.addListener(bulletinBoardBackupListener);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public void addListener(BulletinBoardChangeListener listener)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            synchronized (changeListeners)
+            {
+                changeListeners.add(listener);
+            }
+            board.addListener(listener);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public void shutdown()
+    {
+        lock.writeLock().lock();
+        try
+        {
+            isShutdown = true;
+
+            if (board != null)
+            {
+                board.shutdown();
+                board = null;
+            }
+        }
+        finally
+        {
+            lock.writeLock().unlock();
+        }
+
+        handleCache.closed(this);
+    }
+
+    @Override
+    public <T> ListenerHandler<T> getListenerHandler(Class<T> listenerClass)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return board.getListenerHandler(listenerClass);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public TranscriptBlock fetchTranscriptData(TranscriptType dataClass, IndexNumberGenerator indexGenerator, TranscriptBlock.Builder responseBuilder)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return board.fetchTranscriptData(dataClass, indexGenerator, responseBuilder);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public String getBackupHost()
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return board.getBackupHost();
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public boolean isPointCompressed()
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return board.isPointCompressed();
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public void setPointCompression(boolean pointCompression)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            board.setPointCompression(pointCompression);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public MerkleTree getMerkleTree()
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return board.getMerkleTree();
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public int fetchMessages(int startIndex, int endIndex, PostedMessageBlock.Builder blockBuilder)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return board.fetchMessages(startIndex, endIndex, blockBuilder);
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public Iterator<PostedMessage> iterator()
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return pin(board.iterator());
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    @Override
+    public Iterator<PostedMessage> cursor(int startIndex, int endIndex, boolean withCommitments)
+    {
+        BulletinBoard board = acquire();
+        try
+        {
+            return pin(board.cursor(startIndex, endIndex, withCommitments));
+        }
+        finally
+        {
+            release();
+        }
+    }
+
+    /**
+     * Keep the board open until it runs out.
+     */
+    private Iterator<PostedMessage> pin(final Iterator<PostedMessage> it)
+    {
+        activeIterators.incrementAndGet();
+
+        return new Iterator<PostedMessage>()
+        {
+            private boolean isActive = true;
+
+            @Override
+            public boolean hasNext()
+            {
+                boolean hasNext = it.hasNext();
+
+                if (!hasNext && isActive)
+                {
+                    isActive = false;
+                    activeIterators.decrementAndGet();
+                }
+
+                return hasNext;
+            }
+
+            @Override
+            public PostedMessage next()
+            {
+                return it.next();
+            }
+
+            @Override
+            public void remove()
+            {
+                it.remove();
+            }
+        };
+    }
+}
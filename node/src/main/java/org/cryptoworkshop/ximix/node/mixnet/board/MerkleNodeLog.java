@@ -0,0 +1,342 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A node store for a board's Merkle tree which also keeps the nodes in a side file, so a reopened board can pick
+ * its tree up again rather than rebuilding it by hashing every message.
+ * <p>
+ * Changes are appended to the file on each commit as records of:
+ * <pre>
+ *     long key, int hashLength, byte[] hash
+ * </pre>
+ * with a hash length of -1 for a removed node, followed by a commit record with a key of Long.MIN_VALUE and the
+ * stamp the commit was made against. When the file is reopened it is replayed up to the last commit record,
+ * anything written after that is ignored.
+ * </p>
+ */
+class MerkleNodeLog
+    extends HashMap<Long, byte[]>
+{
+    private static final long COMMIT_KEY = Long.MIN_VALUE;
+    private static final int TOMBSTONE = -1;
+    private static final int RECORD_HEADER_SIZE = 12;
+
+    private final File file;
+    private final Set<Long> dirty = new LinkedHashSet<>();
+
+    private FileChannel channel;
+    private boolean isCleared;
+    private long stamp = -1;
+
+    /**
+     * Base constructor.
+     *
+     * @param file the side file for the nodes, null if the nodes are only to be held in memory.
+     * @throws IOException if the side file cannot be opened.
+     */
+    MerkleNodeLog(File file)
+        throws IOException
+    {
+        this.file = file;
+
+        if (file != null && file.exists())
+        {
+            long committedLength = replay();
+
+            // the file is written out again if it has stale records, or anything after the last commit.
+            if (file.length() != committedLength || committedLength > 2 * compactLength())
+            {
+                rewrite();
+            }
+        }
+    }
+
+    /**
+     * Return the stamp the last commit was made against.
+     *
+     * @return the stamp of the last commit, -1 if nothing has been committed.
+     */
+    synchronized long getStamp()
+    {
+        return stamp;
+    }
+
+    @Override
+    public synchronized byte[] put(Long key, byte[] value)
+    {
+        dirty.add(key);
+
+        return super.put(key, value);
+    }
+
+    @Override
+    public synchronized byte[] remove(Object key)
+    {
+        dirty.add((Long)key);
+
+        return super.remove(key);
+    }
+
+    @Override
+    public synchronized void clear()
+    {
+        dirty.clear();
+        isCleared = true;
+
+        super.clear();
+    }
+
+    /**
+     * Write out the nodes changed since the last commit, and force them to disk.
+     *
+     * @param stamp the stamp of the state the nodes now reflect.
+     */
+    synchronized void commit(long stamp)
+    {
+        this.stamp = stamp;
+
+        if (file == null)
+        {
+            dirty.clear();
+            isCleared = false;
+
+            return;
+        }
+
+        try
+        {
+            if (channel == null)
+            {
+                channel = new RandomAccessFile(file, "rw").getChannel();
+                channel.position(channel.size());
+            }
+
+            if (isCleared)
+            {
+                channel.truncate(0);
+                channel.position(0);
+                isCleared = false;
+            }
+
+            int length = RECORD_HEADER_SIZE + 8;
+            for (Long key : dirty)
+            {
+                byte[] hash = super.get(key);
+
+                length += RECORD_HEADER_SIZE + ((hash != null) ? hash.length : 0);
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(length);
+
+            for (Long key : dirty)
+            {
+                byte[] hash = super.get(key);
+
+                buf.putLong(key);
+                if (hash != null)
+                {
+                    buf.putInt(hash.length);
+                    buf.put(hash);
+                }
+                else
+                {
+                    buf.putInt(TOMBSTONE);
+                }
+            }
+
+            buf.putLong(COMMIT_KEY);
+            buf.putInt(8);
+            buf.putLong(stamp);
+
+            buf.flip();
+            while (buf.hasRemaining())
+            {
+                channel.write(buf);
+            }
+
+            channel.force(false);
+
+            dirty.clear();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to write Merkle tree to " + file.getPath() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Close the side file.
+     */
+    synchronized void close()
+    {
+        if (channel != null)
+        {
+            try
+            {
+                channel.close();
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Unable to close " + file.getPath() + ": " + e.getMessage(), e);
+            }
+
+            channel = null;
+        }
+    }
+
+    private long replay()
+        throws IOException
+    {
+        DataInputStream dIn = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        Map<Long, byte[]> pending = new HashMap<>();
+        long position = 0;
+        long committedLength = 0;
+
+        try
+        {
+            for (;;)
+            {
+                long key = dIn.readLong();
+                int length = dIn.readInt();
+
+                if (key == COMMIT_KEY)
+                {
+                    if (length != 8)
+                    {
+                        break;
+                    }
+
+                    long commitStamp = dIn.readLong();
+
+                    for (Map.Entry<Long, byte[]> entry : pending.entrySet())
+                    {
+                        if (entry.getValue() != null)
+                        {
+                            super.put(entry.getKey(), entry.getValue());
+                        }
+                        else
+                        {
+                            super.remove(entry.getKey());
+                        }
+                    }
+                    pending.clear();
+
+                    position += RECORD_HEADER_SIZE + 8;
+                    committedLength = position;
+                    stamp = commitStamp;
+                }
+                else if (length == TOMBSTONE)
+                {
+                    pending.put(key, null);
+
+                    position += RECORD_HEADER_SIZE;
+                }
+                else if (length >= 0 && length <= 64)
+                {
+                    byte[] hash = new byte[length];
+
+                    dIn.readFully(hash);
+                    pending.put(key, hash);
+
+                    position += RECORD_HEADER_SIZE + length;
+                }
+                else
+                {
+                    break;
+                }
+            }
+        }
+        catch (EOFException e)
+        {
+            // a partially written commit, anything after the last complete one is ignored.
+        }
+        finally
+        {
+            dIn.close();
+        }
+
+        return committedLength;
+    }
+
+    private long compactLength()
+    {
+        long length = RECORD_HEADER_SIZE + 8;
+
+        for (byte[] hash : values())
+        {
+            length += RECORD_HEADER_SIZE + hash.length;
+        }
+
+        return length;
+    }
+
+    private void rewrite()
+        throws IOException
+    {
+        File tmpFile = new File(file.getPath() + ".tmp");
+        FileOutputStream fOut = new FileOutputStream(tmpFile);
+        DataOutputStream dOut = new DataOutputStream(new BufferedOutputStream(fOut));
+
+        try
+        {
+            for (Map.Entry<Long, byte[]> entry : entrySet())
+            {
+                dOut.writeLong(entry.getKey());
+                dOut.writeInt(entry.getValue().length);
+                dOut.write(entry.getValue());
+            }
+
+            dOut.writeLong(COMMIT_KEY);
+            dOut.writeInt(8);
+            dOut.writeLong(stamp);
+
+            dOut.flush();
+            fOut.getFD().sync();
+            dOut.close();
+        }
+        catch (IOException e)
+        {
+            dOut.close();
+            tmpFile.delete();
+            throw e;
+        }
+
+        // some platforms will not rename over an existing file, losing the file in between only costs a rebuild.
+        if (!tmpFile.renameTo(file) && !(file.delete() && tmpFile.renameTo(file)))
+        {
+            tmpFile.delete();
+            throw new IOException("Unable to replace " + file.getPath());
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import org.bouncycastle.crypto.Digest;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.util.Pack;
+
+/**
+ * A Merkle tree over the (index, message) pairs on a board, updated incrementally as messages are posted or removed.
+ * <p>
+ * The tree is positional: leaf i is the hash of message index i, level 0 holds the leaves, and the root is
+ * at the lowest level whose span covers every index ever posted. Leaves are H(0x00 || index || message),
+ * interior nodes are H(0x01 || left || right), and absent messages hash to zeros, so two boards holding the
+ * same messages at the same indices always have the same root. Only nodes that differ from an empty subtree
+ * are kept in the node store, which can be a persistent map committed with the board.
+ * </p>
+ */
+public class MerkleTree
+{
+    private static final long LIMIT_KEY = -1L;
+    private static final int HASH_SIZE = 32;
+
+    private final Map<Long, byte[]> nodes;
+    private final Digest digest = new SHA256Digest();
+    private final List<byte[]> emptyHashes = new ArrayList<>();
+
+    private int limit;
+
+    /**
+     * Base constructor.
+     *
+     * @param nodes the store for the tree's nodes, any existing tree in the store will be picked up.
+     */
+    MerkleTree(Map<Long, byte[]> nodes)
+    {
+        this.nodes = nodes;
+
+        byte[] limitBytes = nodes.get(LIMIT_KEY);
+        if (limitBytes != null)
+        {
+            this.limit = Pack.bigEndianToInt(limitBytes, 0);
+        }
+
+        emptyHashes.add(new byte[HASH_SIZE]);
+    }
+
+    /**
+     * Return the number of leaf positions the tree has been extended to cover.
+     *
+     * @return one more than the highest index ever added.
+     */
+    public synchronized int getLimit()
+    {
+        return limit;
+    }
+
+    /**
+     * Return the level of the root node.
+     *
+     * @return the tree height.
+     */
+    public synchronized int getHeight()
+    {
+        return heightFor(limit);
+    }
+
+    /**
+     * Return the root hash of the tree.
+     *
+     * @return the root hash.
+     */
+    public synchronized byte[] getRootHash()
+    {
+        return getNodeHash(heightFor(limit), 0);
+    }
+
+    /**
+     * Return the hash of the node at position in level, where level 0 is the leaves. The children of a node
+     * at (level, position) are at (level - 1, 2 * position) and (level - 1, 2 * position + 1). Levels above the
+     * root can be asked for, so trees of different heights can be compared.
+     *
+     * @param level the level of the node.
+     * @param position the position of the node in its level.
+     * @return the node's hash.
+     */
+    public synchronized byte[] getNodeHash(int level, int position)
+    {
+        int height = heightFor(limit);
+
+        // above the root the tree is the root padded out with empty subtrees.
+        if (level > height && position == 0)
+        {
+            byte[] hash = getNodeHash(height, 0);
+
+            for (int l = height; l != level; l++)
+            {
+                hash = nodeHash(hash, emptyHash(l));
+            }
+
+            return hash;
+        }
+
+        byte[] hash = nodes.get(key(level, position));
+
+        if (hash == null)
+        {
+            return Arrays.copyOf(emptyHash(level), HASH_SIZE);
+        }
+
+        return hash;
+    }
+
+    /**
+     * Return true if this tree has no messages in it.
+     *
+     * @return true if empty, false otherwise.
+     */
+    public synchronized boolean isEmpty()
+    {
+        return !nodes.containsKey(key(heightFor(limit), 0));
+    }
+
+    /**
+     * Add a message at index.
+     *
+     * @param index the index of the message.
+     * @param message the message, null if the message at index has been removed.
+     */
+    synchronized void update(int index, byte[] message)
+    {
+        update(new int[] { index }, new byte[][] { message });
+    }
+
+    /**
+     * Add a batch of messages, rehashing each affected interior node once.
+     *
+     * @param indices the indices of the messages.
+     * @param messages the messages, a null entry means the message at that index has been removed.
+     */
+    synchronized void update(int[] indices, byte[][] messages)
+    {
+        int oldHeight = heightFor(limit);
+        SortedSet<Integer> dirty = new TreeSet<>();
+
+        for (int i = 0; i != indices.length; i++)
+        {
+            int index = indices[i];
+
+            if (index >= limit)
+            {
+                limit = index + 1;
+            }
+
+            if (messages[i] != null)
+            {
+                nodes.put(key(0, index), leafHash(index, messages[i]));
+            }
+            else
+            {
+                nodes.remove(key(0, index));
+            }
+
+            dirty.add(index);
+        }
+
+        int height = heightFor(limit);
+
+        for (int level = 1; level <= height; level++)
+        {
+            SortedSet<Integer> parents = new TreeSet<>();
+
+            for (int position : dirty)
+            {
+                parents.add(position >>> 1);
+            }
+
+            // the left edge is new if the tree has grown.
+            if (level > oldHeight)
+            {
+                parents.add(0);
+            }
+
+            for (int position : parents)
+            {
+                byte[] hash = nodeHash(getNodeHash(level - 1, 2 * position), getNodeHash(level - 1, 2 * position + 1));
+
+                if (Arrays.equals(hash, emptyHash(level)))
+                {
+                    nodes.remove(key(level, position));
+                }
+                else
+                {
+                    nodes.put(key(level, position), hash);
+                }
+            }
+
+            dirty = parents;
+        }
+
+        nodes.put(LIMIT_KEY, Pack.intToBigEndian(limit));
+    }
+
+    /**
+     * Cut the tree back so it covers only the indices below newLimit.
+     *
+     * @param newLimit the new limit for the tree.
+     * @param removed the indices at or above newLimit that still had messages, and have now been removed.
+     */
+    synchronized void truncate(int newLimit, int[] removed)
+    {
+        if (newLimit >= limit)
+        {
+            return;
+        }
+
+        if (removed.length != 0)
+        {
+            update(removed, new byte[removed.length][]);
+        }
+
+        // with nothing left above newLimit, the nodes on the left edge above the new root are the only ones left.
+        int oldHeight = heightFor(limit);
+        for (int level = heightFor(newLimit) + 1; level <= oldHeight; level++)
+        {
+            nodes.remove(key(level, 0));
+        }
+
+        limit = newLimit;
+
+        nodes.put(LIMIT_KEY, Pack.intToBigEndian(limit));
+    }
+
+    /**
+     * Remove all the nodes from the tree.
+     */
+    synchronized void clear()
+    {
+        nodes.clear();
+        limit = 0;
+    }
+
+    /**
+     * Return the hash for a leaf.
+     *
+     * @param index the index of the message.
+     * @param message the message.
+     * @return H(0x00 || index || message)
+     */
+    public static byte[] leafHash(int index, byte[] message)
+    {
+        Digest digest = new SHA256Digest();
+        byte[] hash = new byte[digest.getDigestSize()];
+
+        digest.update((byte)0x00);
+        digest.update(Pack.intToBigEndian(index), 0, 4);
+        digest.update(message, 0, message.length);
+
+        digest.doFinal(hash, 0);
+
+        return hash;
+    }
+
+    private byte[] nodeHash(byte[] left, byte[] right)
+    {
+        byte[] hash = new byte[digest.getDigestSize()];
+
+        digest.update((byte)0x01);
+        digest.update(left, 0, left.length);
+        digest.update(right, 0, right.length);
+
+        digest.doFinal(hash, 0);
+
+        return hash;
+    }
+
+    private byte[] emptyHash(int level)
+    {
+        while (emptyHashes.size() <= level)
+        {
+            byte[] below = emptyHashes.get(emptyHashes.size() - 1);
+
+            emptyHashes.add(nodeHash(below, below));
+        }
+
+        return emptyHashes.get(level);
+    }
+
+    private static int heightFor(int limit)
+    {
+        if (limit <= 1)
+        {
+            return 0;
+        }
+
+        return 32 - Integer.numberOfLeadingZeros(limit - 1);
+    }
+
+    private static long key(int level, int position)
+    {
+        return ((long)level << 32) | (position & 0xffffffffL);
+    }
+}
@@ -0,0 +1,657 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cryptoworkshop.ximix.common.asn1.message.MessageWitness;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageWitnessBlock;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedData;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
+import org.cryptoworkshop.ximix.common.asn1.message.TranscriptBlock;
+import org.cryptoworkshop.ximix.common.util.DecoupledListenerHandlerFactory;
+import org.cryptoworkshop.ximix.common.util.EventNotifier;
+import org.cryptoworkshop.ximix.common.util.IndexNumberGenerator;
+import org.cryptoworkshop.ximix.common.util.ListenerHandler;
+import org.cryptoworkshop.ximix.common.util.TranscriptType;
+
+/**
+ * A bulletin board stored in append only, memory mapped, segment files. Boards only ever have messages
+ * appended, read in order, or cleared, so rather than maintaining a B-tree this board keeps a primitive index
+ * of where the latest record for each message index is. The board is stored in a directory named after the board
+ * and every post is forced to disk before the call returns. The board's Merkle tree is held in memory, with its
+ * nodes also written to a side file after each change to the log. The tree is only rebuilt from the log when the
+ * board is opened and the side file is missing, or was not brought up to date with the log's last change.
+ */
+public class SegmentedBulletinBoard
+    implements BulletinBoard
+{
+    private static final String BACKUP_HOST = "backup.host";
+    private static final String POINT_COMPRESSION = "point.compression";
+    private static final String PROPERTIES_FILE = "board.properties";
+    private static final String MESSAGES = "messages";
+    private static final String WITNESSES = "witnesses";
+    private static final String MERKLE_TREE = "merkle";
+    private static final int REBUILD_BLOCK_SIZE = 1000;
+
+    private final String boardName;
+    private final File workingDirectory;
+    private final SegmentedLog messageLog;
+    private final SegmentedLog witnessLog;
+    private final Properties properties = new Properties();
+    private final MerkleNodeLog merkleNodes;
+    private final MerkleTree merkleTree;
+
+    private final ListenerHandler<BulletinBoardBackupListener> backupListenerHandler;
+    private final ListenerHandler<BulletinBoardChangeListener> changeListenerHandler;
+
+    private final BulletinBoardBackupListener backupNotifier;
+    private final BulletinBoardChangeListener changeNotifier;
+
+    private final AtomicInteger minimumIndex = new AtomicInteger(0);
+    private final AtomicInteger nextIndex = new AtomicInteger(0);
+
+    /**
+     * Base constructor.
+     *
+     * @param boardName the name of the board.
+     * @param workingDirectory the directory to store the board in, null if the board is only to be held in memory.
+     * @param segmentSize the size of the segment files in bytes.
+     * @param executor the executor for listener notifications.
+     * @param eventNotifier the notifier for logging errors.
+     */
+    public SegmentedBulletinBoard(String boardName, File workingDirectory, int segmentSize, Executor executor, EventNotifier eventNotifier)
+    {
+        this.boardName = boardName;
+        this.workingDirectory = workingDirectory;
+
+        try
+        {
+            if (workingDirectory != null)
+            {
+                if (!workingDirectory.exists() && !workingDirectory.mkdirs())
+                {
+                    throw new IOException("Unable to create board directory: " + workingDirectory.getPath());
+                }
+
+                File propertiesFile = new File(workingDirectory, PROPERTIES_FILE);
+                if (propertiesFile.exists())
+                {
+                    InputStream pIn = new FileInputStream(propertiesFile);
+
+                    properties.load(pIn);
+
+                    pIn.close();
+                }
+            }
+
+            this.messageLog = new SegmentedLog(workingDirectory, MESSAGES, segmentSize);
+            this.witnessLog = new SegmentedLog(workingDirectory, WITNESSES, segmentSize);
+            this.merkleNodes = new MerkleNodeLog((workingDirectory != null) ? new File(workingDirectory, MERKLE_TREE) : null);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to open board " + boardName + ": " + e.getMessage(), e);
+        }
+
+        minimumIndex.set(messageLog.firstIndex());
+
+        // a truncate leaves removal records at the end of the log, they don't count towards the board's size.
+        int limit = messageLog.limit();
+        while (limit > minimumIndex.get() && !messageLog.contains(limit - 1))
+        {
+            limit--;
+        }
+        nextIndex.set(limit);
+
+        // the side file is stamped with where the log ended when it was written, any other stamp means it is stale.
+        long endPosition = messageLog.endPosition();
+        boolean isRebuilt = merkleNodes.getStamp() != endPosition;
+
+        if (isRebuilt)
+        {
+            merkleNodes.clear();
+        }
+
+        this.merkleTree = new MerkleTree(merkleNodes);
+
+        if (isRebuilt)
+        {
+            for (int start = minimumIndex.get(); start < nextIndex.get(); start += REBUILD_BLOCK_SIZE)
+            {
+                int count = Math.min(REBUILD_BLOCK_SIZE, nextIndex.get() - start);
+                int[] indices = new int[count];
+                byte[][] data = new byte[count][];
+
+                for (int i = 0; i != count; i++)
+                {
+                    indices[i] = start + i;
+                    data[i] = messageLog.getData(start + i);
+                }
+
+                merkleTree.update(indices, data);
+            }
+
+            merkleNodes.commit(endPosition);
+        }
+
+        this.backupListenerHandler = new DecoupledListenerHandlerFactory(executor, eventNotifier).createHandler(BulletinBoardBackupListener.class);
+        this.changeListenerHandler = new DecoupledListenerHandlerFactory(executor, eventNotifier).createHandler(BulletinBoardChangeListener.class);
+
+        this.backupNotifier = backupListenerHandler.getNotifier();
+        this.changeNotifier = changeListenerHandler.getNotifier();
+    }
+
+    @Override
+    public void addListener(BulletinBoardBackupListener bulletinBoardBackupListener)
+    {
+        if (bulletinBoardBackupListener instanceof BoardRemoteBackupListener)
+        {
+            properties.setProperty(BACKUP_HOST, ((BoardRemoteBackupListener)bulletinBoardBackupListener).getBackupHost());
+            saveProperties();
+        }
+
+        backupListenerHandler.addListener(bulletinBoardBackupListener);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> ListenerHandler<T> getListenerHandler(Class<T> listenerClass)
+    {
+        // only an exact match is asked for, so T is the handler's own listener type and the casts are safe.
+        if (listenerClass == BulletinBoardBackupListener.class)
+        {
+            return (ListenerHandler<T>)backupListenerHandler;
+        }
+        else if (listenerClass == BulletinBoardChangeListener.class)
+        {
+            return (ListenerHandler<T>)changeListenerHandler;
+        }
+
+        throw new IllegalStateException("unknown handler requested");
+    }
+
+    @Override
+    public void addListener(BulletinBoardChangeListener listener)
+    {
+        changeListenerHandler.addListener(listener);
+    }
+
+    @Override
+    public TranscriptBlock fetchTranscriptData(TranscriptType dataClass, IndexNumberGenerator indexGenerator, TranscriptBlock.Builder responseBuilder)
+    {
+        if (TranscriptType.WITNESSES == dataClass)
+        {
+            while (indexGenerator.hasNext() && !responseBuilder.isFull())
+            {
+                int index = indexGenerator.nextIndex();
+
+                byte[] data = witnessLog.getData(index);
+                if (data != null)
+                {
+                    responseBuilder.add(new PostedData(index, data));
+                }
+            }
+        }
+        else
+        {
+            while (indexGenerator.hasNext() && !responseBuilder.isFull())
+            {
+                int index = indexGenerator.nextIndex();
+
+                responseBuilder.add(new PostedMessage(index, messageLog.getData(index), messageLog.getExtra(index)));
+            }
+        }
+
+        return responseBuilder.build();
+    }
+
+    @Override
+    public String getBackupHost()
+    {
+        return properties.getProperty(BACKUP_HOST);
+    }
+
+    @Override
+    public boolean isPointCompressed()
+    {
+        return properties.containsKey(POINT_COMPRESSION);
+    }
+
+    @Override
+    public void setPointCompression(boolean pointCompression)
+    {
+        if (pointCompression == isPointCompressed())
+        {
+            return;
+        }
+
+        if (pointCompression)
+        {
+            properties.setProperty(POINT_COMPRESSION, "true");
+        }
+        else
+        {
+            properties.remove(POINT_COMPRESSION);
+        }
+
+        saveProperties();
+    }
+
+    @Override
+    public void shutdown()
+    {
+        try
+        {
+            messageLog.close();
+            witnessLog.close();
+            merkleNodes.close();
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Unable to close board " + boardName + ": " + e.getMessage(), e);
+        }
+
+        backupNotifier.shutdown();
+    }
+
+    public String getName()
+    {
+        return boardName;
+    }
+
+    public int size()
+    {
+        return nextIndex.get();
+    }
+
+    public int transcriptSize(TranscriptType transcriptType)
+    {
+        if (TranscriptType.WITNESSES == transcriptType)
+        {
+            return witnessLog.size();
+        }
+        else
+        {
+            return messageLog.size();
+        }
+    }
+
+    public int postMessage(final byte[] message)
+    {
+        int index;
+
+        synchronized (merkleNodes)
+        {
+            index = nextIndex.getAndIncrement();
+
+            messageLog.append(index, message, null);
+            merkleTree.update(index, message);
+
+            messageLog.force();
+            commitTree();
+        }
+
+        backupNotifier.messagePosted(this, index, message);
+
+        changeNotifier.messagesAdded(this, 1);
+
+        return index;
+    }
+
+    public int postMessages(final byte[][] messages)
+    {
+        int baseIndex;
+
+        synchronized (merkleNodes)
+        {
+            baseIndex = nextIndex.getAndAdd(messages.length);
+
+            int[] indices = new int[messages.length];
+
+            for (int i = 0; i != messages.length; i++)
+            {
+                messageLog.append(baseIndex + i, messages[i], null);
+                indices[i] = baseIndex + i;
+            }
+
+            merkleTree.update(indices, messages);
+
+            messageLog.force();
+            commitTree();
+        }
+
+        backupNotifier.messagesPosted(this, baseIndex, messages);
+
+        changeNotifier.messagesAdded(this, messages.length);
+
+        return baseIndex;
+    }
+
+    @Override
+    public void waitForCommit(int index)
+    {
+        // posts are forced to disk before they return.
+    }
+
+    @Override
+    public void addCommitListener(int index, BulletinBoardCommitListener listener)
+    {
+        listener.committed(this, index);
+    }
+
+    @Override
+    public void postMessageBlock(PostedMessageBlock messageBlock)
+    {
+        List<PostedMessage> messages = messageBlock.getMessages();
+        int[] indices = new int[messages.size()];
+        byte[][] data = new byte[messages.size()][];
+
+        synchronized (merkleNodes)
+        {
+            int maxIndex = nextIndex.get();
+
+            for (int i = 0; i != indices.length; i++)
+            {
+                PostedMessage message = messages.get(i);
+
+                indices[i] = message.getIndex();
+                data[i] = message.getMessage();
+
+                messageLog.append(message.getIndex(), message.getMessage(), message.hasCommitment() ? message.getCommitment() : null);
+
+                if (message.getIndex() >= maxIndex)
+                {
+                    maxIndex = message.getIndex() + 1;    // nextIndex is the number of the next free slot
+                }
+            }
+
+            nextIndex.set(maxIndex);
+
+            merkleTree.update(indices, data);
+
+            messageLog.force();
+            commitTree();
+        }
+
+        for (PostedMessage message : messages)
+        {
+            backupNotifier.messagePosted(this, message.getIndex(), message.getMessage());
+        }
+    }
+
+    @Override
+    public PostedMessageBlock removeMessages(PostedMessageBlock.Builder blockBuilder)
+    {
+        synchronized (merkleNodes)
+        {
+            int count;
+            int boardSize = nextIndex.get() - minimumIndex.get();
+
+            if (boardSize > blockBuilder.capacity())
+            {
+                count = blockBuilder.capacity();
+            }
+            else
+            {
+                count = boardSize;
+            }
+
+            int[] removed = new int[count];
+
+            for (int i = 0; i != count; i++)
+            {
+                int index = minimumIndex.getAndIncrement();
+
+                blockBuilder.add(index, messageLog.getData(index));
+
+                messageLog.remove(index);
+
+                removed[i] = index;
+            }
+
+            merkleTree.update(removed, new byte[count][]);
+
+            messageLog.force();
+            commitTree();
+
+            if (nextIndex.get() - minimumIndex.get() == 0)
+            {
+                clear();
+            }
+        }
+
+        PostedMessageBlock pmb = blockBuilder.build();
+
+        changeNotifier.messagesRemoved(this, pmb.getMessages().size());
+        return pmb;
+    }
+
+    @Override
+    public void postWitnessBlock(MessageWitnessBlock witnessBlock)
+    {
+        List<MessageWitness> witnesses = witnessBlock.getWitnesses();
+
+        for (MessageWitness messageWitness : witnesses)
+        {
+            try
+            {
+                witnessLog.append(messageWitness.getIndex(), messageWitness.getWitness().getEncoded(), null);
+            }
+            catch (IOException e)
+            {
+               throw new IllegalStateException("Unable to encode witness value!!!!", e);
+            }
+        }
+
+        witnessLog.force();
+    }
+
+    @Override
+    public void clear()
+    {
+        synchronized (merkleNodes)
+        {
+            try
+            {
+                messageLog.clear();
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Unable to clear board " + boardName + ": " + e.getMessage(), e);
+            }
+
+            merkleTree.clear();
+            minimumIndex.set(0);
+            nextIndex.set(0);
+
+            commitTree();
+        }
+
+        backupNotifier.cleared(this);
+    }
+
+    @Override
+    public void truncate(int limit)
+    {
+        int[] removed;
+
+        synchronized (merkleNodes)
+        {
+            int end = nextIndex.get();
+
+            if (limit >= end)
+            {
+                return;
+            }
+
+            List<Integer> tail = new ArrayList<>();
+
+            for (int index = Math.max(limit, 0); index < end; index++)
+            {
+                if (messageLog.contains(index))
+                {
+                    messageLog.remove(index);
+                    tail.add(index);
+                }
+            }
+
+            messageLog.force();
+
+            removed = new int[tail.size()];
+            for (int i = 0; i != removed.length; i++)
+            {
+                removed[i] = tail.get(i);
+            }
+
+            merkleTree.truncate(limit, removed);
+            nextIndex.set(Math.max(limit, minimumIndex.get()));
+
+            commitTree();
+        }
+
+        changeNotifier.messagesRemoved(this, removed.length);
+    }
+
+    @Override
+    public int fetchMessages(int startIndex, int endIndex, PostedMessageBlock.Builder blockBuilder)
+    {
+        for (int index = startIndex; index < endIndex; index++)
+        {
+            if (messageLog.contains(index))
+            {
+                if (blockBuilder.isFull())
+                {
+                    return index;
+                }
+
+                blockBuilder.add(index, messageLog.getData(index));
+            }
+        }
+
+        return endIndex;
+    }
+
+    @Override
+    public MerkleTree getMerkleTree()
+    {
+        return merkleTree;
+    }
+
+    public Iterator<PostedMessage> iterator()
+    {
+        return new RangeIterator(minimumIndex.get(), Integer.MAX_VALUE, false);
+    }
+
+    @Override
+    public Iterator<PostedMessage> cursor(int startIndex, int endIndex, boolean withCommitments)
+    {
+        return new RangeIterator(Math.max(startIndex, minimumIndex.get()), endIndex, withCommitments);
+    }
+
+    private class RangeIterator
+        implements Iterator<PostedMessage>
+    {
+        private final int endIndex;
+        private final boolean withCommitments;
+
+        private int index;
+
+        RangeIterator(int startIndex, int endIndex, boolean withCommitments)
+        {
+            this.endIndex = endIndex;
+            this.withCommitments = withCommitments;
+            this.index = findNext(startIndex);
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return index < Math.min(endIndex, nextIndex.get());
+        }
+
+        @Override
+        public PostedMessage next()
+        {
+            if (!hasNext())
+            {
+                throw new NoSuchElementException("board exhausted");
+            }
+
+            PostedMessage message = new PostedMessage(index, messageLog.getData(index), withCommitments ? messageLog.getExtra(index) : null);
+
+            index = findNext(index + 1);
+
+            return message;
+        }
+
+        @Override
+        public void remove()
+        {
+            throw new UnsupportedOperationException("cannot remove message from board this way!");
+        }
+
+        private int findNext(int start)
+        {
+            int limit = Math.min(endIndex, nextIndex.get());
+
+            while (start < limit && !messageLog.contains(start))
+            {
+                start++;
+            }
+
+            return start;
+        }
+    }
+
+    // called holding merkleNodes, after the log has been forced, so the tree on disk never gets ahead of the log.
+    private void commitTree()
+    {
+        merkleNodes.commit(messageLog.endPosition());
+    }
+
+    private void saveProperties()
+    {
+        if (workingDirectory != null)
+        {
+            try
+            {
+                OutputStream pOut = new FileOutputStream(new File(workingDirectory, PROPERTIES_FILE));
+
+                properties.store(pOut, "board " + boardName);
+
+                pOut.close();
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Unable to save properties for board " + boardName + ": " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,526 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An append only log of indexed records stored in a series of memory mapped segment files, with a primitive
+ * in memory index from record index to the location of the latest record for it.
+ * <p>
+ * Each record is laid out as:
+ * <pre>
+ *     int recordLength, int index, int dataLength, byte[] data, int extraLength, byte[] extra
+ * </pre>
+ * with a data length of -1 marking the index as removed. The record length is written last so a partially
+ * written record is ignored when the log is reopened.
+ * </p>
+ */
+class SegmentedLog
+{
+    private static final int HEADER_SIZE = 12;
+    private static final int TOMBSTONE = -1;
+
+    private final File directory;
+    private final String prefix;
+    private final int segmentSize;
+
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final List<FileChannel> channels = new ArrayList<>();
+
+    private long[] locations = new long[1024];
+    private int limit;
+    private int first;
+    private int liveCount;
+    private int writePosition;
+    private int firstDirtySegment;
+
+    /**
+     * Open, or create, a log.
+     *
+     * @param directory the directory the segments live in, null if the log is to be held in memory.
+     * @param prefix the prefix for the segment file names.
+     * @param segmentSize the size of a segment in bytes.
+     * @throws IOException if an existing log cannot be read.
+     */
+    SegmentedLog(File directory, String prefix, int segmentSize)
+        throws IOException
+    {
+        this.directory = directory;
+        this.prefix = prefix;
+        this.segmentSize = segmentSize;
+
+        if (directory != null)
+        {
+            File[] files = directory.listFiles(new FilenameFilter()
+            {
+                @Override
+                public boolean accept(File dir, String name)
+                {
+                    return name.startsWith(SegmentedLog.this.prefix + ".");
+                }
+            });
+
+            if (files != null)
+            {
+                String[] names = new String[files.length];
+                for (int i = 0; i != files.length; i++)
+                {
+                    names[i] = files[i].getName();
+                }
+                Arrays.sort(names);    // segment numbers are zero padded
+
+                for (String name : names)
+                {
+                    File segmentFile = new File(directory, name);
+
+                    mapSegment(segmentFile, (int)segmentFile.length());
+                    recover(segments.size() - 1);
+                }
+            }
+        }
+
+        firstDirtySegment = Math.max(0, segments.size() - 1);
+    }
+
+    /**
+     * Append a record to the log, replacing any earlier record for the same index.
+     *
+     * @param index the index of the record.
+     * @param data the record's data.
+     * @param extra any additional data associated with the record, may be null.
+     */
+    synchronized void append(int index, byte[] data, byte[] extra)
+    {
+        write(index, data, extra);
+    }
+
+    /**
+     * Mark the record at index as removed.
+     *
+     * @param index the index of the record to remove.
+     */
+    synchronized void remove(int index)
+    {
+        write(index, null, null);
+    }
+
+    /**
+     * Return the data for the record at index.
+     *
+     * @param index the index of interest.
+     * @return the record's data, null if there is no record.
+     */
+    synchronized byte[] getData(int index)
+    {
+        ByteBuffer record = locate(index);
+
+        if (record == null)
+        {
+            return null;
+        }
+
+        return readBytes(record, record.getInt(record.position() + 8), record.position() + HEADER_SIZE);
+    }
+
+    /**
+     * Return the additional data for the record at index.
+     *
+     * @param index the index of interest.
+     * @return the record's extra data, null if there is no record or it has no extra data.
+     */
+    synchronized byte[] getExtra(int index)
+    {
+        ByteBuffer record = locate(index);
+
+        if (record == null)
+        {
+            return null;
+        }
+
+        int extraLengthPos = record.position() + HEADER_SIZE + record.getInt(record.position() + 8);
+
+        return readBytes(record, record.getInt(extraLengthPos), extraLengthPos + 4);
+    }
+
+    /**
+     * Return true if there is a live record at index.
+     *
+     * @param index the index of interest.
+     * @return true if the index is present, false otherwise.
+     */
+    synchronized boolean contains(int index)
+    {
+        return index >= 0 && index < limit && locations[index] != 0;
+    }
+
+    /**
+     * Return the number of live records in the log.
+     *
+     * @return the live record count.
+     */
+    synchronized int size()
+    {
+        return liveCount;
+    }
+
+    /**
+     * Return one more than the highest index ever written to the log.
+     *
+     * @return the index limit.
+     */
+    synchronized int limit()
+    {
+        return limit;
+    }
+
+    /**
+     * Return the lowest index with a live record.
+     *
+     * @return the first live index, limit() if the log is empty.
+     */
+    synchronized int firstIndex()
+    {
+        // nothing live sits below first, so draining from the front only ever moves it forward.
+        while (first < limit && locations[first] == 0)
+        {
+            first++;
+        }
+
+        return first;
+    }
+
+    /**
+     * Return the position the next record will be written at. The position only ever moves forward, until the
+     * log is cleared, so it can be used to tell whether the log has changed since it was last looked at.
+     *
+     * @return the segment number in the high 32 bits, the offset in the segment in the low 32 bits.
+     */
+    synchronized long endPosition()
+    {
+        if (segments.isEmpty())
+        {
+            return 0;
+        }
+
+        return ((long)(segments.size() - 1) << 32) | writePosition;
+    }
+
+    /**
+     * Force any changes to the segment files out to disk.
+     */
+    synchronized void force()
+    {
+        for (int i = firstDirtySegment; i < segments.size(); i++)
+        {
+            ByteBuffer segment = segments.get(i);
+
+            if (segment instanceof MappedByteBuffer)
+            {
+                ((MappedByteBuffer)segment).force();
+            }
+        }
+
+        firstDirtySegment = Math.max(0, segments.size() - 1);
+    }
+
+    /**
+     * Remove all the records and segment files from the log.
+     *
+     * @throws IOException if the segment files cannot be removed.
+     */
+    synchronized void clear()
+        throws IOException
+    {
+        closeChannels();
+
+        // a file that is still mapped can't be deleted on some platforms, and holds its disk space on others.
+        for (ByteBuffer segment : segments)
+        {
+            if (segment instanceof MappedByteBuffer)
+            {
+                unmap((MappedByteBuffer)segment);
+            }
+        }
+
+        if (directory != null)
+        {
+            for (int i = 0; i != segments.size(); i++)
+            {
+                File segmentFile = segmentFile(i);
+
+                if (segmentFile.exists() && !segmentFile.delete())
+                {
+                    throw new IOException("Unable to delete segment: " + segmentFile.getPath());
+                }
+            }
+        }
+
+        segments.clear();
+        locations = new long[1024];
+        limit = 0;
+        first = 0;
+        liveCount = 0;
+        writePosition = 0;
+        firstDirtySegment = 0;
+    }
+
+    /**
+     * Close the log, forcing any outstanding changes to disk.
+     *
+     * @throws IOException if the segment files cannot be closed.
+     */
+    synchronized void close()
+        throws IOException
+    {
+        force();
+        closeChannels();
+    }
+
+    private void closeChannels()
+        throws IOException
+    {
+        for (FileChannel channel : channels)
+        {
+            channel.close();
+        }
+
+        channels.clear();
+    }
+
+    private void write(int index, byte[] data, byte[] extra)
+    {
+        int dataLength = (data != null) ? data.length : TOMBSTONE;
+        int extraLength = (extra != null) ? extra.length : TOMBSTONE;
+        int recordLength = HEADER_SIZE + Math.max(0, dataLength) + 4 + Math.max(0, extraLength);
+
+        ByteBuffer segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+
+        if (segment == null || writePosition + recordLength > segment.capacity())
+        {
+            try
+            {
+                segment = addSegment(Math.max(segmentSize, recordLength));
+            }
+            catch (IOException e)
+            {
+                throw new IllegalStateException("Unable to create new segment: " + e.getMessage(), e);
+            }
+        }
+
+        int position = writePosition;
+        ByteBuffer out = segment.duplicate();
+
+        out.position(position + 4);
+        out.putInt(index);
+        out.putInt(dataLength);
+        if (data != null)
+        {
+            out.put(data);
+        }
+        out.putInt(extraLength);
+        if (extra != null)
+        {
+            out.put(extra);
+        }
+
+        // the length goes in last so a partial record is never seen as valid.
+        segment.putInt(position, recordLength);
+
+        writePosition = position + recordLength;
+
+        index(index, segments.size() - 1, position, data != null);
+    }
+
+    private void index(int index, int segmentNo, int position, boolean isLive)
+    {
+        if (index >= locations.length)
+        {
+            locations = Arrays.copyOf(locations, Math.max(locations.length * 2, index + 1));
+        }
+
+        boolean wasLive = index < limit && locations[index] != 0;
+
+        if (isLive)
+        {
+            locations[index] = (((long)segmentNo << 32) | position) + 1;
+            if (!wasLive)
+            {
+                liveCount++;
+            }
+            if (index < first)
+            {
+                first = index;
+            }
+        }
+        else
+        {
+            locations[index] = 0;
+            if (wasLive)
+            {
+                liveCount--;
+            }
+        }
+
+        if (index >= limit)
+        {
+            limit = index + 1;
+        }
+    }
+
+    private ByteBuffer locate(int index)
+    {
+        if (index < 0 || index >= limit || locations[index] == 0)
+        {
+            return null;
+        }
+
+        long location = locations[index] - 1;
+        ByteBuffer record = segments.get((int)(location >>> 32)).duplicate();
+
+        record.position((int)location);
+
+        return record;
+    }
+
+    private byte[] readBytes(ByteBuffer segment, int length, int position)
+    {
+        if (length < 0)
+        {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        ByteBuffer in = segment.duplicate();
+
+        in.position(position);
+        in.get(bytes);
+
+        return bytes;
+    }
+
+    private void recover(int segmentNo)
+    {
+        ByteBuffer segment = segments.get(segmentNo);
+        int position = 0;
+
+        while (position + HEADER_SIZE <= segment.capacity())
+        {
+            int recordLength = segment.getInt(position);
+
+            if (recordLength <= 0 || position + recordLength > segment.capacity())
+            {
+                break;
+            }
+
+            index(segment.getInt(position + 4), segmentNo, position, segment.getInt(position + 8) != TOMBSTONE);
+
+            position += recordLength;
+        }
+
+        writePosition = position;
+    }
+
+    private ByteBuffer addSegment(int size)
+        throws IOException
+    {
+        ByteBuffer segment;
+
+        if (directory != null)
+        {
+            segment = mapSegment(segmentFile(segments.size()), size);
+        }
+        else
+        {
+            segment = ByteBuffer.allocate(size);
+            segments.add(segment);
+        }
+
+        writePosition = 0;
+
+        return segment;
+    }
+
+    private ByteBuffer mapSegment(File segmentFile, int size)
+        throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(segmentFile, "rw");
+        FileChannel channel = raf.getChannel();
+
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+
+        channels.add(channel);
+        segments.add(segment);
+
+        return segment;
+    }
+
+    /**
+     * Release the mapping behind a segment now, rather than whenever the buffer is collected. The buffer must not be
+     * touched afterwards.
+     */
+    private static void unmap(MappedByteBuffer segment)
+    {
+        try
+        {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+
+            try
+            {
+                // Java 9 and later.
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+
+                theUnsafe.setAccessible(true);
+                invokeCleaner.invoke(theUnsafe.get(null), segment);
+            }
+            catch (NoSuchMethodException e)
+            {
+                // Java 7 and 8.
+                Method cleanerMethod = segment.getClass().getMethod("cleaner");
+
+                cleanerMethod.setAccessible(true);
+
+                Object cleaner = cleanerMethod.invoke(segment);
+
+                if (cleaner != null)
+                {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            }
+        }
+        catch (Exception e)
+        {
+            // not available on this VM, the mapping goes when the buffer is collected.
+        }
+    }
+
+    private File segmentFile(int segmentNo)
+    {
+        return new File(directory, prefix + "." + String.format("%08d", segmentNo));
+    }
+}
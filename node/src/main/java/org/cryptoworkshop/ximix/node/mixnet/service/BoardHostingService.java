@@ -26,13 +26,16 @@ import java.security.cert.Certificate;
 import java.security.cert.X509Certificate;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.bouncycastle.asn1.ASN1Encodable;
@@ -48,15 +51,22 @@ import org.bouncycastle.cms.jcajce.JcaSimpleSignerInfoGeneratorBuilder;
 import org.bouncycastle.crypto.Commitment;
 import org.bouncycastle.crypto.commitments.GeneralHashCommitter;
 import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
 import org.bouncycastle.util.encoders.Hex;
 import org.cryptoworkshop.ximix.client.connection.ServiceConnectionException;
 import org.cryptoworkshop.ximix.client.connection.ServicesConnection;
+import org.cryptoworkshop.ximix.common.asn1.message.AwaitBoardStatusMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardCapabilities;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardDetailMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardDigestMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardDigestRequestMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardDownloadMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardErrorStatusMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardSnapshotDownloadMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardSnapshotMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardStatusMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardTruncateMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardUploadBlockMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardUploadIndexedMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardUploadMessage;
@@ -92,14 +102,24 @@ import org.cryptoworkshop.ximix.common.util.TranscriptType;
 import org.cryptoworkshop.ximix.common.util.challenge.PairedChallenger;
 import org.cryptoworkshop.ximix.common.util.challenge.SeededChallenger;
 import org.cryptoworkshop.ximix.common.util.challenge.SerialChallenger;
+import org.cryptoworkshop.ximix.node.mixnet.board.BoardRemoteBackupListener;
+import org.cryptoworkshop.ximix.node.mixnet.board.BoardSnapshot;
+import org.cryptoworkshop.ximix.node.mixnet.board.BoardStatusListener;
 import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoard;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardBackupListener;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardCommitListener;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardConfig;
 import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardRegistry;
+import org.cryptoworkshop.ximix.node.mixnet.board.MerkleTree;
 import org.cryptoworkshop.ximix.node.mixnet.shuffle.CopyAndMoveTask;
+import org.cryptoworkshop.ximix.node.mixnet.shuffle.StreamingTransformer;
 import org.cryptoworkshop.ximix.node.mixnet.shuffle.TransformShuffleAndMoveTask;
 import org.cryptoworkshop.ximix.node.mixnet.transform.Transform;
+import org.cryptoworkshop.ximix.node.service.AsyncNodeService;
 import org.cryptoworkshop.ximix.node.service.BasicNodeService;
 import org.cryptoworkshop.ximix.node.service.Decoupler;
 import org.cryptoworkshop.ximix.node.service.NodeContext;
+import org.cryptoworkshop.ximix.node.service.PendingReply;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
@@ -108,7 +128,12 @@ import org.w3c.dom.NodeList;
  */
 public class BoardHostingService
     extends BasicNodeService
+    implements AsyncNodeService
 {
+    private static final int MAX_DIGEST_COUNT = 1024;
+    private static final long MAX_STATUS_WAIT = 30000;
+    private static final long STREAMING_IDLE_TIMEOUT = 10 * 60 * 1000;
+
     private final Executor decoupler;
     private final BulletinBoardRegistry boardRegistry;
     private final AtomicLong queryCounter = new AtomicLong(0L);
@@ -116,7 +141,9 @@ public class BoardHostingService
     private final Map<String, IndexNumberGenerator> challengers = new HashMap<>();
     private final Map<String, TranscriptGenerator> transcriptGenerators = new HashMap<>();
     private final Map<String, byte[][]> seedsAndWitnesses = new HashMap<>();
+    private final Map<String, StreamingTransformer> streamingTransformers = new ConcurrentHashMap<>();
     private final BoardExecutor boardExecutor;
+    private final BulletinBoardConfig boardConfig;
 
     /**
      * Base constructor.
@@ -162,7 +189,16 @@ public class BoardHostingService
             }
         }
 
-        this.boardRegistry = new BulletinBoardRegistry(nodeContext, transforms, statistics);
+        if (config.hasConfig("boards"))
+        {
+            boardConfig = config.getConfigObject("boards", new BoardConfigFactory());
+        }
+        else
+        {
+            boardConfig = new BulletinBoardConfig();
+        }
+
+        this.boardRegistry = new BulletinBoardRegistry(nodeContext, transforms, boardConfig, statistics);
 
         statistics.ensurePlaceholders();
 
@@ -185,11 +221,16 @@ public class BoardHostingService
 
     public MessageReply handle(final Message message)
     {
-        FutureTask<MessageReply> future = submitToHandle(message);
-
         try
         {
-            return future.get();
+            PendingReply pendingReply = handleAsync(message);
+
+            if (pendingReply != null)
+            {
+                return pendingReply.get();
+            }
+
+            return submitToHandle(message).get();
         }
         catch (InterruptedException e)
         {
@@ -203,6 +244,118 @@ public class BoardHostingService
         return new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("Future failed to evaluate on " + nodeContext.getName()));
     }
 
+    @Override
+    public PendingReply handleAsync(Message message)
+    {
+        if (message.getType() == ClientMessage.Type.UPLOAD_TO_BOARD)
+        {
+            return uploadToBoard(BoardUploadMessage.getInstance(message.getPayload()));
+        }
+
+        if (message.getType() == CommandMessage.Type.AWAIT_BOARD_STATUS)
+        {
+            return awaitBoardStatus(AwaitBoardStatusMessage.getInstance(message.getPayload()));
+        }
+
+        return null;
+    }
+
+    private PendingReply awaitBoardStatus(final AwaitBoardStatusMessage awaitMessage)
+    {
+        final PendingReply pendingReply = new PendingReply();
+        final String boardName = awaitMessage.getBoardName();
+        long maxWait = Math.min(awaitMessage.getMaxWait(), MAX_STATUS_WAIT);
+
+        // the wait is on the registry, not on the board, so it neither holds up the board's queue nor a service thread.
+        if (awaitMessage.isForHostedBoard())
+        {
+            boardRegistry.awaitHostedStatus(boardName, awaitMessage.getStatus(), maxWait, new BoardStatusListener()
+            {
+                @Override
+                public void statusReached(BoardStatusMessage.Status status)
+                {
+                    int messageCount = boardRegistry.hasBoard(boardName) ? boardRegistry.getBoard(boardName).size() : -1;
+
+                    pendingReply.complete(new MessageReply(MessageReply.Type.OKAY, new BoardStatusMessage(boardName, status, messageCount)));
+                }
+            });
+        }
+        else
+        {
+            boardRegistry.awaitTransitStatus(awaitMessage.getOperationNumber(), boardName, awaitMessage.getStepNumber(), awaitMessage.getStatus(), maxWait, new BoardStatusListener()
+            {
+                @Override
+                public void statusReached(BoardStatusMessage.Status status)
+                {
+                    int messageCount = -1;
+
+                    if (status != BoardStatusMessage.Status.UNKNOWN)
+                    {
+                        BulletinBoard transitBoard = boardRegistry.findTransitBoard(awaitMessage.getOperationNumber(), boardName, awaitMessage.getStepNumber());
+
+                        if (transitBoard != null)
+                        {
+                            messageCount = transitBoard.size();
+                        }
+                    }
+
+                    pendingReply.complete(new MessageReply(MessageReply.Type.OKAY, new BoardStatusMessage(boardName, status, messageCount)));
+                }
+            });
+        }
+
+        return pendingReply;
+    }
+
+    private PendingReply uploadToBoard(final BoardUploadMessage uploadMessage)
+    {
+        final PendingReply pendingReply = new PendingReply();
+
+        boardExecutor.submitTask(uploadMessage.getBoardName(), new Callable<MessageReply>()
+        {
+            @Override
+            public MessageReply call()
+            {
+                try
+                {
+                    if (boardRegistry.isLocked(uploadMessage.getBoardName()))
+                    {
+                        pendingReply.complete(new MessageReply(MessageReply.Type.ERROR, new BoardErrorStatusMessage(uploadMessage.getBoardName(), BoardErrorStatusMessage.Status.SUSPENDED)));
+
+                        return null;
+                    }
+
+                    BulletinBoard board = boardRegistry.getBoard(uploadMessage.getBoardName());
+                    byte[][] messages = uploadMessage.getData();
+                    int lastIndex;
+
+                    if (messages.length == 1)
+                    {
+                        lastIndex = board.postMessage(messages[0]);
+                    }
+                    else
+                    {
+                        lastIndex = board.postMessages(messages) + messages.length - 1;
+                    }
+
+                    // the post only stages the messages if the board is using group commit, so the reply is sent from
+                    // the commit, leaving the board free to stage further posts in the meantime.
+                    board.addCommitListener(lastIndex, new UploadCommitListener(pendingReply));
+                }
+                catch (RuntimeException e)
+                {
+                    nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Upload to board " + uploadMessage.getBoardName() + " failed: " + e.getMessage(), e);
+
+                    pendingReply.complete(new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("Upload to board " + uploadMessage.getBoardName() + " failed on " + nodeContext.getName() + ": " + e.getMessage())));
+                }
+
+                return null;
+            }
+        });
+
+        return pendingReply;
+    }
+
     private FutureTask<MessageReply> submitToHandle(Message message)
     {
         if (message instanceof CommandMessage)
@@ -360,20 +513,21 @@ public class BoardHostingService
                             return new MessageReply(MessageReply.Type.ERROR, new BoardErrorStatusMessage(createBoardMessage.getBoardName(), BoardErrorStatusMessage.Status.ALREADY_EXISTS));
                         }
 
+                        boardRegistry.createBoard(createBoardMessage.getBoardName());
+                        boardRegistry.setPointCompression(createBoardMessage.getBoardName(), createBoardMessage.isPointCompression());
+
+                        // the backup is only attached once the board's settings are in place, so the first resync carries them.
                         if (createBoardMessage.getBackUpHost() != null)
                         {
                             boardRegistry.createBoard(createBoardMessage.getBoardName(), createBoardMessage.getBackUpHost());
                         }
-                        else
-                        {
-                            boardRegistry.createBoard(createBoardMessage.getBoardName());
-                        }
 
                         return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
                     }
                 });
             case BACKUP_BOARD_CREATE:
-                final BoardMessage backupBoardCreateMessage = BoardMessage.getInstance(message.getPayload());
+                // older hosts send a plain BoardMessage, which reads as a CreateBoardMessage without the optional fields.
+                final CreateBoardMessage backupBoardCreateMessage = CreateBoardMessage.getInstance(message.getPayload());
                 return boardExecutor.submitTask(backupBoardCreateMessage.getBoardName(), new Callable<MessageReply>()
                 {
                     @Override
@@ -381,7 +535,7 @@ public class BoardHostingService
                         throws Exception
                     {
 
-                        boardRegistry.createBackupBoard(backupBoardCreateMessage.getBoardName());
+                        boardRegistry.createBackupBoard(backupBoardCreateMessage.getBoardName(), backupBoardCreateMessage.isPointCompression());
 
                         return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
                     }
@@ -394,7 +548,7 @@ public class BoardHostingService
                     public MessageReply call()
                         throws Exception
                     {
-                        if (boardRegistry.isLocked(downloadLockBoardMessage.getBoardName()))
+                        if (boardRegistry.isRemovalLocked(downloadLockBoardMessage.getBoardName()))
                         {
                             return new MessageReply(MessageReply.Type.ERROR, new BoardErrorStatusMessage(downloadLockBoardMessage.getBoardName(), BoardErrorStatusMessage.Status.SUSPENDED));
                         }
@@ -422,7 +576,7 @@ public class BoardHostingService
                     public MessageReply call()
                         throws Exception
                     {
-                        if (boardRegistry.isLocked(shuffleLockBoardMessage.getBoardName()))
+                        if (boardRegistry.isRemovalLocked(shuffleLockBoardMessage.getBoardName()))
                         {
                             return new MessageReply(MessageReply.Type.ERROR, new BoardErrorStatusMessage(shuffleLockBoardMessage.getBoardName(), BoardErrorStatusMessage.Status.SUSPENDED));
                         }
@@ -478,6 +632,44 @@ public class BoardHostingService
                         return new MessageReply(MessageReply.Type.OKAY, new BoardStatusMessage(compStatusBoardMessage.getBoardName(), BoardStatusMessage.Status.COMPLETE));
                     }
                 });
+            case FETCH_BOARD_DIGEST:
+                final BoardDigestRequestMessage digestRequest = BoardDigestRequestMessage.getInstance(message.getPayload());
+                Callable<MessageReply> digestTask = new Callable<MessageReply>()
+                {
+                    @Override
+                    public MessageReply call()
+                        throws Exception
+                    {
+                        BulletinBoard board = digestRequest.isBackup() ? boardRegistry.getBackupBoard(digestRequest.getBoardName()) : boardRegistry.getBoard(digestRequest.getBoardName());
+
+                        if (board == null)
+                        {
+                            return new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("Unknown board: " + digestRequest.getBoardName()));
+                        }
+
+                        MerkleTree tree = board.getMerkleTree();
+
+                        synchronized (tree)
+                        {
+                            int level = (digestRequest.getLevel() == BoardDigestRequestMessage.ROOT_LEVEL) ? tree.getHeight() : digestRequest.getLevel();
+                            byte[][] hashes = new byte[Math.min(digestRequest.getCount(), MAX_DIGEST_COUNT)][];
+
+                            for (int i = 0; i != hashes.length; i++)
+                            {
+                                hashes[i] = tree.getNodeHash(level, digestRequest.getPosition() + i);
+                            }
+
+                            return new MessageReply(MessageReply.Type.OKAY, new BoardDigestMessage(digestRequest.getBoardName(), tree.getHeight(), tree.getLimit(), level, digestRequest.getPosition(), hashes));
+                        }
+                    }
+                };
+
+                if (digestRequest.isBackup())
+                {
+                    return boardExecutor.submitBackupTask(digestRequest.getBoardName(), digestTask);
+                }
+
+                return boardExecutor.submitTask(digestRequest.getBoardName(), digestTask);
             case START_SHUFFLE_AND_MOVE_BOARD_TO_NODE:
                 final CopyAndMoveMessage startPandMmessage = CopyAndMoveMessage.getInstance(message.getPayload());
 
@@ -492,7 +684,7 @@ public class BoardHostingService
                             return new MessageReply(MessageReply.Type.ERROR, new BoardErrorStatusMessage(startPandMmessage.getBoardName(), BoardErrorStatusMessage.Status.NOT_SHUFFLE_LOCKED));
                         }
 
-                        nodeContext.execute(new CopyAndMoveTask(nodeContext, boardRegistry, getPeerConnection(startPandMmessage.getDestinationNode()), startPandMmessage));
+                        nodeContext.execute(new CopyAndMoveTask(nodeContext, boardRegistry, getPeerConnection(startPandMmessage.getDestinationNode()), startPandMmessage, boardConfig));
 
                         return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
                     }
@@ -506,7 +698,46 @@ public class BoardHostingService
                     public MessageReply call()
                         throws Exception
                     {
-                        nodeContext.execute(new TransformShuffleAndMoveTask(nodeContext, boardRegistry, getPeerConnection(pAndmMessage.getDestinationNode()), pAndmMessage));
+                        nodeContext.execute(new TransformShuffleAndMoveTask(nodeContext, boardRegistry, getPeerConnection(pAndmMessage.getDestinationNode()), pAndmMessage, boardConfig));
+
+                        return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
+                    }
+                });
+            case PREPARE_STREAMING_SHUFFLE:
+                final PermuteAndMoveMessage prepareMessage = PermuteAndMoveMessage.getInstance(message.getPayload());
+
+                return boardExecutor.submitTask(prepareMessage.getBoardName(), new Callable<MessageReply>()
+                {
+                    @Override
+                    public MessageReply call()
+                        throws Exception
+                    {
+                        Transform transform = null;
+
+                        if (prepareMessage.getKeyID() != null)
+                        {
+                            ECPublicKeyParameters key = TransformShuffleAndMoveTask.fetchPublicKey(nodeContext, prepareMessage.getKeyID());
+
+                            if (key == null)
+                            {
+                                return new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("Unable to find public key " + prepareMessage.getKeyID()));
+                            }
+
+                            transform = boardRegistry.getTransform(prepareMessage.getTransformName());
+                            transform.init(boardRegistry.takeReEncryptionFactor(prepareMessage.getKeyID(), key));
+                            transform.setPointCompression(boardRegistry.isPointCompressed(prepareMessage.getBoardName()));
+                        }
+
+                        String streamingKey = getStreamingKey(prepareMessage.getOperationNumber(), prepareMessage.getBoardName(), prepareMessage.getStepNumber());
+                        StreamingTransformer streamingTransformer = new StreamingTransformer(prepareMessage, transform, nodeContext.getExecutorService(), boardConfig.getTransformThreads());
+
+                        StreamingTransformer previous = streamingTransformers.put(streamingKey, streamingTransformer);
+                        if (previous != null)
+                        {
+                            previous.shutdown();
+                        }
+
+                        expireWhenIdle(streamingKey, streamingTransformer, STREAMING_IDLE_TIMEOUT);
 
                         return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
                     }
@@ -520,6 +751,19 @@ public class BoardHostingService
                     public MessageReply call()
                         throws Exception
                     {
+                        // the shuffle is over, anything left from a streaming step that never finished can go.
+                        String streamingPrefix = returnToBoardMessage.getOperationNumber() + "." + returnToBoardMessage.getBoardName() + ".";
+                        for (Iterator<Map.Entry<String, StreamingTransformer>> it = streamingTransformers.entrySet().iterator(); it.hasNext();)
+                        {
+                            Map.Entry<String, StreamingTransformer> entry = it.next();
+
+                            if (entry.getKey().startsWith(streamingPrefix))
+                            {
+                                it.remove();
+                                entry.getValue().shutdown();
+                            }
+                        }
+
                         nodeContext.execute(new ReturnToBoardTask(nodeContext, boardRegistry, returnToBoardMessage));
                         return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
                     }
@@ -549,6 +793,13 @@ public class BoardHostingService
                     {
                         boardRegistry.markInTransit(uploadMessage.getOperationNumber(), uploadMessage.getBoardName(), uploadMessage.getStepNumber());
                         boardRegistry.getTransitBoard(uploadMessage.getOperationNumber(), uploadMessage.getBoardName(), uploadMessage.getStepNumber()).postMessageBlock(uploadMessage.getMessageBlock());
+
+                        StreamingTransformer streamingTransformer = streamingTransformers.get(getStreamingKey(uploadMessage.getOperationNumber(), uploadMessage.getBoardName(), uploadMessage.getStepNumber()));
+                        if (streamingTransformer != null)
+                        {
+                            streamingTransformer.submit(uploadMessage.getMessageBlock());
+                        }
+
                         return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
                     }
                 });
@@ -579,6 +830,18 @@ public class BoardHostingService
                         return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
                     }
                 });
+            case TRUNCATE_BACKUP_BOARD:
+                final BoardTruncateMessage truncateMessage = BoardTruncateMessage.getInstance(message.getPayload());
+
+                return boardExecutor.submitBackupTask(truncateMessage.getBoardName(), new Callable<MessageReply>()
+                {
+                    @Override
+                    public MessageReply call()
+                    {
+                        boardRegistry.getBackupBoard(truncateMessage.getBoardName()).truncate(truncateMessage.getLimit());
+                        return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
+                    }
+                });
             case TRANSFER_TO_BACKUP_BOARD:
                 final BoardUploadIndexedMessage uploadIndexedMessage = BoardUploadIndexedMessage.getInstance(message.getPayload());
 
@@ -587,7 +850,16 @@ public class BoardHostingService
                     @Override
                     public MessageReply call()
                     {
-                        boardRegistry.getBackupBoard(uploadIndexedMessage.getBoardName()).postMessages(uploadIndexedMessage.getData());
+                        // batches may arrive out of order, so messages are placed using their index on the primary.
+                        byte[][] data = uploadIndexedMessage.getData();
+                        PostedMessageBlock.Builder blockBuilder = new PostedMessageBlock.Builder(data.length);
+
+                        for (int i = 0; i != data.length; i++)
+                        {
+                            blockBuilder.add(uploadIndexedMessage.getIndex() + i, data[i]);
+                        }
+
+                        boardRegistry.getBackupBoard(uploadIndexedMessage.getBoardName()).postMessageBlock(blockBuilder.build());
                         return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
                     }
                 });
@@ -599,6 +871,14 @@ public class BoardHostingService
                     public MessageReply call()
                     {
                         boardRegistry.markCompleted(transferToBoardEndedMessage.getOperationNumber(), transferToBoardEndedMessage.getBoardName(), transferToBoardEndedMessage.getStepNumber());
+
+                        // in a streaming shuffle the board moves on as soon as it is all here.
+                        StreamingTransformer streamingTransformer = streamingTransformers.remove(getStreamingKey(transferToBoardEndedMessage.getOperationNumber(), transferToBoardEndedMessage.getBoardName(), transferToBoardEndedMessage.getStepNumber()));
+                        if (streamingTransformer != null)
+                        {
+                            nodeContext.execute(new TransformShuffleAndMoveTask(nodeContext, boardRegistry, getPeerConnection(streamingTransformer.getMessage().getDestinationNode()), boardConfig, streamingTransformer));
+                        }
+
                         return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
                     }
                 });
@@ -622,16 +902,79 @@ public class BoardHostingService
                         return new MessageReply(MessageReply.Type.OKAY, messages);
                     }
                 });
+            case OPEN_BOARD_SNAPSHOT:
+                final BoardMessage openSnapshotMessage = BoardMessage.getInstance(message.getPayload());
+
+                return boardExecutor.submitTask(openSnapshotMessage.getBoardName(), new Callable<MessageReply>()
+                {
+                    @Override
+                    public MessageReply call()
+                    {
+                        String boardName = openSnapshotMessage.getBoardName();
+
+                        // other snapshots are fine, they do not change the board.
+                        if (boardRegistry.isDownloadLocked(boardName) || boardRegistry.isShuffleLocked(boardName) || boardRegistry.isSuspended(boardName))
+                        {
+                            return new MessageReply(MessageReply.Type.ERROR, new BoardErrorStatusMessage(boardName, BoardErrorStatusMessage.Status.SUSPENDED));
+                        }
+
+                        BoardSnapshot snapshot = boardRegistry.openSnapshot(boardName);
+
+                        return new MessageReply(MessageReply.Type.OKAY, new BoardSnapshotMessage(boardName, snapshot.getSnapshotID(), snapshot.getEndIndex(), snapshot.getSize(), snapshot.getRootHash()));
+                    }
+                });
+            case DOWNLOAD_BOARD_SNAPSHOT:
+                final BoardSnapshotDownloadMessage snapshotRequest = BoardSnapshotDownloadMessage.getInstance(message.getPayload());
+
+                // the board is pinned and nothing is removed, so snapshot readers do not queue behind each other.
+                FutureTask<MessageReply> snapshotTask = new FutureTask<>(new Callable<MessageReply>()
+                {
+                    @Override
+                    public MessageReply call()
+                    {
+                        BoardSnapshot snapshot = boardRegistry.getSnapshot(snapshotRequest.getSnapshotID());
+
+                        if (snapshot == null || !snapshot.getBoardName().equals(snapshotRequest.getBoardName()))
+                        {
+                            return new MessageReply(MessageReply.Type.ERROR, new BoardErrorStatusMessage(snapshotRequest.getBoardName(), BoardErrorStatusMessage.Status.UNKNOWN_SNAPSHOT));
+                        }
+
+                        PostedMessageBlock.Builder blockBuilder = new PostedMessageBlock.Builder(Math.max(1, Math.min(snapshotRequest.getMaxNumberOfMessages(), boardConfig.getSnapshotBlockSize())));
+
+                        boardRegistry.getBoard(snapshot.getBoardName()).fetchMessages(Math.max(0, snapshotRequest.getStartIndex()), snapshot.getEndIndex(), blockBuilder);
+
+                        return new MessageReply(MessageReply.Type.OKAY, blockBuilder.build());
+                    }
+                });
+
+                nodeContext.getExecutorService().submit(snapshotTask);
+
+                return snapshotTask;
+            case CLOSE_BOARD_SNAPSHOT:
+                final BoardSnapshotMessage closeSnapshotMessage = BoardSnapshotMessage.getInstance(message.getPayload());
+
+                return boardExecutor.submitTask(closeSnapshotMessage.getBoardName(), new Callable<MessageReply>()
+                {
+                    @Override
+                    public MessageReply call()
+                    {
+                        boardRegistry.closeSnapshot(closeSnapshotMessage.getSnapshotID());
+
+                        return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
+                    }
+                });
             case DOWNLOAD_SHUFFLE_TRANSCRIPT:
                 final TranscriptDownloadMessage transcriptDownloadMessage = TranscriptDownloadMessage.getInstance(message.getPayload());
-                final BulletinBoard transitBoard = boardRegistry.getTransitBoard(transcriptDownloadMessage.getOperationNumber(), transcriptDownloadMessage.getStepNo());
+                final String transcriptBoardName = boardRegistry.getTransitBoard(transcriptDownloadMessage.getOperationNumber(), transcriptDownloadMessage.getStepNo()).getName();
 
-                return boardExecutor.submitTask(transitBoard.getName(), new Callable<MessageReply>()
+                return boardExecutor.submitTask(transcriptBoardName, new Callable<MessageReply>()
                 {
                     @Override
                     public MessageReply call()
                         throws Exception
                     {
+                        // looked up here as the board may have been archived while we were queued.
+                        BulletinBoard transitBoard = boardRegistry.getTransitBoard(transcriptDownloadMessage.getOperationNumber(), transcriptDownloadMessage.getStepNo());
                         boolean isCopyBoard = isCopyBoard(transitBoard);
                         String challengerKey = getChallengerKey(transcriptDownloadMessage, isCopyBoard || (transitBoard.size() == 1));
 
@@ -749,6 +1092,11 @@ public class BoardHostingService
                         }
 
                         // end of data
+                        if (boardRegistry.transcriptDownloaded(transcriptDownloadMessage.getOperationNumber(), transcriptDownloadMessage.getStepNo(), transcriptDownloadMessage.getType()))
+                        {
+                            archiveTransitBoard(transcriptBoardName, transcriptDownloadMessage.getOperationNumber(), transcriptDownloadMessage.getStepNo());
+                        }
+
                         return new MessageReply(MessageReply.Type.OKAY, new TranscriptTransferMessage(transcriptBlock.getStepNo()));
                     }
                 });
@@ -798,51 +1146,82 @@ public class BoardHostingService
         }
         else
         {
-            switch (((ClientMessage)message).getType())
+            // client uploads are handled by handleAsync().
+            FutureTask<MessageReply> eTask = new FutureTask(new Callable<MessageReply>()
             {
-            case UPLOAD_TO_BOARD:
-                final BoardUploadMessage uploadMessage = BoardUploadMessage.getInstance(message.getPayload());
+                @Override
+                public MessageReply call()
+                    throws Exception
+                {
+                    return new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("Unknown command"));
+                }
+            });
 
-                return boardExecutor.submitTask(uploadMessage.getBoardName(), new Callable<MessageReply>()
+            nodeContext.getExecutorService().submit(eTask);
+
+            return eTask;
+        }
+    }
+
+    private void archiveTransitBoard(String boardName, final long operationNumber, final int stepNumber)
+    {
+        // queued behind any other transcript downloads for the board.
+        boardExecutor.submitTask(boardName, new Callable<MessageReply>()
+        {
+            @Override
+            public MessageReply call()
+                throws Exception
+            {
+                try
                 {
-                    @Override
-                    public MessageReply call()
-                    {
-                        if (boardRegistry.isLocked(uploadMessage.getBoardName()))
-                        {
-                            return new MessageReply(MessageReply.Type.ERROR, new BoardErrorStatusMessage(uploadMessage.getBoardName(), BoardErrorStatusMessage.Status.SUSPENDED));
-                        }
+                    boardRegistry.archiveTransitBoard(operationNumber, stepNumber);
+                }
+                catch (Exception e)
+                {
+                    nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Unable to archive transit board for operation " + operationNumber + " step " + stepNumber + ": " + e.getMessage(), e);
+                }
 
-                        byte[][] messages = uploadMessage.getData();
+                return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
+            }
+        });
+    }
 
-                        if (messages.length == 1)
-                        {
-                            boardRegistry.getBoard(uploadMessage.getBoardName()).postMessage(messages[0]);
-                        }
-                        else
-                        {
-                            boardRegistry.getBoard(uploadMessage.getBoardName()).postMessages(messages);
-                        }
+    // a streaming shuffle that fails, or is abandoned by the client, never sends the end of transfer, so a
+    // transformer which has not been given a block for a while is dropped.
+    private void expireWhenIdle(final String streamingKey, final StreamingTransformer streamingTransformer, long delay)
+    {
+        nodeContext.schedule(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if (streamingTransformers.get(streamingKey) != streamingTransformer)
+                {
+                    return;     // transfer ended, or replaced by a later prepare.
+                }
 
-                        return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName()));
-                    }
-                });
-            default:
-                FutureTask<MessageReply> eTask = new FutureTask(new Callable<MessageReply>()
+                long idle = System.currentTimeMillis() - streamingTransformer.getLastActive();
+
+                if (idle >= STREAMING_IDLE_TIMEOUT)
                 {
-                    @Override
-                    public MessageReply call()
-                        throws Exception
+                    if (streamingTransformers.remove(streamingKey, streamingTransformer))
                     {
-                        return new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("Unknown command"));
-                    }
-                });
+                        streamingTransformer.shutdown();
 
-                nodeContext.getExecutorService().submit(eTask);
-
-                return eTask;
+                        nodeContext.getEventNotifier().notify(EventNotifier.Level.WARN, "Streaming shuffle " + streamingKey + " expired after " + idle + "ms without a transfer");
+                    }
+                }
+                else
+                {
+                    expireWhenIdle(streamingKey, streamingTransformer, STREAMING_IDLE_TIMEOUT - idle);
+                }
             }
-        }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private String getStreamingKey(long operationNumber, String boardName, int stepNumber)
+    {
+        return operationNumber + "." + boardName + "." + stepNumber;
     }
 
     private String getChallengerKey(TranscriptDownloadMessage transcriptDownloadMessage, boolean isCopyBoard)
@@ -963,6 +1342,16 @@ public class BoardHostingService
         }
     }
 
+    private static class BoardConfigFactory
+        implements ConfigObjectFactory<BulletinBoardConfig>
+    {
+        public BulletinBoardConfig createObject(Node configNode)
+            throws ConfigException
+        {
+            return new BulletinBoardConfig(configNode);
+        }
+    }
+
     private static class TransformConfigFactory
         implements ConfigObjectFactory<TransformConfig>
     {
@@ -1012,6 +1401,54 @@ public class BoardHostingService
         }
     }
 
+    private class UploadCommitListener
+        implements BulletinBoardCommitListener
+    {
+        private final PendingReply pendingReply;
+
+        UploadCommitListener(PendingReply pendingReply)
+        {
+            this.pendingReply = pendingReply;
+        }
+
+        @Override
+        public void committed(BulletinBoard bulletinBoard, int index)
+        {
+            replyWhenBackedUp(bulletinBoard.getListenerHandler(BulletinBoardBackupListener.class).listeners().iterator());
+        }
+
+        @Override
+        public void commitFailed(BulletinBoard bulletinBoard, int index, RuntimeException cause)
+        {
+            pendingReply.complete(new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("Board " + bulletinBoard.getName() + " failed on " + nodeContext.getName() + ": " + cause.getMessage())));
+        }
+
+        // hold the client back if a backup host has fallen too far behind.
+        private void replyWhenBackedUp(final Iterator<BulletinBoardBackupListener> listeners)
+        {
+            while (listeners.hasNext())
+            {
+                BulletinBoardBackupListener listener = listeners.next();
+
+                if (listener instanceof BoardRemoteBackupListener)
+                {
+                    ((BoardRemoteBackupListener)listener).runWhenCaughtUp(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            replyWhenBackedUp(listeners);
+                        }
+                    });
+
+                    return;
+                }
+            }
+
+            pendingReply.complete(new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(nodeContext.getName())));
+        }
+    }
+
     private class ReturnToBoardTask
         implements Runnable
     {
@@ -1029,27 +1466,14 @@ public class BoardHostingService
         @Override
         public void run()
         {
-            BulletinBoard transitBoard = boardRegistry.getTransitBoard(transitBoardMessage.getOperationNumber(), transitBoardMessage.getBoardName(), transitBoardMessage.getStepNumber());
-            BulletinBoard homeBoard = boardRegistry.getBoard(transitBoardMessage.getBoardName());
-            PostedMessageBlock.Builder messageFetcher = new PostedMessageBlock.Builder(10);
-
-            homeBoard.clear();
-
-            int index = 0;
-            for (PostedMessage postedMessage : transitBoard)
+            try
             {
-                messageFetcher.add(index++, postedMessage.getMessage());
-
-                if (messageFetcher.isFull())
-                {
-                    homeBoard.postMessageBlock(messageFetcher.build());
-                    messageFetcher.clear();
-                }
+                // the final transit board replaces the home board by a file swap rather than a copy.
+                boardRegistry.promoteTransitBoard(transitBoardMessage.getOperationNumber(), transitBoardMessage.getBoardName(), transitBoardMessage.getStepNumber());
             }
-
-            if (!messageFetcher.isEmpty())
+            catch (RuntimeException e)
             {
-                homeBoard.postMessageBlock(messageFetcher.build());
+                nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Unable to return board " + transitBoardMessage.getBoardName() + ": " + e.getMessage(), e);
             }
 
             boardRegistry.shuffleUnlock(transitBoardMessage.getBoardName());
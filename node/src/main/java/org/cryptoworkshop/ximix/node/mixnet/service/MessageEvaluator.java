@@ -20,6 +20,8 @@ import java.util.Set;
 
 import org.cryptoworkshop.ximix.common.asn1.message.BoardDownloadMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardSnapshotDownloadMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardSnapshotMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardUploadMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.CapabilityMessage;
 import org.cryptoworkshop.ximix.common.asn1.message.ClientMessage;
@@ -43,17 +45,22 @@ class MessageEvaluator
         needToBeHostingType.add(CommandMessage.Type.BOARD_DOWNLOAD_UNLOCK);
         needToBeHostingType.add(CommandMessage.Type.BOARD_SHUFFLE_LOCK);
         needToBeHostingType.add(CommandMessage.Type.BOARD_SHUFFLE_UNLOCK);
+        needToBeHostingType.add(CommandMessage.Type.OPEN_BOARD_SNAPSHOT);
 
         alwaysHandleType.add(CommandMessage.Type.SHUFFLE_AND_MOVE_BOARD_TO_NODE);
+        alwaysHandleType.add(CommandMessage.Type.PREPARE_STREAMING_SHUFFLE);
         alwaysHandleType.add(CommandMessage.Type.INITIATE_INTRANSIT_BOARD);
         alwaysHandleType.add(CommandMessage.Type.TRANSFER_TO_BOARD);
         alwaysHandleType.add(CommandMessage.Type.UPLOAD_TO_BOARD);
         alwaysHandleType.add(CommandMessage.Type.TRANSFER_TO_BOARD_ENDED);
         alwaysHandleType.add(CommandMessage.Type.CLEAR_BACKUP_BOARD);
         alwaysHandleType.add(CommandMessage.Type.TRANSFER_TO_BACKUP_BOARD);
+        alwaysHandleType.add(CommandMessage.Type.TRUNCATE_BACKUP_BOARD);
         alwaysHandleType.add(CommandMessage.Type.RETURN_TO_BOARD);
         alwaysHandleType.add(CommandMessage.Type.FETCH_BOARD_STATUS);
         alwaysHandleType.add(CommandMessage.Type.FETCH_BOARD_COMPLETION_STATUS);
+        alwaysHandleType.add(CommandMessage.Type.AWAIT_BOARD_STATUS);
+        alwaysHandleType.add(CommandMessage.Type.FETCH_BOARD_DIGEST);
         alwaysHandleType.add(CommandMessage.Type.DOWNLOAD_SHUFFLE_TRANSCRIPT);
         alwaysHandleType.add(CommandMessage.Type.DOWNLOAD_SHUFFLE_TRANSCRIPT_STEPS);
         alwaysHandleType.add(CommandMessage.Type.GET_BOARD_DETAILS);
@@ -110,6 +117,20 @@ class MessageEvaluator
                 return boardIndex.hasBoard(boardMessage.getBoardName());
             }
 
+            if (comType == CommandMessage.Type.DOWNLOAD_BOARD_SNAPSHOT)
+            {
+                BoardSnapshotDownloadMessage boardMessage = BoardSnapshotDownloadMessage.getInstance(message.getPayload());
+
+                return boardIndex.hasBoard(boardMessage.getBoardName());
+            }
+
+            if (comType == CommandMessage.Type.CLOSE_BOARD_SNAPSHOT)
+            {
+                BoardSnapshotMessage boardMessage = BoardSnapshotMessage.getInstance(message.getPayload());
+
+                return boardIndex.hasBoard(boardMessage.getBoardName());
+            }
+
             if (comType == CommandMessage.Type.START_SHUFFLE_AND_MOVE_BOARD_TO_NODE)
             {
                 CopyAndMoveMessage boardMessage = CopyAndMoveMessage.getInstance(message.getPayload());
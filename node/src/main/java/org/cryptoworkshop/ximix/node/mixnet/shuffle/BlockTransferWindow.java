@@ -0,0 +1,236 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.shuffle;
+
+import java.util.BitSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.cryptoworkshop.ximix.client.connection.ServiceConnectionException;
+import org.cryptoworkshop.ximix.client.connection.ServicesConnection;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardUploadBlockMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CommandMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+import org.cryptoworkshop.ximix.common.util.EventNotifier;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardConfig;
+
+/**
+ * A sliding window of message blocks being moved to the next node in a shuffle. Up to window blocks can be
+ * waiting on the next node at once, and each is acknowledged separately. Every message in a block carries its
+ * index on the new board, so a block which fails can simply be sent again - if the link to the next node drops,
+ * only the blocks which were not acknowledged are resent and the transfer carries on from there.
+ */
+class BlockTransferWindow
+{
+    // upper bound on the messages in a block sized by bytes, in case of very small messages.
+    private static final int MAX_BLOCK_SIZE = 10000;
+
+    private final ServicesConnection peerConnection;
+    private final EventNotifier eventNotifier;
+    private final int blockSize;
+    private final int blockBytes;
+    private final int resumeAttempts;
+    private final Semaphore window;
+    private final ExecutorService senders;
+    private final BitSet acknowledgedBlocks = new BitSet();
+
+    private int blockCount;
+    private int acknowledged;
+    private ServiceConnectionException failure;
+
+    /**
+     * Base constructor.
+     *
+     * @param peerConnection the connection to the node the blocks are going to.
+     * @param boardConfig the board configuration carrying the transfer settings.
+     * @param eventNotifier notifier for reporting resent blocks.
+     */
+    BlockTransferWindow(ServicesConnection peerConnection, BulletinBoardConfig boardConfig, EventNotifier eventNotifier)
+    {
+        this.peerConnection = peerConnection;
+        this.eventNotifier = eventNotifier;
+        this.blockSize = boardConfig.getTransferBlockSize();
+        this.blockBytes = boardConfig.getTransferBlockBytes();
+        this.resumeAttempts = boardConfig.getTransferResumeAttempts();
+        this.window = new Semaphore(boardConfig.getTransferWindow());
+        this.senders = Executors.newFixedThreadPool(boardConfig.getTransferWindow());
+    }
+
+    /**
+     * Return true if a block already holding count messages, making up bytes, has no room for another message.
+     *
+     * @param count the number of messages in the block.
+     * @param bytes the total length of the messages in the block.
+     * @param nextLength the length of the message that would be added.
+     * @return true if the block should be sent before the next message is added.
+     */
+    boolean isBlockFull(int count, int bytes, int nextLength)
+    {
+        if (blockSize > 0)
+        {
+            return count >= blockSize;
+        }
+
+        return count != 0 && (bytes + nextLength > blockBytes || count >= MAX_BLOCK_SIZE);
+    }
+
+    /**
+     * Queue a block for sending, waiting if the window is full.
+     *
+     * @param block the block to send.
+     * @throws ServiceConnectionException if an earlier block could not be delivered.
+     * @throws InterruptedException if we are interrupted waiting for space in the window.
+     */
+    void send(BoardUploadBlockMessage block)
+        throws ServiceConnectionException, InterruptedException
+    {
+        window.acquire();
+
+        int blockNumber;
+
+        synchronized (this)
+        {
+            if (failure != null)
+            {
+                window.release();
+                throw failure;
+            }
+
+            blockNumber = blockCount++;
+        }
+
+        senders.execute(new SendTask(blockNumber, block));
+    }
+
+    /**
+     * Wait until every block queued has been acknowledged.
+     *
+     * @throws ServiceConnectionException if a block could not be delivered.
+     * @throws InterruptedException if we are interrupted while waiting.
+     */
+    synchronized void flush()
+        throws ServiceConnectionException, InterruptedException
+    {
+        while (acknowledged != blockCount && failure == null)
+        {
+            wait();
+        }
+
+        if (failure != null)
+        {
+            throw failure;
+        }
+    }
+
+    /**
+     * Return the number of blocks acknowledged without a gap from the start of the transfer.
+     *
+     * @return the number of blocks known to have reached the next node in sequence.
+     */
+    synchronized int getAcknowledged()
+    {
+        return acknowledged;
+    }
+
+    void shutdown()
+    {
+        senders.shutdownNow();
+    }
+
+    private synchronized void acknowledge(int blockNumber)
+    {
+        acknowledgedBlocks.set(blockNumber);
+
+        while (acknowledgedBlocks.get(acknowledged))
+        {
+            acknowledged++;
+        }
+
+        notifyAll();
+    }
+
+    private synchronized void fail(ServiceConnectionException e)
+    {
+        if (failure == null)
+        {
+            failure = e;
+        }
+
+        notifyAll();
+    }
+
+    private class SendTask
+        implements Runnable
+    {
+        private final int blockNumber;
+        private final BoardUploadBlockMessage block;
+
+        SendTask(int blockNumber, BoardUploadBlockMessage block)
+        {
+            this.blockNumber = blockNumber;
+            this.block = block;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                String error = null;
+
+                for (int attempt = 1; attempt <= resumeAttempts; attempt++)
+                {
+                    try
+                    {
+                        MessageReply reply = peerConnection.sendMessage(CommandMessage.Type.TRANSFER_TO_BOARD, block);
+
+                        if (reply.getType() == MessageReply.Type.OKAY)
+                        {
+                            acknowledge(blockNumber);
+                            return;
+                        }
+
+                        error = reply.interpretPayloadAsError();
+                    }
+                    catch (ServiceConnectionException e)
+                    {
+                        error = e.getMessage();
+                    }
+
+                    if (attempt != resumeAttempts)
+                    {
+                        eventNotifier.notify(EventNotifier.Level.WARN, "Resending block " + blockNumber + " of " + block.getBoardName() + " after " + getAcknowledged() + " acknowledged: " + error);
+
+                        Thread.sleep(1000L * attempt);
+                    }
+                }
+
+                fail(new ServiceConnectionException("message failed: " + error));
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+
+                fail(new ServiceConnectionException("transfer interrupted"));
+            }
+            finally
+            {
+                window.release();
+            }
+        }
+    }
+}
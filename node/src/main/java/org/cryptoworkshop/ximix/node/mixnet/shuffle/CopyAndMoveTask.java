@@ -15,6 +15,8 @@
  */
 package org.cryptoworkshop.ximix.node.mixnet.shuffle;
 
+import java.util.Iterator;
+
 import org.cryptoworkshop.ximix.client.connection.ServiceConnectionException;
 import org.cryptoworkshop.ximix.client.connection.ServicesConnection;
 import org.cryptoworkshop.ximix.common.asn1.message.BoardUploadBlockMessage;
@@ -26,6 +28,7 @@ import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
 import org.cryptoworkshop.ximix.common.asn1.message.TransitBoardMessage;
 import org.cryptoworkshop.ximix.common.util.EventNotifier;
 import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoard;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardConfig;
 import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardRegistry;
 import org.cryptoworkshop.ximix.node.service.NodeContext;
 
@@ -39,6 +42,7 @@ public class CopyAndMoveTask
     private final CopyAndMoveMessage message;
     private final BulletinBoardRegistry boardRegistry;
     private final ServicesConnection peerConnection;
+    private final BulletinBoardConfig boardConfig;
 
     /**
      * Base constructor.
@@ -47,38 +51,54 @@ public class CopyAndMoveTask
      * @param boardRegistry the registry for the boards on this node.
      * @param peerConnection a ServicesConnection to the node the board is to be moved to.
      * @param message the message carrying the instructions for the copy and move.
+     * @param boardConfig the board configuration carrying the block transfer settings.
      */
-    public CopyAndMoveTask(NodeContext nodeContext, BulletinBoardRegistry boardRegistry, ServicesConnection peerConnection, CopyAndMoveMessage message)
+    public CopyAndMoveTask(NodeContext nodeContext, BulletinBoardRegistry boardRegistry, ServicesConnection peerConnection, CopyAndMoveMessage message, BulletinBoardConfig boardConfig)
     {
         this.nodeContext = nodeContext;
         this.boardRegistry = boardRegistry;
         this.peerConnection = peerConnection;
         this.message = message;
+        this.boardConfig = boardConfig;
     }
 
     public void run()
     {
         BulletinBoard board = boardRegistry.getBoard(message.getBoardName());
+        BlockTransferWindow transferWindow = new BlockTransferWindow(peerConnection, boardConfig, nodeContext.getEventNotifier());
 
         try
         {
-            PostedMessageBlock.Builder messageBlockBuilder = new PostedMessageBlock.Builder(20);    // TODO: make configurable
+            PostedMessageBlock.Builder messageBlockBuilder = new PostedMessageBlock.Builder(20);
+            int blockCount = 0;
+            int blockBytes = 0;
 
-            for (PostedMessage postedMessage : board)
+            for (Iterator<PostedMessage> messages = board.cursor(0, Integer.MAX_VALUE, false); messages.hasNext();)
             {
-                messageBlockBuilder.add(postedMessage.getIndex(), postedMessage.getMessage());
+                PostedMessage postedMessage = messages.next();
 
-                if (messageBlockBuilder.isFull())
+                if (transferWindow.isBlockFull(blockCount, blockBytes, postedMessage.getMessage().length))
                 {
-                    processMessageBlock(messageBlockBuilder, message.getStepNumber());
+                    // the block may still be in flight, so the next one gets a builder of its own.
+                    transferWindow.send(new BoardUploadBlockMessage(message.getOperationNumber(), message.getBoardName(), message.getStepNumber(), messageBlockBuilder.build()));
+
+                    messageBlockBuilder = new PostedMessageBlock.Builder(blockCount);
+                    blockCount = 0;
+                    blockBytes = 0;
                 }
+
+                messageBlockBuilder.add(postedMessage.getIndex(), postedMessage.getMessage());
+                blockCount++;
+                blockBytes += postedMessage.getMessage().length;
             }
 
             if (!messageBlockBuilder.isEmpty())
             {
-                processMessageBlock(messageBlockBuilder, message.getStepNumber());
+                transferWindow.send(new BoardUploadBlockMessage(message.getOperationNumber(), message.getBoardName(), message.getStepNumber(), messageBlockBuilder.build()));
             }
 
+            transferWindow.flush();
+
             MessageReply reply = peerConnection.sendMessage(CommandMessage.Type.TRANSFER_TO_BOARD_ENDED, new TransitBoardMessage(message.getOperationNumber(), board.getName(), message.getStepNumber()));
 
             if (reply.getType() != MessageReply.Type.OKAY)
@@ -94,18 +114,9 @@ public class CopyAndMoveTask
         {
             nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "CopyAndMoveTask connection failed: " + e.getMessage(), e);
         }
-    }
-
-    private void processMessageBlock(PostedMessageBlock.Builder messageBlockBuilder, int nextStepNumber)
-        throws ServiceConnectionException
-    {
-        MessageReply reply = peerConnection.sendMessage(CommandMessage.Type.TRANSFER_TO_BOARD, new BoardUploadBlockMessage(message.getOperationNumber(), message.getBoardName(), nextStepNumber, messageBlockBuilder.build()));
-
-        messageBlockBuilder.clear();
-
-        if (reply.getType() != MessageReply.Type.OKAY)
+        finally
         {
-            throw new ServiceConnectionException("message failed: " + reply.interpretPayloadAsError());
+            transferWindow.shutdown();
         }
     }
 }
@@ -0,0 +1,283 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.shuffle;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.security.SecureRandom;
+
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.crypto.prng.EntropySource;
+import org.bouncycastle.crypto.prng.drbg.HashSP800DRBG;
+import org.bouncycastle.crypto.prng.drbg.SP80090DRBG;
+import org.cryptoworkshop.ximix.common.util.IndexNumberGenerator;
+
+/**
+ * A generator of index numbers that covers a range of 0 to (size - 1) in the order given by a uniformly random
+ * permutation.
+ * <p>
+ * The full permutation is built in a single Fisher-Yates pass when the engine is created, drawing from a SHA-256
+ * Hash DRBG which is seeded once. The permutation is then streamed out either an index at a time, or in chunks.
+ * Permutations for boards larger than OFF_HEAP_THRESHOLD are held in direct buffers rather than on the heap.
+ * </p>
+ */
+public class PermutationEngine
+    implements IndexNumberGenerator
+{
+    /**
+     * Boards with more messages than this have their permutation held off heap.
+     */
+    public static final int OFF_HEAP_THRESHOLD = 1 << 22;
+
+    private static final int SEED_SIZE = 32;
+    private static final int NONCE_SIZE = 16;
+
+    private static final int SEGMENT_BITS = 24;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_BITS) - 1;
+
+    // the DRBG is asked for a buffer full at a time, its largest request is 2^18 bits.
+    private static final int RANDOM_BUFFER_SIZE = 16 * 1024;
+
+    private final int size;
+    private final int[] heapTable;
+    private final IntBuffer[] directTable;
+
+    private int position;
+
+    /**
+     * Base constructor - the DRBG is seeded from the passed in source of randomness.
+     *
+     * @param size the number of messages on the board we are trying to generate indexes for.
+     * @param random a source of randomness.
+     */
+    public PermutationEngine(int size, SecureRandom random)
+    {
+        this(size, createDRBG(random), size > OFF_HEAP_THRESHOLD);
+    }
+
+    /**
+     * Constructor for a permutation from a fixed seed - the same seed always gives the same permutation.
+     *
+     * @param size the number of messages on the board we are trying to generate indexes for.
+     * @param seed the seed for the DRBG, at least 32 bytes.
+     * @param offHeap true if the permutation should be held off heap, false otherwise.
+     */
+    public PermutationEngine(int size, byte[] seed, boolean offHeap)
+    {
+        this(size, createDRBG(seed, null), offHeap);
+    }
+
+    private PermutationEngine(int size, SP80090DRBG drbg, boolean offHeap)
+    {
+        this.size = size;
+
+        if (offHeap)
+        {
+            this.heapTable = null;
+            this.directTable = new IntBuffer[(size + SEGMENT_MASK) >>> SEGMENT_BITS];
+
+            for (int i = 0; i != directTable.length; i++)
+            {
+                int segmentSize = Math.min(SEGMENT_MASK + 1, size - (i << SEGMENT_BITS));
+
+                directTable[i] = ByteBuffer.allocateDirect(segmentSize * 4).asIntBuffer();
+            }
+        }
+        else
+        {
+            this.heapTable = new int[size];
+            this.directTable = null;
+        }
+
+        shuffle(new RandomIntSource(drbg, Math.min(RANDOM_BUFFER_SIZE, 4 * (size + 16))));
+    }
+
+    public boolean hasNext()
+    {
+        return position < size;
+    }
+
+    public int nextIndex()
+    {
+        return get(position++);
+    }
+
+    /**
+     * Fill the passed in array with the next chunk of the permutation.
+     *
+     * @param chunk the array to receive the indexes.
+     * @return the number of indexes written, which will be less than the length of chunk at the end of the permutation.
+     */
+    public int nextIndexes(int[] chunk)
+    {
+        int count = Math.min(chunk.length, size - position);
+
+        if (heapTable != null)
+        {
+            System.arraycopy(heapTable, position, chunk, 0, count);
+        }
+        else
+        {
+            for (int i = 0; i != count; i++)
+            {
+                chunk[i] = get(position + i);
+            }
+        }
+
+        position += count;
+
+        return count;
+    }
+
+    /**
+     * Return the number of indexes in the permutation.
+     *
+     * @return the size of the permutation.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    private void shuffle(RandomIntSource random)
+    {
+        // "inside-out" Fisher-Yates, so filling in the identity and shuffling are done in the one pass.
+        for (int i = 0; i != size; i++)
+        {
+            int j = random.nextInt(i + 1);
+
+            if (j != i)
+            {
+                set(i, get(j));
+            }
+
+            set(j, i);
+        }
+    }
+
+    private int get(int index)
+    {
+        if (heapTable != null)
+        {
+            return heapTable[index];
+        }
+
+        return directTable[index >>> SEGMENT_BITS].get(index & SEGMENT_MASK);
+    }
+
+    private void set(int index, int value)
+    {
+        if (heapTable != null)
+        {
+            heapTable[index] = value;
+        }
+        else
+        {
+            directTable[index >>> SEGMENT_BITS].put(index & SEGMENT_MASK, value);
+        }
+    }
+
+    private static SP80090DRBG createDRBG(SecureRandom random)
+    {
+        byte[] seed = new byte[SEED_SIZE];
+        byte[] nonce = new byte[NONCE_SIZE];
+
+        random.nextBytes(seed);
+        random.nextBytes(nonce);
+
+        return createDRBG(seed, nonce);
+    }
+
+    private static SP80090DRBG createDRBG(final byte[] seed, byte[] nonce)
+    {
+        if (seed == null || seed.length < SEED_SIZE)
+        {
+            throw new IllegalArgumentException("Permutation seed must be at least " + SEED_SIZE + " bytes.");
+        }
+
+        return new HashSP800DRBG(new SHA256Digest(), 256, new EntropySource()
+        {
+            public boolean isPredictionResistant()
+            {
+                return false;
+            }
+
+            public byte[] getEntropy()
+            {
+                return seed.clone();
+            }
+
+            public int entropySize()
+            {
+                return seed.length * 8;
+            }
+        }, null, nonce);
+    }
+
+    private static class RandomIntSource
+    {
+        private final SP80090DRBG drbg;
+        private final byte[] buffer;
+
+        private int offset;
+
+        RandomIntSource(SP80090DRBG drbg, int bufferSize)
+        {
+            this.drbg = drbg;
+            this.buffer = new byte[bufferSize];
+            this.offset = bufferSize;
+        }
+
+        // the classic unbiased sampler
+        int nextInt(int range)
+        {
+            if ((range & -range) == range)  // i.e., range is a power of 2
+            {
+                return (int)((range * (long)nextPositiveInt()) >> 31);
+            }
+
+            int bits, val;
+            do
+            {
+                bits = nextPositiveInt();
+                val = bits % range;
+            }
+            while (bits - val + (range - 1) < 0);
+
+            return val;
+        }
+
+        private int nextPositiveInt()
+        {
+            if (offset == buffer.length)
+            {
+                if (drbg.generate(buffer, null, false) < 0)
+                {
+                    // the DRBG has reached its reseed limit, which a single board will never come near.
+                    throw new IllegalStateException("Permutation DRBG exhausted.");
+                }
+
+                offset = 0;
+            }
+
+            int value = ((buffer[offset] & 0x7f) << 24) | ((buffer[offset + 1] & 0xff) << 16) | ((buffer[offset + 2] & 0xff) << 8) | (buffer[offset + 3] & 0xff);
+
+            offset += 4;
+
+            return value;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.shuffle;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+
+import org.cryptoworkshop.ximix.common.asn1.message.PermuteAndMoveMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
+import org.cryptoworkshop.ximix.node.mixnet.transform.Transform;
+
+/**
+ * Transformer for a streaming shuffle step, which re-encrypts the messages of a transit board as the blocks arrive
+ * from the previous node.
+ * <p>
+ * Only the transforms are done early, the permutation and commitments are still left to the shuffle task which is
+ * started once the last block has arrived, so nothing leaves this node until it has the whole board and an observer
+ * cannot link the messages coming in to the ones going out.
+ * </p>
+ * <p>
+ * The transforms are run on the node's executor, with no more than the configured number of blocks in progress at
+ * once.
+ * </p>
+ */
+public class StreamingTransformer
+{
+    private final PermuteAndMoveMessage message;
+    private final Transform transform;
+    private final Executor executor;
+    private final int maxWorkers;
+    private final Map<Integer, TransformedMessage> transformed = new ConcurrentHashMap<>();
+    private final Deque<PostedMessageBlock> queue = new ArrayDeque<>();
+    private final Deque<Transform> idleTransforms = new ArrayDeque<>();
+
+    private int workers;
+    private int outstanding;
+    private RuntimeException failure;
+    private boolean isShutdown;
+    private volatile long lastActive = System.currentTimeMillis();
+
+    /**
+     * Base constructor.
+     *
+     * @param message the instructions for the permute and move that will follow the transfer.
+     * @param transform an initialised transform, null if messages are to be moved without one.
+     * @param executor the executor to run the transforms on.
+     * @param threads the maximum number of blocks to transform at once.
+     */
+    public StreamingTransformer(PermuteAndMoveMessage message, Transform transform, Executor executor, int threads)
+    {
+        this.message = message;
+        this.transform = transform;
+        this.executor = executor;
+        this.maxWorkers = threads;
+    }
+
+    /**
+     * Return the instructions for the permute and move to follow the transfer.
+     *
+     * @return the permute and move message for this step.
+     */
+    public PermuteAndMoveMessage getMessage()
+    {
+        return message;
+    }
+
+    /**
+     * Return the transform being applied.
+     *
+     * @return the initialised transform, null if there is none.
+     */
+    public Transform getTransform()
+    {
+        return transform;
+    }
+
+    /**
+     * Return the time, in milliseconds since the epoch, this transformer was last given a block.
+     *
+     * @return the time of the last submit, or of creation if nothing has been submitted.
+     */
+    public long getLastActive()
+    {
+        return lastActive;
+    }
+
+    /**
+     * Start transforming a block of messages that has just been posted to the transit board.
+     *
+     * @param block the block of messages received.
+     */
+    public synchronized void submit(PostedMessageBlock block)
+    {
+        lastActive = System.currentTimeMillis();
+
+        if (transform == null || isShutdown)
+        {
+            return;
+        }
+
+        queue.add(block);
+        outstanding++;
+
+        if (workers < maxWorkers)
+        {
+            workers++;
+            executor.execute(new Worker());
+        }
+    }
+
+    /**
+     * Wait for all the blocks submitted so far to be transformed.
+     *
+     * @throws InterruptedException if the wait is interrupted.
+     * @throws ExecutionException if one of the transforms failed, or the transformer was shut down.
+     */
+    public synchronized void awaitTransforms()
+        throws InterruptedException, ExecutionException
+    {
+        while (outstanding > 0 && failure == null && !isShutdown)
+        {
+            wait();
+        }
+
+        if (failure != null)
+        {
+            throw new ExecutionException(failure);
+        }
+
+        if (isShutdown)
+        {
+            throw new ExecutionException(new IllegalStateException("streaming transformer shut down"));
+        }
+    }
+
+    /**
+     * Return the transformed version of the message at index, removing it from the transformer.
+     *
+     * @param index the index of the message on the transit board.
+     * @return the transformed message, null if the message has not been seen.
+     */
+    TransformedMessage takeTransformed(int index)
+    {
+        return transformed.remove(index);
+    }
+
+    /**
+     * Stop the transformer and release anything it is holding. Blocks not yet started are dropped.
+     */
+    public synchronized void shutdown()
+    {
+        isShutdown = true;
+        queue.clear();
+        idleTransforms.clear();
+        transformed.clear();
+
+        notifyAll();
+    }
+
+    private synchronized PostedMessageBlock nextBlock(Transform workerTransform)
+    {
+        PostedMessageBlock block = isShutdown ? null : queue.poll();
+
+        if (block == null)
+        {
+            workers--;
+            if (!isShutdown)
+            {
+                idleTransforms.push(workerTransform);
+            }
+        }
+
+        return block;
+    }
+
+    private synchronized Transform takeTransform()
+    {
+        return idleTransforms.isEmpty() ? transform.clone() : idleTransforms.pop();
+    }
+
+    private synchronized void blockDone(RuntimeException cause)
+    {
+        outstanding--;
+        if (cause != null && failure == null)
+        {
+            failure = cause;
+        }
+
+        notifyAll();
+    }
+
+    // works through the queued blocks using a transform of its own, the transforms are kept for reuse rather than
+    // tied to the executor's threads as those are shared with the rest of the node.
+    private class Worker
+        implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            Transform workerTransform = takeTransform();
+            PostedMessageBlock block;
+
+            while ((block = nextBlock(workerTransform)) != null)
+            {
+                try
+                {
+                    List<PostedMessage> postedMessages = block.getMessages();
+                    byte[][] messages = new byte[postedMessages.size()][];
+                    byte[][] details = new byte[messages.length][];
+
+                    for (int i = 0; i != messages.length; i++)
+                    {
+                        messages[i] = postedMessages.get(i).getMessage();
+                    }
+
+                    byte[][] data = workerTransform.transformBlock(messages, details);
+
+                    for (int i = 0; i != messages.length; i++)
+                    {
+                        transformed.put(postedMessages.get(i).getIndex(), new TransformedMessage(data[i], details[i]));
+                    }
+
+                    blockDone(null);
+                }
+                catch (RuntimeException e)
+                {
+                    blockDone(e);
+                }
+            }
+        }
+    }
+
+    static class TransformedMessage
+    {
+        private final byte[] message;
+        private final byte[] detail;
+
+        TransformedMessage(byte[] message, byte[] detail)
+        {
+            this.message = message;
+            this.detail = detail;
+        }
+
+        byte[] getMessage()
+        {
+            return message;
+        }
+
+        byte[] getDetail()
+        {
+            return detail;
+        }
+    }
+}
@@ -15,7 +15,17 @@
  */
 package org.cryptoworkshop.ximix.node.mixnet.shuffle;
 
+import java.io.IOException;
 import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
 import org.bouncycastle.crypto.Commitment;
@@ -38,12 +48,23 @@ import org.cryptoworkshop.ximix.common.asn1.message.TransitBoardMessage;
 import org.cryptoworkshop.ximix.common.crypto.IndexCommitter;
 import org.cryptoworkshop.ximix.common.util.EventNotifier;
 import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoard;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardConfig;
 import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardRegistry;
 import org.cryptoworkshop.ximix.node.mixnet.transform.Transform;
 import org.cryptoworkshop.ximix.node.service.NodeContext;
 
 /**
  * The basic shuffle and move task.
+ * <p>
+ * Messages are read from the board and given their new indexes in board order, then handed out a block at a time
+ * to a pool of workers which do the transforms and commitments. Blocks are handed on in the order they were read,
+ * so the permutation and witnesses are the same as they would be if the task ran on a single thread, and then
+ * passed to a transfer window which keeps several of them in flight to the next node.
+ * </p>
+ * <p>
+ * In a streaming shuffle the task is started by the arrival of the end of the transfer rather than by the client, and
+ * picks up the messages already re-encrypted by the step's StreamingTransformer.
+ * </p>
  */
 public class TransformShuffleAndMoveTask
     implements Runnable
@@ -52,6 +73,8 @@ public class TransformShuffleAndMoveTask
     private final PermuteAndMoveMessage message;
     private final BulletinBoardRegistry boardRegistry;
     private final ServicesConnection peerConnection;
+    private final BulletinBoardConfig boardConfig;
+    private final StreamingTransformer streamingTransformer;
 
     /**
      * Base constructor.
@@ -60,99 +83,142 @@ public class TransformShuffleAndMoveTask
      * @param boardRegistry the registry for the boards on this node.
      * @param peerConnection a ServicesConnection to the node the board is to be moved to.
      * @param message the message carrying the instructions for the permute and move.
+     * @param boardConfig the board configuration carrying the transform and block transfer settings.
      */
-    public TransformShuffleAndMoveTask(NodeContext nodeContext, BulletinBoardRegistry boardRegistry, ServicesConnection peerConnection, PermuteAndMoveMessage message)
+    public TransformShuffleAndMoveTask(NodeContext nodeContext, BulletinBoardRegistry boardRegistry, ServicesConnection peerConnection, PermuteAndMoveMessage message, BulletinBoardConfig boardConfig)
     {
         this.nodeContext = nodeContext;
         this.boardRegistry = boardRegistry;
         this.peerConnection = peerConnection;
         this.message = message;
+        this.boardConfig = boardConfig;
+        this.streamingTransformer = null;
+    }
+
+    /**
+     * Constructor for the step of a streaming shuffle.
+     *
+     * @param nodeContext the context of the node this task is running in.
+     * @param boardRegistry the registry for the boards on this node.
+     * @param peerConnection a ServicesConnection to the node the board is to be moved to.
+     * @param boardConfig the board configuration carrying the transform and block transfer settings.
+     * @param streamingTransformer the transformer which has been re-encrypting the board as it arrived.
+     */
+    public TransformShuffleAndMoveTask(NodeContext nodeContext, BulletinBoardRegistry boardRegistry, ServicesConnection peerConnection, BulletinBoardConfig boardConfig, StreamingTransformer streamingTransformer)
+    {
+        this.nodeContext = nodeContext;
+        this.boardRegistry = boardRegistry;
+        this.peerConnection = peerConnection;
+        this.message = streamingTransformer.getMessage();
+        this.boardConfig = boardConfig;
+        this.streamingTransformer = streamingTransformer;
     }
 
     public void run()
     {
         BulletinBoard board = boardRegistry.getTransitBoard(message.getOperationNumber(), message.getBoardName(), message.getStepNumber());
         Transform transform = boardRegistry.getTransform(message.getTransformName());
-        IndexCommitter committer = new IndexCommitter(new SHA256Digest(), new SecureRandom());
+        ExecutorService workers = Executors.newFixedThreadPool(boardConfig.getTransformThreads());
+        BlockTransferWindow transferWindow = new BlockTransferWindow(peerConnection, boardConfig, nodeContext.getEventNotifier());
 
         try
         {
-            PostedMessageBlock.Builder messageBlockBuilder = new PostedMessageBlock.Builder(20);    // TODO: make configurable
-            MessageWitnessBlock.Builder messageWitnessBlockBuilder = new MessageWitnessBlock.Builder(messageBlockBuilder.capacity());
-
-            RandomIndexNumberGenerator indexGen = new RandomIndexNumberGenerator(board.size(), new SecureRandom());  // TODO: specify random
+            PermutationEngine indexGen = new PermutationEngine(board.size(), new SecureRandom());  // TODO: specify random
 
             int nextStepNumber = message.getStepNumber() + 1;
 
-            if (message.getKeyID() != null)
+            if (streamingTransformer != null)
             {
-                SubjectPublicKeyInfo keyInfo = nodeContext.getPublicKey(message.getKeyID());
-                ECPublicKeyParameters key;
+                // the transformer was initialised when the step was prepared, so it already has the key and factor.
+                transform = streamingTransformer.getTransform();
 
-                if (keyInfo != null)
+                streamingTransformer.awaitTransforms();
+            }
+            else if (message.getKeyID() != null)
+            {
+                ECPublicKeyParameters key = fetchPublicKey(nodeContext, message.getKeyID());
+
+                if (key == null)
                 {
-                    key = (ECPublicKeyParameters)PublicKeyFactory.createKey(keyInfo);
+                    nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Unable to find public key " + message.getKeyID());
+                    return;
                 }
-                else
-                {
-                    // see if the key exists elsewhere on the MIXNET.
-                    FetchPublicKeyMessage fetchMessage = new FetchPublicKeyMessage(message.getKeyID());
 
-                    MessageReply reply = nodeContext.getPeerMap().values().iterator().next().sendMessage(ClientMessage.Type.FETCH_PUBLIC_KEY, fetchMessage);
+                transform.init(boardRegistry.takeReEncryptionFactor(message.getKeyID(), key));
 
-                    if (reply.getPayload() != null)
-                    {
-                        key = (ECPublicKeyParameters)PublicKeyFactory.createKey(reply.getPayload().toASN1Primitive().getEncoded());
-                    }
-                    else
-                    {
-                        nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "Unable to find public key " + message.getKeyID());
-                        return;
-                    }
+                // only the board's host knows its encoding, later steps keep to the form of the messages they receive.
+                transform.setPointCompression(boardRegistry.isPointCompressed(message.getBoardName()));
+            }
+            else
+            {
+                transform = null;
+            }
+
+            // each worker needs its own copy of the transform and committer, the copies share the transform's key and factor.
+            final Transform baseTransform = transform;
+            final ThreadLocal<Transform> transforms = new ThreadLocal<Transform>()
+            {
+                @Override
+                protected Transform initialValue()
+                {
+                    return (baseTransform != null) ? baseTransform.clone() : null;
                 }
+            };
+            final ThreadLocal<IndexCommitter> committers = new ThreadLocal<IndexCommitter>()
+            {
+                @Override
+                protected IndexCommitter initialValue()
+                {
+                    return new IndexCommitter(new SHA256Digest(), new SecureRandom());
+                }
+            };
 
-                transform.init(key);
+            // enough blocks in flight to keep every worker busy while we wait on the next node.
+            Deque<Future<TransformedBlock>> pending = new ArrayDeque<>();
+            int maxPending = 2 * boardConfig.getTransformThreads();
 
-                for (PostedMessage postedMessage : board)
-                {
-                    byte[] transformed = transform.transform(postedMessage.getMessage());
-                    int newIndex = indexGen.nextIndex();
-                    Commitment commitment = committer.commit(newIndex);
+            PostedMessage next = null;
 
-                    messageBlockBuilder.add(newIndex, transformed, commitment.getCommitment());
-                    messageWitnessBlockBuilder.add(postedMessage.getIndex(), new MessageCommitment(newIndex, commitment.getSecret(), transform.getLastDetail()));
+            for (Iterator<PostedMessage> messages = board.cursor(0, Integer.MAX_VALUE, false); messages.hasNext() || next != null;)
+            {
+                List<PostedMessage> postedMessages = new ArrayList<>();
+                List<Integer> newIndexes = new ArrayList<>();
+                int blockBytes = 0;
 
-                    if (messageBlockBuilder.isFull())
+                // transforms do not change the size of a message much, so blocks are sized on the way in.
+                while (next != null || messages.hasNext())
+                {
+                    if (next == null)
                     {
-                        processMessageBlock(messageBlockBuilder, nextStepNumber);
-                        processWitnessBlock(board, messageWitnessBlockBuilder);
+                        next = messages.next();
                     }
-                }
-            }
-            else
-            {
-                for (PostedMessage postedMessage : board)
-                {
-                    int newIndex = indexGen.nextIndex();
-                    Commitment commitment = committer.commit(newIndex);
-
-                    messageBlockBuilder.add(newIndex, postedMessage.getMessage(), commitment.getCommitment());
-                    messageWitnessBlockBuilder.add(postedMessage.getIndex(), new MessageCommitment(newIndex, commitment.getSecret()));
 
-                    if (messageBlockBuilder.isFull())
+                    if (transferWindow.isBlockFull(postedMessages.size(), blockBytes, next.getMessage().length))
                     {
-                        processMessageBlock(messageBlockBuilder, nextStepNumber);
-                        processWitnessBlock(board, messageWitnessBlockBuilder);
+                        break;
                     }
+
+                    postedMessages.add(next);
+                    newIndexes.add(indexGen.nextIndex());
+                    blockBytes += next.getMessage().length;
+                    next = null;
+                }
+
+                pending.addLast(workers.submit(new TransformBlockTask(transforms, committers, streamingTransformer, postedMessages, newIndexes)));
+
+                if (pending.size() == maxPending)
+                {
+                    processBlock(board, transferWindow, pending.removeFirst().get(), nextStepNumber);
                 }
             }
 
-            if (!messageBlockBuilder.isEmpty())
+            while (!pending.isEmpty())
             {
-                processMessageBlock(messageBlockBuilder, nextStepNumber);
-                processWitnessBlock(board, messageWitnessBlockBuilder);
+                processBlock(board, transferWindow, pending.removeFirst().get(), nextStepNumber);
             }
 
+            transferWindow.flush();
+
             MessageReply reply = peerConnection.sendMessage(CommandMessage.Type.TRANSFER_TO_BOARD_ENDED, new TransitBoardMessage(message.getOperationNumber(), board.getName(), nextStepNumber));
 
             if (reply.getType() != MessageReply.Type.OKAY)
@@ -168,26 +234,147 @@ public class TransformShuffleAndMoveTask
          {
              nodeContext.getEventNotifier().notify(EventNotifier.Level.ERROR, "TransformShuffleAndMoveTask connection failed: " + e.getMessage(), e);
          }
+         finally
+         {
+             workers.shutdownNow();
+             transferWindow.shutdown();
+
+             if (streamingTransformer != null)
+             {
+                 streamingTransformer.shutdown();
+             }
+         }
+    }
+
+    /**
+     * Find the public key with the passed in ID, either on this node or elsewhere on the MIXNET.
+     *
+     * @param nodeContext the context of the node doing the looking.
+     * @param keyID the ID of the key.
+     * @return the public key, null if it cannot be found.
+     * @throws IOException if the key cannot be decoded.
+     * @throws ServiceConnectionException if the key cannot be fetched from a peer.
+     */
+    public static ECPublicKeyParameters fetchPublicKey(NodeContext nodeContext, String keyID)
+        throws IOException, ServiceConnectionException
+    {
+        SubjectPublicKeyInfo keyInfo = nodeContext.getPublicKey(keyID);
+
+        if (keyInfo != null)
+        {
+            return (ECPublicKeyParameters)PublicKeyFactory.createKey(keyInfo);
+        }
+
+        // see if the key exists elsewhere on the MIXNET.
+        FetchPublicKeyMessage fetchMessage = new FetchPublicKeyMessage(keyID);
+
+        MessageReply reply = nodeContext.getPeerMap().values().iterator().next().sendMessage(ClientMessage.Type.FETCH_PUBLIC_KEY, fetchMessage);
+
+        if (reply.getPayload() != null)
+        {
+            return (ECPublicKeyParameters)PublicKeyFactory.createKey(reply.getPayload().toASN1Primitive().getEncoded());
+        }
+
+        return null;
     }
 
-    private void processMessageBlock(PostedMessageBlock.Builder messageBlockBuilder, int nextStepNumber)
-        throws ServiceConnectionException
+    private void processBlock(BulletinBoard board, BlockTransferWindow transferWindow, TransformedBlock block, int nextStepNumber)
+        throws ServiceConnectionException, InterruptedException
     {
-        MessageReply reply = peerConnection.sendMessage(CommandMessage.Type.TRANSFER_TO_BOARD, new BoardUploadBlockMessage(message.getOperationNumber(), message.getBoardName(), nextStepNumber, messageBlockBuilder.build()));
+        transferWindow.send(new BoardUploadBlockMessage(message.getOperationNumber(), message.getBoardName(), nextStepNumber, block.messageBlock));
 
-        messageBlockBuilder.clear();
+        board.postWitnessBlock(block.witnessBlock);
+    }
+
+    private static class TransformedBlock
+    {
+        private final PostedMessageBlock messageBlock;
+        private final MessageWitnessBlock witnessBlock;
 
-        if (reply.getType() != MessageReply.Type.OKAY)
+        TransformedBlock(PostedMessageBlock messageBlock, MessageWitnessBlock witnessBlock)
         {
-            throw new ServiceConnectionException("message failed");
+            this.messageBlock = messageBlock;
+            this.witnessBlock = witnessBlock;
         }
     }
 
-    private void processWitnessBlock(BulletinBoard board, MessageWitnessBlock.Builder messageWitnessBlockBuilder)
-        throws ServiceConnectionException
+    private static class TransformBlockTask
+        implements Callable<TransformedBlock>
     {
-        board.postWitnessBlock(messageWitnessBlockBuilder.build());
+        private final ThreadLocal<Transform> transforms;
+        private final ThreadLocal<IndexCommitter> committers;
+        private final StreamingTransformer streamingTransformer;
+        private final List<PostedMessage> postedMessages;
+        private final List<Integer> newIndexes;
+
+        TransformBlockTask(ThreadLocal<Transform> transforms, ThreadLocal<IndexCommitter> committers, StreamingTransformer streamingTransformer, List<PostedMessage> postedMessages, List<Integer> newIndexes)
+        {
+            this.transforms = transforms;
+            this.committers = committers;
+            this.streamingTransformer = streamingTransformer;
+            this.postedMessages = postedMessages;
+            this.newIndexes = newIndexes;
+        }
+
+        @Override
+        public TransformedBlock call()
+        {
+            Transform transform = transforms.get();
+            IndexCommitter committer = committers.get();
+
+            PostedMessageBlock.Builder messageBlockBuilder = new PostedMessageBlock.Builder(postedMessages.size());
+            MessageWitnessBlock.Builder messageWitnessBlockBuilder = new MessageWitnessBlock.Builder(postedMessages.size());
 
-        messageWitnessBlockBuilder.clear();
+            StreamingTransformer.TransformedMessage[] streamed = new StreamingTransformer.TransformedMessage[postedMessages.size()];
+            byte[][] transformed = null;
+            byte[][] details = null;
+
+            if (transform != null)
+            {
+                // pick up anything already streamed, the rest of the block is transformed in one go.
+                List<byte[]> toTransform = new ArrayList<>(postedMessages.size());
+
+                for (int i = 0; i != postedMessages.size(); i++)
+                {
+                    PostedMessage postedMessage = postedMessages.get(i);
+
+                    streamed[i] = (streamingTransformer != null) ? streamingTransformer.takeTransformed(postedMessage.getIndex()) : null;
+                    if (streamed[i] == null)
+                    {
+                        toTransform.add(postedMessage.getMessage());
+                    }
+                }
+
+                details = new byte[toTransform.size()][];
+                transformed = transform.transformBlock(toTransform.toArray(new byte[toTransform.size()][]), details);
+            }
+
+            int transformedIndex = 0;
+            for (int i = 0; i != postedMessages.size(); i++)
+            {
+                PostedMessage postedMessage = postedMessages.get(i);
+                int newIndex = newIndexes.get(i);
+                Commitment commitment = committer.commit(newIndex);
+
+                if (streamed[i] != null)
+                {
+                    messageBlockBuilder.add(newIndex, streamed[i].getMessage(), commitment.getCommitment());
+                    messageWitnessBlockBuilder.add(postedMessage.getIndex(), new MessageCommitment(newIndex, commitment.getSecret(), streamed[i].getDetail()));
+                }
+                else if (transform != null)
+                {
+                    messageBlockBuilder.add(newIndex, transformed[transformedIndex], commitment.getCommitment());
+                    messageWitnessBlockBuilder.add(postedMessage.getIndex(), new MessageCommitment(newIndex, commitment.getSecret(), details[transformedIndex]));
+                    transformedIndex++;
+                }
+                else
+                {
+                    messageBlockBuilder.add(newIndex, postedMessage.getMessage(), commitment.getCommitment());
+                    messageWitnessBlockBuilder.add(postedMessage.getIndex(), new MessageCommitment(newIndex, commitment.getSecret()));
+                }
+            }
+
+            return new TransformedBlock(messageBlockBuilder.build(), messageWitnessBlockBuilder.build());
+        }
     }
 }
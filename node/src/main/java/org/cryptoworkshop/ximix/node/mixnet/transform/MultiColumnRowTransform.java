@@ -16,18 +16,20 @@
 package org.cryptoworkshop.ximix.node.mixnet.transform;
 
 import java.io.IOException;
-import java.math.BigInteger;
 import java.security.SecureRandom;
 
-import org.bouncycastle.crypto.ec.ECFixedTransform;
 import org.bouncycastle.crypto.ec.ECPair;
-import org.bouncycastle.crypto.ec.ECPairFactorTransform;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
-import org.bouncycastle.math.ec.ECConstants;
+import org.cryptoworkshop.ximix.common.asn1.board.BatchEncoder;
 import org.cryptoworkshop.ximix.common.asn1.board.PairSequence;
 
 /**
  * A transform that can handle multiple columns of EC points in a single row.
+ * <p>
+ * The transform can be initialised with either the public key, in which case a fresh factor is generated, or
+ * with a ReEncryptionFactor which already carries the points for its factor. Either way every pair is then
+ * re-encrypted by adding kG and kY to it.
+ * </p>
  */
 public class MultiColumnRowTransform
     implements Transform
@@ -35,7 +37,8 @@ public class MultiColumnRowTransform
     public static final String NAME = "MultiColumnRowTransform";
 
     private ECPublicKeyParameters parameters;
-    private ECPairFactorTransform transform;
+    private ReEncryptionFactor factor;
+    private boolean pointCompression;
 
     public String getName()
     {
@@ -44,56 +47,73 @@ public class MultiColumnRowTransform
 
     public void init(Object o)
     {
-        this.parameters = (ECPublicKeyParameters)o;
-
-        BigInteger kValue = generateK(parameters.getParameters().getN(), new SecureRandom()); // TODO: make configurable?
+        if (o instanceof ReEncryptionFactor)
+        {
+            this.factor = (ReEncryptionFactor)o;
+        }
+        else
+        {
+            this.factor = ReEncryptionFactor.generate((ECPublicKeyParameters)o, new SecureRandom()); // TODO: make configurable?
+        }
 
-        transform = new ECFixedTransform(kValue);
+        this.parameters = factor.getKey();
+    }
 
-        transform.init(parameters);
+    public void setPointCompression(boolean pointCompression)
+    {
+        this.pointCompression = pointCompression;
     }
 
     public byte[] transform(byte[] message)
     {
-        ECPair[] pairs = PairSequence.getInstance(parameters.getParameters().getCurve(), message).getECPairs();
+        return transformBlock(new byte[][] { message }, new byte[1][])[0];
+    }
 
-        for (int i = 0; i != pairs.length; i++)
+    public byte[][] transformBlock(byte[][] messages, byte[][] details)
+    {
+        PairSequence[] sequences = new PairSequence[messages.length];
+
+        for (int i = 0; i != messages.length; i++)
         {
-            pairs[i] = transform.transform(pairs[i]);
+            PairSequence sequence = PairSequence.getInstance(parameters.getParameters().getCurve(), messages[i]);
+            ECPair[] pairs = sequence.getECPairs();
+
+            for (int j = 0; j != pairs.length; j++)
+            {
+                pairs[j] = new ECPair(pairs[j].getX().add(factor.getGamma()), pairs[j].getY().add(factor.getPhi()));
+            }
+
+            sequences[i] = new PairSequence(pairs, pointCompression || sequence.isCompressed());
+            details[i] = getLastDetail();
         }
 
         try
         {
-            return new PairSequence(pairs).getEncoded();
+            // the points for the whole block are normalised together by the encoder.
+            return BatchEncoder.getEncoded(sequences);
         }
         catch (IOException e)
         {
             // TODO: log an error, or maybe throw an exception
-            return message;
+            return messages.clone();
         }
     }
 
     public byte[] getLastDetail()
     {
-        return transform.getTransformValue().toByteArray();
-    }
-
-    private BigInteger generateK(BigInteger n, SecureRandom random)
-    {
-        int                    nBitLength = n.bitLength();
-        BigInteger             k = new BigInteger(nBitLength, random);
-
-        while (k.equals(ECConstants.ZERO) || (k.compareTo(n) >= 0))
-        {
-            k = new BigInteger(nBitLength, random);
-        }
-
-        return k;
+        return factor.getK().toByteArray();
     }
 
     @SuppressWarnings({"CloneDoesntCallSuperClone", "CloneDoesntDeclareCloneNotSupportedException"})
     public Transform clone()
     {
-        return new MultiColumnRowTransform();
+        MultiColumnRowTransform copy = new MultiColumnRowTransform();
+
+        // a copy of an initialised transform re-encrypts with the same k, so its details match the original's.
+        copy.parameters = parameters;
+        copy.factor = factor;
+        copy.pointCompression = pointCompression;
+
+        return copy;
     }
 }
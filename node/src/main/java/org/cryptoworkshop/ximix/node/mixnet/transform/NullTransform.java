@@ -33,11 +33,26 @@ public class NullTransform
         // ignore
     }
 
+    public void setPointCompression(boolean pointCompression)
+    {
+        // ignore - messages are passed through as is.
+    }
+
     public byte[] transform(byte[] message)
     {
         return message;
     }
 
+    public byte[][] transformBlock(byte[][] messages, byte[][] details)
+    {
+        for (int i = 0; i != messages.length; i++)
+        {
+            details[i] = new byte[0];
+        }
+
+        return messages.clone();
+    }
+
     @Override
     public byte[] getLastDetail()
     {
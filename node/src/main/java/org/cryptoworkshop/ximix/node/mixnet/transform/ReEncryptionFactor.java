@@ -0,0 +1,165 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.transform;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.security.SecureRandom;
+
+import org.bouncycastle.asn1.ASN1EncodableVector;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERSequence;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.math.ec.ECConstants;
+import org.bouncycastle.math.ec.ECPoint;
+import org.cryptoworkshop.ximix.common.crypto.ECFixedBaseCache;
+
+/**
+ * A re-encryption factor k for an EC ElGamal public key Y, together with the points kG and kY, so a pair can be
+ * re-encrypted by adding the points rather than doing the scalar multiplications again.
+ */
+public class ReEncryptionFactor
+{
+    private final ECPublicKeyParameters key;
+    private final BigInteger k;
+    private final ECPoint gamma;
+    private final ECPoint phi;
+
+    /**
+     * Base constructor - calculate the points for the factor k.
+     *
+     * @param key the public key the factor is for.
+     * @param k the factor.
+     */
+    public ReEncryptionFactor(ECPublicKeyParameters key, BigInteger k)
+    {
+        ECDomainParameters ec = key.getParameters();
+
+        this.key = key;
+        this.k = k;
+        this.gamma = ECFixedBaseCache.multiply(ec.getG(), k).normalize();
+        this.phi = ECFixedBaseCache.multiply(key.getQ(), k).normalize();
+    }
+
+    private ReEncryptionFactor(ECPublicKeyParameters key, BigInteger k, ECPoint gamma, ECPoint phi)
+    {
+        this.key = key;
+        this.k = k;
+        this.gamma = gamma;
+        this.phi = phi;
+    }
+
+    /**
+     * Generate a new random factor for key.
+     *
+     * @param key the public key the factor is for.
+     * @param random the source of randomness for k.
+     * @return a new factor.
+     */
+    public static ReEncryptionFactor generate(ECPublicKeyParameters key, SecureRandom random)
+    {
+        BigInteger n = key.getParameters().getN();
+        int nBitLength = n.bitLength();
+        BigInteger k = new BigInteger(nBitLength, random);
+
+        while (k.equals(ECConstants.ZERO) || (k.compareTo(n) >= 0))
+        {
+            k = new BigInteger(nBitLength, random);
+        }
+
+        return new ReEncryptionFactor(key, k);
+    }
+
+    /**
+     * Recover a factor from its encoding.
+     *
+     * @param key the public key the factor was calculated for.
+     * @param encoding the output of a previous call to getEncoded().
+     * @return the factor.
+     */
+    public static ReEncryptionFactor getInstance(ECPublicKeyParameters key, byte[] encoding)
+    {
+        ASN1Sequence seq = ASN1Sequence.getInstance(encoding);
+
+        return new ReEncryptionFactor(key,
+                                      ASN1Integer.getInstance(seq.getObjectAt(0)).getValue(),
+                                      key.getParameters().getCurve().decodePoint(ASN1OctetString.getInstance(seq.getObjectAt(1)).getOctets()),
+                                      key.getParameters().getCurve().decodePoint(ASN1OctetString.getInstance(seq.getObjectAt(2)).getOctets()));
+    }
+
+    /**
+     * Return the public key this factor is for.
+     *
+     * @return the public key.
+     */
+    public ECPublicKeyParameters getKey()
+    {
+        return key;
+    }
+
+    /**
+     * Return the factor.
+     *
+     * @return k.
+     */
+    public BigInteger getK()
+    {
+        return k;
+    }
+
+    /**
+     * Return the point added to the first element of a pair.
+     *
+     * @return kG.
+     */
+    public ECPoint getGamma()
+    {
+        return gamma;
+    }
+
+    /**
+     * Return the point added to the second element of a pair.
+     *
+     * @return kY.
+     */
+    public ECPoint getPhi()
+    {
+        return phi;
+    }
+
+    /**
+     * Return a DER encoding of the factor and its points.
+     *
+     * @return the encoded factor.
+     * @throws IOException if the factor cannot be encoded.
+     */
+    public byte[] getEncoded()
+        throws IOException
+    {
+        ASN1EncodableVector v = new ASN1EncodableVector();
+
+        v.add(new ASN1Integer(k));
+        v.add(new DEROctetString(gamma.getEncoded()));
+        v.add(new DEROctetString(phi.getEncoded()));
+
+        return new DERSequence(v).getEncoded(ASN1Encoding.DER);
+    }
+}
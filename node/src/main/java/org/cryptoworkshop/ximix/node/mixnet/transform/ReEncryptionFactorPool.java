@@ -0,0 +1,279 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.transform;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.util.Arrays;
+import org.cryptoworkshop.ximix.common.util.EventNotifier;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+
+/**
+ * A pool of precomputed re-encryption factors, kept for each key a shuffle has been carried out with.
+ * <p>
+ * The pool is topped up one factor at a time once no factor has been taken for a while, so the scalar
+ * multiplications are done while the node is otherwise idle. A factor is removed from the pool, and the removal
+ * committed, before it is handed out so it is never used twice, even if the node is restarted.
+ * </p>
+ * <p>
+ * A factor is the secret which hides the link between a message and its re-encryption, and a pool stored in a
+ * file holds the factors unencrypted, so a file should only be used where it is protected as well as the node's keys.
+ * </p>
+ */
+public class ReEncryptionFactorPool
+{
+    private final DB poolDB;
+    private final ConcurrentNavigableMap<String, byte[]> factorMap;
+    private final ConcurrentNavigableMap<String, byte[]> keyMap;
+    private final Map<String, ECPublicKeyParameters> keys = new HashMap<>();
+    private final int poolSize;
+    private final long delay;
+    private final ScheduledExecutorService scheduler;
+    private final EventNotifier eventNotifier;
+    private final SecureRandom random = new SecureRandom();
+
+    // seeded from the clock so factors added after a restart sort after the ones already in the pool.
+    private final AtomicLong sequence = new AtomicLong(System.currentTimeMillis());
+
+    private long lastTaken;
+    private boolean isRefillScheduled;
+    private boolean isClosed;
+
+    /**
+     * Base constructor.
+     *
+     * @param poolFile the file the pool is stored in, unencrypted, null if the pool is to be kept in memory.
+     * @param poolSize the number of factors to keep for each key.
+     * @param delay the time in milliseconds to wait after a factor is taken before topping up the pool.
+     * @param scheduler the executor to do the top ups on.
+     * @param eventNotifier the notifier for any errors.
+     */
+    public ReEncryptionFactorPool(File poolFile, int poolSize, long delay, ScheduledExecutorService scheduler, EventNotifier eventNotifier)
+    {
+        this.poolSize = poolSize;
+        this.delay = delay;
+        this.scheduler = scheduler;
+        this.eventNotifier = eventNotifier;
+
+        if (poolFile != null)
+        {
+            poolDB = DBMaker.newFileDB(poolFile)
+                .closeOnJvmShutdown()
+                .make();
+        }
+        else
+        {
+            poolDB = DBMaker.newMemoryDB()
+                .closeOnJvmShutdown()
+                .make();
+        }
+
+        factorMap = poolDB.getTreeMap("factors");
+        keyMap = poolDB.getTreeMap("keys");
+    }
+
+    /**
+     * Take a factor for the passed in key, from the pool if there is one available, otherwise a newly generated one.
+     *
+     * @param keyID the ID of the key.
+     * @param key the public key the factor is for.
+     * @return a factor which has not been handed out before.
+     */
+    public ReEncryptionFactor take(String keyID, ECPublicKeyParameters key)
+    {
+        byte[] encoding = null;
+
+        synchronized (this)
+        {
+            byte[] keyEncoding = key.getQ().getEncoded();
+
+            // anything left from a different key with the same ID is of no use to us.
+            if (!Arrays.areEqual(keyEncoding, keyMap.get(keyID)))
+            {
+                factorMap.subMap(firstEntryKey(keyID), lastEntryKey(keyID)).clear();
+                keyMap.put(keyID, keyEncoding);
+            }
+
+            keys.put(keyID, key);
+
+            Map.Entry<String, byte[]> entry = factorMap.subMap(firstEntryKey(keyID), lastEntryKey(keyID)).firstEntry();
+
+            if (entry != null)
+            {
+                factorMap.remove(entry.getKey());
+                encoding = entry.getValue();
+            }
+
+            poolDB.commit();
+
+            lastTaken = System.currentTimeMillis();
+
+            scheduleRefill(delay);
+        }
+
+        if (encoding != null)
+        {
+            return ReEncryptionFactor.getInstance(key, encoding);
+        }
+
+        return ReEncryptionFactor.generate(key, random);
+    }
+
+    /**
+     * Return the number of factors currently in the pool for a key.
+     *
+     * @param keyID the ID of the key.
+     * @return the number of precomputed factors available.
+     */
+    public synchronized int getAvailable(String keyID)
+    {
+        return factorMap.subMap(firstEntryKey(keyID), lastEntryKey(keyID)).size();
+    }
+
+    /**
+     * Close the pool, committing anything not yet committed.
+     */
+    public synchronized void close()
+    {
+        isClosed = true;
+
+        poolDB.close();
+    }
+
+    /**
+     * Delete a pool stored in the passed in file, along with any files MapDB keeps alongside it.
+     *
+     * @param poolFile the file the pool was stored in.
+     */
+    public static void delete(File poolFile)
+    {
+        for (String suffix : new String[] { ".p", ".t", "" })
+        {
+            new File(poolFile.getPath() + suffix).delete();
+        }
+    }
+
+    private void scheduleRefill(long refillDelay)
+    {
+        if (!isRefillScheduled && !isClosed)
+        {
+            try
+            {
+                scheduler.schedule(new RefillTask(), refillDelay, TimeUnit.MILLISECONDS);
+
+                isRefillScheduled = true;
+            }
+            catch (RejectedExecutionException e)
+            {
+                // the node is shutting down.
+            }
+        }
+    }
+
+    private static String firstEntryKey(String keyID)
+    {
+        return keyID + "/";
+    }
+
+    private static String lastEntryKey(String keyID)
+    {
+        return keyID + "0";  // '0' follows '/'
+    }
+
+    private class RefillTask
+        implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            String keyID = null;
+            ECPublicKeyParameters key = null;
+
+            synchronized (ReEncryptionFactorPool.this)
+            {
+                isRefillScheduled = false;
+
+                if (isClosed)
+                {
+                    return;
+                }
+
+                long idle = System.currentTimeMillis() - lastTaken;
+
+                if (idle < delay)
+                {
+                    scheduleRefill(delay - idle);
+                    return;
+                }
+
+                for (Map.Entry<String, ECPublicKeyParameters> entry : keys.entrySet())
+                {
+                    if (getAvailable(entry.getKey()) < poolSize)
+                    {
+                        keyID = entry.getKey();
+                        key = entry.getValue();
+                        break;
+                    }
+                }
+
+                if (keyID == null)
+                {
+                    return;
+                }
+            }
+
+            ReEncryptionFactor factor = ReEncryptionFactor.generate(key, random);
+
+            synchronized (ReEncryptionFactorPool.this)
+            {
+                // the pool may have been closed, or the key replaced, while we were working.
+                if (isClosed)
+                {
+                    return;
+                }
+
+                if (keys.get(keyID) == key)
+                {
+                    try
+                    {
+                        factorMap.put(firstEntryKey(keyID) + String.format("%019d", sequence.incrementAndGet()), factor.getEncoded());
+
+                        poolDB.commit();
+                    }
+                    catch (IOException e)
+                    {
+                        eventNotifier.notify(EventNotifier.Level.ERROR, "Unable to store re-encryption factor for " + keyID + ": " + e.getMessage(), e);
+                        return;
+                    }
+                }
+
+                // one factor at a time, so anything else waiting on the scheduler gets a look in.
+                scheduleRefill(0);
+            }
+        }
+    }
+}
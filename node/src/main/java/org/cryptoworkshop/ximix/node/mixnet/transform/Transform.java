@@ -35,6 +35,14 @@ public interface Transform
      */
     void init(Object o);
 
+    /**
+     * Specify that EC points in transformed messages should always be written in compressed form. When this is
+     * false points are written in the same form as they were read.
+     *
+     * @param pointCompression true if points should always be compressed, false otherwise.
+     */
+    void setPointCompression(boolean pointCompression);
+
     /**
      * Transform a message.
      *
@@ -43,6 +51,16 @@ public interface Transform
      */
     byte[] transform(byte[] message);
 
+    /**
+     * Transform a block of messages. Implementations can use this to share work across the block, such as the
+     * conversion of the resulting points to affine form.
+     *
+     * @param messages the data representing the messages to be transformed.
+     * @param details an array to receive, for each message, the data getLastDetail() would return for it.
+     * @return the transformed messages as byte arrays, in the same order as the originals.
+     */
+    byte[][] transformBlock(byte[][] messages, byte[][] details);
+
     /**
      * Return any data generated during the last transform that could be used to verify the transform later.
      *
@@ -183,6 +183,12 @@ public class NodeMonitorService
                 builder.put("vm.gc.time.delta", gcTime - this.gcTime);
                 builder.put("vm.used-memory", rt.totalMemory() - rt.freeMemory());
 
+                Map<String, Map<String, Object>> connectionStats = nodeContext.getConnectionStatistics();
+                if (!connectionStats.isEmpty())
+                {
+                    builder.put("connections.compression", connectionStats);
+                }
+
 
                 nsm = builder.build();
 
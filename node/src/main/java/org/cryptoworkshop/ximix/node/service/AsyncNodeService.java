@@ -0,0 +1,34 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.service;
+
+import org.cryptoworkshop.ximix.common.asn1.message.Message;
+
+/**
+ * A node service which can answer some messages later, from whatever finishes the work the message asked for, rather
+ * than holding a service thread while it waits.
+ */
+public interface AsyncNodeService
+    extends NodeService
+{
+    /**
+     * Start handling a message, returning a reply which will be completed once the work is done.
+     *
+     * @param message a message for processing.
+     * @return a pending reply, or null if the message should be passed to handle() instead.
+     */
+    PendingReply handleAsync(Message message);
+}
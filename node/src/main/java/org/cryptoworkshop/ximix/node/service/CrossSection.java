@@ -74,6 +74,18 @@ public class CrossSection
         increment(name, (Math.abs(value) * -1));
     }
 
+    public void set(final String name, final Object value)
+    {
+        decoupler.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                values.put(name, value);
+            }
+        });
+    }
+
     public Map<String, Object> getMap()
     {
         FutureTask<Map<String, Object>> task = new FutureTask(new Callable<Map<String, Object>>()
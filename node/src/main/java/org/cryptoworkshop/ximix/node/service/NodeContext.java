@@ -177,6 +177,14 @@ public interface NodeContext
      */
     Map<NodeService,Map<String,Object>> getServiceStatistics();
 
+    /**
+     * Return the compression statistics for each connection to this node which is using compression, keyed by the
+     * address of the other end.
+     *
+     * @return a Map of connection statistics.
+     */
+    Map<String,Map<String,Object>> getConnectionStatistics();
+
     /**
      * Return a general description about this node.
      *
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.service;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+
+/**
+ * A reply to a message which is filled in once the work for the message is done. Listeners are called on the thread
+ * completing the reply, or straight away if it is already complete, so they should only hand the reply on.
+ */
+public class PendingReply
+{
+    /**
+     * Listener for the completion of a reply.
+     */
+    public interface Listener
+    {
+        /**
+         * Called once with the completed reply.
+         *
+         * @param reply the reply to the message.
+         */
+        void replied(MessageReply reply);
+    }
+
+    private final List<Listener> listeners = new ArrayList<>();
+
+    private MessageReply reply;
+
+    /**
+     * Complete the reply. Only the first call has any effect.
+     *
+     * @param reply the reply to the message.
+     * @return true if this call completed the reply, false if it had already been completed.
+     */
+    public boolean complete(MessageReply reply)
+    {
+        List<Listener> completed;
+
+        synchronized (this)
+        {
+            if (this.reply != null)
+            {
+                return false;
+            }
+
+            this.reply = reply;
+
+            completed = new ArrayList<>(listeners);
+            listeners.clear();
+
+            notifyAll();
+        }
+
+        for (Listener listener : completed)
+        {
+            listener.replied(reply);
+        }
+
+        return true;
+    }
+
+    /**
+     * Add a listener to be called when the reply is complete.
+     *
+     * @param listener the listener to add.
+     */
+    public void addListener(Listener listener)
+    {
+        MessageReply reply;
+
+        synchronized (this)
+        {
+            if (this.reply == null)
+            {
+                listeners.add(listener);
+                return;
+            }
+
+            reply = this.reply;
+        }
+
+        listener.replied(reply);
+    }
+
+    /**
+     * Return true if the reply has been completed.
+     *
+     * @return true if complete, false otherwise.
+     */
+    public synchronized boolean isDone()
+    {
+        return reply != null;
+    }
+
+    /**
+     * Wait for the reply to be completed and return it.
+     *
+     * @return the completed reply.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    public synchronized MessageReply get()
+        throws InterruptedException
+    {
+        while (reply == null)
+        {
+            wait();
+        }
+
+        return reply;
+    }
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+
+/**
+ * The consumer of a data stream opened by a StreamingNodeService. The transport takes care of checking the
+ * stream against the checksum the sender provides at the end, so complete() is only called on a stream which has
+ * arrived intact.
+ */
+public interface StreamReceiver
+{
+    /**
+     * Accept the next block of data from the stream. The block's contents must be used before the call returns.
+     *
+     * @param data a buffer holding the next block of data.
+     * @throws IOException if the data cannot be stored.
+     */
+    void receive(ByteBuffer data)
+        throws IOException;
+
+    /**
+     * Signal that the whole stream has arrived and been verified.
+     *
+     * @return the reply to send back to the sender.
+     */
+    MessageReply complete();
+
+    /**
+     * Signal that the stream has failed, or failed verification, and anything received should be discarded.
+     */
+    void abort();
+}
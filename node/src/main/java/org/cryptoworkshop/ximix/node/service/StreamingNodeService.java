@@ -0,0 +1,38 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.service;
+
+import java.io.IOException;
+
+import org.cryptoworkshop.ximix.common.asn1.message.Message;
+
+/**
+ * A node service which can take the data for a message as a raw stream following the message, rather than as a
+ * series of messages.
+ */
+public interface StreamingNodeService
+    extends NodeService
+{
+    /**
+     * Open a receiver for the data stream which is to follow the passed in message.
+     *
+     * @param message the message introducing the stream.
+     * @return a receiver for the stream, or null if the message is not one that is followed by a stream.
+     * @throws IOException if a receiver cannot be set up for the stream.
+     */
+    StreamReceiver openStream(Message message)
+        throws IOException;
+}
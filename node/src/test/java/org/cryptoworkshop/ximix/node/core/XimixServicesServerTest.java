@@ -0,0 +1,703 @@
+package org.cryptoworkshop.ximix.node.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1Encoding;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.Pack;
+import org.cryptoworkshop.ximix.client.connection.ServicesConnection;
+import org.cryptoworkshop.ximix.common.asn1.message.CapabilityMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CommandMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CompressedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.ConnectionOptions;
+import org.cryptoworkshop.ximix.common.asn1.message.Message;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageEnvelope;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+import org.cryptoworkshop.ximix.common.asn1.message.NodeInfo;
+import org.cryptoworkshop.ximix.common.config.Config;
+import org.cryptoworkshop.ximix.common.util.MessageCompressor;
+import org.cryptoworkshop.ximix.node.crypto.test.TestNotifier;
+import org.cryptoworkshop.ximix.node.service.AsyncNodeService;
+import org.cryptoworkshop.ximix.node.service.BasicNodeService;
+import org.cryptoworkshop.ximix.node.service.ListeningSocketInfo;
+import org.cryptoworkshop.ximix.node.service.NodeContext;
+import org.cryptoworkshop.ximix.node.service.PendingReply;
+import org.cryptoworkshop.ximix.node.service.StreamReceiver;
+import org.cryptoworkshop.ximix.node.service.StreamingNodeService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the node's services transport, run against a node with a single scriptable service.
+ */
+public class XimixServicesServerTest
+    extends TestCase
+{
+    private static volatile CountDownLatch blockLatch;
+    private static final Map<String, PendingReply> pendingReplies = new HashMap<>();
+
+    private static volatile TestReceiver streamReceiver;
+
+    private XimixNodeContext nodeContext;
+    private XimixServicesServer server;
+    private int port;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        if (Security.getProvider("BC") == null)
+        {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
+        blockLatch = new CountDownLatch(1);
+
+        synchronized (pendingReplies)
+        {
+            pendingReplies.clear();
+        }
+
+        streamReceiver = null;
+
+        ServerSocket probe = new ServerSocket(0);
+
+        port = probe.getLocalPort();
+        probe.close();
+
+        String config = "<config><name>A</name><trustAnchor>trustCa</trustAnchor><keyManagerStore>nodeCaStore</keyManagerStore>"
+            + "<keyManagerPassword>Hello</keyManagerPassword><portNo>" + port + "</portNo><portBacklog>10</portBacklog>"
+            + "<portAddress>127.0.0.1</portAddress><description></description><services><service>"
+            + "<implementation>" + ScriptedService.class.getName() + "</implementation></service></services></config>";
+
+        nodeContext = new XimixNodeContext(new HashMap<String, ServicesConnection>(), new Config(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(config.getBytes("UTF-8"))).getDocumentElement()), new TestNotifier());
+
+        server = new XimixServicesServer.Builder(nodeContext)
+            .withServiceThreads(2)
+            .withMaxConnectionRequests(8)
+            .build();
+
+        final ListeningSocketInfo socketInfo = nodeContext.getListeningSocketInfo();
+
+        Thread serverThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    server.run(socketInfo);
+                }
+                catch (IOException e)
+                {
+                    e.printStackTrace();
+                }
+            }
+        });
+
+        serverThread.setDaemon(true);
+        serverThread.start();
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        blockLatch.countDown();
+
+        server.stop(5, TimeUnit.SECONDS);
+        nodeContext.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testConcurrentMultiplexedRequests()
+        throws Exception
+    {
+        TestConnection connection = new TestConnection();
+
+        // more than the connection may have in service at once, so the node has to hold some back.
+        for (int i = 0; i != 100; i++)
+        {
+            connection.send(i, "echo:" + i);
+        }
+
+        Set<Integer> seen = new HashSet<>();
+
+        for (int i = 0; i != 100; i++)
+        {
+            MessageEnvelope envelope = connection.receive();
+            MessageReply reply = MessageReply.getInstance(envelope.getContent());
+
+            assertEquals(MessageReply.Type.OKAY, reply.getType());
+            assertEquals("echo:" + envelope.getRequestID(), DERUTF8String.getInstance(reply.getPayload()).getString());
+            assertTrue(seen.add(envelope.getRequestID()));
+        }
+
+        connection.close();
+    }
+
+    @Test
+    public void testSlowHandler()
+        throws Exception
+    {
+        TestConnection connection = new TestConnection();
+
+        // more blocked handlers than the node keeps service threads for.
+        for (int i = 0; i != 4; i++)
+        {
+            connection.send(i, "block:" + i);
+        }
+
+        connection.send(4, "echo:4");
+
+        MessageEnvelope envelope = connection.receive();
+
+        assertEquals(4, envelope.getRequestID());
+
+        blockLatch.countDown();
+
+        Set<Integer> seen = new HashSet<>();
+        for (int i = 0; i != 4; i++)
+        {
+            seen.add(connection.receive().getRequestID());
+        }
+
+        assertEquals(4, seen.size());
+
+        connection.close();
+    }
+
+    @Test
+    public void testPendingReplies()
+        throws Exception
+    {
+        TestConnection connection = new TestConnection();
+
+        for (int i = 0; i != 8; i++)
+        {
+            connection.send(i, "pending:" + i);
+        }
+
+        waitForPending(8);
+
+        // the connection is at its limit, so this is only read once a pending reply goes out.
+        connection.send(8, "echo:8");
+
+        completePending("pending:5");
+
+        assertEquals(5, connection.receive().getRequestID());
+        assertEquals(8, connection.receive().getRequestID());
+
+        for (int i = 0; i != 8; i++)
+        {
+            if (i != 5)
+            {
+                completePending("pending:" + i);
+
+                assertEquals(i, connection.receive().getRequestID());
+            }
+        }
+
+        connection.close();
+    }
+
+    @Test
+    public void testClientDisconnectMidRequest()
+        throws Exception
+    {
+        TestConnection connection = new TestConnection();
+
+        connection.send(1, "block:1");
+        connection.send(2, "pending:2");
+
+        waitForPending(1);
+
+        connection.close();
+
+        // the replies now have nowhere to go, which must not upset the node.
+        blockLatch.countDown();
+        completePending("pending:2");
+
+        TestConnection next = new TestConnection();
+
+        next.send(3, "echo:3");
+
+        MessageEnvelope envelope = next.receive();
+
+        assertEquals(3, envelope.getRequestID());
+        assertEquals(MessageReply.Type.OKAY, MessageReply.getInstance(envelope.getContent()).getType());
+
+        next.close();
+    }
+
+    @Test
+    public void testCompressedAndPlainClients()
+        throws Exception
+    {
+        String command = "echo:" + repeat('x', 20000);
+        MessageCompressor compressor = new MessageCompressor(1024, 300000);
+        TestConnection compressed = new TestConnection();
+        TestConnection plain = new TestConnection();
+
+        compressed.send(new ConnectionOptions(NodeInfo.COMPRESSION, 1024, 300000));
+        compressed.send(new MessageEnvelope(1, compressor.compress(new CommandMessage(CommandMessage.Type.NODE_STATISTICS, new DERUTF8String(command)))));
+        plain.send(1, command);
+
+        MessageEnvelope envelope = compressed.receive();
+
+        // a client that asked for compression gets a compressed reply, one that didn't gets it as is.
+        assertTrue(CompressedMessage.isCompressed(envelope.getContent()));
+        assertEquals(command, DERUTF8String.getInstance(MessageReply.getInstance(compressor.decompress(CompressedMessage.getInstance(envelope.getContent()))).getPayload()).getString());
+
+        envelope = plain.receive();
+
+        assertFalse(CompressedMessage.isCompressed(envelope.getContent()));
+        assertEquals(command, DERUTF8String.getInstance(MessageReply.getInstance(envelope.getContent()).getPayload()).getString());
+
+        // small messages go as they are, even with compression on.
+        compressed.send(2, "echo:2");
+
+        envelope = compressed.receive();
+
+        assertEquals(2, envelope.getRequestID());
+        assertFalse(CompressedMessage.isCompressed(envelope.getContent()));
+
+        compressed.close();
+        plain.close();
+    }
+
+    @Test
+    public void testOversizedInflate()
+        throws Exception
+    {
+        // well under the input limit on the wire, well over it once inflated.
+        MessageCompressor compressor = new MessageCompressor(1024, Integer.MAX_VALUE);
+        TestConnection connection = new TestConnection();
+
+        connection.send(new ConnectionOptions(NodeInfo.COMPRESSION, 1024, 300000));
+        connection.send(new MessageEnvelope(1, compressor.compress(new CommandMessage(CommandMessage.Type.NODE_STATISTICS, new DERUTF8String("echo:" + repeat('x', 200000))))));
+
+        MessageEnvelope envelope = connection.receive();
+        MessageReply reply = MessageReply.getInstance(envelope.getContent());
+
+        assertEquals(1, envelope.getRequestID());
+        assertEquals(MessageReply.Type.ERROR, reply.getType());
+        assertTrue(DERUTF8String.getInstance(reply.getPayload()).getString().contains("exceeds the limit"));
+
+        // the connection is still good.
+        connection.send(2, "echo:2");
+
+        assertEquals(2, connection.receive().getRequestID());
+
+        connection.close();
+    }
+
+    @Test
+    public void testReplyTooLargeForClient()
+        throws Exception
+    {
+        TestConnection connection = new TestConnection();
+
+        connection.send(new ConnectionOptions(0, 1024, 1000));
+        connection.send(1, "echo:" + repeat('x', 5000));
+
+        MessageEnvelope envelope = connection.receive();
+        MessageReply reply = MessageReply.getInstance(envelope.getContent());
+
+        assertEquals(1, envelope.getRequestID());
+        assertEquals(MessageReply.Type.ERROR, reply.getType());
+        assertTrue(DERUTF8String.getInstance(reply.getPayload()).getString().contains("exceeds the client's limit"));
+
+        connection.send(2, "echo:2");
+
+        assertEquals(MessageReply.Type.OKAY, MessageReply.getInstance(connection.receive().getContent()).getType());
+
+        connection.close();
+    }
+
+    @Test
+    public void testStream()
+        throws Exception
+    {
+        byte[] data = streamData(100000);
+        TestConnection connection = openStream();
+
+        connection.writeChunk(data, 0, 60000);
+        connection.writeChunk(data, 60000, data.length - 60000);
+        connection.endStream(crc(data));
+
+        MessageReply reply = MessageReply.getInstance(connection.receiveFrame());
+
+        assertEquals(MessageReply.Type.OKAY, reply.getType());
+        assertTrue(streamReceiver.isCompleted);
+        assertEquals(1, streamReceiver.isAborted.getCount());
+        assertTrue(Arrays.equals(data, streamReceiver.received.toByteArray()));
+
+        connection.close();
+    }
+
+    @Test
+    public void testStreamChecksumMismatch()
+        throws Exception
+    {
+        byte[] data = streamData(1000);
+        TestConnection connection = openStream();
+
+        connection.writeChunk(data, 0, data.length);
+        connection.endStream(crc(data) ^ 1);
+
+        MessageReply reply = MessageReply.getInstance(connection.receiveFrame());
+
+        // the data all arrived, but it isn't what was sent, so it must not be kept.
+        assertEquals(MessageReply.Type.ERROR, reply.getType());
+        assertTrue(DERUTF8String.getInstance(reply.getPayload()).getString().contains("checksum"));
+        assertTrue(streamReceiver.isAborted.await(10, TimeUnit.SECONDS));
+        assertFalse(streamReceiver.isCompleted);
+
+        connection.close();
+    }
+
+    @Test
+    public void testTruncatedStream()
+        throws Exception
+    {
+        byte[] data = streamData(1000);
+        TestConnection connection = openStream();
+
+        // promise more than is sent, then go away.
+        connection.dOut.writeLong(data.length);
+        connection.dOut.write(data, 0, data.length / 2);
+        connection.dOut.flush();
+        connection.socket.shutdownOutput();
+
+        assertTrue(streamReceiver.isAborted.await(10, TimeUnit.SECONDS));
+        assertFalse(streamReceiver.isCompleted);
+        assertNull(connection.receiveFrame());
+
+        connection.close();
+
+        // and the node carries on.
+        TestConnection next = new TestConnection();
+
+        next.send(1, "echo:1");
+
+        assertEquals(1, next.receive().getRequestID());
+
+        next.close();
+    }
+
+    private TestConnection openStream()
+        throws Exception
+    {
+        TestConnection connection = new TestConnection();
+
+        connection.send(new CommandMessage(CommandMessage.Type.FILE_STREAM, new DERUTF8String("stream:1")));
+
+        MessageReply reply = MessageReply.getInstance(connection.receiveFrame());
+
+        assertEquals(MessageReply.Type.OKAY, reply.getType());
+
+        return connection;
+    }
+
+    private static String repeat(char c, int count)
+    {
+        char[] chars = new char[count];
+
+        Arrays.fill(chars, c);
+
+        return new String(chars);
+    }
+
+    private static byte[] streamData(int length)
+    {
+        byte[] data = new byte[length];
+
+        for (int i = 0; i != data.length; i++)
+        {
+            data[i] = (byte)(i * 7);
+        }
+
+        return data;
+    }
+
+    private static int crc(byte[] data)
+    {
+        CRC32 checksum = new CRC32();
+
+        checksum.update(data);
+
+        return (int)checksum.getValue();
+    }
+
+    private void waitForPending(int count)
+        throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+
+        synchronized (pendingReplies)
+        {
+            while (pendingReplies.size() < count)
+            {
+                long remaining = deadline - System.currentTimeMillis();
+
+                assertTrue("pending replies not registered", remaining > 0);
+
+                pendingReplies.wait(remaining);
+            }
+        }
+    }
+
+    private void completePending(String command)
+    {
+        PendingReply pendingReply;
+
+        synchronized (pendingReplies)
+        {
+            pendingReply = pendingReplies.remove(command);
+        }
+
+        pendingReply.complete(new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(command)));
+    }
+
+    private class TestConnection
+    {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+        private final DataOutputStream dOut;
+
+        TestConnection()
+            throws IOException
+        {
+            socket = connect();
+            socket.setSoTimeout(20000);
+
+            in = socket.getInputStream();
+            out = socket.getOutputStream();
+            dOut = new DataOutputStream(out);
+
+            NodeInfo nodeInfo = NodeInfo.getInstance(new ASN1InputStream(in, 1024 * 1024).readObject());
+
+            assertEquals("A", nodeInfo.getName());
+            assertTrue(nodeInfo.hasFeature(NodeInfo.MULTIPLEXING));
+        }
+
+        void send(int requestID, String command)
+            throws IOException
+        {
+            send(new MessageEnvelope(requestID, new CommandMessage(CommandMessage.Type.NODE_STATISTICS, new DERUTF8String(command))));
+        }
+
+        void send(ASN1Encodable frame)
+            throws IOException
+        {
+            out.write(frame.toASN1Primitive().getEncoded(ASN1Encoding.DER));
+            out.flush();
+        }
+
+        void writeChunk(byte[] data, int off, int length)
+            throws IOException
+        {
+            dOut.writeLong(length);
+            dOut.write(data, off, length);
+            dOut.flush();
+        }
+
+        void endStream(int checksum)
+            throws IOException
+        {
+            dOut.writeLong(0);
+            dOut.write(new DEROctetString(Pack.intToBigEndian(checksum)).getEncoded());
+            dOut.flush();
+        }
+
+        ASN1Primitive receiveFrame()
+            throws IOException
+        {
+            return new ASN1InputStream(in, 1024 * 1024).readObject();
+        }
+
+        MessageEnvelope receive()
+            throws IOException
+        {
+            return MessageEnvelope.getInstance(receiveFrame());
+        }
+
+        void close()
+            throws IOException
+        {
+            socket.close();
+        }
+
+        private Socket connect()
+            throws IOException
+        {
+            long deadline = System.currentTimeMillis() + 10000;
+
+            for (;;)
+            {
+                try
+                {
+                    return new Socket("127.0.0.1", port);
+                }
+                catch (IOException e)
+                {
+                    if (System.currentTimeMillis() > deadline)
+                    {
+                        throw e;
+                    }
+
+                    try
+                    {
+                        Thread.sleep(100);
+                    }
+                    catch (InterruptedException ex)
+                    {
+                        throw new IOException("interrupted");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A service which does whatever the command in a message's payload asks: echo it back, block until the test
+     * releases it, or leave a pending reply for the test to complete.
+     */
+    public static class ScriptedService
+        extends BasicNodeService
+        implements AsyncNodeService, StreamingNodeService
+    {
+        public ScriptedService(NodeContext nodeContext, Config config)
+        {
+            super(nodeContext);
+        }
+
+        @Override
+        public CapabilityMessage getCapability()
+        {
+            return new CapabilityMessage(CapabilityMessage.Type.NODE_HEALTH, new ASN1Encodable[0]);
+        }
+
+        @Override
+        public boolean isAbleToHandle(Message message)
+        {
+            return message instanceof CommandMessage;
+        }
+
+        @Override
+        public StreamReceiver openStream(Message message)
+        {
+            String command = DERUTF8String.getInstance(message.getPayload()).getString();
+
+            if (!command.startsWith("stream:"))
+            {
+                return null;
+            }
+
+            streamReceiver = new TestReceiver();
+
+            return streamReceiver;
+        }
+
+        @Override
+        public PendingReply handleAsync(Message message)
+        {
+            String command = DERUTF8String.getInstance(message.getPayload()).getString();
+
+            if (!command.startsWith("pending:"))
+            {
+                return null;
+            }
+
+            PendingReply pendingReply = new PendingReply();
+
+            synchronized (pendingReplies)
+            {
+                pendingReplies.put(command, pendingReply);
+                pendingReplies.notifyAll();
+            }
+
+            return pendingReply;
+        }
+
+        @Override
+        public MessageReply handle(Message message)
+        {
+            String command = DERUTF8String.getInstance(message.getPayload()).getString();
+
+            if (command.startsWith("block:"))
+            {
+                try
+                {
+                    if (!blockLatch.await(20, TimeUnit.SECONDS))
+                    {
+                        return new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("never released"));
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String(command));
+        }
+    }
+
+    private static class TestReceiver
+        implements StreamReceiver
+    {
+        private final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        private final CountDownLatch isAborted = new CountDownLatch(1);
+
+        private volatile boolean isCompleted;
+
+        @Override
+        public void receive(ByteBuffer data)
+        {
+            received.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+        }
+
+        @Override
+        public MessageReply complete()
+        {
+            isCompleted = true;
+
+            return new MessageReply(MessageReply.Type.OKAY, new DERUTF8String("stored"));
+        }
+
+        @Override
+        public void abort()
+        {
+            isAborted.countDown();
+        }
+    }
+}
@@ -228,6 +228,12 @@ public class TestUtils
              return null;  //To change body of implemented methods use File | Settings | File Templates.
          }
 
+         @Override
+         public Map<String, Map<String, Object>> getConnectionStatistics()
+         {
+             return null;
+         }
+
          @Override
          public Map<String, String> getDescription()
          {
@@ -0,0 +1,199 @@
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import junit.framework.TestCase;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageCommitment;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageWitnessBlock;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
+import org.cryptoworkshop.ximix.common.asn1.message.TranscriptBlock;
+import org.cryptoworkshop.ximix.common.util.IndexNumberGenerator;
+import org.cryptoworkshop.ximix.common.util.TranscriptType;
+import org.cryptoworkshop.ximix.common.util.challenge.SeededChallenger;
+import org.cryptoworkshop.ximix.common.util.challenge.SerialChallenger;
+import org.cryptoworkshop.ximix.node.crypto.test.TestNotifier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArchivedBulletinBoardTest
+    extends TestCase
+{
+    private static final int MESSAGE_COUNT = 2500;  // more than one block's worth.
+    private static final byte[] SEED = new byte[64];
+
+    private ExecutorService executor;
+    private File directory;
+    private BulletinBoard board;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        executor = Executors.newSingleThreadExecutor();
+        directory = Files.createTempDirectory("archive").toFile();
+        board = new BulletinBoardImpl("FRED", null, executor, new TestNotifier());
+
+        PostedMessageBlock.Builder messages = new PostedMessageBlock.Builder(MESSAGE_COUNT);
+        MessageWitnessBlock.Builder witnesses = new MessageWitnessBlock.Builder(MESSAGE_COUNT);
+
+        for (int i = 0; i != MESSAGE_COUNT; i++)
+        {
+            messages.add(i, message(i), new byte[] { 1, (byte)i });
+            witnesses.add(i, new MessageCommitment(MESSAGE_COUNT - 1 - i, new byte[] { 2, (byte)i }));
+        }
+
+        board.postMessageBlock(messages.build());
+        board.postWitnessBlock(witnesses.build());
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        board.shutdown();
+        executor.shutdown();
+
+        for (File file : directory.listFiles())
+        {
+            file.delete();
+        }
+
+        directory.delete();
+    }
+
+    @Test
+    public void testArchiveMatchesBoard()
+        throws Exception
+    {
+        File archiveFile = new File(directory, "FRED.archive");
+
+        ArchivedBulletinBoard.write(board, archiveFile);
+
+        // written through a temporary file, which is gone once the archive is in place.
+        assertEquals(1, directory.listFiles().length);
+
+        ArchivedBulletinBoard archive = new ArchivedBulletinBoard("FRED", archiveFile);
+
+        try
+        {
+            assertEquals("FRED", archive.getName());
+            assertEquals(MESSAGE_COUNT, archive.size());
+            assertEquals(MESSAGE_COUNT, archive.transcriptSize(TranscriptType.GENERAL));
+            assertEquals(MESSAGE_COUNT, archive.transcriptSize(TranscriptType.WITNESSES));
+
+            for (TranscriptType type : TranscriptType.values())
+            {
+                // the transcript must be byte for byte what the board gave, whatever the challenge.
+                assertEquals(board, archive, type, new SerialChallenger(MESSAGE_COUNT, 0, null), new SerialChallenger(MESSAGE_COUNT, 0, null));
+                assertEquals(board, archive, type, new SeededChallenger(MESSAGE_COUNT, 1, SEED), new SeededChallenger(MESSAGE_COUNT, 1, SEED));
+            }
+
+            assertTrue(Arrays.equals(board.getMerkleTree().getRootHash(), archive.getMerkleTree().getRootHash()));
+
+            PostedMessageBlock.Builder blockBuilder = new PostedMessageBlock.Builder(100);
+
+            assertEquals(1100, archive.fetchMessages(1000, 1200, blockBuilder));
+            assertEquals(100, blockBuilder.build().size());
+
+            Iterator<PostedMessage> cursor = archive.cursor(MESSAGE_COUNT - 10, MESSAGE_COUNT + 10, false);
+
+            for (int i = MESSAGE_COUNT - 10; i != MESSAGE_COUNT; i++)
+            {
+                PostedMessage message = cursor.next();
+
+                assertEquals(i, message.getIndex());
+                assertTrue(Arrays.equals(message(i), message.getMessage()));
+                assertNull(message.getCommitment());
+            }
+
+            assertFalse(cursor.hasNext());
+
+            try
+            {
+                archive.postMessage(message(0));
+
+                fail("no exception");
+            }
+            catch (IllegalStateException e)
+            {
+                assertEquals("board FRED is archived and read-only", e.getMessage());
+            }
+        }
+        finally
+        {
+            archive.shutdown();
+        }
+    }
+
+    @Test
+    public void testReopen()
+        throws Exception
+    {
+        File archiveFile = new File(directory, "FRED.archive");
+
+        ArchivedBulletinBoard.write(board, archiveFile);
+
+        new ArchivedBulletinBoard("FRED", archiveFile).shutdown();
+
+        ArchivedBulletinBoard archive = new ArchivedBulletinBoard("FRED", archiveFile);
+
+        try
+        {
+            assertEquals(board, archive, TranscriptType.WITNESSES, new SerialChallenger(MESSAGE_COUNT, 0, null), new SerialChallenger(MESSAGE_COUNT, 0, null));
+        }
+        finally
+        {
+            archive.shutdown();
+        }
+    }
+
+    @Test
+    public void testNotAnArchive()
+        throws Exception
+    {
+        File file = new File(directory, "FRED.archive");
+        FileOutputStream fOut = new FileOutputStream(file);
+
+        fOut.write(new byte[64]);
+        fOut.close();
+
+        try
+        {
+            new ArchivedBulletinBoard("FRED", file);
+
+            fail("no exception");
+        }
+        catch (IOException e)
+        {
+            assertTrue(e.getMessage().endsWith("is not a board archive"));
+        }
+    }
+
+    private static void assertEquals(BulletinBoard board, BulletinBoard archive, TranscriptType type, IndexNumberGenerator boardIndexes, IndexNumberGenerator archiveIndexes)
+        throws Exception
+    {
+        while (boardIndexes.hasNext())
+        {
+            TranscriptBlock expected = board.fetchTranscriptData(type, boardIndexes, new TranscriptBlock.Builder(0, 700));
+            TranscriptBlock actual = archive.fetchTranscriptData(type, archiveIndexes, new TranscriptBlock.Builder(0, 700));
+
+            assertTrue(Arrays.equals(expected.getEncoded(), actual.getEncoded()));
+        }
+
+        assertFalse(archiveIndexes.hasNext());
+    }
+
+    private static byte[] message(int i)
+    {
+        return new byte[] { (byte)(i >> 8), (byte)i, 0x42 };
+    }
+}
@@ -0,0 +1,226 @@
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Iterator;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessage;
+import org.cryptoworkshop.ximix.node.crypto.test.TestNotifier;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyBulletinBoardTest
+    extends TestCase
+{
+    private ExecutorService executor;
+    private File directory;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        executor = Executors.newSingleThreadExecutor();
+        directory = Files.createTempDirectory("lazy").toFile();
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        executor.shutdown();
+
+        delete(directory);
+    }
+
+    @Test
+    public void testLazyOpen()
+    {
+        CountingOpener opener = new CountingOpener("FRED");
+        LazyBulletinBoard board = new LazyBulletinBoard("FRED", opener, new BoardHandleCache(2));
+
+        // knowing the name doesn't need the board.
+        assertEquals("FRED", board.getName());
+        assertEquals(0, opener.opens.get());
+
+        assertEquals(0, board.size());
+        assertEquals(0, board.postMessage(new byte[] { 1 }));
+        assertEquals(1, board.size());
+
+        // opened once, and kept open.
+        assertEquals(1, opener.opens.get());
+
+        board.shutdown();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted()
+    {
+        BoardHandleCache cache = new BoardHandleCache(2);
+        CountingOpener openerA = new CountingOpener("A");
+        CountingOpener openerB = new CountingOpener("B");
+        CountingOpener openerC = new CountingOpener("C");
+        LazyBulletinBoard boardA = new LazyBulletinBoard("A", openerA, cache);
+        LazyBulletinBoard boardB = new LazyBulletinBoard("B", openerB, cache);
+        LazyBulletinBoard boardC = new LazyBulletinBoard("C", openerC, cache);
+
+        boardA.postMessage(new byte[] { 1 });
+        boardB.postMessage(new byte[] { 2 });
+
+        // A is now more recently used than B, so opening C closes B.
+        boardA.size();
+        boardC.postMessage(new byte[] { 3 });
+
+        boardA.size();
+        assertEquals(1, openerA.opens.get());
+
+        // B comes back with what it had, and C, now the least recently used, makes way for it.
+        assertEquals(1, boardB.size());
+        assertEquals(2, openerB.opens.get());
+
+        boardA.size();
+        assertEquals(1, openerA.opens.get());
+
+        assertEquals(1, boardC.size());
+        assertEquals(2, openerC.opens.get());
+
+        boardA.shutdown();
+        boardB.shutdown();
+        boardC.shutdown();
+    }
+
+    @Test
+    public void testBusyBoardNotEvicted()
+    {
+        BoardHandleCache cache = new BoardHandleCache(1);
+        CountingOpener openerA = new CountingOpener("A");
+        CountingOpener openerB = new CountingOpener("B");
+        LazyBulletinBoard boardA = new LazyBulletinBoard("A", openerA, cache);
+        LazyBulletinBoard boardB = new LazyBulletinBoard("B", openerB, cache);
+        LazyBulletinBoard boardC = new LazyBulletinBoard("C", new CountingOpener("C"), cache);
+
+        boardA.postMessages(new byte[][] { { 1 }, { 2 } });
+
+        Iterator<PostedMessage> it = boardA.iterator();
+
+        // A has an iterator in progress, so stays open even though we are over the limit.
+        boardB.size();
+
+        assertEquals(0, it.next().getIndex());
+        assertEquals(1, it.next().getIndex());
+        assertFalse(it.hasNext());
+
+        boardA.size();
+        assertEquals(1, openerA.opens.get());
+
+        // with the iterator done it can go the next time a board is opened.
+        boardC.size();
+        boardA.size();
+
+        assertEquals(2, openerA.opens.get());
+        assertEquals(1, openerB.opens.get());
+
+        boardA.shutdown();
+        boardB.shutdown();
+        boardC.shutdown();
+    }
+
+    @Test
+    public void testListenersKeptOverReopen()
+        throws Exception
+    {
+        BoardHandleCache cache = new BoardHandleCache(1);
+        CountingOpener openerA = new CountingOpener("A");
+        LazyBulletinBoard boardA = new LazyBulletinBoard("A", openerA, cache);
+        LazyBulletinBoard boardB = new LazyBulletinBoard("B", new CountingOpener("B"), cache);
+
+        final CountDownLatch added = new CountDownLatch(1);
+
+        boardA.addListener(new BulletinBoardChangeListener()
+        {
+            @Override
+            public void messagesAdded(BulletinBoard bulletinBoard, int count)
+            {
+                added.countDown();
+            }
+
+            @Override
+            public void messagesRemoved(BulletinBoard bulletinBoard, int count)
+            {
+            }
+        });
+
+        boardB.size();
+        boardA.postMessage(new byte[] { 1 });
+
+        assertEquals(2, openerA.opens.get());
+        assertTrue(added.await(5, TimeUnit.SECONDS));
+
+        boardA.shutdown();
+        boardB.shutdown();
+    }
+
+    @Test
+    public void testShutdown()
+    {
+        CountingOpener opener = new CountingOpener("FRED");
+        LazyBulletinBoard board = new LazyBulletinBoard("FRED", opener, new BoardHandleCache(2));
+
+        board.size();
+        board.shutdown();
+
+        try
+        {
+            board.size();
+
+            fail("no exception");
+        }
+        catch (IllegalStateException e)
+        {
+            assertEquals("board FRED has been shut down", e.getMessage());
+        }
+
+        assertEquals(1, opener.opens.get());
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    private class CountingOpener
+        implements LazyBulletinBoard.Opener
+    {
+        private final String boardName;
+        private final AtomicInteger opens = new AtomicInteger();
+
+        CountingOpener(String boardName)
+        {
+            this.boardName = boardName;
+        }
+
+        @Override
+        public BulletinBoard open()
+        {
+            opens.incrementAndGet();
+
+            return new SegmentedBulletinBoard(boardName, new File(directory, boardName), 4096, executor, new TestNotifier());
+        }
+    }
+}
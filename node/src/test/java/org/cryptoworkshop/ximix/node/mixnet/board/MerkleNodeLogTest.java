@@ -0,0 +1,173 @@
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MerkleNodeLogTest
+    extends TestCase
+{
+    private File directory;
+    private File file;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        directory = Files.createTempDirectory("merkleNodeLog").toFile();
+        file = new File(directory, "merkle");
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        File[] files = directory.listFiles();
+
+        if (files != null)
+        {
+            for (File f : files)
+            {
+                f.delete();
+            }
+        }
+
+        directory.delete();
+    }
+
+    @Test
+    public void testReopen()
+        throws Exception
+    {
+        MerkleNodeLog nodes = new MerkleNodeLog(file);
+        MerkleTree tree = new MerkleTree(nodes);
+
+        assertEquals(-1, nodes.getStamp());
+
+        post(tree, 0, 100);
+        nodes.commit(1);
+
+        post(tree, 100, 37);
+        tree.update(new int[] { 3, 50 }, new byte[2][]);
+        nodes.commit(2);
+
+        byte[] root = tree.getRootHash();
+
+        nodes.close();
+
+        nodes = new MerkleNodeLog(file);
+        tree = new MerkleTree(nodes);
+
+        assertEquals(2, nodes.getStamp());
+        assertEquals(137, tree.getLimit());
+        assertTrue(Arrays.equals(root, tree.getRootHash()));
+
+        nodes.close();
+    }
+
+    @Test
+    public void testUncommittedIgnored()
+        throws Exception
+    {
+        MerkleNodeLog nodes = new MerkleNodeLog(file);
+        MerkleTree tree = new MerkleTree(nodes);
+
+        post(tree, 0, 20);
+        nodes.commit(5);
+
+        byte[] root = tree.getRootHash();
+
+        post(tree, 20, 20);
+        nodes.commit(6);
+
+        nodes.close();
+
+        // a commit cut off part way through is dropped, along with the changes in it.
+        FileOutputStream fOut = new FileOutputStream(file, true);
+        fOut.write(new byte[] { 0, 0, 0, 0, 0, 0, 0, 1, 0, 0 });
+        fOut.close();
+
+        long length = file.length();
+
+        nodes = new MerkleNodeLog(file);
+
+        assertEquals(6, nodes.getStamp());
+        assertTrue(file.length() < length);
+
+        tree = new MerkleTree(nodes);
+        post(tree, 40, 1);
+        nodes.close();
+
+        nodes = new MerkleNodeLog(file);
+        tree = new MerkleTree(nodes);
+
+        assertEquals(6, nodes.getStamp());
+        assertEquals(40, tree.getLimit());
+
+        int[] removed = new int[20];
+        for (int i = 0; i != removed.length; i++)
+        {
+            removed[i] = 20 + i;
+        }
+
+        // and later commits carry on from the last good one.
+        tree.truncate(20, removed);
+        nodes.commit(7);
+        nodes.close();
+
+        nodes = new MerkleNodeLog(file);
+        tree = new MerkleTree(nodes);
+
+        assertEquals(7, nodes.getStamp());
+        assertTrue(Arrays.equals(root, tree.getRootHash()));
+
+        nodes.close();
+    }
+
+    @Test
+    public void testClear()
+        throws Exception
+    {
+        MerkleNodeLog nodes = new MerkleNodeLog(file);
+        MerkleTree tree = new MerkleTree(nodes);
+
+        post(tree, 0, 50);
+        nodes.commit(1);
+
+        tree.clear();
+        post(tree, 0, 3);
+        nodes.commit(2);
+
+        byte[] root = tree.getRootHash();
+
+        nodes.close();
+
+        nodes = new MerkleNodeLog(file);
+        tree = new MerkleTree(nodes);
+
+        assertEquals(3, tree.getLimit());
+        assertTrue(Arrays.equals(root, tree.getRootHash()));
+
+        nodes.close();
+    }
+
+    private static void post(MerkleTree tree, int start, int count)
+    {
+        int[] indices = new int[count];
+        byte[][] messages = new byte[count][];
+
+        for (int i = 0; i != count; i++)
+        {
+            indices[i] = start + i;
+            messages[i] = ("Message " + (start + i)).getBytes();
+        }
+
+        tree.update(indices, messages);
+    }
+}
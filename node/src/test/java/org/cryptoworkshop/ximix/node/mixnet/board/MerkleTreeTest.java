@@ -0,0 +1,146 @@
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+public class MerkleTreeTest
+    extends TestCase
+{
+    @Test
+    public void testSameMessagesSameRoot()
+    {
+        MerkleTree tree1 = createTree(0, 100);
+        MerkleTree tree2 = new MerkleTree(new HashMap<Long, byte[]>());
+
+        // order and batching must not matter.
+        for (int i = 99; i >= 0; i--)
+        {
+            tree2.update(i, message(i));
+        }
+
+        assertEquals(tree1.getLimit(), tree2.getLimit());
+        assertEquals(tree1.getHeight(), tree2.getHeight());
+        assertTrue(Arrays.equals(tree1.getRootHash(), tree2.getRootHash()));
+    }
+
+    @Test
+    public void testDifferenceFollowsSinglePath()
+    {
+        MerkleTree tree1 = createTree(0, 1000);
+        MerkleTree tree2 = createTree(0, 1000);
+
+        tree2.update(517, new byte[] { 1, 2, 3 });
+
+        assertFalse(Arrays.equals(tree1.getRootHash(), tree2.getRootHash()));
+
+        // at every level exactly one node differs, the one above index 517.
+        for (int level = 0; level <= tree1.getHeight(); level++)
+        {
+            int width = ((1000 - 1) >>> level) + 1;
+
+            for (int position = 0; position != width; position++)
+            {
+                boolean same = Arrays.equals(tree1.getNodeHash(level, position), tree2.getNodeHash(level, position));
+
+                assertEquals(position != (517 >>> level), same);
+            }
+        }
+    }
+
+    @Test
+    public void testTallerTreeComparable()
+    {
+        MerkleTree tree1 = createTree(0, 100);
+        MerkleTree tree2 = createTree(0, 100);
+
+        tree2.update(300, message(300));
+        tree2.update(300, null);
+
+        // tree2 is now taller, but asking tree1 for the same level gives the same hash.
+        assertTrue(tree2.getHeight() > tree1.getHeight());
+        assertTrue(Arrays.equals(tree2.getRootHash(), tree1.getNodeHash(tree2.getHeight(), 0)));
+    }
+
+    @Test
+    public void testTruncate()
+    {
+        Map<Long, byte[]> nodes = new HashMap<>();
+        MerkleTree tree = new MerkleTree(nodes);
+
+        for (int i = 0; i != 150; i++)
+        {
+            tree.update(i, message(i));
+        }
+
+        int[] removed = new int[50];
+        for (int i = 0; i != removed.length; i++)
+        {
+            removed[i] = 100 + i;
+        }
+
+        tree.truncate(100, removed);
+
+        MerkleTree expected = createTree(0, 100);
+
+        assertEquals(100, tree.getLimit());
+        assertEquals(expected.getHeight(), tree.getHeight());
+        assertTrue(Arrays.equals(expected.getRootHash(), tree.getRootHash()));
+
+        // the truncated limit is picked up from the store.
+        MerkleTree reopened = new MerkleTree(nodes);
+
+        assertEquals(100, reopened.getLimit());
+        assertTrue(Arrays.equals(expected.getRootHash(), reopened.getRootHash()));
+
+        // growing back gives the same tree as never having been cut.
+        for (int i = 100; i != 150; i++)
+        {
+            tree.update(i, message(i));
+        }
+
+        assertTrue(Arrays.equals(createTree(0, 150).getRootHash(), tree.getRootHash()));
+    }
+
+    @Test
+    public void testTruncateToEmpty()
+    {
+        MerkleTree tree = createTree(0, 10);
+        int[] removed = new int[10];
+
+        for (int i = 0; i != removed.length; i++)
+        {
+            removed[i] = i;
+        }
+
+        tree.truncate(0, removed);
+
+        assertEquals(0, tree.getLimit());
+        assertTrue(tree.isEmpty());
+    }
+
+    private static MerkleTree createTree(int start, int end)
+    {
+        MerkleTree tree = new MerkleTree(new HashMap<Long, byte[]>());
+        int[] indices = new int[end - start];
+        byte[][] messages = new byte[end - start][];
+
+        for (int i = start; i != end; i++)
+        {
+            indices[i - start] = i;
+            messages[i - start] = message(i);
+        }
+
+        tree.update(indices, messages);
+
+        return tree;
+    }
+
+    private static byte[] message(int i)
+    {
+        return new byte[] { (byte)(i >> 8), (byte)i, 0x42 };
+    }
+}
@@ -0,0 +1,137 @@
+package org.cryptoworkshop.ximix.node.mixnet.board;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.TestCase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SegmentedLogTest
+    extends TestCase
+{
+    private File directory;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        directory = Files.createTempDirectory("segmentedLog").toFile();
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        File[] files = directory.listFiles();
+
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                file.delete();
+            }
+        }
+
+        directory.delete();
+    }
+
+    @Test
+    public void testFirstIndex()
+        throws Exception
+    {
+        SegmentedLog log = new SegmentedLog(null, "msg", 256);
+
+        assertEquals(0, log.firstIndex());
+
+        for (int i = 0; i != 100; i++)
+        {
+            log.append(i, new byte[] { (byte)i }, null);
+        }
+
+        // draining from the front.
+        for (int i = 0; i != 40; i++)
+        {
+            assertEquals(i, log.firstIndex());
+            log.remove(i);
+        }
+
+        assertEquals(40, log.firstIndex());
+
+        // a record put back below the first live one becomes the first.
+        log.append(10, new byte[] { 10 }, null);
+
+        assertEquals(10, log.firstIndex());
+
+        log.remove(10);
+
+        assertEquals(40, log.firstIndex());
+
+        for (int i = 40; i != 100; i++)
+        {
+            log.remove(i);
+        }
+
+        // empty, so the first index is the limit.
+        assertEquals(0, log.size());
+        assertEquals(100, log.firstIndex());
+    }
+
+    @Test
+    public void testFirstIndexRecovered()
+        throws Exception
+    {
+        SegmentedLog log = new SegmentedLog(directory, "msg", 256);
+
+        for (int i = 0; i != 50; i++)
+        {
+            log.append(i, new byte[] { (byte)i }, new byte[] { 1 });
+        }
+
+        for (int i = 0; i != 20; i++)
+        {
+            log.remove(i);
+        }
+
+        log.close();
+
+        log = new SegmentedLog(directory, "msg", 256);
+
+        assertEquals(20, log.firstIndex());
+        assertEquals(30, log.size());
+        assertEquals(50, log.limit());
+
+        log.close();
+    }
+
+    @Test
+    public void testClear()
+        throws Exception
+    {
+        SegmentedLog log = new SegmentedLog(directory, "msg", 256);
+
+        for (int i = 0; i != 100; i++)
+        {
+            log.append(i, new byte[64], null);
+        }
+
+        assertTrue(directory.listFiles().length > 1);
+
+        log.clear();
+
+        assertEquals(0, directory.listFiles().length);
+        assertEquals(0, log.size());
+        assertEquals(0, log.limit());
+        assertEquals(0, log.firstIndex());
+
+        // the log is still usable, and starts from a fresh first segment.
+        log.append(5, new byte[] { 5 }, null);
+
+        assertEquals(5, log.firstIndex());
+        assertEquals(5, log.getData(5)[0]);
+        assertEquals(1, directory.listFiles().length);
+
+        log.close();
+    }
+}
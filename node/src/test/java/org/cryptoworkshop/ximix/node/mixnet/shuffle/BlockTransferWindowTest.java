@@ -0,0 +1,279 @@
+package org.cryptoworkshop.ximix.node.mixnet.shuffle;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.DERUTF8String;
+import org.cryptoworkshop.ximix.client.connection.ServiceConnectionException;
+import org.cryptoworkshop.ximix.client.connection.ServicesConnection;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardUploadBlockMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CapabilityMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageType;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
+import org.cryptoworkshop.ximix.common.util.EventNotifier;
+import org.cryptoworkshop.ximix.node.crypto.test.TestNotifier;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardConfig;
+import org.junit.Test;
+
+public class BlockTransferWindowTest
+    extends TestCase
+{
+    @Test
+    public void testBlockFull()
+        throws Exception
+    {
+        BlockTransferWindow window = new BlockTransferWindow(new TestConnection(), createConfig(3, 100, 1, 1), new TestNotifier());
+
+        // a block size, if given, counts messages and ignores their length.
+        assertFalse(window.isBlockFull(2, 10000, 10000));
+        assertTrue(window.isBlockFull(3, 0, 1));
+
+        window.shutdown();
+
+        window = new BlockTransferWindow(new TestConnection(), createConfig(0, 100, 1, 1), new TestNotifier());
+
+        assertFalse(window.isBlockFull(1, 50, 50));
+        assertTrue(window.isBlockFull(1, 50, 51));
+
+        // an oversized message still goes, in a block of its own.
+        assertFalse(window.isBlockFull(0, 0, 1000));
+        assertTrue(window.isBlockFull(10000, 0, 0));
+
+        window.shutdown();
+    }
+
+    @Test
+    public void testWindowLimit()
+        throws Exception
+    {
+        TestConnection connection = new TestConnection();
+        BlockTransferWindow window = new BlockTransferWindow(connection, createConfig(0, 100, 3, 1), new TestNotifier());
+
+        connection.gate = new CountDownLatch(1);
+
+        for (int i = 0; i != 3; i++)
+        {
+            window.send(createBlock(i));
+        }
+
+        // the window is full, so the next send has to wait for a block to be acknowledged.
+        Thread sender = startSend(window, 3);
+
+        sender.join(200);
+
+        assertTrue(sender.isAlive());
+        assertEquals(0, window.getAcknowledged());
+
+        connection.gate.countDown();
+
+        sender.join(5000);
+
+        assertFalse(sender.isAlive());
+
+        for (int i = 4; i != 20; i++)
+        {
+            window.send(createBlock(i));
+        }
+
+        window.flush();
+
+        assertEquals(20, window.getAcknowledged());
+        assertEquals(20, connection.delivered.size());
+        assertTrue(connection.maxActive.get() <= 3);
+
+        window.shutdown();
+    }
+
+    @Test
+    public void testResend()
+        throws Exception
+    {
+        TestConnection connection = new TestConnection();
+        BlockTransferWindow window = new BlockTransferWindow(connection, createConfig(0, 100, 2, 2), new TestNotifier());
+
+        connection.failuresLeft.set(1);
+
+        for (int i = 0; i != 4; i++)
+        {
+            window.send(createBlock(i));
+        }
+
+        window.flush();
+
+        // one block went twice, and all of them got there.
+        assertEquals(4, window.getAcknowledged());
+        assertEquals(5, connection.attempts.get());
+        assertEquals(4, connection.delivered.size());
+
+        window.shutdown();
+    }
+
+    @Test
+    public void testFailure()
+        throws Exception
+    {
+        TestConnection connection = new TestConnection();
+        BlockTransferWindow window = new BlockTransferWindow(connection, createConfig(0, 100, 2, 1), new TestNotifier());
+
+        connection.failuresLeft.set(1);
+
+        window.send(createBlock(0));
+
+        try
+        {
+            window.flush();
+
+            fail("no exception");
+        }
+        catch (ServiceConnectionException e)
+        {
+            assertEquals("message failed: block refused", e.getMessage());
+        }
+
+        // once a block has failed nothing more is sent.
+        try
+        {
+            window.send(createBlock(1));
+
+            fail("no exception");
+        }
+        catch (ServiceConnectionException e)
+        {
+            assertEquals("message failed: block refused", e.getMessage());
+        }
+
+        assertEquals(0, window.getAcknowledged());
+        assertEquals(1, connection.attempts.get());
+
+        window.shutdown();
+    }
+
+    private static Thread startSend(final BlockTransferWindow window, final int index)
+    {
+        Thread sender = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    window.send(createBlock(index));
+                }
+                catch (Exception e)
+                {
+                    // the test will see the block was never delivered.
+                }
+            }
+        });
+
+        sender.start();
+
+        return sender;
+    }
+
+    private static BoardUploadBlockMessage createBlock(int index)
+    {
+        return new BoardUploadBlockMessage(1, "FRED", 1, new PostedMessageBlock.Builder(1).add(index, new byte[] { (byte)index }).build());
+    }
+
+    private static BulletinBoardConfig createConfig(int blockSize, int blockBytes, int window, int resumeAttempts)
+        throws Exception
+    {
+        String xml = "<boards><transfer><blockSize>" + blockSize + "</blockSize><blockBytes>" + blockBytes + "</blockBytes>"
+            + "<window>" + window + "</window><resumeAttempts>" + resumeAttempts + "</resumeAttempts></transfer></boards>";
+
+        return new BulletinBoardConfig(DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8"))).getDocumentElement());
+    }
+
+    /**
+     * Connection to a next node which can be held up, or made to refuse blocks.
+     */
+    private static class TestConnection
+        implements ServicesConnection
+    {
+        private final Set<Integer> delivered = new HashSet<>();
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final AtomicInteger failuresLeft = new AtomicInteger();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+
+        private volatile CountDownLatch gate;
+
+        @Override
+        public void activate()
+        {
+        }
+
+        @Override
+        public CapabilityMessage[] getCapabilities()
+        {
+            return new CapabilityMessage[0];
+        }
+
+        @Override
+        public EventNotifier getEventNotifier()
+        {
+            return new TestNotifier();
+        }
+
+        @Override
+        public MessageReply sendMessage(MessageType type, ASN1Encodable messagePayload)
+            throws ServiceConnectionException
+        {
+            int now = active.incrementAndGet();
+
+            for (;;)
+            {
+                int max = maxActive.get();
+                if (now <= max || maxActive.compareAndSet(max, now))
+                {
+                    break;
+                }
+            }
+
+            try
+            {
+                attempts.incrementAndGet();
+
+                if (gate != null && !gate.await(10, TimeUnit.SECONDS))
+                {
+                    throw new ServiceConnectionException("gate never opened");
+                }
+
+                if (failuresLeft.getAndDecrement() > 0)
+                {
+                    return new MessageReply(MessageReply.Type.ERROR, new DERUTF8String("block refused"));
+                }
+
+                synchronized (delivered)
+                {
+                    delivered.add(BoardUploadBlockMessage.getInstance(messagePayload).getMessageBlock().getMessages().get(0).getIndex());
+                }
+
+                return new MessageReply(MessageReply.Type.OKAY);
+            }
+            catch (InterruptedException e)
+            {
+                throw new ServiceConnectionException("interrupted");
+            }
+            finally
+            {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+}
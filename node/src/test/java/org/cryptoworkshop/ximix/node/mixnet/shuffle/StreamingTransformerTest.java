@@ -0,0 +1,307 @@
+package org.cryptoworkshop.ximix.node.mixnet.shuffle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import org.cryptoworkshop.ximix.common.asn1.message.PermuteAndMoveMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
+import org.cryptoworkshop.ximix.node.mixnet.transform.Transform;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StreamingTransformerTest
+    extends TestCase
+{
+    private static final PermuteAndMoveMessage MESSAGE = new PermuteAndMoveMessage(1, "FRED", 0, "XOR", "KEY", "B");
+
+    private ExecutorService executor;
+
+    @Before
+    public void setUp()
+    {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testTransformsMatchSerial()
+        throws Exception
+    {
+        XorTransform transform = new XorTransform((byte)0x5a);
+        CountingExecutor countingExecutor = new CountingExecutor(executor);
+        StreamingTransformer transformer = new StreamingTransformer(MESSAGE, transform, countingExecutor, 3);
+
+        for (int b = 0; b != 50; b++)
+        {
+            PostedMessageBlock.Builder blockBuilder = new PostedMessageBlock.Builder(10);
+
+            for (int i = 0; i != 10; i++)
+            {
+                int index = b * 10 + i;
+
+                blockBuilder.add(index, new byte[] { (byte)index, (byte)(index >> 8), 1 });
+            }
+
+            transformer.submit(blockBuilder.build());
+        }
+
+        transformer.awaitTransforms();
+
+        // the work all went through the executor it was given, never more than 3 blocks at once.
+        assertTrue(countingExecutor.count.get() > 0);
+        assertTrue(transform.maxActive.get() <= 3);
+
+        XorTransform serial = new XorTransform((byte)0x5a);
+
+        for (int index = 0; index != 500; index++)
+        {
+            byte[] message = new byte[] { (byte)index, (byte)(index >> 8), 1 };
+            StreamingTransformer.TransformedMessage transformed = transformer.takeTransformed(index);
+
+            assertTrue(Arrays.equals(serial.transform(message), transformed.getMessage()));
+            assertTrue(Arrays.equals(message, transformed.getDetail()));
+        }
+
+        assertNull(transformer.takeTransformed(0));
+
+        transformer.shutdown();
+    }
+
+    @Test
+    public void testFailedTransform()
+        throws Exception
+    {
+        StreamingTransformer transformer = new StreamingTransformer(MESSAGE, new XorTransform((byte)1), executor, 2);
+
+        transformer.submit(new PostedMessageBlock.Builder(1).add(0, new byte[] { 1 }).build());
+        transformer.submit(new PostedMessageBlock.Builder(1).add(1, new byte[0]).build());       // XorTransform rejects empty messages
+
+        try
+        {
+            transformer.awaitTransforms();
+
+            fail("no exception");
+        }
+        catch (ExecutionException e)
+        {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+
+        transformer.shutdown();
+    }
+
+    @Test
+    public void testShutdownReleasesWait()
+        throws Exception
+    {
+        final List<Runnable> neverRun = new ArrayList<>();
+
+        // an executor that never gets round to anything, so the transforms stay outstanding.
+        final StreamingTransformer transformer = new StreamingTransformer(MESSAGE, new XorTransform((byte)1), new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                neverRun.add(command);
+            }
+        }, 1);
+
+        transformer.submit(new PostedMessageBlock.Builder(1).add(0, new byte[] { 1 }).build());
+
+        final AtomicInteger outcome = new AtomicInteger();
+        Thread waiter = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    transformer.awaitTransforms();
+                    outcome.set(1);
+                }
+                catch (ExecutionException e)
+                {
+                    outcome.set(2);
+                }
+                catch (InterruptedException e)
+                {
+                    outcome.set(3);
+                }
+            }
+        });
+
+        waiter.start();
+        waiter.join(200);
+
+        assertTrue(waiter.isAlive());
+
+        transformer.shutdown();
+
+        waiter.join(5000);
+
+        assertFalse(waiter.isAlive());
+        assertEquals(2, outcome.get());
+
+        // a worker that starts after the shutdown finds nothing to do.
+        neverRun.get(0).run();
+
+        assertNull(transformer.takeTransformed(0));
+
+        transformer.submit(new PostedMessageBlock.Builder(1).add(1, new byte[] { 1 }).build());
+
+        assertEquals(1, neverRun.size());
+    }
+
+    @Test
+    public void testNoTransform()
+        throws Exception
+    {
+        StreamingTransformer transformer = new StreamingTransformer(MESSAGE, null, executor, 2);
+        long before = transformer.getLastActive();
+
+        Thread.sleep(5);
+
+        transformer.submit(new PostedMessageBlock.Builder(1).add(0, new byte[] { 1 }).build());
+        transformer.awaitTransforms();
+
+        assertNull(transformer.takeTransformed(0));
+        assertTrue(transformer.getLastActive() > before);
+    }
+
+    private static class CountingExecutor
+        implements Executor
+    {
+        private final Executor executor;
+        private final AtomicInteger count = new AtomicInteger();
+
+        CountingExecutor(Executor executor)
+        {
+            this.executor = executor;
+        }
+
+        @Override
+        public void execute(Runnable command)
+        {
+            count.incrementAndGet();
+            executor.execute(command);
+        }
+    }
+
+    private static class XorTransform
+        implements Transform
+    {
+        private final byte mask;
+        private final AtomicInteger active;
+        private final AtomicInteger maxActive;
+
+        private byte[] lastDetail;
+
+        XorTransform(byte mask)
+        {
+            this(mask, new AtomicInteger(), new AtomicInteger());
+        }
+
+        private XorTransform(byte mask, AtomicInteger active, AtomicInteger maxActive)
+        {
+            this.mask = mask;
+            this.active = active;
+            this.maxActive = maxActive;
+        }
+
+        @Override
+        public String getName()
+        {
+            return "XOR";
+        }
+
+        @Override
+        public void init(Object o)
+        {
+        }
+
+        @Override
+        public void setPointCompression(boolean pointCompression)
+        {
+        }
+
+        @Override
+        public byte[] transform(byte[] message)
+        {
+            if (message.length == 0)
+            {
+                throw new IllegalArgumentException("empty message");
+            }
+
+            byte[] result = new byte[message.length];
+
+            for (int i = 0; i != message.length; i++)
+            {
+                result[i] = (byte)(message[i] ^ mask);
+            }
+
+            lastDetail = message.clone();
+
+            return result;
+        }
+
+        @Override
+        public byte[][] transformBlock(byte[][] messages, byte[][] details)
+        {
+            int now = active.incrementAndGet();
+
+            for (;;)
+            {
+                int max = maxActive.get();
+                if (now <= max || maxActive.compareAndSet(max, now))
+                {
+                    break;
+                }
+            }
+
+            try
+            {
+                byte[][] result = new byte[messages.length][];
+
+                for (int i = 0; i != messages.length; i++)
+                {
+                    result[i] = transform(messages[i]);
+                    details[i] = lastDetail;
+                }
+
+                return result;
+            }
+            finally
+            {
+                active.decrementAndGet();
+            }
+        }
+
+        @Override
+        public byte[] getLastDetail()
+        {
+            return lastDetail;
+        }
+
+        @Override
+        public Transform clone()
+        {
+            return new XorTransform(mask, active, maxActive);
+        }
+    }
+}
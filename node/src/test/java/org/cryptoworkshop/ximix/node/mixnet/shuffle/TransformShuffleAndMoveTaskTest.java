@@ -0,0 +1,346 @@
+package org.cryptoworkshop.ximix.node.mixnet.shuffle;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.Security;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.crypto.Commitment;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.util.Arrays;
+import org.cryptoworkshop.ximix.client.connection.ServicesConnection;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardUploadBlockMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CapabilityMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CommandMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageCommitment;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageType;
+import org.cryptoworkshop.ximix.common.asn1.message.PermuteAndMoveMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedData;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.TranscriptBlock;
+import org.cryptoworkshop.ximix.common.config.Config;
+import org.cryptoworkshop.ximix.common.crypto.IndexCommitter;
+import org.cryptoworkshop.ximix.common.util.EventNotifier;
+import org.cryptoworkshop.ximix.common.util.TranscriptType;
+import org.cryptoworkshop.ximix.common.util.challenge.SerialChallenger;
+import org.cryptoworkshop.ximix.node.core.XimixNodeContext;
+import org.cryptoworkshop.ximix.node.crypto.test.TestNotifier;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoard;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardConfig;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardRegistry;
+import org.cryptoworkshop.ximix.node.mixnet.transform.Transform;
+import org.cryptoworkshop.ximix.node.service.CrossSection;
+import org.cryptoworkshop.ximix.node.service.Decoupler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+public class TransformShuffleAndMoveTaskTest
+    extends TestCase
+{
+    private static final int MESSAGE_COUNT = 500;
+
+    private File homeDirectory;
+    private XimixNodeContext nodeContext;
+    private BulletinBoardRegistry registry;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        if (Security.getProvider("BC") == null)
+        {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
+        executor = Executors.newSingleThreadExecutor();
+        homeDirectory = Files.createTempDirectory("transform").toFile();
+
+        final File home = homeDirectory;
+
+        nodeContext = new XimixNodeContext(new HashMap<String, ServicesConnection>(), new Config(parse("<config><name>A</name><trustAnchor>trustCa</trustAnchor><keyManagerStore>nodeCaStore</keyManagerStore>"
+            + "<keyManagerPassword>Hello</keyManagerPassword><portNo>0</portNo><portBacklog>10</portBacklog>"
+            + "<portAddress>127.0.0.1</portAddress><description></description><services></services></config>")), new TestNotifier())
+        {
+            @Override
+            public File getHomeDirectory()
+            {
+                return home;
+            }
+        };
+
+        Map<String, Transform> transforms = new HashMap<>();
+
+        transforms.put("XOR", new XorTransform());
+
+        registry = new BulletinBoardRegistry(nodeContext, transforms, new BulletinBoardConfig(),
+            new CrossSection(nodeContext.getDecoupler(Decoupler.MONITOR), nodeContext.getEventNotifier()));
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        executor.shutdown();
+        nodeContext.shutdown(5, TimeUnit.SECONDS);
+
+        delete(homeDirectory);
+    }
+
+    @Test
+    public void testParallelMatchesSerial()
+        throws Exception
+    {
+        TransformResult serial = shuffle(1, 1);
+        TransformResult parallel = shuffle(2, 4);
+
+        // the permutation is random, but what each message turns into, and the witness to it, is not.
+        for (int i = 0; i != MESSAGE_COUNT; i++)
+        {
+            MessageCommitment serialWitness = serial.witnesses.get(i);
+            MessageCommitment parallelWitness = parallel.witnesses.get(i);
+
+            assertTrue(Arrays.areEqual(serial.uploaded.get(serialWitness.getNewIndex()), parallel.uploaded.get(parallelWitness.getNewIndex())));
+            assertTrue(Arrays.areEqual(serialWitness.getDetail(), parallelWitness.getDetail()));
+        }
+    }
+
+    @Test
+    public void testParallelOutput()
+        throws Exception
+    {
+        TransformResult result = shuffle(1, 4);
+        IndexCommitter committer = new IndexCommitter(new SHA256Digest());
+        boolean[] used = new boolean[MESSAGE_COUNT];
+
+        assertEquals(MESSAGE_COUNT, result.uploaded.size());
+        assertEquals(MESSAGE_COUNT, result.witnesses.size());
+
+        for (int i = 0; i != MESSAGE_COUNT; i++)
+        {
+            MessageCommitment witness = result.witnesses.get(i);
+            int newIndex = witness.getNewIndex();
+
+            // every message lands on its own index, transformed, with a witness that opens its commitment.
+            assertFalse(used[newIndex]);
+            used[newIndex] = true;
+
+            assertTrue(Arrays.areEqual(XorTransform.xor(message(i)), result.uploaded.get(newIndex)));
+            assertTrue(Arrays.areEqual(message(i), witness.getDetail()));
+            assertTrue(committer.isRevealed(new Commitment(witness.getSecret(), result.commitments.get(newIndex)), newIndex));
+        }
+    }
+
+    private TransformResult shuffle(long operationNumber, int transformThreads)
+        throws Exception
+    {
+        BulletinBoard board = registry.getTransitBoard(operationNumber, "FRED", 0);
+
+        for (int i = 0; i != MESSAGE_COUNT; i++)
+        {
+            board.postMessage(message(i));
+        }
+
+        // small blocks, so there are plenty for the workers to share.
+        BulletinBoardConfig boardConfig = new BulletinBoardConfig(parse("<boards><shuffle><transformThreads>" + transformThreads + "</transformThreads></shuffle>"
+            + "<transfer><blockSize>7</blockSize><window>3</window></transfer></boards>"));
+        PermuteAndMoveMessage message = new PermuteAndMoveMessage(operationNumber, "FRED", 0, "XOR", "KEY", "B");
+        StreamingTransformer transformer = new StreamingTransformer(message, new XorTransform(), executor, 1);
+        CollectingConnection connection = new CollectingConnection();
+
+        new TransformShuffleAndMoveTask(nodeContext, registry, connection, boardConfig, transformer).run();
+
+        assertEquals(1, connection.ended.get());
+
+        TransformResult result = new TransformResult(connection);
+        SerialChallenger challenger = new SerialChallenger(board.transcriptSize(TranscriptType.WITNESSES), 0, null);
+
+        while (challenger.hasNext())
+        {
+            TranscriptBlock block = board.fetchTranscriptData(TranscriptType.WITNESSES, challenger, new TranscriptBlock.Builder(0, 100));
+
+            for (ASN1Encodable detail : block.getDetails().toArray())
+            {
+                PostedData data = PostedData.getInstance(detail);
+
+                result.witnesses.put(data.getIndex(), MessageCommitment.getInstance(data.getData()));
+            }
+        }
+
+        return result;
+    }
+
+    private static byte[] message(int i)
+    {
+        return new byte[] { (byte)(i >> 8), (byte)i, 0x42 };
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    private static Element parse(String xml)
+        throws Exception
+    {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8"))).getDocumentElement();
+    }
+
+    private static class TransformResult
+    {
+        private final Map<Integer, byte[]> uploaded;
+        private final Map<Integer, byte[]> commitments;
+        private final Map<Integer, MessageCommitment> witnesses = new HashMap<>();
+
+        TransformResult(CollectingConnection connection)
+        {
+            this.uploaded = connection.uploaded;
+            this.commitments = connection.commitments;
+        }
+    }
+
+    /**
+     * Connection to a next node which simply keeps what it is sent.
+     */
+    private static class CollectingConnection
+        implements ServicesConnection
+    {
+        private final Map<Integer, byte[]> uploaded = new ConcurrentHashMap<>();
+        private final Map<Integer, byte[]> commitments = new ConcurrentHashMap<>();
+        private final AtomicInteger ended = new AtomicInteger();
+
+        @Override
+        public void activate()
+        {
+        }
+
+        @Override
+        public CapabilityMessage[] getCapabilities()
+        {
+            return new CapabilityMessage[0];
+        }
+
+        @Override
+        public EventNotifier getEventNotifier()
+        {
+            return new TestNotifier();
+        }
+
+        @Override
+        public MessageReply sendMessage(MessageType type, ASN1Encodable messagePayload)
+        {
+            if (type == CommandMessage.Type.TRANSFER_TO_BOARD)
+            {
+                for (PostedMessage message : BoardUploadBlockMessage.getInstance(messagePayload).getMessageBlock().getMessages())
+                {
+                    uploaded.put(message.getIndex(), message.getMessage());
+                    commitments.put(message.getIndex(), message.getCommitment());
+                }
+            }
+            else if (type == CommandMessage.Type.TRANSFER_TO_BOARD_ENDED)
+            {
+                ended.incrementAndGet();
+            }
+
+            return new MessageReply(MessageReply.Type.OKAY);
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+
+    private static class XorTransform
+        implements Transform
+    {
+        private byte[] lastDetail;
+
+        static byte[] xor(byte[] message)
+        {
+            byte[] result = new byte[message.length];
+
+            for (int i = 0; i != message.length; i++)
+            {
+                result[i] = (byte)(message[i] ^ 0x5a);
+            }
+
+            return result;
+        }
+
+        @Override
+        public String getName()
+        {
+            return "XOR";
+        }
+
+        @Override
+        public void init(Object o)
+        {
+        }
+
+        @Override
+        public void setPointCompression(boolean pointCompression)
+        {
+        }
+
+        @Override
+        public byte[] transform(byte[] message)
+        {
+            lastDetail = message.clone();
+
+            return xor(message);
+        }
+
+        @Override
+        public byte[][] transformBlock(byte[][] messages, byte[][] details)
+        {
+            byte[][] result = new byte[messages.length][];
+
+            for (int i = 0; i != messages.length; i++)
+            {
+                result[i] = transform(messages[i]);
+                details[i] = lastDetail;
+            }
+
+            return result;
+        }
+
+        @Override
+        public byte[] getLastDetail()
+        {
+            return lastDetail;
+        }
+
+        @Override
+        public Transform clone()
+        {
+            return new XorTransform();
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.cryptoworkshop.ximix.node.mixnet.test;
+
+import java.io.ByteArrayInputStream;
+import java.security.Security;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.cryptoworkshop.ximix.client.connection.ServicesConnection;
+import org.cryptoworkshop.ximix.common.asn1.message.AwaitBoardStatusMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardStatusMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardUploadMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.ClientMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CommandMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CreateBoardMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+import org.cryptoworkshop.ximix.common.asn1.message.TransitBoardMessage;
+import org.cryptoworkshop.ximix.common.config.Config;
+import org.cryptoworkshop.ximix.node.core.XimixNodeContext;
+import org.cryptoworkshop.ximix.node.crypto.test.TestNotifier;
+import org.cryptoworkshop.ximix.node.mixnet.service.BoardHostingService;
+import org.cryptoworkshop.ximix.node.service.PendingReply;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+public class BoardHostingServiceTest
+    extends TestCase
+{
+    private XimixNodeContext nodeContext;
+    private BoardHostingService service;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        if (Security.getProvider("BC") == null)
+        {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
+        nodeContext = new XimixNodeContext(new HashMap<String, ServicesConnection>(), new Config(parse("<config><name>A</name><trustAnchor>trustCa</trustAnchor><keyManagerStore>nodeCaStore</keyManagerStore>"
+            + "<keyManagerPassword>Hello</keyManagerPassword><portNo>0</portNo><portBacklog>10</portBacklog>"
+            + "<portAddress>127.0.0.1</portAddress><description></description><services></services></config>")), new TestNotifier());
+
+        service = new BoardHostingService(nodeContext, new Config(parse("<service></service>")));
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        nodeContext.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testAwaitTransitStatusTimeout()
+        throws Exception
+    {
+        long start = System.currentTimeMillis();
+
+        PendingReply pendingReply = awaitTransit(1, "FRED", 0, BoardStatusMessage.Status.COMPLETE, 500);
+
+        // the wait must not hold up the thread asking for it.
+        assertFalse(pendingReply.isDone());
+        assertTrue(System.currentTimeMillis() - start < 400);
+
+        BoardStatusMessage status = getStatus(pendingReply);
+
+        assertTrue(System.currentTimeMillis() - start >= 500);
+        assertEquals(BoardStatusMessage.Status.UNKNOWN, status.getStatus());
+        assertEquals(-1, status.getMessageCount());
+    }
+
+    @Test
+    public void testAwaitTransitStatusReached()
+        throws Exception
+    {
+        PendingReply inTransit = awaitTransit(1, "FRED", 0, BoardStatusMessage.Status.IN_TRANSIT, 20000);
+        PendingReply complete = awaitTransit(1, "FRED", 0, BoardStatusMessage.Status.COMPLETE, 20000);
+
+        assertFalse(inTransit.isDone());
+
+        command(CommandMessage.Type.INITIATE_INTRANSIT_BOARD, new TransitBoardMessage(1, "FRED", 0));
+
+        BoardStatusMessage status = getStatus(inTransit);
+
+        assertEquals(BoardStatusMessage.Status.IN_TRANSIT, status.getStatus());
+        assertEquals(0, status.getMessageCount());
+        assertFalse(complete.isDone());
+
+        command(CommandMessage.Type.TRANSFER_TO_BOARD_ENDED, new TransitBoardMessage(1, "FRED", 0));
+
+        assertEquals(BoardStatusMessage.Status.COMPLETE, getStatus(complete).getStatus());
+
+        // already at the status, so no wait at all.
+        PendingReply again = awaitTransit(1, "FRED", 0, BoardStatusMessage.Status.COMPLETE, 20000);
+
+        assertTrue(again.isDone());
+    }
+
+    @Test
+    public void testAwaitDoesNotCreateTransitBoard()
+        throws Exception
+    {
+        // completed without the transit board ever being opened - the count should say there's no board.
+        command(CommandMessage.Type.TRANSFER_TO_BOARD_ENDED, new TransitBoardMessage(2, "FRED", 1));
+
+        BoardStatusMessage status = getStatus(awaitTransit(2, "FRED", 1, BoardStatusMessage.Status.COMPLETE, 20000));
+
+        assertEquals(BoardStatusMessage.Status.COMPLETE, status.getStatus());
+        assertEquals(-1, status.getMessageCount());
+
+        status = getStatus(awaitTransit(2, "FRED", 1, BoardStatusMessage.Status.COMPLETE, 20000));
+
+        assertEquals(-1, status.getMessageCount());
+    }
+
+    @Test
+    public void testAwaitHostedStatus()
+        throws Exception
+    {
+        command(CommandMessage.Type.BOARD_CREATE, new CreateBoardMessage("FRED", null));
+
+        MessageReply reply = service.handle(new ClientMessage(ClientMessage.Type.UPLOAD_TO_BOARD, new BoardUploadMessage("FRED", new byte[][] { new byte[] { 1 }, new byte[] { 2 } })));
+
+        assertEquals(MessageReply.Type.OKAY, reply.getType());
+
+        command(CommandMessage.Type.BOARD_SHUFFLE_LOCK, new BoardMessage("FRED"));
+
+        PendingReply pendingReply = service.handleAsync(new CommandMessage(CommandMessage.Type.AWAIT_BOARD_STATUS, new AwaitBoardStatusMessage("FRED", BoardStatusMessage.Status.COMPLETE, 20000)));
+
+        assertFalse(pendingReply.isDone());
+
+        command(CommandMessage.Type.BOARD_SHUFFLE_UNLOCK, new BoardMessage("FRED"));
+
+        BoardStatusMessage status = getStatus(pendingReply);
+
+        assertEquals(BoardStatusMessage.Status.COMPLETE, status.getStatus());
+        assertEquals(2, status.getMessageCount());
+    }
+
+    @Test
+    public void testManyWaiters()
+        throws Exception
+    {
+        PendingReply[] pendingReplies = new PendingReply[200];
+
+        for (int i = 0; i != pendingReplies.length; i++)
+        {
+            pendingReplies[i] = awaitTransit(3, "FRED", 0, BoardStatusMessage.Status.COMPLETE, 20000);
+        }
+
+        command(CommandMessage.Type.TRANSFER_TO_BOARD_ENDED, new TransitBoardMessage(3, "FRED", 0));
+
+        for (int i = 0; i != pendingReplies.length; i++)
+        {
+            assertEquals(BoardStatusMessage.Status.COMPLETE, getStatus(pendingReplies[i]).getStatus());
+        }
+    }
+
+    private PendingReply awaitTransit(long operationNumber, String boardName, int stepNumber, BoardStatusMessage.Status status, long maxWait)
+    {
+        return service.handleAsync(new CommandMessage(CommandMessage.Type.AWAIT_BOARD_STATUS, new AwaitBoardStatusMessage(operationNumber, boardName, stepNumber, status, maxWait)));
+    }
+
+    private void command(CommandMessage.Type type, ASN1Encodable payload)
+    {
+        assertEquals(MessageReply.Type.OKAY, service.handle(new CommandMessage(type, payload)).getType());
+    }
+
+    private BoardStatusMessage getStatus(PendingReply pendingReply)
+        throws InterruptedException
+    {
+        MessageReply reply = pendingReply.get();
+
+        assertEquals(MessageReply.Type.OKAY, reply.getType());
+
+        return BoardStatusMessage.getInstance(reply.getPayload());
+    }
+
+    private static Element parse(String xml)
+        throws Exception
+    {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8"))).getDocumentElement();
+    }
+}
@@ -0,0 +1,530 @@
+package org.cryptoworkshop.ximix.node.mixnet.test;
+
+import java.io.ByteArrayInputStream;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.cryptoworkshop.ximix.client.connection.ServiceConnectionException;
+import org.cryptoworkshop.ximix.client.connection.ServicesConnection;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardDigestMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardDigestRequestMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.BoardUploadIndexedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CapabilityMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.CommandMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageReply;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageType;
+import org.cryptoworkshop.ximix.common.config.Config;
+import org.cryptoworkshop.ximix.common.util.EventNotifier;
+import org.cryptoworkshop.ximix.node.core.XimixNodeContext;
+import org.cryptoworkshop.ximix.node.crypto.test.TestNotifier;
+import org.cryptoworkshop.ximix.node.mixnet.board.BoardRemoteBackupListener;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoard;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardConfig;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardImpl;
+import org.cryptoworkshop.ximix.node.mixnet.board.MerkleTree;
+import org.cryptoworkshop.ximix.node.mixnet.service.BoardHostingService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+/**
+ * Tests for replication to a backup host, run against a backup node's board hosting service in the same process.
+ */
+public class BoardRemoteBackupListenerTest
+    extends TestCase
+{
+    private XimixNodeContext primaryContext;
+    private XimixNodeContext backupContext;
+    private BoardHostingService backupService;
+    private LocalConnection backupConnection;
+    private BulletinBoard board;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        if (Security.getProvider("BC") == null)
+        {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
+        backupContext = createContext("B", new HashMap<String, ServicesConnection>());
+        backupService = new BoardHostingService(backupContext, new Config(parse("<service></service>")));
+        backupConnection = new LocalConnection();
+
+        Map<String, ServicesConnection> peers = new HashMap<>();
+
+        peers.put("B", backupConnection);
+
+        primaryContext = createContext("A", peers);
+
+        board = new BulletinBoardImpl("FRED", null, Executors.newSingleThreadExecutor(), new TestNotifier());
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        board.shutdown();
+
+        primaryContext.shutdown(5, TimeUnit.SECONDS);
+        backupContext.shutdown(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testResyncAfterOutage()
+        throws Exception
+    {
+        BoardRemoteBackupListener listener = createListener(100, 2, 10000);
+
+        board.addListener(listener);
+
+        backupConnection.isDown = true;
+
+        for (int i = 0; i != 500; i++)
+        {
+            board.postMessage(message(i));
+        }
+
+        backupConnection.isDown = false;
+
+        listener.startResync(board);
+
+        waitForMatch(board);
+
+        assertEquals(500, fetchRoot().getLimit());
+
+        listener.shutdown();
+    }
+
+    @Test
+    public void testResyncSendsOnlyDifferences()
+        throws Exception
+    {
+        for (int i = 0; i != 1000; i++)
+        {
+            board.postMessage(message(i));
+        }
+
+        // a backup that differs from the board at a single index.
+        uploadToBackup(0, 1000);
+        uploadToBackup(new BoardUploadIndexedMessage("FRED", 517, new byte[][] { new byte[] { 1, 2, 3 } }));
+
+        backupConnection.transferred.set(0);
+
+        BoardRemoteBackupListener listener = createListener(16, 2, 10000);
+
+        listener.startResync(board);
+
+        waitForMatch(board);
+
+        // only the batch sized subtree holding index 517 should have gone over.
+        assertTrue(backupConnection.transferred.get() > 0);
+        assertTrue(backupConnection.transferred.get() <= 16);
+
+        listener.shutdown();
+    }
+
+    @Test
+    public void testResyncTruncatesLongerBackup()
+        throws Exception
+    {
+        for (int i = 0; i != 100; i++)
+        {
+            board.postMessage(message(i));
+        }
+
+        // the backup picked up messages the board no longer has, the walk alone would never reach them.
+        uploadToBackup(0, 150);
+
+        BoardRemoteBackupListener listener = createListener(16, 2, 10000);
+
+        listener.startResync(board);
+
+        waitForMatch(board);
+
+        BoardDigestMessage root = fetchRoot();
+
+        assertEquals(100, root.getLimit());
+        assertEquals(board.getMerkleTree().getHeight(), root.getHeight());
+
+        listener.shutdown();
+    }
+
+    @Test
+    public void testResyncKeepsLaterPosts()
+        throws Exception
+    {
+        for (int i = 0; i != 100; i++)
+        {
+            board.postMessage(message(i));
+        }
+
+        uploadToBackup(0, 150);
+
+        BoardRemoteBackupListener listener = createListener(16, 2, 10000);
+
+        board.addListener(listener);
+
+        listener.startResync(board);
+
+        // posts made while the resync is running must survive the truncate.
+        for (int i = 100; i != 120; i++)
+        {
+            board.postMessage(message(i + 1000));
+        }
+
+        waitForMatch(board);
+
+        assertEquals(120, fetchRoot().getLimit());
+
+        listener.shutdown();
+    }
+
+    @Test
+    public void testPipelining()
+        throws Exception
+    {
+        BoardRemoteBackupListener listener = createListener(10, 3, 10000);
+
+        board.addListener(listener);
+
+        backupConnection.gate = new CountDownLatch(1);
+
+        uploadToBackup(0, 0);
+
+        for (int i = 0; i != 100; i++)
+        {
+            board.postMessage(message(i));
+        }
+
+        // the batches are held at the backup, so only inFlight of them should be out at once.
+        waitForActive(3);
+
+        Thread.sleep(200);
+
+        assertEquals(3, backupConnection.maxActive.get());
+        assertEquals(100, listener.getLag());
+
+        backupConnection.gate.countDown();
+
+        waitForMatch(board);
+        waitForLag(listener, 0);
+
+        assertEquals(3, backupConnection.maxActive.get());
+        assertEquals(100, backupConnection.transferred.get());
+
+        listener.shutdown();
+    }
+
+    @Test
+    public void testBackpressure()
+        throws Exception
+    {
+        BoardRemoteBackupListener listener = createListener(10, 2, 20);
+
+        board.addListener(listener);
+
+        final CountDownLatch caughtUp = new CountDownLatch(1);
+        Runnable task = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                caughtUp.countDown();
+            }
+        };
+
+        // nothing outstanding, so no wait.
+        listener.runWhenCaughtUp(task);
+
+        assertEquals(0, caughtUp.getCount());
+
+        backupConnection.gate = new CountDownLatch(1);
+
+        uploadToBackup(0, 0);
+
+        for (int i = 0; i != 50; i++)
+        {
+            board.postMessage(message(i));
+        }
+
+        waitForActive(2);
+
+        final CountDownLatch released = new CountDownLatch(1);
+
+        listener.runWhenCaughtUp(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                released.countDown();
+            }
+        });
+
+        assertFalse(released.await(200, TimeUnit.MILLISECONDS));
+
+        backupConnection.gate.countDown();
+
+        assertTrue(released.await(20, TimeUnit.SECONDS));
+
+        waitForMatch(board);
+
+        listener.shutdown();
+    }
+
+    @Test
+    public void testLagKeptOnFailure()
+        throws Exception
+    {
+        BoardRemoteBackupListener listener = createListener(10, 2, 10000);
+
+        board.addListener(listener);
+
+        backupConnection.isDown = true;
+
+        for (int i = 0; i != 30; i++)
+        {
+            board.postMessage(message(i));
+        }
+
+        long deadline = System.currentTimeMillis() + 20000;
+        while (backupConnection.failed.get() != 30)
+        {
+            assertTrue("sends never failed", System.currentTimeMillis() < deadline);
+
+            Thread.sleep(20);
+        }
+
+        Thread.sleep(100);
+
+        // the failed messages are still missing from the backup.
+        assertEquals(30, listener.getLag());
+
+        backupConnection.isDown = false;
+
+        // picked up by the resync the failures scheduled.
+        waitForMatch(board);
+        waitForLag(listener, 0);
+
+        listener.shutdown();
+    }
+
+    private BoardRemoteBackupListener createListener(int batchSize, int inFlight, int lagThreshold)
+        throws Exception
+    {
+        BulletinBoardConfig boardConfig = new BulletinBoardConfig(parse("<boards><replication><batchSize>" + batchSize + "</batchSize><inFlight>" + inFlight
+            + "</inFlight><lagThreshold>" + lagThreshold + "</lagThreshold></replication></boards>"));
+
+        return new BoardRemoteBackupListener(primaryContext, "B", boardConfig, null);
+    }
+
+    private void uploadToBackup(int start, int end)
+    {
+        assertEquals(MessageReply.Type.OKAY, backupService.handle(new CommandMessage(CommandMessage.Type.BACKUP_BOARD_CREATE, new BoardMessage("FRED"))).getType());
+
+        byte[][] messages = new byte[end - start][];
+        for (int i = start; i != end; i++)
+        {
+            messages[i - start] = message(i);
+        }
+
+        uploadToBackup(new BoardUploadIndexedMessage("FRED", start, messages));
+    }
+
+    private void uploadToBackup(BoardUploadIndexedMessage uploadMessage)
+    {
+        assertEquals(MessageReply.Type.OKAY, backupService.handle(new CommandMessage(CommandMessage.Type.TRANSFER_TO_BACKUP_BOARD, uploadMessage)).getType());
+    }
+
+    private void waitForActive(int count)
+        throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 20000;
+
+        while (backupConnection.active.get() != count)
+        {
+            assertTrue("sends never reached the backup", System.currentTimeMillis() < deadline);
+
+            Thread.sleep(20);
+        }
+    }
+
+    private void waitForLag(BoardRemoteBackupListener listener, int lag)
+        throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 20000;
+
+        while (listener.getLag() != lag)
+        {
+            assertTrue("lag never reached " + lag, System.currentTimeMillis() < deadline);
+
+            Thread.sleep(20);
+        }
+    }
+
+    private BoardDigestMessage fetchRoot()
+    {
+        MessageReply reply = backupService.handle(new CommandMessage(CommandMessage.Type.FETCH_BOARD_DIGEST, new BoardDigestRequestMessage("FRED", true)));
+
+        if (reply.getType() != MessageReply.Type.OKAY)
+        {
+            return null;    // no backup board yet.
+        }
+
+        return BoardDigestMessage.getInstance(reply.getPayload());
+    }
+
+    private void waitForMatch(BulletinBoard board)
+        throws InterruptedException
+    {
+        MerkleTree tree = board.getMerkleTree();
+        long deadline = System.currentTimeMillis() + 20000;
+
+        for (;;)
+        {
+            BoardDigestMessage root = fetchRoot();
+
+            if (root != null && root.getLimit() == tree.getLimit() && Arrays.equals(tree.getRootHash(), root.getHashes()[0]))
+            {
+                return;
+            }
+
+            assertTrue("backup never matched board", System.currentTimeMillis() < deadline);
+
+            Thread.sleep(50);
+        }
+    }
+
+    private static byte[] message(int i)
+    {
+        return new byte[] { (byte)(i >> 8), (byte)i, 0x42 };
+    }
+
+    private static XimixNodeContext createContext(String name, Map<String, ServicesConnection> peers)
+        throws Exception
+    {
+        return new XimixNodeContext(peers, new Config(parse("<config><name>" + name + "</name><trustAnchor>trustCa</trustAnchor><keyManagerStore>nodeCaStore</keyManagerStore>"
+            + "<keyManagerPassword>Hello</keyManagerPassword><portNo>0</portNo><portBacklog>10</portBacklog>"
+            + "<portAddress>127.0.0.1</portAddress><description></description><services></services></config>")), new TestNotifier());
+    }
+
+    private static Element parse(String xml)
+        throws Exception
+    {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8"))).getDocumentElement();
+    }
+
+    /**
+     * Connection straight to the backup node's board hosting service, which can be marked as down.
+     */
+    private class LocalConnection
+        implements ServicesConnection
+    {
+        private final AtomicInteger transferred = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger active = new AtomicInteger();
+        private final AtomicInteger maxActive = new AtomicInteger();
+
+        private volatile boolean isDown;
+        private volatile CountDownLatch gate;
+
+        @Override
+        public void activate()
+        {
+        }
+
+        @Override
+        public CapabilityMessage[] getCapabilities()
+        {
+            return new CapabilityMessage[] { backupService.getCapability() };
+        }
+
+        @Override
+        public EventNotifier getEventNotifier()
+        {
+            return new TestNotifier();
+        }
+
+        @Override
+        public MessageReply sendMessage(MessageType type, ASN1Encodable messagePayload)
+            throws ServiceConnectionException
+        {
+            if (type != CommandMessage.Type.TRANSFER_TO_BACKUP_BOARD)
+            {
+                return deliver(type, messagePayload);
+            }
+
+            int count = BoardUploadIndexedMessage.getInstance(messagePayload).getData().length;
+
+            if (isDown)
+            {
+                failed.addAndGet(count);
+            }
+
+            int now = active.incrementAndGet();
+
+            for (;;)
+            {
+                int max = maxActive.get();
+                if (now <= max || maxActive.compareAndSet(max, now))
+                {
+                    break;
+                }
+            }
+
+            try
+            {
+                CountDownLatch currentGate = gate;
+
+                if (currentGate != null && !currentGate.await(20, TimeUnit.SECONDS))
+                {
+                    throw new ServiceConnectionException("gate never opened");
+                }
+
+                MessageReply reply = deliver(type, messagePayload);
+
+                transferred.addAndGet(count);
+
+                return reply;
+            }
+            catch (InterruptedException e)
+            {
+                throw new ServiceConnectionException("interrupted");
+            }
+            finally
+            {
+                active.decrementAndGet();
+            }
+        }
+
+        private MessageReply deliver(MessageType type, ASN1Encodable messagePayload)
+            throws ServiceConnectionException
+        {
+            if (isDown)
+            {
+                throw new ServiceConnectionException("backup down");
+            }
+
+            return backupService.handle(new CommandMessage((CommandMessage.Type)type, messagePayload));
+        }
+
+        @Override
+        public void shutdown()
+        {
+        }
+    }
+}
@@ -0,0 +1,592 @@
+package org.cryptoworkshop.ximix.node.mixnet.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.cryptoworkshop.ximix.client.connection.ServicesConnection;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageCommitment;
+import org.cryptoworkshop.ximix.common.asn1.message.MessageWitnessBlock;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
+import org.cryptoworkshop.ximix.common.asn1.message.TranscriptBlock;
+import org.cryptoworkshop.ximix.common.config.Config;
+import org.cryptoworkshop.ximix.common.util.TranscriptType;
+import org.cryptoworkshop.ximix.common.util.challenge.SerialChallenger;
+import org.cryptoworkshop.ximix.node.core.XimixNodeContext;
+import org.cryptoworkshop.ximix.node.crypto.test.TestNotifier;
+import org.cryptoworkshop.ximix.node.mixnet.board.BoardSnapshot;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoard;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardConfig;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardRegistry;
+import org.cryptoworkshop.ximix.node.mixnet.transform.Transform;
+import org.cryptoworkshop.ximix.node.service.CrossSection;
+import org.cryptoworkshop.ximix.node.service.Decoupler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+public class BulletinBoardRegistryTest
+    extends TestCase
+{
+    private static final int MESSAGE_COUNT = 1500;
+
+    private File homeDirectory;
+    private File boardDirectory;
+    private XimixNodeContext nodeContext;
+    private boolean isInMemory;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        if (Security.getProvider("BC") == null)
+        {
+            Security.addProvider(new BouncyCastleProvider());
+        }
+
+        homeDirectory = Files.createTempDirectory("registry").toFile();
+        boardDirectory = new File(homeDirectory, "boards");
+
+        final File home = homeDirectory;
+
+        nodeContext = new XimixNodeContext(new HashMap<String, ServicesConnection>(), new Config(parse("<config><name>A</name><trustAnchor>trustCa</trustAnchor><keyManagerStore>nodeCaStore</keyManagerStore>"
+            + "<keyManagerPassword>Hello</keyManagerPassword><portNo>0</portNo><portBacklog>10</portBacklog>"
+            + "<portAddress>127.0.0.1</portAddress><description></description><services></services></config>")), new TestNotifier())
+        {
+            @Override
+            public File getHomeDirectory()
+            {
+                return isInMemory ? null : home;
+            }
+        };
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        nodeContext.shutdown(5, TimeUnit.SECONDS);
+
+        delete(homeDirectory);
+    }
+
+    @Test
+    public void testArchiveAndRestore()
+        throws Exception
+    {
+        BulletinBoardRegistry registry = createRegistry();
+        BulletinBoard transitBoard = registry.getTransitBoard(1, "FRED", 1);
+
+        fill(transitBoard);
+
+        List<byte[]> general = fetchTranscript(transitBoard, TranscriptType.GENERAL);
+        List<byte[]> witnesses = fetchTranscript(transitBoard, TranscriptType.WITNESSES);
+
+        registry.archiveTransitBoard(1, 1);
+
+        // the transit board has gone, and the archive answers for it.
+        assertFalse(new File(boardDirectory, "1.FRED.1").exists());
+        assertTrue(new File(boardDirectory, "1.FRED.1.archive").exists());
+        assertTranscript(general, registry.getTransitBoard(1, 1), TranscriptType.GENERAL);
+        assertTranscript(witnesses, registry.getTransitBoard(1, 1), TranscriptType.WITNESSES);
+
+        registry.getTransitBoard(1, 1).shutdown();
+
+        // after a restart the archive is found again.
+        registry = createRegistry();
+
+        BulletinBoard archive = registry.getTransitBoard(1, 1);
+
+        assertEquals("FRED", archive.getName());
+        assertEquals(MESSAGE_COUNT, archive.size());
+        assertTranscript(general, archive, TranscriptType.GENERAL);
+        assertTranscript(witnesses, archive, TranscriptType.WITNESSES);
+
+        archive.shutdown();
+    }
+
+    @Test
+    public void testRestoreAfterInterruptedArchive()
+        throws Exception
+    {
+        BulletinBoardRegistry registry = createRegistry();
+
+        fill(registry.getTransitBoard(1, "FRED", 1));
+        registry.archiveTransitBoard(1, 1);
+        registry.getTransitBoard(1, 1).shutdown();
+
+        fill(registry.getTransitBoard(1, "FRED", 2));
+        registry.getTransitBoard(1, 2).shutdown();
+
+        // a transit board that was archived but not yet deleted, and an archive that was never finished.
+        touch(new File(boardDirectory, "1.FRED.1"));
+        touch(new File(boardDirectory, "1.FRED.2.archive.tmp"));
+
+        registry = createRegistry();
+
+        assertFalse(new File(boardDirectory, "1.FRED.1").exists());
+        assertFalse(new File(boardDirectory, "1.FRED.2.archive.tmp").exists());
+
+        // the first is still served from its archive, the second is still the transit board.
+        assertEquals(MESSAGE_COUNT, registry.getTransitBoard(1, 1).size());
+        assertEquals(MESSAGE_COUNT, registry.getTransitBoard(1, 2).size());
+        assertTrue(new File(boardDirectory, "1.FRED.2").exists());
+
+        registry.getTransitBoard(1, 1).shutdown();
+        registry.getTransitBoard(1, 2).shutdown();
+    }
+
+    @Test
+    public void testPromotion()
+        throws Exception
+    {
+        BulletinBoardRegistry registry = createRegistry();
+
+        registry.createBoard("FRED").postMessage(new byte[] { 1 });
+
+        BulletinBoard transitBoard = registry.getTransitBoard(1, "FRED", 3);
+
+        fill(transitBoard);
+
+        List<byte[]> general = fetchTranscript(transitBoard, TranscriptType.GENERAL);
+        List<byte[]> witnesses = fetchTranscript(transitBoard, TranscriptType.WITNESSES);
+
+        BulletinBoard board = registry.promoteTransitBoard(1, "FRED", 3);
+
+        assertSame(board, registry.getBoard("FRED"));
+        assertNotSame(board, registry.getTransitBoard(1, 3));
+        assertEquals(MESSAGE_COUNT, board.size());
+        assertFalse(new File(boardDirectory, "1.FRED.3").exists());
+        assertTrue(new File(boardDirectory, "1.FRED.3.archive").exists());
+        assertEquals(0, new File(boardDirectory, ".superseded").list().length);
+
+        // downloading the board and posting to it again leaves the transcript for the final step alone.
+        board.removeMessages(new PostedMessageBlock.Builder(MESSAGE_COUNT));
+        board.postMessage(new byte[] { 2 });
+
+        assertEquals(1, board.size());
+        assertTranscript(general, registry.getTransitBoard(1, 3), TranscriptType.GENERAL);
+        assertTranscript(witnesses, registry.getTransitBoard(1, 3), TranscriptType.WITNESSES);
+
+        board.shutdown();
+        registry.getTransitBoard(1, 3).shutdown();
+
+        // and so does a restart.
+        registry = createRegistry();
+
+        assertEquals(1, registry.getBoard("FRED").size());
+        assertTranscript(general, registry.getTransitBoard(1, 3), TranscriptType.GENERAL);
+        assertTranscript(witnesses, registry.getTransitBoard(1, 3), TranscriptType.WITNESSES);
+
+        // a later promotion to the same board keeps the transcripts of both.
+        fill(registry.getTransitBoard(2, "FRED", 3));
+        registry.promoteTransitBoard(2, "FRED", 3).shutdown();
+
+        registry = createRegistry();
+
+        assertEquals(MESSAGE_COUNT, registry.getBoard("FRED").size());
+        assertEquals(MESSAGE_COUNT, registry.getTransitBoard(2, 3).size());
+        assertTranscript(general, registry.getTransitBoard(1, 3), TranscriptType.GENERAL);
+
+        registry.getBoard("FRED").shutdown();
+        registry.getTransitBoard(1, 3).shutdown();
+        registry.getTransitBoard(2, 3).shutdown();
+    }
+
+    @Test
+    public void testPromotionInMemory()
+        throws Exception
+    {
+        // without a home directory the registry keeps everything in memory.
+        isInMemory = true;
+
+        BulletinBoardRegistry registry = createRegistry();
+
+        registry.createBoard("FRED").postMessage(new byte[] { 1 });
+
+        BulletinBoard transitBoard = registry.getTransitBoard(1, "FRED", 3);
+
+        fill(transitBoard);
+
+        List<byte[]> general = fetchTranscript(transitBoard, TranscriptType.GENERAL);
+
+        BulletinBoard board = registry.promoteTransitBoard(1, "FRED", 3);
+
+        // the hosted board is a copy, so the transit board keeps the transcript.
+        assertEquals(MESSAGE_COUNT, board.size());
+        assertSame(transitBoard, registry.getTransitBoard(1, 3));
+
+        board.removeMessages(new PostedMessageBlock.Builder(MESSAGE_COUNT));
+
+        assertEquals(0, board.size());
+        assertTranscript(general, registry.getTransitBoard(1, 3), TranscriptType.GENERAL);
+
+        board.shutdown();
+        transitBoard.shutdown();
+    }
+
+    @Test
+    public void testRecoveryWhileMovingHostedBoardAside()
+        throws Exception
+    {
+        setUpPromotion();
+
+        // only part of the hosted board had been moved aside, the base file goes last.
+        File supersededDir = new File(boardDirectory, ".superseded");
+
+        supersededDir.mkdir();
+        assertTrue(new File(boardDirectory, "FRED.p").renameTo(new File(supersededDir, "1.FRED.3.p")));
+
+        BulletinBoardRegistry registry = createRegistry();
+
+        // rolled back, the shuffle never happened as far as the hosted board is concerned.
+        assertEquals(1, registry.getBoard("FRED").size());
+        assertEquals(MESSAGE_COUNT, registry.getTransitBoard(1, 3).size());
+        assertNotSame(registry.getBoard("FRED"), registry.getTransitBoard(1, 3));
+        assertEquals(0, supersededDir.list().length);
+
+        registry.getBoard("FRED").shutdown();
+        registry.getTransitBoard(1, 3).shutdown();
+    }
+
+    @Test
+    public void testRecoveryWhileMovingTransitBoard()
+        throws Exception
+    {
+        setUpPromotion();
+
+        // the hosted board had been moved aside, but the transit board was not archived.
+        File supersededDir = new File(boardDirectory, ".superseded");
+
+        supersededDir.mkdir();
+        moveBoard(new File(boardDirectory, "FRED"), new File(supersededDir, "1.FRED.3"));
+
+        BulletinBoardRegistry registry = createRegistry();
+
+        assertEquals(1, registry.getBoard("FRED").size());
+        assertEquals(MESSAGE_COUNT, registry.getTransitBoard(1, 3).size());
+        assertTrue(new File(boardDirectory, "1.FRED.3").exists());
+        assertEquals(0, supersededDir.list().length);
+
+        registry.getBoard("FRED").shutdown();
+        registry.getTransitBoard(1, 3).shutdown();
+    }
+
+    @Test
+    public void testRecoveryBeforeSupersededDeleted()
+        throws Exception
+    {
+        setUpPromotion();
+
+        // both renames were done, but the old hosted board was still waiting to be deleted.
+        File supersededDir = new File(boardDirectory, ".superseded");
+
+        supersededDir.mkdir();
+        moveBoard(new File(boardDirectory, "FRED"), new File(supersededDir, "1.FRED.3"));
+        moveBoard(new File(boardDirectory, "1.FRED.3"), new File(boardDirectory, "FRED"));
+
+        BulletinBoardRegistry registry = createRegistry();
+
+        // rolled forward.
+        assertEquals(MESSAGE_COUNT, registry.getBoard("FRED").size());
+        assertFalse(new File(boardDirectory, "1.FRED.3").exists());
+        assertEquals(0, supersededDir.list().length);
+
+        registry.getBoard("FRED").shutdown();
+    }
+
+    @Test
+    public void testRecoveryAfterArchive()
+        throws Exception
+    {
+        setUpPromotion();
+
+        // the transcript had been archived, but the transit board was not yet in the hosted board's place.
+        File transitFile = new File(boardDirectory, "1.FRED.3");
+        File savedFile = new File(homeDirectory, "1.FRED.3");
+
+        copyBoard(transitFile, savedFile);
+
+        BulletinBoardRegistry registry = createRegistry();
+        List<byte[]> general = fetchTranscript(registry.getTransitBoard(1, 3), TranscriptType.GENERAL);
+
+        registry.archiveTransitBoard(1, 3);
+        registry.getTransitBoard(1, 3).shutdown();
+        registry.getBoard("FRED").shutdown();
+        moveBoard(savedFile, transitFile);
+
+        File supersededDir = new File(boardDirectory, ".superseded");
+
+        supersededDir.mkdir();
+        moveBoard(new File(boardDirectory, "FRED"), new File(supersededDir, "1.FRED.3"));
+
+        registry = createRegistry();
+
+        // rolled forward, with the archive answering for the final step.
+        assertEquals(MESSAGE_COUNT, registry.getBoard("FRED").size());
+        assertFalse(transitFile.exists());
+        assertEquals(0, supersededDir.list().length);
+        assertTranscript(general, registry.getTransitBoard(1, 3), TranscriptType.GENERAL);
+
+        registry.getBoard("FRED").shutdown();
+        registry.getTransitBoard(1, 3).shutdown();
+    }
+
+    @Test
+    public void testFactorPoolKeptInMemory()
+        throws Exception
+    {
+        File factorFile = new File(homeDirectory, "factors");
+        X9ECParameters x9 = CustomNamedCurves.getByName("secp256r1");
+        ECPublicKeyParameters key = new ECPublicKeyParameters(x9.getG().multiply(BigInteger.valueOf(7)).normalize(),
+            new ECDomainParameters(x9.getCurve(), x9.getG(), x9.getN(), x9.getH(), x9.getSeed()));
+
+        // a pool left by an earlier run is removed, and by default no new one is written.
+        touch(factorFile);
+
+        createRegistry().takeReEncryptionFactor("KEY", key);
+
+        assertFalse(factorFile.exists());
+
+        // the pool only goes on disk if asked for.
+        BulletinBoardRegistry registry = createRegistry(new BulletinBoardConfig(parse("<boards><shuffle><factorPoolPersistent>true</factorPoolPersistent></shuffle></boards>")));
+
+        registry.takeReEncryptionFactor("KEY", key);
+
+        assertTrue(factorFile.exists());
+    }
+
+    @Test
+    public void testPointCompressionKept()
+        throws Exception
+    {
+        BulletinBoardConfig boardConfig = new BulletinBoardConfig(parse("<boards><storage><board><name>LOG.*</name><engine>log</engine></board></storage></boards>"));
+        BulletinBoardRegistry registry = createRegistry(boardConfig);
+
+        // one board of each kind, and a backup.
+        for (String boardName : new String[] { "FRED", "LOGFRED" })
+        {
+            registry.createBoard(boardName).postMessage(new byte[] { 1 });
+            registry.setPointCompression(boardName, true);
+            registry.getBoard(boardName).shutdown();
+        }
+
+        registry.createBoard("JIM").shutdown();
+        registry.createBackupBoard("FRED", true).shutdown();
+
+        // the settings come back after a restart.
+        registry = createRegistry(boardConfig);
+
+        assertTrue(registry.isPointCompressed("FRED"));
+        assertTrue(registry.isPointCompressed("LOGFRED"));
+        assertFalse(registry.isPointCompressed("JIM"));
+        assertTrue(registry.getBackupBoard("FRED").isPointCompressed());
+
+        // and survive the hosted board being replaced by a shuffle.
+        fill(registry.getTransitBoard(1, "FRED", 3));
+        registry.promoteTransitBoard(1, "FRED", 3);
+
+        assertTrue(registry.getBoard("FRED").isPointCompressed());
+
+        registry.setPointCompression("LOGFRED", false);
+
+        for (String boardName : new String[] { "FRED", "LOGFRED", "JIM" })
+        {
+            registry.getBoard(boardName).shutdown();
+        }
+
+        registry.getBackupBoard("FRED").shutdown();
+
+        registry = createRegistry(boardConfig);
+
+        assertTrue(registry.isPointCompressed("FRED"));
+        assertFalse(registry.isPointCompressed("LOGFRED"));
+
+        for (String boardName : new String[] { "FRED", "LOGFRED", "JIM" })
+        {
+            registry.getBoard(boardName).shutdown();
+        }
+    }
+
+    @Test
+    public void testSnapshotPin()
+        throws Exception
+    {
+        BulletinBoardRegistry registry = createRegistry();
+        BulletinBoard board = registry.createBoard("FRED");
+
+        board.postMessage(new byte[] { 1 });
+        board.postMessage(new byte[] { 2 });
+
+        BoardSnapshot snapshot = registry.openSnapshot("FRED");
+
+        // a pinned board still takes posts, but nothing can be taken off it.
+        assertFalse(registry.isLocked("FRED"));
+        assertTrue(registry.isRemovalLocked("FRED"));
+
+        board.postMessage(new byte[] { 3 });
+
+        PostedMessageBlock.Builder blockBuilder = new PostedMessageBlock.Builder(10);
+
+        board.fetchMessages(0, snapshot.getEndIndex(), blockBuilder);
+
+        assertEquals(2, snapshot.getSize());
+        assertEquals(2, blockBuilder.build().size());
+
+        registry.closeSnapshot(snapshot.getSnapshotID());
+
+        assertFalse(registry.isRemovalLocked("FRED"));
+
+        registry.downloadLock("FRED");
+
+        assertTrue(registry.isLocked("FRED"));
+        assertTrue(registry.isRemovalLocked("FRED"));
+
+        board.shutdown();
+    }
+
+    /**
+     * Leave a hosted board FRED with one message, and a final transit board for it with MESSAGE_COUNT, both closed.
+     */
+    private void setUpPromotion()
+    {
+        BulletinBoardRegistry registry = createRegistry();
+        BulletinBoard board = registry.createBoard("FRED");
+
+        board.postMessage(new byte[] { 1 });
+        board.shutdown();
+
+        fill(registry.getTransitBoard(1, "FRED", 3));
+        registry.getTransitBoard(1, 3).shutdown();
+    }
+
+    private BulletinBoardRegistry createRegistry()
+    {
+        return createRegistry(new BulletinBoardConfig());
+    }
+
+    private BulletinBoardRegistry createRegistry(BulletinBoardConfig boardConfig)
+    {
+        return new BulletinBoardRegistry(nodeContext, new HashMap<String, Transform>(), boardConfig,
+            new CrossSection(nodeContext.getDecoupler(Decoupler.MONITOR), nodeContext.getEventNotifier()));
+    }
+
+    private static void fill(BulletinBoard board)
+    {
+        PostedMessageBlock.Builder messages = new PostedMessageBlock.Builder(MESSAGE_COUNT);
+        MessageWitnessBlock.Builder witnesses = new MessageWitnessBlock.Builder(MESSAGE_COUNT);
+
+        for (int i = 0; i != MESSAGE_COUNT; i++)
+        {
+            messages.add(i, message(i), new byte[] { 1, (byte)i });
+            witnesses.add(i, new MessageCommitment(MESSAGE_COUNT - 1 - i, new byte[] { 2, (byte)i }));
+        }
+
+        board.postMessageBlock(messages.build());
+        board.postWitnessBlock(witnesses.build());
+    }
+
+    private static List<byte[]> fetchTranscript(BulletinBoard board, TranscriptType type)
+        throws Exception
+    {
+        List<byte[]> blocks = new ArrayList<>();
+        SerialChallenger challenger = new SerialChallenger(board.transcriptSize(type), 0, null);
+
+        while (challenger.hasNext())
+        {
+            blocks.add(board.fetchTranscriptData(type, challenger, new TranscriptBlock.Builder(0, 400)).getEncoded());
+        }
+
+        return blocks;
+    }
+
+    private static void assertTranscript(List<byte[]> expected, BulletinBoard board, TranscriptType type)
+        throws Exception
+    {
+        List<byte[]> actual = fetchTranscript(board, type);
+
+        assertEquals(expected.size(), actual.size());
+
+        for (int i = 0; i != expected.size(); i++)
+        {
+            assertTrue(Arrays.equals(expected.get(i), actual.get(i)));
+        }
+    }
+
+    private static byte[] message(int i)
+    {
+        return new byte[] { (byte)(i >> 8), (byte)i, 0x42 };
+    }
+
+    private static void moveBoard(File from, File to)
+    {
+        // the base file last, as the registry does.
+        for (String suffix : new String[] { ".p", ".t", "" })
+        {
+            File file = new File(from.getPath() + suffix);
+
+            if (file.exists())
+            {
+                assertTrue(file.renameTo(new File(to.getPath() + suffix)));
+            }
+        }
+    }
+
+    private static void copyBoard(File from, File to)
+        throws Exception
+    {
+        for (String suffix : new String[] { ".p", ".t", "" })
+        {
+            File file = new File(from.getPath() + suffix);
+
+            if (file.exists())
+            {
+                Files.copy(file.toPath(), new File(to.getPath() + suffix).toPath());
+            }
+        }
+    }
+
+    private static void touch(File file)
+        throws Exception
+    {
+        new FileOutputStream(file).close();
+    }
+
+    private static void delete(File file)
+    {
+        File[] children = file.listFiles();
+
+        if (children != null)
+        {
+            for (File child : children)
+            {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+    private static Element parse(String xml)
+        throws Exception
+    {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes("UTF-8"))).getDocumentElement();
+    }
+}
@@ -1,17 +1,31 @@
 package org.cryptoworkshop.ximix.node.mixnet.test;
 
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
+import org.bouncycastle.crypto.digests.SHA256Digest;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessage;
+import org.cryptoworkshop.ximix.common.asn1.message.PostedMessageBlock;
+import org.cryptoworkshop.ximix.common.asn1.message.TranscriptBlock;
+import org.cryptoworkshop.ximix.common.util.IndexNumberGenerator;
+import org.cryptoworkshop.ximix.common.util.TranscriptType;
 import org.cryptoworkshop.ximix.node.crypto.test.TestNotifier;
 import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoard;
 import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardBackupListener;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardCommitListener;
+import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardConfig;
 import org.cryptoworkshop.ximix.node.mixnet.board.BulletinBoardImpl;
+import org.cryptoworkshop.ximix.node.mixnet.board.MerkleTree;
+import org.cryptoworkshop.ximix.node.mixnet.board.SegmentedBulletinBoard;
 import org.junit.Test;
 
 /**
@@ -78,4 +92,445 @@ public class BulletinBoardTest
         TestCase.assertTrue("Latch failed.", uploadLatch.await(2, TimeUnit.SECONDS));
         TestCase.assertEquals(1, clearCount.get());
     }
+
+    @Test
+    public void testGroupCommit()
+        throws Exception
+    {
+        ScheduledExecutorService commitScheduler = Executors.newScheduledThreadPool(1);
+        BulletinBoard board = new BulletinBoardImpl("FRED", null, Executors.newSingleThreadExecutor(), commitScheduler, new BulletinBoardConfig(3, 50), new TestNotifier());
+        final CountDownLatch messageLatch = new CountDownLatch(5);
+        final AtomicInteger singlePosts = new AtomicInteger(0);
+        final AtomicInteger groupCount = new AtomicInteger(0);
+        final AtomicInteger expectedStart = new AtomicInteger(0);
+
+        board.addListener(new BulletinBoardBackupListener()
+        {
+            @Override
+            public void cleared(BulletinBoard bulletinBoard)
+            {
+            }
+
+            @Override
+            public void messagePosted(BulletinBoard bulletinBoard, int index, byte[] message)
+            {
+                singlePosts.incrementAndGet();
+            }
+
+            @Override
+            public void messagesPosted(BulletinBoard bulletinBoard, int startIndex, byte[][] messageBatch)
+            {
+                // groups must arrive in order, with no gaps between them.
+                TestCase.assertTrue(expectedStart.compareAndSet(startIndex, startIndex + messageBatch.length));
+                groupCount.incrementAndGet();
+
+                for (int i = 0; i != messageBatch.length; i++)
+                {
+                    messageLatch.countDown();
+                }
+            }
+
+            @Override
+            public void shutdown()
+            {
+
+            }
+        });
+
+        for (int i = 0; i != 5; i++)
+        {
+            TestCase.assertEquals(i, board.postMessage(("Message " + i).getBytes()));
+        }
+
+        board.waitForCommit(4);
+
+        TestCase.assertTrue("Latch failed.", messageLatch.await(2, TimeUnit.SECONDS));
+        TestCase.assertEquals(0, singlePosts.get());
+        TestCase.assertEquals(5, expectedStart.get());
+        TestCase.assertTrue(groupCount.get() < 5);
+        TestCase.assertEquals(5, board.size());
+
+        int index = 0;
+        for (PostedMessage message : board)
+        {
+            TestCase.assertEquals(index, message.getIndex());
+            TestCase.assertTrue(Arrays.equals(("Message " + index).getBytes(), message.getMessage()));
+            index++;
+        }
+        TestCase.assertEquals(5, index);
+
+        board.shutdown();
+        commitScheduler.shutdown();
+    }
+
+    @Test
+    public void testCommitListener()
+        throws Exception
+    {
+        ScheduledExecutorService commitScheduler = Executors.newScheduledThreadPool(1);
+        BulletinBoard board = new BulletinBoardImpl("FRED", null, Executors.newSingleThreadExecutor(), commitScheduler, new BulletinBoardConfig(100, 50), new TestNotifier());
+        final CountDownLatch commitLatch = new CountDownLatch(1);
+        final AtomicInteger committedSize = new AtomicInteger(-1);
+
+        for (int i = 0; i != 3; i++)
+        {
+            board.postMessage(("Message " + i).getBytes());
+        }
+
+        board.addCommitListener(2, new BulletinBoardCommitListener()
+        {
+            @Override
+            public void committed(BulletinBoard bulletinBoard, int index)
+            {
+                committedSize.set(bulletinBoard.transcriptSize(TranscriptType.GENERAL));
+                commitLatch.countDown();
+            }
+
+            @Override
+            public void commitFailed(BulletinBoard bulletinBoard, int index, RuntimeException cause)
+            {
+            }
+        });
+
+        TestCase.assertTrue("Commit latch failed.", commitLatch.await(2, TimeUnit.SECONDS));
+        TestCase.assertEquals(3, committedSize.get());
+
+        // a listener for a message already committed is called straight away.
+        final AtomicInteger committedIndex = new AtomicInteger(-1);
+
+        board.addCommitListener(1, new BulletinBoardCommitListener()
+        {
+            @Override
+            public void committed(BulletinBoard bulletinBoard, int index)
+            {
+                committedIndex.set(index);
+            }
+
+            @Override
+            public void commitFailed(BulletinBoard bulletinBoard, int index, RuntimeException cause)
+            {
+            }
+        });
+
+        TestCase.assertEquals(1, committedIndex.get());
+
+        board.shutdown();
+        commitScheduler.shutdown();
+    }
+
+    @Test
+    public void testGroupCommitFailure()
+        throws Exception
+    {
+        ScheduledExecutorService commitScheduler = Executors.newScheduledThreadPool(1);
+        BulletinBoard board = new BulletinBoardImpl("FRED", null, Executors.newSingleThreadExecutor(), commitScheduler, new BulletinBoardConfig(100, 20), new TestNotifier());
+
+        board.postMessage("Message 0".getBytes());
+        board.postMessage("Message 1".getBytes());
+        board.waitForCommit(1);
+
+        // the board can't store a null message, so this group will never commit.
+        TestCase.assertEquals(2, board.postMessages(new byte[][] { "Message 2".getBytes(), null }));
+
+        final CountDownLatch failureLatch = new CountDownLatch(1);
+
+        board.addCommitListener(3, new BulletinBoardCommitListener()
+        {
+            @Override
+            public void committed(BulletinBoard bulletinBoard, int index)
+            {
+            }
+
+            @Override
+            public void commitFailed(BulletinBoard bulletinBoard, int index, RuntimeException cause)
+            {
+                failureLatch.countDown();
+            }
+        });
+
+        try
+        {
+            board.waitForCommit(3);
+            TestCase.fail("no exception on failed commit");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+
+        TestCase.assertTrue("Failure latch failed.", failureLatch.await(2, TimeUnit.SECONDS));
+
+        // the failed group is dropped without leaving a hole, and the board takes no more posts.
+        TestCase.assertEquals(2, board.size());
+
+        try
+        {
+            board.postMessage("Message 4".getBytes());
+            TestCase.fail("post accepted by failed board");
+        }
+        catch (IllegalStateException e)
+        {
+            // expected
+        }
+
+        int index = 0;
+        for (PostedMessage message : board)
+        {
+            TestCase.assertTrue(Arrays.equals(("Message " + index).getBytes(), message.getMessage()));
+            index++;
+        }
+        TestCase.assertEquals(2, index);
+
+        // clearing the board puts it back into service.
+        board.clear();
+
+        TestCase.assertEquals(0, board.postMessage("Message 0".getBytes()));
+        board.waitForCommit(0);
+        TestCase.assertEquals(1, board.size());
+
+        board.shutdown();
+        commitScheduler.shutdown();
+    }
+
+    @Test
+    public void testSegmentedBoard()
+        throws Exception
+    {
+        File boardDir = File.createTempFile("ximix", "board");
+
+        TestCase.assertTrue(boardDir.delete());
+
+        // small segments so the board spans several files.
+        BulletinBoard board = new SegmentedBulletinBoard("FRED", boardDir, 256, Executors.newSingleThreadExecutor(), new TestNotifier());
+
+        PostedMessageBlock.Builder blockBuilder = new PostedMessageBlock.Builder(20);
+
+        for (int i = 19; i >= 0; i--)
+        {
+            blockBuilder.add(i, ("Message " + i).getBytes(), ("Commitment " + i).getBytes());
+        }
+
+        board.postMessageBlock(blockBuilder.build());
+
+        TestCase.assertEquals(20, board.size());
+
+        int index = 0;
+        for (PostedMessage message : board)
+        {
+            TestCase.assertEquals(index, message.getIndex());
+            TestCase.assertTrue(Arrays.equals(("Message " + index).getBytes(), message.getMessage()));
+            index++;
+        }
+        TestCase.assertEquals(20, index);
+
+        PostedMessageBlock removed = board.removeMessages(new PostedMessageBlock.Builder(5));
+
+        TestCase.assertEquals(5, removed.size());
+        TestCase.assertEquals(0, removed.getMessages().get(0).getIndex());
+
+        board.shutdown();
+
+        board = new SegmentedBulletinBoard("FRED", boardDir, 256, Executors.newSingleThreadExecutor(), new TestNotifier());
+
+        TestCase.assertEquals(20, board.size());
+
+        index = 5;
+        for (PostedMessage message : board)
+        {
+            TestCase.assertEquals(index, message.getIndex());
+            TestCase.assertTrue(Arrays.equals(("Message " + index).getBytes(), message.getMessage()));
+            index++;
+        }
+        TestCase.assertEquals(20, index);
+
+        board.clear();
+
+        TestCase.assertEquals(0, board.size());
+        TestCase.assertFalse(board.iterator().hasNext());
+
+        board.shutdown();
+
+        for (File file : boardDir.listFiles())
+        {
+            file.delete();
+        }
+        boardDir.delete();
+    }
+
+    @Test
+    public void testSegmentedBoardMerkleTreeKept()
+        throws Exception
+    {
+        File boardDir = File.createTempFile("ximix", "board");
+
+        TestCase.assertTrue(boardDir.delete());
+
+        BulletinBoard board = new SegmentedBulletinBoard("FRED", boardDir, 256, Executors.newSingleThreadExecutor(), new TestNotifier());
+
+        for (int i = 0; i != 30; i++)
+        {
+            board.postMessage(("Message " + i).getBytes());
+        }
+
+        board.removeMessages(new PostedMessageBlock.Builder(3));
+
+        byte[] root = board.getMerkleTree().getRootHash();
+
+        board.shutdown();
+
+        File merkleFile = new File(boardDir, "merkle");
+        File staleFile = new File(boardDir, "merkle.stale");
+
+        TestCase.assertTrue(merkleFile.exists());
+        Files.copy(merkleFile.toPath(), staleFile.toPath());
+
+        // the tree is picked up from the side file.
+        board = new SegmentedBulletinBoard("FRED", boardDir, 256, Executors.newSingleThreadExecutor(), new TestNotifier());
+
+        TestCase.assertTrue(Arrays.equals(root, board.getMerkleTree().getRootHash()));
+
+        board.postMessage("Message 30".getBytes());
+
+        root = board.getMerkleTree().getRootHash();
+
+        board.shutdown();
+
+        // a side file which is behind the log is not used, the tree is rebuilt from the log and written out again.
+        Files.copy(staleFile.toPath(), merkleFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+        board = new SegmentedBulletinBoard("FRED", boardDir, 256, Executors.newSingleThreadExecutor(), new TestNotifier());
+
+        TestCase.assertEquals(31, board.size());
+        TestCase.assertTrue(Arrays.equals(root, board.getMerkleTree().getRootHash()));
+
+        board.shutdown();
+
+        for (File file : boardDir.listFiles())
+        {
+            file.delete();
+        }
+        boardDir.delete();
+    }
+
+    @Test
+    public void testMerkleTree()
+        throws Exception
+    {
+        BulletinBoard board1 = new BulletinBoardImpl("FRED", null, Executors.newSingleThreadExecutor(), new TestNotifier());
+        BulletinBoard board2 = new SegmentedBulletinBoard("FRED", null, 1024, Executors.newSingleThreadExecutor(), new TestNotifier());
+
+        byte[][] messages = new byte[11][];
+        for (int i = 0; i != messages.length; i++)
+        {
+            messages[i] = ("Message " + i).getBytes();
+        }
+
+        TestCase.assertTrue(Arrays.equals(board1.getMerkleTree().getRootHash(), board2.getMerkleTree().getRootHash()));
+
+        // same contents posted differently should give the same root.
+        board1.postMessages(messages);
+
+        PostedMessageBlock.Builder blockBuilder = new PostedMessageBlock.Builder(messages.length);
+        for (int i = messages.length - 1; i >= 0; i--)
+        {
+            blockBuilder.add(i, messages[i]);
+        }
+        board2.postMessageBlock(blockBuilder.build());
+
+        TestCase.assertEquals(4, board1.getMerkleTree().getHeight());
+        TestCase.assertTrue(Arrays.equals(board1.getMerkleTree().getRootHash(), board2.getMerkleTree().getRootHash()));
+
+        // a root is the hash of its children
+        byte[] left = board1.getMerkleTree().getNodeHash(3, 0);
+        byte[] right = board1.getMerkleTree().getNodeHash(3, 1);
+        SHA256Digest digest = new SHA256Digest();
+        byte[] root = new byte[digest.getDigestSize()];
+
+        digest.update((byte)0x01);
+        digest.update(left, 0, left.length);
+        digest.update(right, 0, right.length);
+        digest.doFinal(root, 0);
+
+        TestCase.assertTrue(Arrays.equals(root, board1.getMerkleTree().getRootHash()));
+        TestCase.assertTrue(Arrays.equals(MerkleTree.leafHash(10, messages[10]), board1.getMerkleTree().getNodeHash(0, 10)));
+
+        // removal changes the root, and only the path to the removed leaf differs.
+        board1.removeMessages(new PostedMessageBlock.Builder(1));
+
+        TestCase.assertFalse(Arrays.equals(board1.getMerkleTree().getRootHash(), board2.getMerkleTree().getRootHash()));
+        TestCase.assertFalse(Arrays.equals(board1.getMerkleTree().getNodeHash(3, 0), board2.getMerkleTree().getNodeHash(3, 0)));
+        TestCase.assertTrue(Arrays.equals(board1.getMerkleTree().getNodeHash(3, 1), board2.getMerkleTree().getNodeHash(3, 1)));
+
+        board2.removeMessages(new PostedMessageBlock.Builder(1));
+
+        TestCase.assertTrue(Arrays.equals(board1.getMerkleTree().getRootHash(), board2.getMerkleTree().getRootHash()));
+
+        board1.clear();
+
+        TestCase.assertTrue(board1.getMerkleTree().isEmpty());
+
+        board1.shutdown();
+        board2.shutdown();
+    }
+
+    @Test
+    public void testTranscriptLookups()
+        throws Exception
+    {
+        BulletinBoard board = new BulletinBoardImpl("FRED", null, Executors.newSingleThreadExecutor(), new TestNotifier());
+        PostedMessageBlock.Builder blockBuilder = new PostedMessageBlock.Builder(200);
+
+        // 150 to 159 are never posted.
+        for (int i = 0; i != 200; i++)
+        {
+            if (i < 150 || i >= 160)
+            {
+                blockBuilder.add(i, new byte[] { (byte)i, 1 }, new byte[] { (byte)i, 2 });
+            }
+        }
+
+        board.postMessageBlock(blockBuilder.build());
+
+        // runs, jumps back and forward, and runs through a gap and off the end.
+        final int[] indexes = new int[] { 5, 6, 7, 100, 3, 4, 101, 102, 8, 50, 148, 149, 150, 151, 160, 161, 30, 198, 199, 200 };
+
+        TranscriptBlock block = board.fetchTranscriptData(TranscriptType.GENERAL, new IndexNumberGenerator()
+        {
+            int i = 0;
+
+            @Override
+            public boolean hasNext()
+            {
+                return i != indexes.length;
+            }
+
+            @Override
+            public int nextIndex()
+            {
+                return indexes[i++];
+            }
+        }, new TranscriptBlock.Builder(0, indexes.length));
+
+        TestCase.assertEquals(indexes.length, block.size());
+
+        for (int i = 0; i != indexes.length; i++)
+        {
+            PostedMessage message = PostedMessage.getInstance(block.getDetails().getObjectAt(i));
+            int index = indexes[i];
+
+            TestCase.assertEquals(index, message.getIndex());
+
+            if ((index >= 150 && index < 160) || index >= 200)
+            {
+                TestCase.assertNull(message.getMessage());
+            }
+            else
+            {
+                TestCase.assertTrue(Arrays.equals(new byte[] { (byte)index, 1 }, message.getMessage()));
+                TestCase.assertTrue(Arrays.equals(new byte[] { (byte)index, 2 }, message.getCommitment()));
+            }
+        }
+
+        board.shutdown();
+    }
 }
@@ -0,0 +1,156 @@
+/**
+ * Copyright 2013 Crypto Workshop Pty Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.cryptoworkshop.ximix.node.mixnet.test;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import junit.framework.TestCase;
+import org.bouncycastle.util.Pack;
+import org.cryptoworkshop.ximix.node.mixnet.shuffle.PermutationEngine;
+import org.junit.Test;
+
+public class PermutationEngineTest
+    extends TestCase
+{
+    // chi-squared critical values at p = 0.001, the seeds are fixed so the results do not vary between runs.
+    private static final double CRITICAL_23_DF = 49.73;
+    private static final double CRITICAL_7_DF = 24.32;
+
+    @Test
+    public void testPermutationCoverage()
+        throws Exception
+    {
+        int size = 10007;
+        int[] heap = stream(new PermutationEngine(size, seed(1), false), 1000);
+        int[] direct = stream(new PermutationEngine(size, seed(1), true), 333);
+
+        BitSet seen = new BitSet(size);
+        for (int i = 0; i != size; i++)
+        {
+            assertFalse(seen.get(heap[i]));
+            seen.set(heap[i]);
+        }
+        assertEquals(size, seen.cardinality());
+
+        assertTrue(Arrays.equals(heap, direct));
+        assertFalse(Arrays.equals(heap, stream(new PermutationEngine(size, seed(2), false), 1000)));
+
+        PermutationEngine engine = new PermutationEngine(size, seed(1), false);
+        for (int i = 0; i != size; i++)
+        {
+            assertTrue(engine.hasNext());
+            assertEquals(heap[i], engine.nextIndex());
+        }
+        assertFalse(engine.hasNext());
+    }
+
+    @Test
+    public void testPermutationUniformity()
+        throws Exception
+    {
+        // every one of the 24 permutations of 4 indexes should turn up equally often.
+        int trials = 24000;
+        int[] counts = new int[24];
+
+        for (int t = 0; t != trials; t++)
+        {
+            counts[rank(stream(new PermutationEngine(4, seed(t), false), 4))]++;
+        }
+
+        assertTrue(chiSquared(counts, trials / 24.0) < CRITICAL_23_DF);
+
+        // and for a larger permutation each index should be equally likely to land in any position.
+        int size = 8;
+        int[][] positions = new int[size][size];
+
+        for (int t = 0; t != 40000; t++)
+        {
+            int[] perm = stream(new PermutationEngine(size, seed(trials + t), true), size);
+
+            for (int i = 0; i != size; i++)
+            {
+                positions[i][perm[i]]++;
+            }
+        }
+
+        for (int i = 0; i != size; i++)
+        {
+            assertTrue(chiSquared(positions[i], 40000 / (double)size) < CRITICAL_7_DF);
+        }
+    }
+
+    private static int[] stream(PermutationEngine engine, int chunkSize)
+    {
+        int[] perm = new int[engine.size()];
+        int[] chunk = new int[chunkSize];
+        int count = 0;
+        int len;
+
+        while ((len = engine.nextIndexes(chunk)) != 0)
+        {
+            System.arraycopy(chunk, 0, perm, count, len);
+            count += len;
+        }
+
+        assertEquals(perm.length, count);
+
+        return perm;
+    }
+
+    // Lehmer code of the permutation, a number from 0 to n! - 1.
+    private static int rank(int[] perm)
+    {
+        int rank = 0;
+
+        for (int i = 0; i != perm.length; i++)
+        {
+            int smaller = 0;
+            for (int j = i + 1; j != perm.length; j++)
+            {
+                if (perm[j] < perm[i])
+                {
+                    smaller++;
+                }
+            }
+
+            rank = rank * (perm.length - i) + smaller;
+        }
+
+        return rank;
+    }
+
+    private static double chiSquared(int[] counts, double expected)
+    {
+        double sum = 0;
+
+        for (int count : counts)
+        {
+            sum += (count - expected) * (count - expected) / expected;
+        }
+
+        return sum;
+    }
+
+    private static byte[] seed(int value)
+    {
+        byte[] seed = new byte[32];
+
+        Pack.intToBigEndian(value, seed, 0);
+
+        return seed;
+    }
+}
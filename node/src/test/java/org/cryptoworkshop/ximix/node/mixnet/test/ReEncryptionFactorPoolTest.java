@@ -0,0 +1,210 @@
+package org.cryptoworkshop.ximix.node.mixnet.test;
+
+import java.io.File;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import org.bouncycastle.asn1.x9.X9ECParameters;
+import org.bouncycastle.crypto.ec.CustomNamedCurves;
+import org.bouncycastle.crypto.params.ECDomainParameters;
+import org.bouncycastle.crypto.params.ECPublicKeyParameters;
+import org.bouncycastle.util.encoders.Hex;
+import org.cryptoworkshop.ximix.node.crypto.test.TestNotifier;
+import org.cryptoworkshop.ximix.node.mixnet.transform.ReEncryptionFactor;
+import org.cryptoworkshop.ximix.node.mixnet.transform.ReEncryptionFactorPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReEncryptionFactorPoolTest
+    extends TestCase
+{
+    private static final int POOL_SIZE = 4;
+
+    private final SecureRandom random = new SecureRandom();
+
+    private ScheduledExecutorService scheduler;
+    private File directory;
+    private ECDomainParameters domainParameters;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        X9ECParameters x9 = CustomNamedCurves.getByName("secp256r1");
+
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        directory = Files.createTempDirectory("factors").toFile();
+        domainParameters = new ECDomainParameters(x9.getCurve(), x9.getG(), x9.getN(), x9.getH(), x9.getSeed());
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(5, TimeUnit.SECONDS);
+
+        for (File file : directory.listFiles())
+        {
+            file.delete();
+        }
+
+        directory.delete();
+    }
+
+    @Test
+    public void testRefill()
+        throws Exception
+    {
+        ReEncryptionFactorPool pool = new ReEncryptionFactorPool(null, POOL_SIZE, 50, scheduler, new TestNotifier());
+        ECPublicKeyParameters key = createKey();
+
+        // nothing is precomputed until a key has been seen.
+        assertEquals(0, pool.getAvailable("KEY"));
+
+        checkFactor(key, pool.take("KEY", key));
+
+        waitForAvailable(pool, "KEY", POOL_SIZE);
+
+        // topped up to the pool size, and no further.
+        Thread.sleep(200);
+
+        assertEquals(POOL_SIZE, pool.getAvailable("KEY"));
+
+        pool.close();
+    }
+
+    @Test
+    public void testExhaustion()
+        throws Exception
+    {
+        ReEncryptionFactorPool pool = new ReEncryptionFactorPool(null, POOL_SIZE, 500, scheduler, new TestNotifier());
+        ECPublicKeyParameters key = createKey();
+        Set<String> taken = new HashSet<>();
+
+        assertTrue(taken.add(Hex.toHexString(pool.take("KEY", key).getEncoded())));
+
+        waitForAvailable(pool, "KEY", POOL_SIZE);
+
+        // taking a factor holds off the top up, so the pool drains.
+        for (int i = POOL_SIZE - 1; i >= 0; i--)
+        {
+            ReEncryptionFactor factor = pool.take("KEY", key);
+
+            checkFactor(key, factor);
+            assertTrue(taken.add(Hex.toHexString(factor.getEncoded())));
+            assertEquals(i, pool.getAvailable("KEY"));
+        }
+
+        // with the pool empty a fresh factor is generated, and never one handed out before.
+        for (int i = 0; i != 3; i++)
+        {
+            ReEncryptionFactor factor = pool.take("KEY", key);
+
+            checkFactor(key, factor);
+            assertTrue(taken.add(Hex.toHexString(factor.getEncoded())));
+            assertEquals(0, pool.getAvailable("KEY"));
+        }
+
+        // and once left alone it fills again.
+        waitForAvailable(pool, "KEY", POOL_SIZE);
+
+        pool.close();
+    }
+
+    @Test
+    public void testKeyReplaced()
+        throws Exception
+    {
+        ReEncryptionFactorPool pool = new ReEncryptionFactorPool(null, POOL_SIZE, 50, scheduler, new TestNotifier());
+        ECPublicKeyParameters key = createKey();
+
+        pool.take("KEY", key);
+
+        waitForAvailable(pool, "KEY", POOL_SIZE);
+
+        // factors for the old key are no good for a new key with the same ID.
+        ECPublicKeyParameters newKey = createKey();
+
+        checkFactor(newKey, pool.take("KEY", newKey));
+
+        assertEquals(0, pool.getAvailable("KEY"));
+
+        waitForAvailable(pool, "KEY", POOL_SIZE);
+
+        checkFactor(newKey, pool.take("KEY", newKey));
+
+        pool.close();
+    }
+
+    @Test
+    public void testStoredPool()
+        throws Exception
+    {
+        File poolFile = new File(directory, "factors");
+        ReEncryptionFactorPool pool = new ReEncryptionFactorPool(poolFile, POOL_SIZE, 50, scheduler, new TestNotifier());
+        ECPublicKeyParameters key = createKey();
+        Set<String> taken = new HashSet<>();
+
+        pool.take("KEY", key);
+
+        waitForAvailable(pool, "KEY", POOL_SIZE);
+
+        assertTrue(taken.add(Hex.toHexString(pool.take("KEY", key).getEncoded())));
+
+        pool.close();
+
+        // what was taken stays taken across a restart.
+        pool = new ReEncryptionFactorPool(poolFile, POOL_SIZE, 60000, scheduler, new TestNotifier());
+
+        assertEquals(POOL_SIZE - 1, pool.getAvailable("KEY"));
+
+        for (int i = POOL_SIZE - 2; i >= 0; i--)
+        {
+            ReEncryptionFactor factor = pool.take("KEY", key);
+
+            checkFactor(key, factor);
+            assertTrue(taken.add(Hex.toHexString(factor.getEncoded())));
+            assertEquals(i, pool.getAvailable("KEY"));
+        }
+
+        pool.close();
+
+        ReEncryptionFactorPool.delete(poolFile);
+
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    private ECPublicKeyParameters createKey()
+    {
+        BigInteger d = new BigInteger(domainParameters.getN().bitLength() - 1, random);
+
+        return new ECPublicKeyParameters(domainParameters.getG().multiply(d).normalize(), domainParameters);
+    }
+
+    private void checkFactor(ECPublicKeyParameters key, ReEncryptionFactor factor)
+    {
+        assertSame(key, factor.getKey());
+        assertTrue(domainParameters.getG().multiply(factor.getK()).equals(factor.getGamma()));
+        assertTrue(key.getQ().multiply(factor.getK()).equals(factor.getPhi()));
+    }
+
+    private static void waitForAvailable(ReEncryptionFactorPool pool, String keyID, int count)
+        throws InterruptedException
+    {
+        for (int i = 0; i != 200 && pool.getAvailable(keyID) != count; i++)
+        {
+            Thread.sleep(50);
+        }
+
+        assertEquals(count, pool.getAvailable(keyID));
+    }
+}
@@ -36,6 +36,7 @@ import org.bouncycastle.crypto.util.PublicKeyFactory;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.math.ec.ECPoint;
 import org.cryptoworkshop.ximix.client.connection.AdminServicesConnection;
+import org.cryptoworkshop.ximix.client.connection.BulkTransferChannel;
 import org.cryptoworkshop.ximix.client.connection.ServiceConnectionException;
 import org.cryptoworkshop.ximix.client.connection.ServicesConnection;
 import org.cryptoworkshop.ximix.client.connection.signing.BLSSigningService;
@@ -353,6 +354,13 @@ public class CryptoServicesTest
                     return fullMap.get(nodeName).sendMessage(type, messagePayload);
                 }
 
+                @Override
+                public BulkTransferChannel openBulkTransfer(String nodeName, MessageType type, ASN1Encodable messagePayload)
+                    throws ServiceConnectionException
+                {
+                    return null;
+                }
+
                 @Override
                 public void activate()
                     throws ServiceConnectionException
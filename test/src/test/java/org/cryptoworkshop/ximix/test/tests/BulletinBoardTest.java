@@ -3,6 +3,7 @@ package org.cryptoworkshop.ximix.test.tests;
 import java.net.SocketException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -295,4 +296,142 @@ public class BulletinBoardTest
 
     }
 
+    @Test
+    public void testSnapshotDownload()
+        throws Exception
+    {
+        SquelchingThrowableHandler handler = new SquelchingThrowableHandler();
+        handler.squelchType(SocketException.class);
+        handler.setPrintOnly(true);
+
+        final int testSize = 500;
+
+        SecureRandom rand = new SecureRandom();
+
+        ArrayList<byte[]> sourceMessages = new ArrayList<byte[]>();
+
+        for (int t = 0; t < testSize; t++)
+        {
+            byte[] msg = new byte[1024 + rand.nextInt(1024)];
+            rand.nextBytes(msg);
+            sourceMessages.add(msg);
+        }
+
+        XimixNode nodeOne = getXimixNode("/conf/mixnet.xml", "/conf/node1.xml", handler);
+        NodeTestUtil.launch(nodeOne);
+
+        XimixNode nodeTwo = getXimixNode("/conf/mixnet.xml", "/conf/node2.xml", handler);
+        NodeTestUtil.launch(nodeTwo);
+
+        XimixRegistrar adminRegistrar = XimixRegistrarFactory.createAdminServiceRegistrar(ResourceAnchor.load("/conf/mixnet.xml"), new TestNotifier());
+
+        CommandService commandService = adminRegistrar.connect(CommandService.class);
+
+        commandService.createBoard("SNAP", new BoardCreationOptions.Builder("A").build());
+
+        UploadService client = adminRegistrar.connect(UploadService.class);
+
+        for (int t = 0; t < testSize; t++)
+        {
+            client.uploadMessage("SNAP", sourceMessages.get(t));
+        }
+
+        //
+        // two readers at once, neither should disturb the board or the other.
+        //
+        final List<List<byte[]>> downloads = new ArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(2);
+
+        for (int i = 0; i != 2; i++)
+        {
+            final List<byte[]> msgDownloaded = Collections.synchronizedList(new ArrayList<byte[]>());
+
+            downloads.add(msgDownloaded);
+
+            commandService.downloadBoardContents(
+                "SNAP",
+                new DownloadOptions.Builder()
+                    .withSnapshot(true)
+                    .withBlockSize(100).build(),
+                new DownloadOperationListener()
+                {
+                    @Override
+                    public void messageDownloaded(int index, byte[] message, List<byte[]> proofs)
+                    {
+                        msgDownloaded.add(message);
+                    }
+
+                    @Override
+                    public void completed()
+                    {
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void status(String statusObject)
+                    {
+                    }
+
+                    @Override
+                    public void failed(String errorObject)
+                    {
+                        System.err.print(errorObject);
+                    }
+                });
+        }
+
+        TestCase.assertTrue("Download did not complete in time.", latch.await(500, TimeUnit.SECONDS));
+
+        for (List<byte[]> msgDownloaded : downloads)
+        {
+            TestCase.assertEquals("Source message count != downloaded message count.", sourceMessages.size(), msgDownloaded.size());
+
+            for (int t = 0; t < sourceMessages.size(); t++)
+            {
+                TestCase.assertTrue("Source message did not equal downloaded.", Arrays.areEqual(sourceMessages.get(t), msgDownloaded.get(t)));
+            }
+        }
+
+        //
+        // the board should still be intact, and unlocked, after the snapshots are closed.
+        //
+        final List<byte[]> remaining = new ArrayList<>();
+        final CountDownLatch destructiveLatch = new CountDownLatch(1);
+
+        commandService.downloadBoardContents(
+            "SNAP",
+            new DownloadOptions.Builder().build(),
+            new DownloadOperationListener()
+            {
+                @Override
+                public void messageDownloaded(int index, byte[] message, List<byte[]> proofs)
+                {
+                    remaining.add(message);
+                }
+
+                @Override
+                public void completed()
+                {
+                    destructiveLatch.countDown();
+                }
+
+                @Override
+                public void status(String statusObject)
+                {
+                }
+
+                @Override
+                public void failed(String errorObject)
+                {
+                    System.err.print(errorObject);
+                }
+            });
+
+        TestCase.assertTrue("Download did not complete in time.", destructiveLatch.await(500, TimeUnit.SECONDS));
+        TestCase.assertEquals("Snapshot download removed messages.", sourceMessages.size(), remaining.size());
+
+        NodeTestUtil.shutdownNodes();
+        client.shutdown();
+        commandService.shutdown();
+    }
 }
@@ -27,12 +27,15 @@ import java.net.SocketException;
 import java.security.SecureRandom;
 import java.security.Security;
 import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
@@ -51,6 +54,7 @@ import org.bouncycastle.math.ec.ECPoint;
 import org.bouncycastle.openssl.PEMParser;
 import org.bouncycastle.operator.jcajce.JcaDigestCalculatorProviderBuilder;
 import org.bouncycastle.util.encoders.Hex;
+import org.cryptoworkshop.ximix.client.BatchShuffleOperationListener;
 import org.cryptoworkshop.ximix.client.BoardCreationOptions;
 import org.cryptoworkshop.ximix.client.CommandService;
 import org.cryptoworkshop.ximix.client.DownloadOperationListener;
@@ -142,8 +146,178 @@ public class ShuffleDownloadDecryptionTest
         doShuffleDownloadTest(1);
     }
 
+    @Test
+    public void testStreamingShuffleVerification()
+        throws Exception
+    {
+        doShuffleDownloadTest(20, true);
+    }
+
+    @Test
+    public void testBatchShuffleVerification()
+        throws Exception
+    {
+        SquelchingThrowableHandler handler = new SquelchingThrowableHandler();
+        handler.squelchType(SocketException.class);
+
+        PEMParser pemParser = new PEMParser(new InputStreamReader(this.getClass().getResourceAsStream("/conf/trustCa.pem")));
+        X509Certificate trustAnchor = new JcaX509CertificateConverter().setProvider("BC").getCertificate((X509CertificateHolder)pemParser.readObject());
+
+        //
+        // Set up nodes.
+        //
+        File tmpDir = File.createTempFile("xmx", ".wrk");
+        tmpDir.delete();
+
+        tmpDir.mkdir();
+
+        for (int i = 1; i <= 5; i++)
+        {
+            NodeTestUtil.launch(getXimixNode(new File(tmpDir, "node" + i), "/conf/mixnet.xml", "/conf/node" + i + ".xml", handler));
+        }
+
+        SecureRandom random = new SecureRandom();
+
+        XimixRegistrar adminRegistrar = XimixRegistrarFactory.createAdminServiceRegistrar(ResourceAnchor.load("/conf/mixnet.xml"), new TestNotifier());
+
+        KeyGenerationService keyGenerationService = adminRegistrar.connect(KeyGenerationService.class);
+
+        KeyGenerationOptions keyGenOptions = new KeyGenerationOptions.Builder(Algorithm.EC_ELGAMAL, "secp256r1")
+            .withThreshold(4)
+            .withNodes("A", "B", "C", "D", "E")
+            .build();
+
+        byte[] encPubKey = keyGenerationService.generatePublicKey("ECKEY", keyGenOptions);
+
+        CommandService commandService = adminRegistrar.connect(CommandService.class);
+        UploadService client = adminRegistrar.connect(UploadService.class);
+
+        final ECPublicKeyParameters pubKey = (ECPublicKeyParameters)PublicKeyFactory.createKey(encPubKey);
+
+        final ECElGamalEncryptor encryptor = new ECElGamalEncryptor();
+
+        encryptor.init(pubKey);
+
+        //
+        // Set up a few boards, each with its own plain text.
+        //
+        final String[] boardNames = { "FRED", "JOE", "JIM" };
+        final int numberOfPoints = 10;
+        final Map<String, Set<ECPoint>> plain1 = new HashMap<>();
+        final Map<String, Set<ECPoint>> plain2 = new HashMap<>();
+
+        for (String boardName : boardNames)
+        {
+            commandService.createBoard(boardName, new BoardCreationOptions.Builder("B").build());
+
+            plain1.put(boardName, new HashSet<ECPoint>());
+            plain2.put(boardName, new HashSet<ECPoint>());
+
+            for (int i = 0; i < numberOfPoints; i++)
+            {
+                ECPoint point1 = generatePoint(pubKey.getParameters(), random);
+                ECPoint point2 = generatePoint(pubKey.getParameters(), random);
+
+                plain1.get(boardName).add(point1);
+                plain2.get(boardName).add(point2);
+
+                client.uploadMessage(boardName, new PairSequence(new ECPair[]{encryptor.encrypt(point1), encryptor.encrypt(point2)}).getEncoded());
+            }
+        }
+
+        //
+        // Shuffle the boards as a batch.
+        //
+        final CountDownLatch shufflerLatch = new CountDownLatch(1);
+
+        final AtomicBoolean shuffleCompleted = new AtomicBoolean(false);
+        final AtomicBoolean shuffleFailed = new AtomicBoolean(false);
+        final Map<String, Long> operationNumbers = new ConcurrentHashMap<>();
+        final Map<String, Map<String, byte[]>> seedCommitmentMaps = new ConcurrentHashMap<>();
+        final Set<String> boardsCompleted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        BatchShuffleOperationListener shuffleListener = new BatchShuffleOperationListener()
+        {
+            @Override
+            public void commit(String boardName, long operationNumber, Map<String, byte[]> seedCommitments)
+            {
+                operationNumbers.put(boardName, operationNumber);
+                seedCommitmentMaps.put(boardName, new HashMap<>(seedCommitments));
+            }
+
+            @Override
+            public void boardCompleted(String boardName, long operationNumber)
+            {
+                TestCase.assertEquals(operationNumbers.get(boardName).longValue(), operationNumber);
+                boardsCompleted.add(boardName);
+            }
+
+            @Override
+            public void boardFailed(String boardName, ShuffleStatus errorObject)
+            {
+                System.err.println("board " + boardName + " failed: " + errorObject.getMessage());
+            }
+
+            @Override
+            public void commit(Map<String, byte[]> seedCommitments)
+            {
+                // reported per board.
+            }
+
+            @Override
+            public void completed()
+            {
+                shuffleCompleted.set(true);
+                shufflerLatch.countDown();
+            }
+
+            @Override
+            public void status(ShuffleStatus statusObject)
+            {
+            }
+
+            @Override
+            public void failed(ShuffleStatus errorObject)
+            {
+                shuffleFailed.set(true);
+                shufflerLatch.countDown();
+            }
+        };
+
+        commandService.doShuffleAndMove(boardNames,
+            new ShuffleOptions.Builder(MultiColumnRowTransform.NAME).withKeyID("ECKEY").withMaxBoardsPerNode(2).build(), shuffleListener, "A", "C", "D");
+
+        shufflerLatch.await();
+
+        TestCase.assertTrue(shuffleCompleted.get());
+        TestCase.assertFalse(shuffleFailed.get());
+        TestCase.assertEquals(new HashSet<>(Arrays.asList(boardNames)), boardsCompleted);
+
+        //
+        // Each board was a shuffle of its own, with its own operation number and transcripts.
+        //
+        TestCase.assertEquals(boardNames.length, new HashSet<>(operationNumbers.values()).size());
+
+        for (String boardName : boardNames)
+        {
+            verifyAndDecrypt(commandService, boardName, operationNumbers.get(boardName), seedCommitmentMaps.get(boardName), trustAnchor, numberOfPoints, pubKey, plain1.get(boardName), plain2.get(boardName));
+        }
+
+        NodeTestUtil.shutdownNodes();
+        client.shutdown();
+        commandService.shutdown();
+
+        delete(tmpDir);
+    }
+
     private void doShuffleDownloadTest(int numberOfPoints)
         throws Exception
+    {
+        doShuffleDownloadTest(numberOfPoints, false);
+    }
+
+    private void doShuffleDownloadTest(int numberOfPoints, boolean isStreaming)
+        throws Exception
     {
         SquelchingThrowableHandler handler = new SquelchingThrowableHandler();
         handler.squelchType(SocketException.class);
@@ -275,7 +449,7 @@ public class ShuffleDownloadDecryptionTest
         };
 
         Operation<ShuffleOperationListener> shuffleOp = commandService.doShuffleAndMove("FRED",
-            new ShuffleOptions.Builder(MultiColumnRowTransform.NAME).withKeyID("ECKEY").build(), shuffleListener, "A", "C", "D");
+            new ShuffleOptions.Builder(MultiColumnRowTransform.NAME).withKeyID("ECKEY").withStreaming(isStreaming).build(), shuffleListener, "A", "C", "D");
 
 
         shufflerLatch.await();
@@ -303,7 +477,20 @@ public class ShuffleDownloadDecryptionTest
         TestCase.assertFalse(shuffleFailed.get());
 
 
-        Map<String, byte[][]> seedAndWitnessesMap = commandService.downloadShuffleSeedsAndWitnesses("FRED", shuffleOp.getOperationNumber(), "A", "C", "D");
+        verifyAndDecrypt(commandService, "FRED", shuffleOp.getOperationNumber(), seedCommitmentMap, trustAnchor, numberOfPoints, pubKey, plain1, plain2);
+
+        NodeTestUtil.shutdownNodes();
+        client.shutdown();
+        commandService.shutdown();
+
+        delete(tmpDir);
+    }
+
+    private void verifyAndDecrypt(CommandService commandService, String boardName, long operationNumber, Map<String, byte[]> seedCommitmentMap, X509Certificate trustAnchor,
+                                  int numberOfPoints, final ECPublicKeyParameters pubKey, final Set<ECPoint> plain1, final Set<ECPoint> plain2)
+        throws Exception
+    {
+        Map<String, byte[][]> seedAndWitnessesMap = commandService.downloadShuffleSeedsAndWitnesses(boardName, operationNumber, "A", "C", "D");
 
         SignedDataVerifier signatureVerifier = new SignedDataVerifier(trustAnchor);
 
@@ -356,7 +543,7 @@ public class ShuffleDownloadDecryptionTest
             }
         };
 
-        commandService.downloadShuffleTranscripts("FRED", shuffleOp.getOperationNumber(), new ShuffleTranscriptOptions.Builder(TranscriptType.GENERAL).build(), transcriptListener, "A", "C", "D");
+        commandService.downloadShuffleTranscripts(boardName, operationNumber, new ShuffleTranscriptOptions.Builder(TranscriptType.GENERAL).build(), transcriptListener, "A", "C", "D");
 
         transcriptCompleted.await();
 
@@ -444,7 +631,7 @@ public class ShuffleDownloadDecryptionTest
             }
         };
 
-        commandService.downloadShuffleTranscripts("FRED", shuffleOp.getOperationNumber(), new ShuffleTranscriptOptions.Builder(TranscriptType.WITNESSES).withChallengeSeed(challengeSeed).build(), transcriptListener, "A", "C", "D");
+        commandService.downloadShuffleTranscripts(boardName, operationNumber, new ShuffleTranscriptOptions.Builder(TranscriptType.WITNESSES).withChallengeSeed(challengeSeed).build(), transcriptListener, "A", "C", "D");
 
         witnessTranscriptCompleted.await();
 
@@ -511,7 +698,7 @@ public class ShuffleDownloadDecryptionTest
 
         final CountDownLatch shuffleOutputDownloadCompleted = new CountDownLatch(1);
 
-        commandService.downloadShuffleResult("FRED", new DownloadShuffleResultOptions.Builder()
+        commandService.downloadShuffleResult(boardName, new DownloadShuffleResultOptions.Builder()
             .withKeyID("ECKEY")
             .withThreshold(4)
             .withPairingEnabled(true)
@@ -549,12 +736,6 @@ public class ShuffleDownloadDecryptionTest
 
         TestCase.assertTrue(plain1.isEmpty());
         TestCase.assertTrue(plain2.isEmpty());
-
-        NodeTestUtil.shutdownNodes();
-        client.shutdown();
-        commandService.shutdown();
-
-        delete(tmpDir);
     }
 
     @Test